@@ -0,0 +1,542 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlets.search;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletPreference;
+import org.apereo.portal.portlet.om.PortletCategory;
+import org.apereo.portal.portlet.registry.IPortletCategoryRegistry;
+import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.apereo.portal.portlet.registry.PortletDefinitionSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory inverted index of the searchable text of every portlet definition: title, name, fname,
+ * description, marketplace keywords and category names. Query terms match indexed words exactly, as
+ * a prefix, anywhere inside the word (so every portlet {@link PortletRegistryUtil#matches(String,
+ * IPortletDefinition)} accepts is still found) or, for longer terms, with one typo. Results are
+ * ranked by which fields matched and how closely. Exact and prefix matches are found by binary
+ * search of the sorted words, infix matches by binary search of the sorted word suffixes and typos
+ * through the single character deletions of each word, so a search does not scan every word.
+ *
+ * <p>A query without any letters or digits, including an empty query, falls back to the substring
+ * match of {@link PortletRegistryUtil#matches(String, IPortletDefinition)} over every definition,
+ * so an empty query still returns every portlet.
+ *
+ * <p>The index follows the {@link PortletDefinitionSnapshot}: it is rebuilt when definitions are
+ * published, edited or deleted, re-reading only the definitions whose text changed. Category
+ * membership can change without saving a definition, so after <code>maxAge</code> milliseconds the
+ * categories are read again with one walk of the category tree. The words are only re-indexed if
+ * that changed the text of a definition.
+ *
+ * @since 5.0
+ */
+@Component
+public class PortletSearchIndex {
+
+    private static final String KEYWORDS_PREFERENCE = "keywords";
+
+    /* Field weights, in the order of PortletText.fields */
+    private static final int[] FIELD_WEIGHTS = {8, 6, 6, 2, 4, 3};
+
+    /* How closely a query term matches an indexed word */
+    private static final double EXACT = 1.0;
+    private static final double PREFIX = 0.75;
+    private static final double INFIX = 0.5;
+    private static final double TYPO = 0.4;
+
+    /* Query terms shorter than this must match exactly, as a prefix or as an infix */
+    private static final int MIN_TYPO_LENGTH = 4;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Autowired private IPortletDefinitionRegistry portletDefinitionRegistry;
+
+    @Autowired private IPortletCategoryRegistry portletCategoryRegistry;
+
+    private long maxAge = 300000L;
+
+    private final Object buildLock = new Object();
+    private volatile Index index;
+
+    @Value("${org.apereo.portal.portlets.search.PortletSearchIndex.maxAge:300000}")
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @param query The user's search terms
+     * @return The matching portlet definitions, best match first. The requester's permissions are
+     *     NOT checked.
+     */
+    public List<IPortletDefinition> search(String query) {
+        final List<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return getIndex().searchText(query != null ? query : "");
+        }
+        return getIndex().search(terms);
+    }
+
+    /* package-private */ Index getIndex() {
+        final PortletDefinitionSnapshot snapshot =
+                portletDefinitionRegistry.getPortletDefinitionSnapshot();
+        Index rslt = index;
+        if (rslt == null || !rslt.isCurrent(snapshot)) {
+            synchronized (buildLock) {
+                rslt = index;
+                if (rslt == null || !rslt.isCurrent(snapshot)) {
+                    final long start = System.currentTimeMillis();
+                    rslt = new Index(snapshot, rslt);
+                    index = rslt;
+                    logger.debug(
+                            "Indexed {} portlet definitions for search in {}ms",
+                            snapshot.getPortletDefinitions().size(),
+                            System.currentTimeMillis() - start);
+                }
+            }
+        }
+        return rslt;
+    }
+
+    /** @return Names of the categories each portlet is directly in, by portlet definition id */
+    /* package-private */ Map<String, Set<String>> readCategoryNames() {
+        final Map<String, Set<String>> rslt = new HashMap<>();
+        final PortletCategory topLevelCategory =
+                portletCategoryRegistry.getTopLevelPortletCategory();
+        if (topLevelCategory == null) {
+            return rslt;
+        }
+
+        final Set<String> visited = new HashSet<>();
+        final Deque<PortletCategory> pending = new ArrayDeque<>();
+        pending.add(topLevelCategory);
+        while (!pending.isEmpty()) {
+            final PortletCategory category = pending.remove();
+            if (!visited.add(category.getId())) {
+                continue;
+            }
+            for (IPortletDefinition portlet : portletCategoryRegistry.getChildPortlets(category)) {
+                final String id = portlet.getPortletDefinitionId().getStringId();
+                Set<String> names = rslt.get(id);
+                if (names == null) {
+                    // Sorted so the text of a definition only changes if its categories do
+                    names = new TreeSet<>();
+                    rslt.put(id, names);
+                }
+                names.add(category.getName());
+            }
+            pending.addAll(portletCategoryRegistry.getChildCategories(category));
+        }
+        return rslt;
+    }
+
+    /* package-private */ PortletText readText(
+            IPortletDefinition portlet, Map<String, Set<String>> categoryNames) {
+        final StringBuilder keywords = new StringBuilder();
+        for (IPortletPreference pref : portlet.getPortletPreferences()) {
+            if (KEYWORDS_PREFERENCE.equalsIgnoreCase(pref.getName())) {
+                for (String value : pref.getValues()) {
+                    keywords.append(value).append(' ');
+                }
+            }
+        }
+        final StringBuilder categories = new StringBuilder();
+        final Set<String> names =
+                categoryNames.get(portlet.getPortletDefinitionId().getStringId());
+        if (names != null) {
+            for (String name : names) {
+                categories.append(name).append(' ');
+            }
+        }
+        return new PortletText(
+                portlet.getTitle(),
+                portlet.getName(),
+                portlet.getFName(),
+                portlet.getDescription(),
+                keywords.toString(),
+                categories.toString());
+    }
+
+    /** Lower-cases the text and splits it into words of letters and digits. */
+    /* package-private */ static List<String> tokenize(String text) {
+        final List<String> rslt = new ArrayList<>();
+        if (text == null) {
+            return rslt;
+        }
+        final String lc = text.toLowerCase();
+        int start = -1;
+        for (int i = 0; i <= lc.length(); i++) {
+            final boolean wordChar = i < lc.length() && Character.isLetterOrDigit(lc.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                rslt.add(lc.substring(start, i));
+                start = -1;
+            }
+        }
+        return rslt;
+    }
+
+    /** Answers if the words are at most one insertion, deletion or substitution apart. */
+    /* package-private */ static boolean isOneEditApart(String a, String b) {
+        if (Math.abs(a.length() - b.length()) > 1) {
+            return false;
+        }
+        final String shorter = a.length() <= b.length() ? a : b;
+        final String longer = a.length() <= b.length() ? b : a;
+        int i = 0;
+        while (i < shorter.length() && shorter.charAt(i) == longer.charAt(i)) {
+            i++;
+        }
+        if (shorter.length() == longer.length()) {
+            return shorter.regionMatches(i + 1, longer, i + 1, shorter.length() - i - 1);
+        }
+        return shorter.regionMatches(i, longer, i + 1, shorter.length() - i);
+    }
+
+    /** The searchable text of one portlet definition. */
+    /* package-private */ static final class PortletText {
+        private final String[] fields;
+
+        PortletText(String... fields) {
+            this.fields = fields;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof PortletText && Arrays.equals(fields, ((PortletText) obj).fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(fields);
+        }
+    }
+
+    /** A portlet definition with its text split into words, each with its best field weight. */
+    private static final class Document {
+        private final IPortletDefinition portlet;
+        private final PortletText text;
+        private final Map<String, Integer> wordWeights;
+
+        private Document(IPortletDefinition portlet, PortletText text) {
+            this.portlet = portlet;
+            this.text = text;
+            this.wordWeights = new HashMap<>();
+            for (int f = 0; f < text.fields.length; f++) {
+                for (String word : tokenize(text.fields[f])) {
+                    final Integer weight = wordWeights.get(word);
+                    if (weight == null || weight < FIELD_WEIGHTS[f]) {
+                        wordWeights.put(word, FIELD_WEIGHTS[f]);
+                    }
+                }
+            }
+        }
+
+        /** Reuses the words of an unchanged definition for its instance in a newer snapshot. */
+        private Document(IPortletDefinition portlet, Document unchanged) {
+            this.portlet = portlet;
+            this.text = unchanged.text;
+            this.wordWeights = unchanged.wordWeights;
+        }
+    }
+
+    /** Index of the first element of the sorted array that is not less than the key */
+    private static int lowerBound(String[] sorted, String key) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (sorted[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** The word itself followed by each distinct word left by deleting one of its characters. */
+    private static Set<String> getDeletions(String word) {
+        final Set<String> rslt = new LinkedHashSet<>();
+        rslt.add(word);
+        for (int i = 0; i < word.length(); i++) {
+            rslt.add(word.substring(0, i) + word.substring(i + 1));
+        }
+        return rslt;
+    }
+
+    /** Words of all documents with their postings, and the lookup structures over the words. */
+    private static final class WordIndex {
+        /* Sorted words, and for each the documents it occurs in with its weight there */
+        private final String[] words;
+        private final int[][] postingDocuments;
+        private final int[][] postingWeights;
+
+        /* Sorted suffixes of every word except the whole word, and the word of each */
+        private final String[] suffixes;
+        private final int[] suffixWords;
+
+        /* Words by themselves and by each one character deletion, to find words one edit away */
+        private final Map<String, int[]> wordsByDeletion;
+
+        private WordIndex(Document[] documents) {
+            final Map<String, List<int[]>> postings = new HashMap<>();
+            for (int i = 0; i < documents.length; i++) {
+                for (Map.Entry<String, Integer> entry : documents[i].wordWeights.entrySet()) {
+                    List<int[]> list = postings.get(entry.getKey());
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        postings.put(entry.getKey(), list);
+                    }
+                    list.add(new int[] {i, entry.getValue()});
+                }
+            }
+            this.words = postings.keySet().toArray(new String[postings.size()]);
+            Arrays.sort(words);
+            this.postingDocuments = new int[words.length][];
+            this.postingWeights = new int[words.length][];
+            for (int w = 0; w < words.length; w++) {
+                final List<int[]> list = postings.get(words[w]);
+                postingDocuments[w] = new int[list.size()];
+                postingWeights[w] = new int[list.size()];
+                for (int p = 0; p < list.size(); p++) {
+                    postingDocuments[w][p] = list.get(p)[0];
+                    postingWeights[w][p] = list.get(p)[1];
+                }
+            }
+
+            final List<Map.Entry<String, Integer>> suffixList = new ArrayList<>();
+            final Map<String, List<Integer>> deletions = new HashMap<>();
+            for (int w = 0; w < words.length; w++) {
+                final String word = words[w];
+                for (int offset = 1; offset < word.length(); offset++) {
+                    suffixList.add(
+                            new AbstractMap.SimpleImmutableEntry<>(word.substring(offset), w));
+                }
+                // A term of MIN_TYPO_LENGTH characters can be one edit from a shorter word
+                if (word.length() >= MIN_TYPO_LENGTH - 1) {
+                    for (String deletion : getDeletions(word)) {
+                        List<Integer> list = deletions.get(deletion);
+                        if (list == null) {
+                            list = new ArrayList<>();
+                            deletions.put(deletion, list);
+                        }
+                        list.add(w);
+                    }
+                }
+            }
+            Collections.sort(
+                    suffixList,
+                    new Comparator<Map.Entry<String, Integer>>() {
+                        @Override
+                        public int compare(
+                                Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+                            return a.getKey().compareTo(b.getKey());
+                        }
+                    });
+            this.suffixes = new String[suffixList.size()];
+            this.suffixWords = new int[suffixList.size()];
+            for (int i = 0; i < suffixes.length; i++) {
+                suffixes[i] = suffixList.get(i).getKey();
+                suffixWords[i] = suffixList.get(i).getValue();
+            }
+            this.wordsByDeletion = new HashMap<>();
+            for (Map.Entry<String, List<Integer>> entry : deletions.entrySet()) {
+                final List<Integer> list = entry.getValue();
+                final int[] wordIndexes = new int[list.size()];
+                for (int i = 0; i < wordIndexes.length; i++) {
+                    wordIndexes[i] = list.get(i);
+                }
+                wordsByDeletion.put(entry.getKey(), wordIndexes);
+            }
+        }
+
+        /** @return How closely each word matching the term matches it, by word index */
+        private Map<Integer, Double> getMatchingWords(String term) {
+            final Map<Integer, Double> rslt = new HashMap<>();
+            for (int w = lowerBound(words, term); w < words.length; w++) {
+                if (!words[w].startsWith(term)) {
+                    break;
+                }
+                rslt.put(w, words[w].length() == term.length() ? EXACT : PREFIX);
+            }
+            for (int s = lowerBound(suffixes, term); s < suffixes.length; s++) {
+                if (!suffixes[s].startsWith(term)) {
+                    break;
+                }
+                if (!rslt.containsKey(suffixWords[s])) {
+                    rslt.put(suffixWords[s], INFIX);
+                }
+            }
+            if (term.length() >= MIN_TYPO_LENGTH) {
+                /*
+                 * Words one edit apart share the term or one of its deletions with the word or one
+                 * of its deletions, the candidates are then checked for transpositions and the like
+                 */
+                for (String deletion : getDeletions(term)) {
+                    final int[] candidates = wordsByDeletion.get(deletion);
+                    if (candidates == null) {
+                        continue;
+                    }
+                    for (int w : candidates) {
+                        if (!rslt.containsKey(w) && isOneEditApart(term, words[w])) {
+                            rslt.put(w, TYPO);
+                        }
+                    }
+                }
+            }
+            return rslt;
+        }
+    }
+
+    /** Immutable index of one snapshot. */
+    /* package-private */ final class Index {
+        private final long snapshotVersion;
+        private final long expires;
+        private final Map<String, Document> documentsById = new HashMap<>();
+        private final Document[] documents;
+        private final WordIndex wordIndex;
+
+        private Index(PortletDefinitionSnapshot snapshot, Index previous) {
+            this.snapshotVersion = snapshot.getVersion();
+            this.expires = System.currentTimeMillis() + maxAge;
+
+            final Map<String, Set<String>> categoryNames = readCategoryNames();
+            final List<IPortletDefinition> portlets = snapshot.getPortletDefinitions();
+            this.documents = new Document[portlets.size()];
+            boolean textChanged = previous == null || previous.documents.length != documents.length;
+            for (int i = 0; i < documents.length; i++) {
+                final IPortletDefinition portlet = portlets.get(i);
+                final String id = portlet.getPortletDefinitionId().getStringId();
+                final PortletText text = readText(portlet, categoryNames);
+                Document doc = previous != null ? previous.documentsById.get(id) : null;
+                if (doc == null || !doc.text.equals(text)) {
+                    doc = new Document(portlet, text);
+                    textChanged = true;
+                } else if (doc.portlet != portlet) {
+                    doc = new Document(portlet, doc);
+                }
+                if (!textChanged && previous.documents[i].text != doc.text) {
+                    // Same definitions in a different order, the postings refer to positions
+                    textChanged = true;
+                }
+                documents[i] = doc;
+                documentsById.put(id, doc);
+            }
+
+            this.wordIndex = textChanged ? new WordIndex(documents) : previous.wordIndex;
+        }
+
+        private boolean isCurrent(PortletDefinitionSnapshot snapshot) {
+            return snapshotVersion == snapshot.getVersion() && System.currentTimeMillis() < expires;
+        }
+
+        /* package-private */ int getWordCount() {
+            return wordIndex.words.length;
+        }
+
+        /* package-private */ boolean sharesWordsWith(Index other) {
+            return wordIndex == other.wordIndex;
+        }
+
+        private List<IPortletDefinition> search(List<String> terms) {
+            final double[] scores = new double[documents.length];
+            final int[] termsMatched = new int[documents.length];
+            final Set<String> distinctTerms = new LinkedHashSet<>(terms);
+            for (String term : distinctTerms) {
+                final Map<Integer, Double> termScores = new HashMap<>();
+                for (Map.Entry<Integer, Double> entry :
+                        wordIndex.getMatchingWords(term).entrySet()) {
+                    final int w = entry.getKey();
+                    final double closeness = entry.getValue();
+                    for (int p = 0; p < wordIndex.postingDocuments[w].length; p++) {
+                        final int doc = wordIndex.postingDocuments[w][p];
+                        final double score = closeness * wordIndex.postingWeights[w][p];
+                        final Double current = termScores.get(doc);
+                        if (current == null || current < score) {
+                            termScores.put(doc, score);
+                        }
+                    }
+                }
+                for (Map.Entry<Integer, Double> entry : termScores.entrySet()) {
+                    scores[entry.getKey()] += entry.getValue();
+                    termsMatched[entry.getKey()]++;
+                }
+            }
+
+            // Every term must match
+            final List<Integer> matches = new ArrayList<>();
+            for (int doc = 0; doc < documents.length; doc++) {
+                if (termsMatched[doc] == distinctTerms.size()) {
+                    matches.add(doc);
+                }
+            }
+            return sort(matches, scores);
+        }
+
+        /** The substring match used before the index, for queries without any words */
+        private List<IPortletDefinition> searchText(String query) {
+            final String lcQuery = query.toLowerCase();
+            final List<Integer> matches = new ArrayList<>();
+            for (int doc = 0; doc < documents.length; doc++) {
+                if (PortletRegistryUtil.matches(lcQuery, documents[doc].portlet)) {
+                    matches.add(doc);
+                }
+            }
+            return sort(matches, new double[documents.length]);
+        }
+
+        private List<IPortletDefinition> sort(List<Integer> matches, final double[] scores) {
+            Collections.sort(
+                    matches,
+                    new Comparator<Integer>() {
+                        @Override
+                        public int compare(Integer a, Integer b) {
+                            final int rslt = Double.compare(scores[b], scores[a]);
+                            return rslt != 0
+                                    ? rslt
+                                    : String.CASE_INSENSITIVE_ORDER.compare(
+                                            documents[a].portlet.getTitle(),
+                                            documents[b].portlet.getTitle());
+                        }
+                    });
+
+            final List<IPortletDefinition> rslt = new ArrayList<>(matches.size());
+            for (Integer doc : matches) {
+                rslt.add(documents[doc].portlet);
+            }
+            return rslt;
+        }
+    }
+}
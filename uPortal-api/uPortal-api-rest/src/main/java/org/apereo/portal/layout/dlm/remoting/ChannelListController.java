@@ -36,6 +36,7 @@ import org.apereo.portal.portlet.om.IPortletDefinitionParameter;
 import org.apereo.portal.portlet.om.PortletCategory;
 import org.apereo.portal.portlet.registry.IPortletCategoryRegistry;
 import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.apereo.portal.portlets.search.PortletSearchIndex;
 import org.apereo.portal.security.IAuthorizationPrincipal;
 import org.apereo.portal.security.IAuthorizationService;
 import org.apereo.portal.security.IPerson;
@@ -81,6 +82,8 @@ public class ChannelListController {
 
     @Autowired private IMarketplaceService marketplaceService;
 
+    @Autowired private PortletSearchIndex portletSearchIndex;
+
     /** @param portletDefinitionRegistry */
     @Autowired
     public void setPortletDefinitionRegistry(IPortletDefinitionRegistry portletDefinitionRegistry) {
@@ -125,13 +128,15 @@ public class ChannelListController {
     /**
      * Original, pre-4.3 version of this API. Always returns the entire contents of the Portlet
      * Registry, including uncategorized portlets, to which the user has access. Access is based on
-     * the SUBSCRIBE permission.
+     * the SUBSCRIBE permission. An optional 'query' parameter limits the registry to the portlets
+     * matching that search.
      */
     @RequestMapping(value = "/portletList", method = RequestMethod.GET)
     public ModelAndView listChannels(
             WebRequest webRequest,
             HttpServletRequest request,
-            @RequestParam(value = "type", required = false) String type) {
+            @RequestParam(value = "type", required = false) String type,
+            @RequestParam(value = "query", required = false) String query) {
 
         if (type != null && TYPE_MANAGE.equals(type)) {
             throw new UnsupportedOperationException(
@@ -139,7 +144,8 @@ public class ChannelListController {
         }
 
         final IPerson user = personManager.getPerson(request);
-        final Map<String, SortedSet<?>> registry = getRegistryOriginal(webRequest, user);
+        final Map<String, SortedSet<?>> registry =
+                getRegistryOriginal(webRequest, user, getMatchingPortletIds(query));
 
         // Since type=manage was deprecated channels is always empty but retained for backwards
         // compatibility
@@ -153,7 +159,9 @@ public class ChannelListController {
      * URL will return the portlet registry beginning with the specified category, including all
      * descendants, and <em>excluding</em> uncategorized portlets. If no 'categoryId' is provided,
      * this method returns the portlet registry beginning with 'All Categories' (the root) and
-     * <em>including</em> uncategorized portlets. Access is based on the SUBSCRIBE permission.
+     * <em>including</em> uncategorized portlets. Access is based on the SUBSCRIBE permission. An
+     * optional 'query' parameter limits the registry to the portlets matching that search, the
+     * categories are returned even if none of their portlets match.
      *
      * @since 4.3
      */
@@ -161,7 +169,8 @@ public class ChannelListController {
     public ModelAndView getPortletRegistry(
             WebRequest webRequest,
             HttpServletRequest request,
-            @RequestParam(value = "categoryId", required = false) String categoryId) {
+            @RequestParam(value = "categoryId", required = false) String categoryId,
+            @RequestParam(value = "query", required = false) String query) {
 
         final PortletCategory rootCategory =
                 categoryId != null
@@ -174,11 +183,40 @@ public class ChannelListController {
 
         final IPerson user = personManager.getPerson(request);
         final Map<String, SortedSet<?>> registry =
-                getRegistry43(webRequest, user, rootCategory, includeUncategorized);
+                getRegistry43(
+                        webRequest,
+                        user,
+                        rootCategory,
+                        includeUncategorized,
+                        getMatchingPortletIds(query));
 
         return new ModelAndView("jsonView", "registry", registry);
     }
 
+    /**
+     * Search the portlet registry through the shared {@link PortletSearchIndex} rather than
+     * matching every portlet in the registry against the query.
+     *
+     * @return Ids of the portlets matching the query, null if there is no query
+     */
+    private Set<String> getMatchingPortletIds(String query) {
+        if (query == null) {
+            return null;
+        }
+
+        final Set<String> rslt = new HashSet<String>();
+        for (IPortletDefinition portlet : portletSearchIndex.search(query)) {
+            rslt.add(portlet.getPortletDefinitionId().getStringId());
+        }
+        return rslt;
+    }
+
+    /** @return true if the portlet is in the search results, or there was no search */
+    private static boolean isMatching(Set<String> matchingPortletIds, IPortletDefinition portlet) {
+        return matchingPortletIds == null
+                || matchingPortletIds.contains(portlet.getPortletDefinitionId().getStringId());
+    }
+
     /*
      * Private methods that support the original (pre-4.3) version of the API
      */
@@ -187,7 +225,8 @@ public class ChannelListController {
      * Gathers and organizes the response based on the specified rootCategory and the permissions of
      * the specified user.
      */
-    private Map<String, SortedSet<?>> getRegistryOriginal(WebRequest request, IPerson user) {
+    private Map<String, SortedSet<?>> getRegistryOriginal(
+            WebRequest request, IPerson user, Set<String> matchingPortletIds) {
 
         /*
          * This collection of all the portlets in the portal is for the sake of
@@ -206,7 +245,12 @@ public class ChannelListController {
         final Locale locale = getUserLocale(user);
         categories.add(
                 prepareCategoryBean(
-                        request, rootCategory, portletsNotYetCategorized, user, locale));
+                        request,
+                        rootCategory,
+                        portletsNotYetCategorized,
+                        matchingPortletIds,
+                        user,
+                        locale));
 
         /*
          * uPortal historically has provided for a convention that portlets not in any category
@@ -231,7 +275,8 @@ public class ChannelListController {
                 messageSource.getMessage(UNCATEGORIZED_DESC, new Object[] {}, locale));
 
         for (IPortletDefinition portlet : portletsNotYetCategorized) {
-            if (authorizationService.canPrincipalBrowse(ap, portlet)) {
+            if (isMatching(matchingPortletIds, portlet)
+                    && authorizationService.canPrincipalBrowse(ap, portlet)) {
                 // construct a new channel bean from this channel
                 ChannelBean channel = getChannel(portlet, request, locale);
                 uncategorizedPortletsBean.addChannel(channel);
@@ -248,6 +293,7 @@ public class ChannelListController {
             WebRequest request,
             PortletCategory category,
             Set<IPortletDefinition> portletsNotYetCategorized,
+            Set<String> matchingPortletIds,
             IPerson user,
             Locale locale) {
 
@@ -263,7 +309,8 @@ public class ChannelListController {
 
         for (IPortletDefinition portlet : portlets) {
 
-            if (authorizationService.canPrincipalBrowse(ap, portlet)) {
+            if (isMatching(matchingPortletIds, portlet)
+                    && authorizationService.canPrincipalBrowse(ap, portlet)) {
                 // construct a new channel bean from this channel
                 ChannelBean channel = getChannel(portlet, request, locale);
                 categoryBean.addChannel(channel);
@@ -282,7 +329,12 @@ public class ChannelListController {
                 this.portletCategoryRegistry.getChildCategories(category)) {
             ChannelCategoryBean childCategoryBean =
                     prepareCategoryBean(
-                            request, childCategory, portletsNotYetCategorized, user, locale);
+                            request,
+                            childCategory,
+                            portletsNotYetCategorized,
+                            matchingPortletIds,
+                            user,
+                            locale);
             categoryBean.addCategory(childCategoryBean);
         }
 
@@ -324,7 +376,8 @@ public class ChannelListController {
             WebRequest request,
             IPerson user,
             PortletCategory rootCategory,
-            boolean includeUncategorized) {
+            boolean includeUncategorized,
+            Set<String> matchingPortletIds) {
 
         /*
          * This collection of all the portlets in the portal is for the sake of
@@ -347,7 +400,12 @@ public class ChannelListController {
         final Locale locale = getUserLocale(user);
         categories.add(
                 preparePortletCategoryBean(
-                        request, rootCategory, portletsNotYetCategorized, user, locale));
+                        request,
+                        rootCategory,
+                        portletsNotYetCategorized,
+                        matchingPortletIds,
+                        user,
+                        locale));
 
         if (includeUncategorized) {
             /*
@@ -365,7 +423,8 @@ public class ChannelListController {
 
             Set<PortletDefinitionBean> marketplacePortlets = new HashSet<>();
             for (IPortletDefinition portlet : portletsNotYetCategorized) {
-                if (authorizationService.canPrincipalBrowse(ap, portlet)) {
+                if (isMatching(matchingPortletIds, portlet)
+                        && authorizationService.canPrincipalBrowse(ap, portlet)) {
                     PortletDefinitionBean pdb =
                             preparePortletDefinitionBean(request, portlet, locale);
                     marketplacePortlets.add(pdb);
@@ -396,6 +455,7 @@ public class ChannelListController {
             WebRequest req,
             PortletCategory category,
             Set<IPortletDefinition> portletsNotYetCategorized,
+            Set<String> matchingPortletIds,
             IPerson user,
             Locale locale) {
 
@@ -405,7 +465,12 @@ public class ChannelListController {
                 this.portletCategoryRegistry.getChildCategories(category)) {
             PortletCategoryBean childBean =
                     preparePortletCategoryBean(
-                            req, childCategory, portletsNotYetCategorized, user, locale);
+                            req,
+                            childCategory,
+                            portletsNotYetCategorized,
+                            matchingPortletIds,
+                            user,
+                            locale);
             subcategories.add(childBean);
         }
 
@@ -418,7 +483,8 @@ public class ChannelListController {
         Set<PortletDefinitionBean> marketplacePortlets = new HashSet<>();
         for (IPortletDefinition portlet : portlets) {
 
-            if (authorizationService.canPrincipalBrowse(ap, portlet)) {
+            if (isMatching(matchingPortletIds, portlet)
+                    && authorizationService.canPrincipalBrowse(ap, portlet)) {
                 PortletDefinitionBean pdb = preparePortletDefinitionBean(req, portlet, locale);
                 marketplacePortlets.add(pdb);
             }
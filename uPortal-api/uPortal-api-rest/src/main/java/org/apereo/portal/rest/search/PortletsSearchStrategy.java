@@ -20,8 +20,8 @@ import java.util.Map;
 import java.util.TreeMap;
 import javax.servlet.http.HttpServletRequest;
 import org.apereo.portal.portlet.om.IPortletDefinition;
-import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
 import org.apereo.portal.portlets.search.PortletRegistryUtil;
+import org.apereo.portal.portlets.search.PortletSearchIndex;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -35,7 +35,7 @@ public class PortletsSearchStrategy implements ISearchStrategy {
 
     private static final String RESULT_TYPE_NAME = "portlets";
 
-    @Autowired private IPortletDefinitionRegistry portletDefinitionRegistry;
+    @Autowired private PortletSearchIndex portletSearchIndex;
 
     @Autowired private PortletRegistryUtil portletRegistryUtil;
 
@@ -48,15 +48,12 @@ public class PortletsSearchStrategy implements ISearchStrategy {
     public List<?> search(String query, HttpServletRequest request) {
         final List<Object> rslt = new ArrayList<>();
 
-        final List<IPortletDefinition> portlets =
-                portletDefinitionRegistry.getAllPortletDefinitions();
+        final List<IPortletDefinition> portlets = portletSearchIndex.search(query);
         for (IPortletDefinition portlet : portlets) {
-            if (portletRegistryUtil.matches(query, portlet)) {
-                /* requester permissions checked in buildPortletUrl() */
-                final String url = portletRegistryUtil.buildPortletUrl(request, portlet);
-                if (url != null) {
-                    rslt.add(getPortletAttrs(portlet, url));
-                }
+            /* requester permissions checked in buildPortletUrl() */
+            final String url = portletRegistryUtil.buildPortletUrl(request, portlet);
+            if (url != null) {
+                rslt.add(getPortletAttrs(portlet, url));
             }
         }
         return rslt;
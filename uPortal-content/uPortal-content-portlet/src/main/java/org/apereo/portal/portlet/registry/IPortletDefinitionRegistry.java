@@ -44,8 +44,15 @@ public interface IPortletDefinitionRegistry {
 
     IPortletDefinition getPortletDefinitionByName(String name);
 
+    /** @return Every portlet definition, from the current {@link PortletDefinitionSnapshot} */
     List<IPortletDefinition> getAllPortletDefinitions();
 
+    /**
+     * Returns an immutable snapshot of all portlet definitions, shared between callers and rebuilt
+     * after definitions are saved or deleted. The definitions it contains must not be modified.
+     */
+    PortletDefinitionSnapshot getPortletDefinitionSnapshot();
+
     /**
      * Persists changes to a IPortletDefinition.
      *
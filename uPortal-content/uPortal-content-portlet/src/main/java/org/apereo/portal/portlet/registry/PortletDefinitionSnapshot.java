@@ -0,0 +1,93 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.registry;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletType;
+
+/**
+ * Immutable view of every portlet definition at one point in time, with lookups by id, fname and
+ * type. A new snapshot, with a higher version, is built after definitions are saved or deleted.
+ *
+ * <p>The definitions are shared by every thread that uses the snapshot and MUST NOT be modified;
+ * load a definition through {@link IPortletDefinitionRegistry#getPortletDefinition(String)} to
+ * change it.
+ */
+public final class PortletDefinitionSnapshot {
+    private final long version;
+    private final List<IPortletDefinition> portletDefinitions;
+    private final Map<String, IPortletDefinition> portletDefinitionsById;
+    private final Map<String, IPortletDefinition> portletDefinitionsByFname;
+    private final ImmutableListMultimap<Integer, IPortletDefinition> portletDefinitionsByType;
+
+    public PortletDefinitionSnapshot(
+            long version, Collection<IPortletDefinition> portletDefinitions) {
+        this.version = version;
+        this.portletDefinitions = ImmutableList.copyOf(portletDefinitions);
+
+        final ImmutableMap.Builder<String, IPortletDefinition> byId = ImmutableMap.builder();
+        final ImmutableMap.Builder<String, IPortletDefinition> byFname = ImmutableMap.builder();
+        final ImmutableListMultimap.Builder<Integer, IPortletDefinition> byType =
+                ImmutableListMultimap.builder();
+        for (final IPortletDefinition portletDefinition : this.portletDefinitions) {
+            byId.put(portletDefinition.getPortletDefinitionId().getStringId(), portletDefinition);
+            byFname.put(portletDefinition.getFName(), portletDefinition);
+            byType.put(portletDefinition.getType().getId(), portletDefinition);
+        }
+        this.portletDefinitionsById = byId.build();
+        this.portletDefinitionsByFname = byFname.build();
+        this.portletDefinitionsByType = byType.build();
+    }
+
+    /** @return Increases each time a snapshot is built, use to tell if derived data is stale */
+    public long getVersion() {
+        return version;
+    }
+
+    /** @return All portlet definitions, in no particular order */
+    public List<IPortletDefinition> getPortletDefinitions() {
+        return portletDefinitions;
+    }
+
+    /** @return The definition with the specified id, null if there is none */
+    public IPortletDefinition getPortletDefinition(String portletDefinitionId) {
+        return portletDefinitionsById.get(portletDefinitionId);
+    }
+
+    /** @return The definition with the specified fname, null if there is none */
+    public IPortletDefinition getPortletDefinitionByFname(String fname) {
+        return portletDefinitionsByFname.get(fname);
+    }
+
+    /** @return The definitions of the specified type, empty if there are none */
+    public List<IPortletDefinition> getPortletDefinitionsByType(IPortletType type) {
+        return portletDefinitionsByType.get(type.getId());
+    }
+
+    @Override
+    public String toString() {
+        return "PortletDefinitionSnapshot [version="
+                + version
+                + ", portletDefinitions="
+                + portletDefinitions.size()
+                + "]";
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Event : UP_USER.NEXT_STRUCT_ID of the indicated user was rewritten outside of the layout store,
+ * for example by a user reset or a user import. Layout stores that hand out structure ids from
+ * blocks reserved in memory discard the user's block when they receive it.
+ *
+ * @since 5.0
+ */
+public class StructIdsRewrittenEvent extends ApplicationEvent {
+
+    private final int userId;
+
+    /**
+     * Create a new StructIdsRewrittenEvent.
+     *
+     * @param source the component that published the event (never <code>null</code>)
+     * @param userId the id of the user whose NEXT_STRUCT_ID was rewritten
+     */
+    public StructIdsRewrittenEvent(final Object source, final int userId) {
+        super(source);
+        this.userId = userId;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("source", this.source)
+                .append("userId", this.userId)
+                .toString();
+    }
+}
@@ -54,7 +54,10 @@ public abstract class BaseIntervalAwarePortalEventAggregator<
     protected abstract BaseAggregationPrivateDao<T, K> getAggregationDao();
 
     /**
-     * Called for each {@link BaseAggregationImpl} that needs to be updated
+     * Called for each {@link BaseAggregationImpl} that needs to be updated. When the aggregation
+     * run has {@link PartitionedAggregationUpdates} the call is deferred and may happen on another
+     * thread, concurrently with updates of other aggregations, so implementations must only modify
+     * the aggregation passed in.
      *
      * @param e The {@link PortalEvent} to get the data from
      * @param intervalInfo The info about the interval the aggregation is for
@@ -88,6 +91,8 @@ public abstract class BaseIntervalAwarePortalEventAggregator<
             Map<AggregationInterval, AggregationIntervalInfo> currentIntervals) {
 
         final BaseAggregationPrivateDao<T, K> aggregationDao = this.getAggregationDao();
+        final PartitionedAggregationUpdates aggregationUpdates =
+                eventAggregationContext.getAttribute(PartitionedAggregationUpdates.CONTEXT_KEY);
 
         for (Map.Entry<AggregationInterval, AggregationIntervalInfo> intervalInfoEntry :
                 currentIntervals.entrySet()) {
@@ -124,8 +129,25 @@ public abstract class BaseIntervalAwarePortalEventAggregator<
                     aggregationsCache.put(key, aggregation);
                 }
 
-                // Update the aggregation with the event
-                updateAggregation(e, eventAggregationContext, intervalInfo, aggregation);
+                // Update the aggregation with the event, in parallel with other aggregations if
+                // the run partitions the updates
+                if (aggregationUpdates != null) {
+                    final T updatedAggregation = aggregation;
+                    aggregationUpdates.add(
+                            updatedAggregation,
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    updateAggregation(
+                                            e,
+                                            eventAggregationContext,
+                                            intervalInfo,
+                                            updatedAggregation);
+                                }
+                            });
+                } else {
+                    updateAggregation(e, eventAggregationContext, intervalInfo, aggregation);
+                }
             }
         }
     }
@@ -70,6 +70,17 @@ public abstract class BaseTimedAggregationStatsImpl<
     @Column(name = "SECOND_MOMENT_TIME", nullable = false)
     private double secondMoment;
 
+    // Percentiles are nullable, aggregations stored before they were tracked have none
+
+    @Column(name = "MEDIAN_TIME")
+    private Double median;
+
+    @Column(name = "P95_TIME")
+    private Double percentile95;
+
+    @Column(name = "P99_TIME")
+    private Double percentile99;
+
     @Embedded private JpaStatisticalSummary statisticalSummary;
 
     @Column(name = "STATS_COMPLETE", nullable = false)
@@ -161,6 +172,32 @@ public abstract class BaseTimedAggregationStatsImpl<
         return this.secondMoment;
     }
 
+    @Override
+    public final double getMedian() {
+        updateStats();
+        return toDouble(this.median);
+    }
+
+    @Override
+    public final double getPercentile95() {
+        updateStats();
+        return toDouble(this.percentile95);
+    }
+
+    @Override
+    public final double getPercentile99() {
+        updateStats();
+        return toDouble(this.percentile99);
+    }
+
+    private static double toDouble(Double value) {
+        return value != null ? value : Double.NaN;
+    }
+
+    private static Double fromDouble(double value) {
+        return Double.isNaN(value) ? null : value;
+    }
+
     /** Check if the interval is complete, must be called by super classes if overridden */
     @Override
     protected boolean isComplete() {
@@ -209,6 +246,8 @@ public abstract class BaseTimedAggregationStatsImpl<
             return;
         }
 
+        this.statisticalSummary.storeQuantileSketch();
+
         // Update statistic values
         this.count = (int) this.statisticalSummary.getN();
         this.sum = this.statisticalSummary.getSum();
@@ -222,6 +261,9 @@ public abstract class BaseTimedAggregationStatsImpl<
         this.geometricMean = this.statisticalSummary.getGeometricMean();
         this.sumOfLogs = this.statisticalSummary.getSumOfLogs();
         this.secondMoment = this.statisticalSummary.getSecondMoment();
+        this.median = fromDouble(this.statisticalSummary.getMedian());
+        this.percentile95 = fromDouble(this.statisticalSummary.getPercentile95());
+        this.percentile99 = fromDouble(this.statisticalSummary.getPercentile99());
 
         this.modified = false;
     }
@@ -0,0 +1,159 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Updates of aggregations collected while raw events are aggregated, applied in parallel.
+ * Aggregations are loaded and created through the aggregating thread's EntityManager as each event
+ * is aggregated, only the in-memory update of the loaded aggregation is deferred to here.
+ *
+ * <p>{@link #apply()} splits the pending updates into partitions, each with its own map of
+ * aggregations to their updates, and runs the partitions concurrently. An aggregation is in exactly
+ * one partition so it is only updated by one thread and sees its updates in event order. Once every
+ * partition is done the updated aggregations are back in the aggregating thread's persistence
+ * context, to be completed and written by the next interval boundary or the end of the run.
+ *
+ * <p>Pending updates must be applied before any aggregation is completed or the run ends, see
+ * {@link PortalRawEventsAggregatorImpl}.
+ */
+public final class PartitionedAggregationUpdates {
+    /** Key of the updates for the current aggregation run in the {@link EventAggregationContext} */
+    public static final String CONTEXT_KEY = PartitionedAggregationUpdates.class.getName();
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(PartitionedAggregationUpdates.class);
+
+    private final ExecutorService executorService;
+    private final int partitionCount;
+    private final Map<Object, List<Runnable>> updates = new IdentityHashMap<>();
+    private int size = 0;
+
+    /**
+     * @param executorService Runs the partitions
+     * @param partitionCount Maximum number of partitions the updates are split into
+     */
+    public PartitionedAggregationUpdates(ExecutorService executorService, int partitionCount) {
+        this.executorService = executorService;
+        this.partitionCount = Math.max(1, partitionCount);
+    }
+
+    /** Queue an update of the aggregation, it is applied after all updates queued before it */
+    public void add(Object aggregation, Runnable update) {
+        List<Runnable> aggregationUpdates = this.updates.get(aggregation);
+        if (aggregationUpdates == null) {
+            aggregationUpdates = new ArrayList<>();
+            this.updates.put(aggregation, aggregationUpdates);
+        }
+        aggregationUpdates.add(update);
+        this.size++;
+    }
+
+    /** @return Number of updates waiting to be applied */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Apply all pending updates, returning once every partition is done. A failed update is
+     * logged and skipped, like an event that fails to aggregate.
+     */
+    public void apply() {
+        if (this.size == 0) {
+            return;
+        }
+
+        // Spread the aggregations over the partitions, each to the one with the fewest updates
+        final int count = Math.min(this.partitionCount, this.updates.size());
+        final List<Partition> partitions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            partitions.add(new Partition());
+        }
+        for (final Map.Entry<Object, List<Runnable>> entry : this.updates.entrySet()) {
+            Partition smallest = partitions.get(0);
+            for (final Partition partition : partitions) {
+                if (partition.size < smallest.size) {
+                    smallest = partition;
+                }
+            }
+            smallest.add(entry.getKey(), entry.getValue());
+        }
+
+        final int applied = this.size;
+        this.updates.clear();
+        this.size = 0;
+
+        // Merge the partition results
+        int failed = 0;
+        if (partitions.size() == 1) {
+            failed = partitions.get(0).call();
+        } else {
+            try {
+                for (final Future<Integer> result : this.executorService.invokeAll(partitions)) {
+                    failed += result.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while applying aggregation updates", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Failed to apply aggregation updates", e.getCause());
+            }
+        }
+
+        logger.debug(
+                "Applied {} aggregation updates in {} partitions, {} failed",
+                applied,
+                partitions.size(),
+                failed);
+    }
+
+    /** Updates of a subset of the aggregations, applied on one thread */
+    private static final class Partition implements Callable<Integer> {
+        private final Map<Object, List<Runnable>> updates = new IdentityHashMap<>();
+        private int size = 0;
+
+        void add(Object aggregation, List<Runnable> aggregationUpdates) {
+            this.updates.put(aggregation, aggregationUpdates);
+            this.size += aggregationUpdates.size();
+        }
+
+        /** @return Number of updates that failed */
+        @Override
+        public Integer call() {
+            int failed = 0;
+            for (final Map.Entry<Object, List<Runnable>> entry : this.updates.entrySet()) {
+                for (final Runnable update : entry.getValue()) {
+                    try {
+                        update.run();
+                    } catch (RuntimeException e) {
+                        logger.warn("Failed to update aggregation: " + entry.getKey(), e);
+                        failed++;
+                    }
+                }
+            }
+            return failed;
+        }
+    }
+}
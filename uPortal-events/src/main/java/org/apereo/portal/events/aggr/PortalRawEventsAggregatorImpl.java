@@ -31,6 +31,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import javax.annotation.Resource;
 import javax.persistence.EntityManager;
 import javax.persistence.FlushModeType;
@@ -71,6 +72,9 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
     private static final String EVENT_SESSION_CACHE_KEY_SOURCE =
             AggregateEventsHandler.class.getName() + "-EventSession";
 
+    /** Pending aggregation updates applied without waiting for the next interval boundary */
+    private static final int MAX_PENDING_AGGREGATION_UPDATES = 10000;
+
     private IClusterLockService clusterLockService;
     private IPortalEventProcessingManager portalEventAggregationManager;
     private PortalEventDimensionPopulator portalEventDimensionPopulator;
@@ -92,6 +96,8 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
     private int cleanUnclosedAggregationsBatchSize = 1000;
     private int cleanUnclosedIntervalsBatchSize = 315;
     private ReadablePeriod aggregationDelay = Period.seconds(30);
+    private int aggregationParallelism = Runtime.getRuntime().availableProcessors();
+    private volatile ForkJoinPool aggregationPool;
 
     private final Map<Class<?>, List<String>> entityCollectionRoles =
             new HashMap<Class<?>, List<String>>();
@@ -207,6 +213,18 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
         this.cleanUnclosedIntervalsBatchSize = cleanUnclosedIntervalsBatchSize;
     }
 
+    /**
+     * Number of threads aggregations are updated on during raw event aggregation. Zero or less uses
+     * the number of processors, one updates aggregations on the aggregating thread.
+     */
+    @Value(
+            "${org.apereo.portal.events.aggr.PortalRawEventsAggregatorImpl.aggregationParallelism:0}")
+    public void setAggregationParallelism(int aggregationParallelism) {
+        if (aggregationParallelism > 0) {
+            this.aggregationParallelism = aggregationParallelism;
+        }
+    }
+
     public void setShutdown(boolean shutdown) {
         this.shutdown = shutdown;
     }
@@ -214,6 +232,25 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
     @Override
     public void destroy() throws Exception {
         this.shutdown = true;
+
+        final ForkJoinPool pool = this.aggregationPool;
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private ForkJoinPool getAggregationPool() {
+        ForkJoinPool pool = this.aggregationPool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = this.aggregationPool;
+                if (pool == null) {
+                    pool = new ForkJoinPool(this.aggregationParallelism);
+                    this.aggregationPool = pool;
+                }
+            }
+        }
+        return pool;
     }
 
     private void checkShutdown() {
@@ -560,13 +597,15 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
             // Do aggregation, capturing the start and end dates
             eventAggregatorStatus.setLastStart(DateTime.now());
 
+            final AggregateEventsHandler handler =
+                    new AggregateEventsHandler(events, lastEventDate, eventAggregatorStatus);
             complete =
                     portalEventDao.aggregatePortalEvents(
                             lastAggregated,
                             newestEventTime,
                             this.eventAggregationBatchSize,
-                            new AggregateEventsHandler(
-                                    events, lastEventDate, eventAggregatorStatus));
+                            handler);
+            handler.applyAggregationUpdates();
 
             eventAggregatorStatus.setLastEventDate((DateTime) lastEventDate.getValue());
             eventAggregatorStatus.setLastEnd(DateTime.now());
@@ -692,6 +731,9 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
                                 Map<AggregationInterval, AggregationIntervalInfo>>();
         private final AggregatedGroupConfig defaultAggregatedGroupConfig;
 
+        // Deferred aggregation updates, null when aggregations are updated as events are handled
+        private final PartitionedAggregationUpdates aggregationUpdates;
+
         private AggregateEventsHandler(
                 MutableInt eventCounter,
                 MutableObject lastEventDate,
@@ -701,6 +743,23 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
             this.eventAggregatorStatus = eventAggregatorStatus;
             this.defaultAggregatedGroupConfig =
                     eventAggregationManagementDao.getDefaultAggregatedGroupConfig();
+
+            if (aggregationParallelism > 1) {
+                this.aggregationUpdates =
+                        new PartitionedAggregationUpdates(
+                                getAggregationPool(), aggregationParallelism);
+                this.eventAggregationContext.setAttribute(
+                        PartitionedAggregationUpdates.CONTEXT_KEY, this.aggregationUpdates);
+            } else {
+                this.aggregationUpdates = null;
+            }
+        }
+
+        /** Apply the deferred aggregation updates, must be done before aggregations are closed */
+        public void applyAggregationUpdates() {
+            if (this.aggregationUpdates != null) {
+                this.aggregationUpdates.apply();
+            }
         }
 
         @Override
@@ -732,6 +791,7 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
                     // must not be supported in the current
                     // environment
                     logger.debug("Crossing {} Interval, triggered by {}", interval, event);
+                    this.applyAggregationUpdates();
                     this.doHandleIntervalBoundary(interval, this.currentIntervalInfo);
 
                     intervalInfo = intervalHelper.getIntervalInfo(interval, eventDate);
@@ -756,6 +816,10 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao
 
             // Aggregate the event
             this.doAggregateEvent(event);
+            if (this.aggregationUpdates != null
+                    && this.aggregationUpdates.size() >= MAX_PENDING_AGGREGATION_UPDATES) {
+                this.aggregationUpdates.apply();
+            }
 
             // Update the status object with the event date
             this.lastEventDate.setValue(eventDate);
@@ -69,4 +69,31 @@ public interface TimedAggregationStatistics extends StatisticalSummary {
      * @return second central moment statistic
      */
     double getSecondMoment();
+
+    /**
+     * Returns the estimated median of the values that have been added.
+     *
+     * <p>Double.NaN is returned if no values have been added or if the median is not known.
+     *
+     * @return the median
+     */
+    double getMedian();
+
+    /**
+     * Returns the estimated 95th percentile of the values that have been added.
+     *
+     * <p>Double.NaN is returned if no values have been added or if the percentile is not known.
+     *
+     * @return the 95th percentile
+     */
+    double getPercentile95();
+
+    /**
+     * Returns the estimated 99th percentile of the values that have been added.
+     *
+     * <p>Double.NaN is returned if no values have been added or if the percentile is not known.
+     *
+     * @return the 99th percentile
+     */
+    double getPercentile99();
 }
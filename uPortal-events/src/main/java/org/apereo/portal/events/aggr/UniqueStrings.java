@@ -156,6 +156,15 @@ public final class UniqueStrings {
         return this.currentUniqueUsernamesSegment.add(e);
     }
 
+    /** @return A copy of the unique strings across all segments */
+    public Set<String> getUniqueStrings() {
+        final Set<String> uniqueStrings = new HashSet<String>();
+        for (final UniqueStringsSegment uniqueStringsSegment : this.uniqueStringSegments) {
+            uniqueStrings.addAll(uniqueStringsSegment.getUniqueStrings());
+        }
+        return uniqueStrings;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -0,0 +1,174 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HyperLogLog sketch that estimates the number of unique strings added to it in a fixed amount of
+ * space. Can be used in place of {@link UniqueStrings} when an approximate count is acceptable.
+ * Sketches with the same precision can be merged, the result estimates the size of the union.
+ *
+ * <p>The sketch is backed by a byte array of <code>1 + 2^precision</code> bytes, the first byte
+ * holds the precision. The array returned by {@link #getBytes()} can be persisted directly and
+ * re-wrapped with {@link #wrap(byte[])}; changes to the sketch write through to the array.
+ */
+public final class UniqueStringsSketch {
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final byte[] data;
+    private final int precision;
+
+    /** Create an empty sketch with <code>2^precision</code> registers */
+    public UniqueStringsSketch(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException(
+                    "precision must be between "
+                            + MIN_PRECISION
+                            + " and "
+                            + MAX_PRECISION
+                            + ": "
+                            + precision);
+        }
+        this.precision = precision;
+        this.data = new byte[1 + (1 << precision)];
+        this.data[0] = (byte) precision;
+    }
+
+    private UniqueStringsSketch(byte[] data, int precision) {
+        this.data = data;
+        this.precision = precision;
+    }
+
+    /** Wrap the bytes of a sketch previously returned by {@link #getBytes()} */
+    public static UniqueStringsSketch wrap(byte[] data) {
+        final int precision = data.length > 0 ? data[0] : 0;
+        if (precision < MIN_PRECISION
+                || precision > MAX_PRECISION
+                || data.length != 1 + (1 << precision)) {
+            throw new IllegalArgumentException(
+                    "Not a valid sketch, precision=" + precision + ", length=" + data.length);
+        }
+        return new UniqueStringsSketch(data, precision);
+    }
+
+    /**
+     * @return The smallest precision with a relative standard error no larger than the specified
+     *     error, limited to {@link #MAX_PRECISION}
+     */
+    public static int getPrecision(double relativeError) {
+        if (!(relativeError > 0)) {
+            throw new IllegalArgumentException("relativeError must be positive: " + relativeError);
+        }
+        final double registers = Math.pow(1.04 / relativeError, 2);
+        final int precision = (int) Math.ceil(Math.log(registers) / Math.log(2));
+        return Math.max(MIN_PRECISION, Math.min(MAX_PRECISION, precision));
+    }
+
+    public int getPrecision() {
+        return this.precision;
+    }
+
+    /** @return The relative standard error of estimates made by this sketch */
+    public double getRelativeError() {
+        return 1.04 / Math.sqrt(1 << this.precision);
+    }
+
+    /** @return The bytes backing this sketch */
+    public byte[] getBytes() {
+        return this.data;
+    }
+
+    /**
+     * Add a string to the sketch
+     *
+     * @return true if the sketch changed, a false return means the string was probably already
+     *     added
+     */
+    public boolean add(String s) {
+        final long hash = HASH_FUNCTION.hashString(s, StandardCharsets.UTF_8).asLong();
+        final int index = 1 + (int) (hash >>> (64 - this.precision));
+        // Position of the first 1 bit after the index bits, the sentinel bit bounds the rank
+        final int rank =
+                Long.numberOfLeadingZeros((hash << this.precision) | (1L << (this.precision - 1)))
+                        + 1;
+        if (rank > this.data[index]) {
+            this.data[index] = (byte) rank;
+            return true;
+        }
+        return false;
+    }
+
+    /** Merge the other sketch into this one, both sketches must have the same precision */
+    public void merge(UniqueStringsSketch other) {
+        if (other.precision != this.precision) {
+            throw new IllegalArgumentException(
+                    "Cannot merge a sketch with precision "
+                            + other.precision
+                            + " into one with precision "
+                            + this.precision);
+        }
+        for (int i = 1; i < this.data.length; i++) {
+            if (other.data[i] > this.data[i]) {
+                this.data[i] = other.data[i];
+            }
+        }
+    }
+
+    /** @return The estimated number of unique strings added to the sketch */
+    public long estimate() {
+        final int registers = 1 << this.precision;
+        double sum = 0;
+        int emptyRegisters = 0;
+        for (int i = 1; i < this.data.length; i++) {
+            sum += Math.scalb(1.0, -this.data[i]);
+            if (this.data[i] == 0) {
+                emptyRegisters++;
+            }
+        }
+
+        final double alpha;
+        switch (registers) {
+            case 16:
+                alpha = 0.673;
+                break;
+            case 32:
+                alpha = 0.697;
+                break;
+            case 64:
+                alpha = 0.709;
+                break;
+            default:
+                alpha = 0.7213 / (1 + 1.079 / registers);
+        }
+
+        double estimate = alpha * registers * registers / sum;
+        if (estimate <= 2.5 * registers && emptyRegisters != 0) {
+            // Linear counting is more accurate for small cardinalities
+            estimate = registers * Math.log((double) registers / emptyRegisters);
+        }
+        return Math.round(estimate);
+    }
+
+    @Override
+    public String toString() {
+        return "UniqueStringsSketch [precision=" + precision + ", estimate=" + estimate() + "]";
+    }
+}
@@ -24,6 +24,7 @@ import javax.persistence.Id;
 import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
 import javax.persistence.JoinColumn;
+import javax.persistence.Lob;
 import javax.persistence.OneToOne;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
@@ -34,6 +35,7 @@ import org.apereo.portal.events.aggr.BaseAggregationImpl;
 import org.apereo.portal.events.aggr.DateDimension;
 import org.apereo.portal.events.aggr.TimeDimension;
 import org.apereo.portal.events.aggr.UniqueStrings;
+import org.apereo.portal.events.aggr.UniqueStringsSketch;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
@@ -101,6 +103,11 @@ public final class ConcurrentUserAggregationImpl
     @Fetch(FetchMode.JOIN)
     private UniqueStrings uniqueStrings;
 
+    /** {@link UniqueStringsSketch} used instead of uniqueStrings when counting approximately */
+    @Lob
+    @Column(name = "UNIQUE_SKETCH")
+    private byte[] uniqueSketch;
+
     @Transient private ConcurrentUserAggregationKey aggregationKey;
     @Transient private ConcurrentUserAggregationDiscriminator aggregationDiscriminator;
 
@@ -151,15 +158,21 @@ public final class ConcurrentUserAggregationImpl
 
     @Override
     protected boolean isComplete() {
-        return this.concurrentUsers > 0 && this.uniqueStrings == null;
+        return this.concurrentUsers > 0 && this.uniqueStrings == null && this.uniqueSketch == null;
     }
 
     @Override
     protected void completeInterval() {
         this.uniqueStrings = null;
+        this.uniqueSketch = null;
     }
 
-    void countSession(String eventSessionId) {
+    /**
+     * @param sketchPrecision Precision of the {@link UniqueStringsSketch} used to count unique
+     *     sessions, 0 to count them exactly. An interval that is already being counted with a
+     *     sketch keeps using it.
+     */
+    void countSession(String eventSessionId, int sketchPrecision) {
         if (isComplete()) {
             this.getLogger()
                     .warn(
@@ -170,12 +183,31 @@ public final class ConcurrentUserAggregationImpl
             return;
         }
 
-        if (this.uniqueStrings == null) {
-            this.uniqueStrings = new UniqueStrings();
+        if (this.uniqueSketch == null && sketchPrecision > 0) {
+            // Switch to the sketch, carrying over the exactly counted sessions
+            final UniqueStringsSketch sketch = new UniqueStringsSketch(sketchPrecision);
+            if (this.uniqueStrings != null) {
+                for (final String uniqueString : this.uniqueStrings.getUniqueStrings()) {
+                    sketch.add(uniqueString);
+                }
+                this.uniqueStrings = null;
+            }
+            this.uniqueSketch = sketch.getBytes();
         }
 
-        if (this.uniqueStrings.add(eventSessionId)) {
-            this.concurrentUsers++;
+        if (this.uniqueSketch != null) {
+            final UniqueStringsSketch sketch = UniqueStringsSketch.wrap(this.uniqueSketch);
+            if (sketch.add(eventSessionId)) {
+                this.concurrentUsers = (int) sketch.estimate();
+            }
+        } else {
+            if (this.uniqueStrings == null) {
+                this.uniqueStrings = new UniqueStrings();
+            }
+
+            if (this.uniqueStrings.add(eventSessionId)) {
+                this.concurrentUsers++;
+            }
         }
     }
 
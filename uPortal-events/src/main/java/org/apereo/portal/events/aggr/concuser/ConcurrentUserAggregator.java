@@ -22,8 +22,10 @@ import org.apereo.portal.events.aggr.BaseIntervalAwarePortalEventAggregator;
 import org.apereo.portal.events.aggr.DateDimension;
 import org.apereo.portal.events.aggr.EventAggregationContext;
 import org.apereo.portal.events.aggr.TimeDimension;
+import org.apereo.portal.events.aggr.UniqueStringsSketch;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 /**
  * Event aggregator that uses {@link ConcurrentUserAggregationPrivateDao} to aggregate concurrent
@@ -33,6 +35,7 @@ public class ConcurrentUserAggregator
         extends BaseIntervalAwarePortalEventAggregator<
                 PortalEvent, ConcurrentUserAggregationImpl, ConcurrentUserAggregationKey> {
     private ConcurrentUserAggregationPrivateDao concurrentUserAggregationDao;
+    private int uniqueSketchPrecision = 0;
 
     @Autowired
     public void setConcurrentUserAggregationDao(
@@ -40,6 +43,17 @@ public class ConcurrentUserAggregator
         this.concurrentUserAggregationDao = concurrentUserAggregationDao;
     }
 
+    /**
+     * Relative standard error allowed when counting unique sessions, defaults to 0 which counts
+     * them exactly. A positive value counts them with a {@link UniqueStringsSketch} of that
+     * accuracy.
+     */
+    @Value("${org.apereo.portal.events.aggr.concuser.ConcurrentUserAggregator.uniqueCountError:0}")
+    public void setUniqueCountError(double uniqueCountError) {
+        this.uniqueSketchPrecision =
+                uniqueCountError > 0 ? UniqueStringsSketch.getPrecision(uniqueCountError) : 0;
+    }
+
     @Override
     protected BaseAggregationPrivateDao<ConcurrentUserAggregationImpl, ConcurrentUserAggregationKey>
             getAggregationDao() {
@@ -60,7 +74,7 @@ public class ConcurrentUserAggregator
         final String eventSessionId = e.getEventSessionId();
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         aggregation.setDuration(duration);
-        aggregation.countSession(eventSessionId);
+        aggregation.countSession(eventSessionId, this.uniqueSketchPrecision);
     }
 
     @Override
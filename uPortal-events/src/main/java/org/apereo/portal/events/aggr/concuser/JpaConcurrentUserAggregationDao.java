@@ -46,7 +46,10 @@ public class JpaConcurrentUserAggregationDao
             CriteriaBuilder cb,
             Root<ConcurrentUserAggregationImpl> root,
             List<Predicate> keyPredicates) {
-        keyPredicates.add(cb.isNotNull(root.get(ConcurrentUserAggregationImpl_.uniqueStrings)));
+        keyPredicates.add(
+                cb.or(
+                        cb.isNotNull(root.get(ConcurrentUserAggregationImpl_.uniqueStrings)),
+                        cb.isNotNull(root.get(ConcurrentUserAggregationImpl_.uniqueSketch))));
     }
 
     @Override
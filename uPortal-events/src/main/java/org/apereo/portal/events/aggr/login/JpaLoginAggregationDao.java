@@ -43,7 +43,10 @@ public class JpaLoginAggregationDao
     @Override
     protected void addUnclosedPredicate(
             CriteriaBuilder cb, Root<LoginAggregationImpl> root, List<Predicate> keyPredicates) {
-        keyPredicates.add(cb.isNotNull(root.get(LoginAggregationImpl_.uniqueStrings)));
+        keyPredicates.add(
+                cb.or(
+                        cb.isNotNull(root.get(LoginAggregationImpl_.uniqueStrings)),
+                        cb.isNotNull(root.get(LoginAggregationImpl_.uniqueSketch))));
     }
 
     @Override
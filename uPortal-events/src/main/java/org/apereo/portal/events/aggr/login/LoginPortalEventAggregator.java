@@ -23,20 +23,34 @@ import org.apereo.portal.events.aggr.BaseIntervalAwarePortalEventAggregator;
 import org.apereo.portal.events.aggr.DateDimension;
 import org.apereo.portal.events.aggr.EventAggregationContext;
 import org.apereo.portal.events.aggr.TimeDimension;
+import org.apereo.portal.events.aggr.UniqueStringsSketch;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 /** Event aggregator that uses {@link LoginAggregationPrivateDao} to aggregate login events */
 public class LoginPortalEventAggregator
         extends BaseIntervalAwarePortalEventAggregator<
                 LoginEvent, LoginAggregationImpl, LoginAggregationKey> {
     private LoginAggregationPrivateDao loginAggregationDao;
+    private int uniqueSketchPrecision = 0;
 
     @Autowired
     public void setLoginAggregationDao(LoginAggregationPrivateDao loginAggregationDao) {
         this.loginAggregationDao = loginAggregationDao;
     }
 
+    /**
+     * Relative standard error allowed when counting unique user names, defaults to 0 which counts
+     * them exactly. A positive value counts them with a {@link UniqueStringsSketch} of that
+     * accuracy.
+     */
+    @Value("${org.apereo.portal.events.aggr.login.LoginPortalEventAggregator.uniqueCountError:0}")
+    public void setUniqueCountError(double uniqueCountError) {
+        this.uniqueSketchPrecision =
+                uniqueCountError > 0 ? UniqueStringsSketch.getPrecision(uniqueCountError) : 0;
+    }
+
     @Override
     protected BaseAggregationPrivateDao<LoginAggregationImpl, LoginAggregationKey>
             getAggregationDao() {
@@ -70,6 +84,6 @@ public class LoginPortalEventAggregator
         final String userName = e.getUserName();
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         aggregation.setDuration(duration);
-        aggregation.countUser(userName);
+        aggregation.countUser(userName, this.uniqueSketchPrecision);
     }
 }
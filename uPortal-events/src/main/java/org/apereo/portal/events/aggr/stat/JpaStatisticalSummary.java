@@ -14,8 +14,10 @@
  */
 package org.apereo.portal.events.aggr.stat;
 
+import javax.persistence.Column;
 import javax.persistence.Embeddable;
 import javax.persistence.Embedded;
+import javax.persistence.Lob;
 import javax.persistence.Transient;
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.apache.commons.math3.stat.descriptive.moment.GeometricMean;
@@ -63,6 +65,16 @@ public class JpaStatisticalSummary implements TimedAggregationStatistics {
     /** variance of values that have been added */
     @Transient private Variance variance;
 
+    /** serialized {@link QuantileSketch}, updated by {@link #storeQuantileSketch()} */
+    @Lob
+    @Column(name = "QUANTILE_SKETCH")
+    private byte[] quantileSketchData;
+
+    /** quantiles of values that have been added */
+    @Transient private QuantileSketch quantileSketch;
+
+    @Transient private boolean quantileSketchModified = false;
+
     // ***** ALL FIELDS ARE LAZILY INITIALIZED HERE *****//
 
     private SecondMoment _getSecondMoment() {
@@ -128,6 +140,17 @@ public class JpaStatisticalSummary implements TimedAggregationStatistics {
         return this.variance;
     }
 
+    private QuantileSketch _getQuantileSketch() {
+        if (this.quantileSketch == null) {
+            if (this.quantileSketchData != null) {
+                this.quantileSketch = QuantileSketch.fromBytes(this.quantileSketchData);
+            } else {
+                this.quantileSketch = new QuantileSketch();
+            }
+        }
+        return this.quantileSketch;
+    }
+
     public void addValue(double value) {
         _getSum().increment(value);
         _getSumsq().increment(value);
@@ -135,6 +158,60 @@ public class JpaStatisticalSummary implements TimedAggregationStatistics {
         _getMax().increment(value);
         _getSumLog().increment(value);
         _getSecondMoment().increment(value);
+        _getQuantileSketch().add(value);
+        this.quantileSketchModified = true;
+    }
+
+    /**
+     * Serializes the quantile sketch into its persistent field if values have been added since the
+     * last call, must be called before the summary is written to the database.
+     */
+    public void storeQuantileSketch() {
+        if (this.quantileSketchModified) {
+            this.quantileSketchData = this.quantileSketch.toBytes();
+            this.quantileSketchModified = false;
+        }
+    }
+
+    /**
+     * Estimates a percentile of the values that have been added, the estimate is within {@link
+     * QuantileSketch#RELATIVE_ACCURACY} of an actual value.
+     *
+     * <p>Double.NaN is returned if no values have been added or if the summary was stored before
+     * percentiles were tracked.
+     *
+     * @param percentile the percentile to estimate, between 0 and 100
+     * @return the estimated percentile
+     */
+    public double getPercentile(double percentile) {
+        if (this.quantileSketch == null && this.quantileSketchData == null) {
+            return Double.NaN;
+        }
+
+        final QuantileSketch sketch = _getQuantileSketch();
+        if (sketch.getCount() != getN()) {
+            // Values were added before percentiles were tracked, the sketch is incomplete
+            return Double.NaN;
+        }
+
+        final double estimate = sketch.getQuantile(percentile / 100);
+        // The bucket estimate can fall slightly outside of the actual range of values
+        return Math.max(getMin(), Math.min(getMax(), estimate));
+    }
+
+    @Override
+    public double getMedian() {
+        return getPercentile(50);
+    }
+
+    @Override
+    public double getPercentile95() {
+        return getPercentile(95);
+    }
+
+    @Override
+    public double getPercentile99() {
+        return getPercentile(99);
     }
 
     /**
@@ -317,6 +394,9 @@ public class JpaStatisticalSummary implements TimedAggregationStatistics {
         outBuffer.append("sum of squares: ").append(getSumsq()).append("\n");
         outBuffer.append("standard deviation: ").append(getStandardDeviation()).append("\n");
         outBuffer.append("sum of logs: ").append(getSumOfLogs()).append("\n");
+        outBuffer.append("median: ").append(getMedian()).append("\n");
+        outBuffer.append("95th percentile: ").append(getPercentile95()).append("\n");
+        outBuffer.append("99th percentile: ").append(getPercentile99()).append("\n");
         return outBuffer.toString();
     }
 
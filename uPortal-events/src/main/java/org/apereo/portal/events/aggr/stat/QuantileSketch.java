@@ -0,0 +1,220 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr.stat;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Mergeable sketch that estimates quantiles of the values added to it with a bounded relative
+ * error. Positive values are counted in logarithmically sized buckets, <code>gamma^(i-1) < v <=
+ * gamma^i</code>, every value in a bucket is within {@link #RELATIVE_ACCURACY} of the bucket's
+ * representative value. Values of zero or less are counted together as zero.
+ *
+ * <p>Merging sketches adds the bucket counts, so a sketch merged from the sketches of several
+ * intervals is identical to the sketch of all their values.
+ */
+public final class QuantileSketch {
+    /** Maximum relative error of a quantile estimate */
+    public static final double RELATIVE_ACCURACY = 0.01;
+
+    private static final byte FORMAT_VERSION = 1;
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    private long zeroCount;
+    private long count;
+    /** Bucket index of counts[0] */
+    private int offset;
+
+    private long[] counts = new long[0];
+
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        this.count++;
+        if (value <= 0) {
+            this.zeroCount++;
+            return;
+        }
+
+        final int index = (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+        this.ensureCapacity(index, index);
+        this.counts[index - this.offset]++;
+    }
+
+    /** Add all values counted by the other sketch to this one */
+    public void merge(QuantileSketch other) {
+        this.count += other.count;
+        this.zeroCount += other.zeroCount;
+        if (other.counts.length == 0) {
+            return;
+        }
+
+        this.ensureCapacity(other.offset, other.offset + other.counts.length - 1);
+        for (int i = 0; i < other.counts.length; i++) {
+            this.counts[other.offset - this.offset + i] += other.counts[i];
+        }
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * @param quantile The quantile to estimate, between 0 and 1
+     * @return The estimated value at the quantile, Double.NaN if no values have been added
+     */
+    public double getQuantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("quantile must be between 0 and 1: " + quantile);
+        }
+        if (this.count == 0) {
+            return Double.NaN;
+        }
+
+        final long rank = (long) (quantile * (this.count - 1));
+        long seen = this.zeroCount;
+        if (rank < seen) {
+            return 0;
+        }
+        for (int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if (rank < seen) {
+                // The representative value is within the relative accuracy of the whole bucket
+                return 2 * Math.pow(GAMMA, this.offset + i) / (GAMMA + 1);
+            }
+        }
+        throw new IllegalStateException("Bucket counts do not add up to " + this.count);
+    }
+
+    private void ensureCapacity(int minIndex, int maxIndex) {
+        if (this.counts.length == 0) {
+            this.offset = minIndex;
+            this.counts = new long[maxIndex - minIndex + 1];
+            return;
+        }
+
+        final int newOffset = Math.min(this.offset, minIndex);
+        final int newEnd = Math.max(this.offset + this.counts.length - 1, maxIndex);
+        if (newOffset == this.offset && newEnd == this.offset + this.counts.length - 1) {
+            return;
+        }
+
+        final long[] newCounts = new long[newEnd - newOffset + 1];
+        System.arraycopy(this.counts, 0, newCounts, this.offset - newOffset, this.counts.length);
+        this.counts = newCounts;
+        this.offset = newOffset;
+    }
+
+    /** @return The sketch serialized into a compact byte array */
+    public byte[] toBytes() {
+        // Trim empty buckets from both ends
+        int start = 0;
+        int end = this.counts.length;
+        while (start < end && this.counts[start] == 0) {
+            start++;
+        }
+        while (end > start && this.counts[end - 1] == 0) {
+            end--;
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(16 + (end - start) * 2);
+        out.write(FORMAT_VERSION);
+        writeVarLong(out, this.zeroCount);
+        writeVarLong(out, zigZag(this.offset + start));
+        writeVarLong(out, end - start);
+        for (int i = start; i < end; i++) {
+            writeVarLong(out, this.counts[i]);
+        }
+        return out.toByteArray();
+    }
+
+    /** @return The sketch read from bytes created by {@link #toBytes()} */
+    public static QuantileSketch fromBytes(byte[] data) {
+        final ByteBuffer in = ByteBuffer.wrap(data);
+        final byte version = in.get();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported QuantileSketch version: " + version);
+        }
+
+        final QuantileSketch sketch = new QuantileSketch();
+        sketch.zeroCount = readVarLong(in);
+        sketch.count = sketch.zeroCount;
+        sketch.offset = (int) unZigZag(readVarLong(in));
+        sketch.counts = new long[(int) readVarLong(in)];
+        for (int i = 0; i < sketch.counts.length; i++) {
+            sketch.counts[i] = readVarLong(in);
+            sketch.count += sketch.counts[i];
+        }
+        return sketch;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed QuantileSketch data");
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof QuantileSketch)) return false;
+        return Arrays.equals(this.toBytes(), ((QuantileSketch) obj).toBytes());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(this.toBytes());
+    }
+
+    @Override
+    public String toString() {
+        return "QuantileSketch [count="
+                + count
+                + ", median="
+                + getQuantile(0.5)
+                + ", p95="
+                + getQuantile(0.95)
+                + ", p99="
+                + getQuantile(0.99)
+                + "]";
+    }
+}
@@ -18,8 +18,24 @@ import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.PreDestroy;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
@@ -33,6 +49,11 @@ import org.hibernate.FlushMode;
 import org.hibernate.ScrollMode;
 import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.Type;
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -43,15 +64,37 @@ import org.springframework.stereotype.Repository;
  * Stores portal events using JPA/Hibenate no internal batch segmentation is done to the passed list
  * of {@link PortalEvent}s. If a {@link PortalEvent} is not mapped as a persistent entity a message
  * is logged at the WARN level and the event is ignored.
+ *
+ * <p>Lists of events are written with JDBC batch inserts of <code>storeBatchSize</code> rows,
+ * bypassing the persistence context. IDs come from the entity's own (pre-allocating) generator, and
+ * values are bound with the entity's Hibernate types, so the rows are identical to persisted ones.
+ * Event data longer than <code>compressionThreshold</code> characters is stored gzipped.
+ *
+ * <p>During aggregation events are read in chunks of <code>aggregationChunkSize</code> rows, the
+ * chunk's event data is deserialized in parallel and the handled rows are marked with a timestamp
+ * range update per chunk. Only the handled rows sharing the chunk's last handled timestamp, and the
+ * rows that failed, are marked by id.
  */
 @Repository
 public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalEventDao {
 
+    /** Marks gzipped event data, JSON event data always starts with '{' */
+    private static final String COMPRESSED_PREFIX = "gz:";
+
     private ObjectMapper mapper;
     private String deleteQuery;
     private String selectQuery;
     private String selectUnaggregatedQuery;
+    private String markAggregatedQuery;
+    private String markAggregatedRangeQuery;
+    private String markErrorAggregatingQuery;
     private int flushPeriod = 1000;
+    private int chunkSize = 1000;
+    private int storeBatchSize = 100;
+    private int compressionThreshold = 1024;
+    private int aggregationDecodeParallelism = Runtime.getRuntime().availableProcessors();
+    private volatile String insertSql;
+    private volatile ForkJoinPool decodePool;
     private CriteriaQuery<DateTime> findNewestPersistentPortalEventTimestampQuery;
     private CriteriaQuery<DateTime> findOldestPersistentPortalEventTimestampQuery;
     private ParameterExpression<DateTime> startTimeParameter;
@@ -65,6 +108,7 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     /**
      * Frequency that updated events should be flushed during a call to {@link
      * #aggregatePortalEvents(DateTime, DateTime, int, FunctionWithoutResult)}, defaults to 1000.
+     * Checked after each chunk of <code>aggregationChunkSize</code> events.
      */
     @Value(
             "${org.apereo.portal.events.handlers.db.JpaPortalEventStore.aggregationFlushPeriod:1000}")
@@ -72,6 +116,45 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         this.flushPeriod = flushPeriod;
     }
 
+    /**
+     * Number of events read, deserialized and marked per chunk during a call to {@link
+     * #aggregatePortalEvents(DateTime, DateTime, int, FunctionWithoutResult)}, defaults to 1000.
+     */
+    @Value("${org.apereo.portal.events.handlers.db.JpaPortalEventStore.aggregationChunkSize:1000}")
+    public void setAggregationChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Number of events written per JDBC batch by {@link #storePortalEvents(Iterable)}, defaults to
+     * 100. Zero or less persists the events one at a time through JPA.
+     */
+    @Value("${org.apereo.portal.events.handlers.db.JpaPortalEventStore.storeBatchSize:100}")
+    public void setStoreBatchSize(int storeBatchSize) {
+        this.storeBatchSize = storeBatchSize;
+    }
+
+    /**
+     * Event data longer than this many characters is gzipped, defaults to 1024. A negative value
+     * disables compression. Compressed and uncompressed event data can always be read.
+     */
+    @Value("${org.apereo.portal.events.handlers.db.JpaPortalEventStore.compressionThreshold:1024}")
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Number of threads used to deserialize raw events during aggregation. Zero or less uses the
+     * number of processors, one deserializes on the aggregating thread.
+     */
+    @Value(
+            "${org.apereo.portal.events.handlers.db.JpaPortalEventStore.aggregationDecodeParallelism:0}")
+    public void setAggregationDecodeParallelism(int aggregationDecodeParallelism) {
+        if (aggregationDecodeParallelism > 0) {
+            this.aggregationDecodeParallelism = aggregationDecodeParallelism;
+        }
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
         this.startTimeParameter = this.createParameterExpression(DateTime.class, "startTime");
@@ -125,6 +208,56 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
                         + PersistentPortalEvent_.timestamp.getName()
                         + " ASC";
 
+        this.markAggregatedQuery =
+                "UPDATE "
+                        + PersistentPortalEvent.class.getName()
+                        + " e "
+                        + "SET e."
+                        + PersistentPortalEvent_.aggregated.getName()
+                        + " = true "
+                        + "WHERE e."
+                        + PersistentPortalEvent_.id.getName()
+                        + " IN (:ids)";
+
+        this.markAggregatedRangeQuery =
+                "UPDATE "
+                        + PersistentPortalEvent.class.getName()
+                        + " e "
+                        + "SET e."
+                        + PersistentPortalEvent_.aggregated.getName()
+                        + " = true "
+                        + "WHERE e."
+                        + PersistentPortalEvent_.timestamp.getName()
+                        + " >= :"
+                        + this.startTimeParameter.getName()
+                        + " "
+                        + "AND e."
+                        + PersistentPortalEvent_.timestamp.getName()
+                        + " < :"
+                        + this.endTimeParameter.getName()
+                        + " "
+                        + "AND (e."
+                        + PersistentPortalEvent_.aggregated.getName()
+                        + " is null OR e."
+                        + PersistentPortalEvent_.aggregated.getName()
+                        + " = false) "
+                        + "AND (e."
+                        + PersistentPortalEvent_.errorAggregating.getName()
+                        + " is null OR e."
+                        + PersistentPortalEvent_.errorAggregating.getName()
+                        + " = false)";
+
+        this.markErrorAggregatingQuery =
+                "UPDATE "
+                        + PersistentPortalEvent.class.getName()
+                        + " e "
+                        + "SET e."
+                        + PersistentPortalEvent_.errorAggregating.getName()
+                        + " = true "
+                        + "WHERE e."
+                        + PersistentPortalEvent_.id.getName()
+                        + " IN (:ids)";
+
         this.deleteQuery =
                 "DELETE FROM "
                         + PersistentPortalEvent.class.getName()
@@ -182,37 +315,127 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     @Override
     @RawEventsTransactional
     public void storePortalEvents(PortalEvent... portalEvents) {
-        for (final PortalEvent portalEvent : portalEvents) {
-            try {
-                storePortalEvent(portalEvent);
-            } catch (IllegalArgumentException iae) {
-                this.logger.warn(
-                        portalEvent.getClass().getName()
-                                + " is not mapped as a persistent entity and will not be stored. "
-                                + portalEvent
-                                + " Exception="
-                                + iae.getMessage());
-            }
-        }
+        this.storePortalEvents(Arrays.asList(portalEvents));
     }
 
     @Override
     @RawEventsTransactional
     public void storePortalEvents(Iterable<PortalEvent> portalEvents) {
+        if (this.storeBatchSize <= 0) {
+            for (final PortalEvent portalEvent : portalEvents) {
+                try {
+                    storePortalEvent(portalEvent);
+                } catch (IllegalArgumentException iae) {
+                    this.logger.warn(
+                            portalEvent.getClass().getName()
+                                    + " is not mapped as a persistent entity and will not be stored. "
+                                    + portalEvent
+                                    + " Exception="
+                                    + iae.getMessage());
+                }
+            }
+            return;
+        }
+
+        final List<PersistentPortalEvent> batch = new ArrayList<>(this.storeBatchSize);
         for (final PortalEvent portalEvent : portalEvents) {
             try {
-                storePortalEvent(portalEvent);
-            } catch (IllegalArgumentException iae) {
+                batch.add(this.wrapPortalEvent(portalEvent));
+            } catch (RuntimeException re) {
                 this.logger.warn(
                         portalEvent.getClass().getName()
-                                + " is not mapped as a persistent entity and will not be stored. "
-                                + portalEvent
-                                + " Exception="
-                                + iae.getMessage());
+                                + " could not be serialized and will not be stored. "
+                                + portalEvent,
+                        re);
+                continue;
             }
+            if (batch.size() >= this.storeBatchSize) {
+                this.insertPortalEvents(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            this.insertPortalEvents(batch);
         }
     }
 
+    /** Inserts the events with one JDBC batch in the current transaction */
+    protected void insertPortalEvents(final List<PersistentPortalEvent> persistentPortalEvents) {
+        final Session session = this.getEntityManager().unwrap(Session.class);
+        final SessionImplementor sessionImplementor = (SessionImplementor) session;
+        final SessionFactoryImplementor factory = sessionImplementor.getFactory();
+        final AbstractEntityPersister persister =
+                (AbstractEntityPersister)
+                        factory.getEntityPersister(PersistentPortalEvent.class.getName());
+        final String sql = this.getInsertSql(persister);
+
+        session.doWork(
+                new Work() {
+                    @Override
+                    public void execute(Connection connection) throws SQLException {
+                        final Type idType = persister.getIdentifierType();
+                        final Type[] propertyTypes = persister.getPropertyTypes();
+                        final boolean[] insertable = persister.getPropertyInsertability();
+                        try (final PreparedStatement ps = connection.prepareStatement(sql)) {
+                            for (final PersistentPortalEvent event : persistentPortalEvents) {
+                                final Serializable id =
+                                        persister
+                                                .getIdentifierGenerator()
+                                                .generate(sessionImplementor, event);
+                                int index = 1;
+                                idType.nullSafeSet(ps, id, index, sessionImplementor);
+                                index += idType.getColumnSpan(factory);
+
+                                final Object[] values = persister.getPropertyValues(event);
+                                for (int i = 0; i < propertyTypes.length; i++) {
+                                    if (insertable[i]) {
+                                        propertyTypes[i].nullSafeSet(
+                                                ps, values[i], index, sessionImplementor);
+                                        index += propertyTypes[i].getColumnSpan(factory);
+                                    }
+                                }
+                                ps.addBatch();
+                            }
+                            ps.executeBatch();
+                        }
+                    }
+                });
+    }
+
+    private String getInsertSql(AbstractEntityPersister persister) {
+        String rslt = this.insertSql;
+        if (rslt == null) {
+            final StringBuilder columns = new StringBuilder();
+            final StringBuilder parameters = new StringBuilder();
+            final List<String> columnNames =
+                    new ArrayList<>(Arrays.asList(persister.getIdentifierColumnNames()));
+            final boolean[] insertable = persister.getPropertyInsertability();
+            for (int i = 0; i < insertable.length; i++) {
+                if (insertable[i]) {
+                    columnNames.addAll(Arrays.asList(persister.getPropertyColumnNames(i)));
+                }
+            }
+            for (final String columnName : columnNames) {
+                if (columns.length() > 0) {
+                    columns.append(", ");
+                    parameters.append(", ");
+                }
+                columns.append(columnName);
+                parameters.append('?');
+            }
+            rslt =
+                    "insert into "
+                            + persister.getRootTableName()
+                            + " ("
+                            + columns
+                            + ") values ("
+                            + parameters
+                            + ")";
+            this.insertSql = rslt;
+        }
+        return rslt;
+    }
+
     @Override
     public DateTime getOldestPortalEventTimestamp() {
         final TypedQuery<DateTime> query =
@@ -229,6 +452,14 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         return DataAccessUtils.uniqueResult(results);
     }
 
+    @PreDestroy
+    public void destroy() {
+        final ForkJoinPool pool = this.decodePool;
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
     @Override
     @RawEventsTransactional
     public boolean aggregatePortalEvents(
@@ -244,65 +475,215 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         if (maxEvents > 0) {
             query.setMaxResults(maxEvents);
         }
+        // Rows are marked with bulk updates, no need to track them for dirty checking
+        query.setReadOnly(true);
 
+        final int chunkSize = Math.max(1, this.chunkSize);
+        final List<PersistentPortalEvent> chunk = new ArrayList<>(chunkSize);
         int resultCount = 0;
-        for (final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
-                results.next(); ) {
-            final PersistentPortalEvent persistentPortalEvent =
-                    (PersistentPortalEvent) results.get(0);
-            final PortalEvent portalEvent;
-            try {
-                portalEvent =
-                        this.toPortalEvent(
-                                persistentPortalEvent.getEventData(),
-                                persistentPortalEvent.getEventType());
-            } catch (RuntimeException e) {
-                this.logger.warn(
-                        "Failed to convert PersistentPortalEvent to PortalEvent: "
-                                + persistentPortalEvent,
-                        e);
-
-                // Mark the event as error and store the mark to prevent trying to reprocess the
-                // broken event data
-                persistentPortalEvent.setErrorAggregating(true);
-                session.persist(persistentPortalEvent);
-
-                continue;
+        int lastFlushCount = 0;
+        final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            while (results.next()) {
+                chunk.add((PersistentPortalEvent) results.get(0));
+                if (chunk.size() >= chunkSize) {
+                    if (!this.aggregateChunk(session, chunk, handler)) {
+                        return false;
+                    }
+                    resultCount += chunk.size();
+                    chunk.clear();
+
+                    // periodic flush and clear of session to manage memory demands
+                    if (resultCount - lastFlushCount >= this.flushPeriod) {
+                        this.logger.debug(
+                                "Aggregated {} events, flush and clear {} EntityManager.",
+                                resultCount,
+                                BaseRawEventsJpaDao.PERSISTENCE_UNIT_NAME);
+                        session.flush();
+                        session.clear();
+                        lastFlushCount = resultCount;
+                    }
+                }
             }
+        } finally {
+            results.close();
+        }
 
-            try {
+        return this.aggregateChunk(session, chunk, handler);
+    }
 
-                final Boolean eventHandled = handler.apply(portalEvent);
-                if (!eventHandled) {
-                    this.logger.debug(
-                            "Aggregation stop requested before processing event {}", portalEvent);
-                    return false;
+    /**
+     * Deserializes the chunk of events in parallel then passes them to the handler in order. The
+     * handled and failed events are marked with bulk updates, see {@link
+     * #markAggregatedPortalEvents(Session, List)}.
+     *
+     * @return false if the handler requested that aggregation stop
+     */
+    private boolean aggregateChunk(
+            Session session,
+            List<PersistentPortalEvent> chunk,
+            Function<PortalEvent, Boolean> handler) {
+        final Object[] decoded = this.decodePortalEvents(chunk);
+        final List<PersistentPortalEvent> aggregated = new ArrayList<>(chunk.size());
+        final List<Long> errorIds = new ArrayList<>();
+        boolean continueAggregating = true;
+        try {
+            for (int i = 0; i < decoded.length; i++) {
+                final PersistentPortalEvent persistentPortalEvent = chunk.get(i);
+                if (decoded[i] instanceof RuntimeException) {
+                    this.logger.warn(
+                            "Failed to convert PersistentPortalEvent to PortalEvent: "
+                                    + persistentPortalEvent,
+                            (RuntimeException) decoded[i]);
+
+                    // Mark the event as error to prevent trying to reprocess the broken event data
+                    errorIds.add(persistentPortalEvent.getId());
+                    continue;
                 }
 
-                // Mark the event as aggregated and store the mark
-                persistentPortalEvent.setAggregated(true);
-                session.persist(persistentPortalEvent);
-
-                // periodic flush and clear of session to manage memory demands
-                if (++resultCount % this.flushPeriod == 0) {
-                    this.logger.debug(
-                            "Aggregated {} events, flush and clear {} EntityManager.",
-                            resultCount,
-                            BaseRawEventsJpaDao.PERSISTENCE_UNIT_NAME);
-                    session.flush();
-                    session.clear();
+                final PortalEvent portalEvent = (PortalEvent) decoded[i];
+                try {
+                    final Boolean eventHandled = handler.apply(portalEvent);
+                    if (!eventHandled) {
+                        this.logger.debug(
+                                "Aggregation stop requested before processing event {}",
+                                portalEvent);
+                        continueAggregating = false;
+                        break;
+                    }
+
+                    aggregated.add(persistentPortalEvent);
+                } catch (Exception e) {
+                    this.logger.warn(
+                            "Failed to aggregate portal event: " + persistentPortalEvent, e);
+                    // mark the event as erred and move on. This will not be picked up by
+                    // processing again
+                    errorIds.add(persistentPortalEvent.getId());
                 }
+            }
+        } finally {
+            // Failed events first, so the range update can skip them
+            this.markPortalEvents(session, this.markErrorAggregatingQuery, errorIds);
+            this.markAggregatedPortalEvents(session, aggregated);
+        }
 
-            } catch (Exception e) {
-                this.logger.warn("Failed to aggregate portal event: " + persistentPortalEvent, e);
-                // mark the event as erred and move on. This will not be picked up by processing
-                // again
-                persistentPortalEvent.setErrorAggregating(true);
-                session.persist(persistentPortalEvent);
+        return continueAggregating;
+    }
+
+    /**
+     * Marks the handled events of a chunk as aggregated. Every unaggregated event from the first
+     * handled timestamp up to, but excluding, the last handled timestamp was read in this or an
+     * earlier chunk and was either handled or has been marked as failed, so those are marked by a
+     * single range update. Events at the last handled timestamp may still be unread or were left
+     * for the next run by a stop request, the handled ones among them are marked by id.
+     */
+    private void markAggregatedPortalEvents(
+            Session session, List<PersistentPortalEvent> aggregated) {
+        if (aggregated.isEmpty()) {
+            return;
+        }
+
+        final DateTime rangeStart = aggregated.get(0).getTimestamp();
+        final DateTime rangeEnd = aggregated.get(aggregated.size() - 1).getTimestamp();
+        if (rangeStart.isBefore(rangeEnd)) {
+            session.createQuery(this.markAggregatedRangeQuery)
+                    .setParameter(this.startTimeParameter.getName(), rangeStart)
+                    .setParameter(this.endTimeParameter.getName(), rangeEnd)
+                    .executeUpdate();
+        }
+
+        final List<Long> lastIds = new ArrayList<>();
+        for (int i = aggregated.size() - 1; i >= 0; i--) {
+            final PersistentPortalEvent persistentPortalEvent = aggregated.get(i);
+            if (persistentPortalEvent.getTimestamp().isBefore(rangeEnd)) {
+                break;
             }
+            lastIds.add(persistentPortalEvent.getId());
         }
+        this.markPortalEvents(session, this.markAggregatedQuery, Lists.reverse(lastIds));
+    }
 
-        return true;
+    private void markPortalEvents(Session session, String updateQuery, List<Long> ids) {
+        // Keep IN lists within the 1000 element limit of some databases
+        for (final List<Long> idsPartition : Lists.partition(ids, 1000)) {
+            session.createQuery(updateQuery).setParameterList("ids", idsPartition).executeUpdate();
+        }
+    }
+
+    /**
+     * @return The deserialized {@link PortalEvent} for each event, or the {@link RuntimeException}
+     *     thrown while deserializing it
+     */
+    private Object[] decodePortalEvents(List<PersistentPortalEvent> persistentPortalEvents) {
+        final Object[] decoded = new Object[persistentPortalEvents.size()];
+        final DecodeAction action =
+                new DecodeAction(persistentPortalEvents, decoded, 0, decoded.length);
+        if (this.aggregationDecodeParallelism <= 1 || decoded.length < 2 * DecodeAction.THRESHOLD) {
+            action.compute();
+        } else {
+            this.getDecodePool().invoke(action);
+        }
+        return decoded;
+    }
+
+    private ForkJoinPool getDecodePool() {
+        ForkJoinPool pool = this.decodePool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = this.decodePool;
+                if (pool == null) {
+                    pool = new ForkJoinPool(this.aggregationDecodeParallelism);
+                    this.decodePool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /** Deserializes a range of raw events, splitting it across the pool */
+    private final class DecodeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int THRESHOLD = 64;
+
+        private final List<PersistentPortalEvent> persistentPortalEvents;
+        private final Object[] decoded;
+        private final int start;
+        private final int end;
+
+        DecodeAction(
+                List<PersistentPortalEvent> persistentPortalEvents,
+                Object[] decoded,
+                int start,
+                int end) {
+            this.persistentPortalEvents = persistentPortalEvents;
+            this.decoded = decoded;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.end - this.start > THRESHOLD) {
+                final int middle = (this.start + this.end) >>> 1;
+                invokeAll(
+                        new DecodeAction(persistentPortalEvents, decoded, start, middle),
+                        new DecodeAction(persistentPortalEvents, decoded, middle, end));
+                return;
+            }
+
+            for (int i = this.start; i < this.end; i++) {
+                final PersistentPortalEvent persistentPortalEvent =
+                        this.persistentPortalEvents.get(i);
+                try {
+                    this.decoded[i] =
+                            toPortalEvent(
+                                    persistentPortalEvent.getEventData(),
+                                    persistentPortalEvent.getEventType());
+                } catch (RuntimeException e) {
+                    this.decoded[i] = e;
+                }
+            }
+        }
     }
 
     @Override
@@ -354,6 +735,14 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
 
     protected <E extends PortalEvent> E toPortalEvent(final String eventData, Class<E> eventType) {
         try {
+            if (eventData.startsWith(COMPRESSED_PREFIX)) {
+                final byte[] compressed =
+                        Base64.getDecoder().decode(eventData.substring(COMPRESSED_PREFIX.length()));
+                try (final GZIPInputStream in =
+                        new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+                    return mapper.readValue(in, eventType);
+                }
+            }
             return mapper.readValue(eventData, eventType);
         } catch (JsonParseException e) {
             throw new RuntimeException("Failed to deserialize PortalEvent data", e);
@@ -366,7 +755,17 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
 
     protected String toString(PortalEvent event) {
         try {
-            return mapper.writeValueAsString(event);
+            final String json = mapper.writeValueAsString(event);
+            if (this.compressionThreshold < 0 || json.length() <= this.compressionThreshold) {
+                return json;
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length() / 4);
+            try (final GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+                out.write(json.getBytes(StandardCharsets.UTF_8));
+            }
+            final String compressed =
+                    COMPRESSED_PREFIX + Base64.getEncoder().encodeToString(bytes.toByteArray());
+            return compressed.length() < json.length() ? compressed : json;
         } catch (JsonParseException e) {
             throw new RuntimeException("Failed to serialize PortalEvent data", e);
         } catch (JsonMappingException e) {
@@ -50,7 +50,6 @@ public class PersistentPortalEvent implements Serializable {
     @Id
     @GeneratedValue(generator = "UP_RAW_EVENTS_GEN")
     @Column(name = "EVENT_ID")
-    @SuppressWarnings("unused")
     private final long id;
 
     @Index(name = "IDX_UP_RAW_EVENTS_TIMESTAMP")
@@ -113,6 +112,14 @@ public class PersistentPortalEvent implements Serializable {
         this.eventType = (Class<PortalEvent>) portalEvent.getClass();
     }
 
+    long getId() {
+        return this.id;
+    }
+
+    DateTime getTimestamp() {
+        return this.timestamp;
+    }
+
     public Class<PortalEvent> getEventType() {
         return this.eventType;
     }
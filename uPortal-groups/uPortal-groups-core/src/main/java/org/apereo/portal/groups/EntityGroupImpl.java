@@ -14,7 +14,9 @@
  */
 package org.apereo.portal.groups;
 
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -174,6 +176,12 @@ public class EntityGroupImpl extends GroupMemberImpl implements IEntityGroup {
             return true;
         }
 
+        // The closure index only knows committed memberships
+        final LocalGroupClosureIndex index = !hasAdds() && !hasDeletes() ? getClosureIndex() : null;
+        if (index != null) {
+            return deepContainsWithIndex(gm, index);
+        }
+
         boolean found = false;
         Iterator<IEntityGroup> it = getMemberGroups();
         while (it.hasNext() && !found) {
@@ -196,6 +204,71 @@ public class EntityGroupImpl extends GroupMemberImpl implements IEntityGroup {
 
         return found;
     }
+    /**
+     * Answers the question by walking up from gm instead of down from this group. Groups of our own
+     * service are resolved by the closure index; the parents of groups from other services (e.g.
+     * PAGS groups contained by local groups) are followed.
+     */
+    private boolean deepContainsWithIndex(IGroupMember gm, LocalGroupClosureIndex index)
+            throws GroupsException {
+        final ReferenceIndividualGroupService svc =
+                (ReferenceIndividualGroupService) getLocalGroupService();
+        if (svc.isLocalGroup(gm)) {
+            return index.isAncestor(getLocalKey(), gm.asGroup().getLocalKey());
+        }
+
+        final Set<IGroupMember> seen = new HashSet<>();
+        final Deque<IGroupMember> queue = new ArrayDeque<>();
+        queue.add(gm);
+        while (!queue.isEmpty()) {
+            for (IEntityGroup parent : queue.removeFirst().getParentGroups()) {
+                if (parent.equals(this)) {
+                    return true;
+                }
+                if (svc.isLocalGroup(parent)) {
+                    if (index.isAncestor(getLocalKey(), parent.getLocalKey())) {
+                        return true;
+                    }
+                } else if (seen.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the closure index of the group service of origin, or null if it does not maintain
+     * one.
+     */
+    /* package-private */ LocalGroupClosureIndex getClosureIndex() {
+        final IIndividualGroupService svc = getLocalGroupService();
+        return svc instanceof ReferenceIndividualGroupService
+                ? ((ReferenceIndividualGroupService) svc).getClosureIndex()
+                : null;
+    }
+
+    /**
+     * Returns every group that contains this one, recursively, as recorded by the closure index of
+     * the group service of origin, or null if it does not maintain one.
+     */
+    /* package-private */ Set<IEntityGroup> getIndexedAncestorGroups() throws GroupsException {
+        final LocalGroupClosureIndex index = getClosureIndex();
+        if (index == null) {
+            return null;
+        }
+        final ReferenceIndividualGroupService svc =
+                (ReferenceIndividualGroupService) getLocalGroupService();
+        final Set<IEntityGroup> rslt = new HashSet<>();
+        for (String key : index.getAncestorKeys(getLocalKey())) {
+            final IEntityGroup group = svc.findLocalGroup(key);
+            if (group != null) {
+                rslt.add(group);
+            }
+        }
+        return rslt;
+    }
+
     /** Delegates to the factory. */
     @Override
     public void delete() throws GroupsException {
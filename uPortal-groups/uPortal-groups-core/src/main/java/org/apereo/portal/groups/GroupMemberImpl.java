@@ -180,7 +180,15 @@ public abstract class GroupMemberImpl implements IGroupMember {
             // avoid stack overflow in case of circular group dependencies
             if (!rslt.contains(group)) {
                 rslt.add(group);
-                primGetAncestorGroups(group, rslt);
+                final Set<IEntityGroup> indexed =
+                        group instanceof EntityGroupImpl
+                                ? ((EntityGroupImpl) group).getIndexedAncestorGroups()
+                                : null;
+                if (indexed != null) {
+                    rslt.addAll(indexed);
+                } else {
+                    primGetAncestorGroups(group, rslt);
+                }
             }
         }
         return rslt;
@@ -0,0 +1,216 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Transitive closure of the group-in-group memberships of one local group service (the rows of
+ * <code>UP_GROUP_MEMBERSHIP</code> whose member is a group of the same service). For every group it
+ * holds the sorted keys of all its ancestor groups, so "is A an ancestor of B" is a binary search
+ * and the ancestors of B are available without walking the hierarchy.
+ *
+ * <p>The index is built in bulk and then kept current by {@link #updateMemberships(String,
+ * Collection, Collection)} and {@link #removeGroup(String)}, which recompute only the changed group
+ * and its descendants. Reads do not lock; writes are serialized. Groups the index has never seen
+ * have no memberships.
+ *
+ * @since 5.0
+ */
+/* package-private */ final class LocalGroupClosureIndex {
+
+    private static final String[] NO_ANCESTORS = new String[0];
+
+    /** Local key -> local keys of the groups that directly contain it (guarded by this) */
+    private final Map<String, Set<String>> parents = new HashMap<>();
+
+    /** Local key -> local keys of its direct member groups (guarded by this) */
+    private final Map<String, Set<String>> children = new HashMap<>();
+
+    /** Local key -> sorted local keys of all containing groups */
+    private final Map<String, String[]> ancestors = new ConcurrentHashMap<>();
+
+    private final long expires;
+
+    /**
+     * @param memberships Local key of each group -> local keys of its direct member groups
+     * @param maxAge Milliseconds after which {@link #isExpired()} answers true
+     */
+    public LocalGroupClosureIndex(
+            Map<String, ? extends Collection<String>> memberships, long maxAge) {
+        for (Map.Entry<String, ? extends Collection<String>> entry : memberships.entrySet()) {
+            for (String child : entry.getValue()) {
+                addEdge(entry.getKey(), child);
+            }
+        }
+        recompute(parents.keySet());
+        this.expires = System.currentTimeMillis() + maxAge;
+    }
+
+    /**
+     * The index is only maintained for changes made through this JVM; expiring it bounds how long
+     * changes made elsewhere (e.g. by other portal servers) go unseen.
+     */
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expires;
+    }
+
+    /**
+     * @return true if the group <code>ancestorKey</code> contains, recursively, <code>key</code>
+     */
+    public boolean isAncestor(String ancestorKey, String key) {
+        final String[] rslt = ancestors.get(key);
+        return rslt != null && Arrays.binarySearch(rslt, ancestorKey) >= 0;
+    }
+
+    /** @return the local keys of all the groups that contain, recursively, <code>key</code> */
+    public Collection<String> getAncestorKeys(String key) {
+        final String[] rslt = ancestors.get(key);
+        return rslt != null
+                ? Collections.unmodifiableList(Arrays.asList(rslt))
+                : Collections.<String>emptyList();
+    }
+
+    /** Applies the memberships added to and removed from the group <code>key</code>. */
+    public synchronized void updateMemberships(
+            String key, Collection<String> addedChildren, Collection<String> removedChildren) {
+        final Set<String> changed = new HashSet<>();
+        for (String child : addedChildren) {
+            addEdge(key, child);
+            changed.add(child);
+        }
+        for (String child : removedChildren) {
+            removeEdge(key, child);
+            changed.add(child);
+        }
+        recompute(getDescendantsAndSelf(changed));
+    }
+
+    /** Forgets a deleted group and every membership it took part in. */
+    public synchronized void removeGroup(String key) {
+        final Set<String> affected = getDescendantsAndSelf(Collections.singleton(key));
+        for (String parent : new ArrayList<>(getOrEmpty(parents, key))) {
+            removeEdge(parent, key);
+        }
+        for (String child : new ArrayList<>(getOrEmpty(children, key))) {
+            removeEdge(key, child);
+        }
+        affected.remove(key);
+        ancestors.remove(key);
+        recompute(affected);
+    }
+
+    /*
+     * Implementation
+     */
+
+    private void addEdge(String parent, String child) {
+        Set<String> set = parents.get(child);
+        if (set == null) {
+            set = new HashSet<>();
+            parents.put(child, set);
+        }
+        set.add(parent);
+        set = children.get(parent);
+        if (set == null) {
+            set = new HashSet<>();
+            children.put(parent, set);
+        }
+        set.add(child);
+    }
+
+    private void removeEdge(String parent, String child) {
+        final Set<String> p = parents.get(child);
+        if (p != null) {
+            p.remove(parent);
+            if (p.isEmpty()) {
+                parents.remove(child);
+            }
+        }
+        final Set<String> c = children.get(parent);
+        if (c != null) {
+            c.remove(child);
+            if (c.isEmpty()) {
+                children.remove(parent);
+            }
+        }
+    }
+
+    private Set<String> getDescendantsAndSelf(Collection<String> keys) {
+        final Set<String> rslt = new HashSet<>(keys);
+        final LinkedList<String> queue = new LinkedList<>(keys);
+        while (!queue.isEmpty()) {
+            for (String child : getOrEmpty(children, queue.removeFirst())) {
+                if (rslt.add(child)) {
+                    queue.add(child);
+                }
+            }
+        }
+        return rslt;
+    }
+
+    /**
+     * Recomputes the ancestors of the specified groups, which must include every descendant of any
+     * of them. Ancestors outside the set are current and are reused.
+     */
+    private void recompute(Collection<String> keys) {
+        final Set<String> pending = new HashSet<>(keys);
+        for (String key : keys) {
+            recompute(key, pending, new HashSet<String>());
+        }
+    }
+
+    private String[] recompute(String key, Set<String> pending, Set<String> visiting) {
+        if (!pending.contains(key)) {
+            final String[] rslt = ancestors.get(key);
+            return rslt != null ? rslt : NO_ANCESTORS;
+        }
+        final Set<String> direct = getOrEmpty(parents, key);
+        if (direct.isEmpty()) {
+            ancestors.remove(key);
+            pending.remove(key);
+            return NO_ANCESTORS;
+        }
+        if (!visiting.add(key)) {
+            // Circular membership;  EntityGroupImpl prevents them, but don't loop forever
+            return NO_ANCESTORS;
+        }
+        final Set<String> all = new TreeSet<>();
+        for (String parent : direct) {
+            all.add(parent);
+            all.addAll(Arrays.asList(recompute(parent, pending, visiting)));
+        }
+        visiting.remove(key);
+        final String[] rslt = all.toArray(new String[all.size()]);
+        ancestors.put(key, rslt);
+        pending.remove(key);
+        return rslt;
+    }
+
+    private static Set<String> getOrEmpty(Map<String, Set<String>> map, String key) {
+        final Set<String> rslt = map.get(key);
+        return rslt != null ? rslt : Collections.<String>emptySet();
+    }
+}
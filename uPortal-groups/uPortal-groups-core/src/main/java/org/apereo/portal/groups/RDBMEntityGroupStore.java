@@ -21,8 +21,10 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apereo.portal.EntityIdentifier;
@@ -62,6 +64,7 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
     private static String findParentGroupsForGroupSql;
     private static String findGroupSql;
     private static String findMemberGroupKeysSql;
+    private static String findGroupMembershipsSql;
     private static String findMemberGroupsSql;
     private static String insertGroupSql;
     private static String updateGroupSql;
@@ -529,6 +532,57 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
 
         return (String[]) groupKeys.toArray(new String[groupKeys.size()]);
     }
+    /**
+     * Find, in one query, every membership of a group of the given service in another group. Used
+     * to build a {@link LocalGroupClosureIndex}.
+     *
+     * @param serviceName the name of the local group service
+     * @return local key of each group -> local keys of its member groups from the same service
+     */
+    public Map<String, List<String>> findGroupMemberships(String serviceName)
+            throws GroupsException {
+        java.sql.Connection conn = null;
+        Map<String, List<String>> rslt = new HashMap<>();
+
+        try {
+            conn = RDBMServices.getConnection();
+            String sql = getFindGroupMembershipsSql();
+            PreparedStatement ps = conn.prepareStatement(sql);
+            try {
+                ps.setString(1, serviceName);
+                if (log.isDebugEnabled())
+                    log.debug(
+                            "RDBMEntityGroupStore.findGroupMemberships(): "
+                                    + ps
+                                    + " ("
+                                    + serviceName
+                                    + ")");
+                java.sql.ResultSet rs = ps.executeQuery();
+                try {
+                    while (rs.next()) {
+                        String groupKey = rs.getString(1);
+                        List<String> memberKeys = rslt.get(groupKey);
+                        if (memberKeys == null) {
+                            memberKeys = new ArrayList<>();
+                            rslt.put(groupKey, memberKeys);
+                        }
+                        memberKeys.add(rs.getString(2));
+                    }
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                ps.close();
+            }
+        } catch (Exception sqle) {
+            log.error("RDBMEntityGroupStore.findGroupMemberships(): " + sqle);
+            throw new GroupsException("Problem retrieving group memberships", sqle);
+        } finally {
+            RDBMServices.releaseConnection(conn);
+        }
+
+        return rslt;
+    }
     /**
      * Find the IUserGroups that are members of the group.
      *
@@ -806,6 +860,25 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
         return findMemberGroupKeysSql;
     }
     /** @return java.lang.String */
+    private static java.lang.String getFindGroupMembershipsSql() {
+        if (findGroupMembershipsSql == null) {
+            StringBuffer buff = new StringBuffer(200);
+            buff.append("SELECT ");
+            buff.append(MEMBER_GROUP_ID_COLUMN + ", " + MEMBER_MEMBER_KEY_COLUMN);
+            buff.append(" FROM ");
+            buff.append(MEMBER_TABLE);
+            buff.append(" WHERE ");
+            buff.append(MEMBER_MEMBER_SERVICE_COLUMN + EQUALS_PARAM);
+            buff.append(" AND ");
+            buff.append(MEMBER_IS_GROUP_COLUMN + EQ);
+            buff.append(sqlQuote(MEMBER_IS_GROUP));
+
+            findGroupMembershipsSql = buff.toString();
+        }
+
+        return findGroupMembershipsSql;
+    }
+    /** @return java.lang.String */
     private static java.lang.String getFindMemberGroupsSql() {
         if (findMemberGroupsSql == null) {
             StringBuffer buff = new StringBuffer(500);
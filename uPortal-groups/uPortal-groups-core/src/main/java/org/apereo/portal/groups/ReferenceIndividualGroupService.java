@@ -21,10 +21,12 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import javax.naming.InvalidNameException;
 import org.apereo.portal.EntityIdentifier;
 import org.apereo.portal.concurrency.CachingException;
 import org.apereo.portal.concurrency.IEntityLock;
 import org.apereo.portal.concurrency.LockingException;
+import org.apereo.portal.properties.PropertiesManager;
 import org.apereo.portal.services.EntityCachingService;
 import org.apereo.portal.services.EntityLockService;
 import org.apereo.portal.services.GroupService;
@@ -46,6 +48,18 @@ public class ReferenceIndividualGroupService extends ReferenceCompositeGroupServ
     // Entity searcher
     protected IEntitySearcher entitySearcher;
 
+    private static final boolean USE_CLOSURE_INDEX =
+            PropertiesManager.getPropertyAsBoolean(
+                    "org.apereo.portal.groups.ReferenceIndividualGroupService.useClosureIndex",
+                    true);
+    private static final long CLOSURE_INDEX_MAX_AGE =
+            PropertiesManager.getPropertyAsLong(
+                    "org.apereo.portal.groups.ReferenceIndividualGroupService.closureIndexMaxAge",
+                    300000L);
+
+    // Transitive closure of the group-in-group memberships of this service;  built on first use
+    private volatile LocalGroupClosureIndex closureIndex;
+
     /** ReferenceGroupsService constructor. */
     public ReferenceIndividualGroupService() throws GroupsException {
         this(new ComponentGroupServiceDescriptor());
@@ -77,6 +91,10 @@ public class ReferenceIndividualGroupService extends ReferenceCompositeGroupServ
         if (cacheInUse()) {
             cacheRemove(group);
         }
+        final LocalGroupClosureIndex index = closureIndex;
+        if (index != null) {
+            index.removeGroup(group.getLocalKey());
+        }
     }
 
     /**
@@ -221,6 +239,90 @@ public class ReferenceIndividualGroupService extends ReferenceCompositeGroupServ
         }
     }
 
+    /**
+     * Returns the pre-existing <code>IEntityGroup</code> of this service with the specified local
+     * key, or null if it does not exist.
+     */
+    protected IEntityGroup findLocalGroup(String localKey) throws GroupsException {
+        CompositeEntityIdentifier ent =
+                new CompositeEntityIdentifier(localKey, ICompositeGroupService.GROUP_ENTITY_TYPE);
+        try {
+            ent.setServiceName(getServiceName());
+        } catch (InvalidNameException ine) {
+            throw new GroupsException("Problem finding group " + localKey, ine);
+        }
+        return findGroup(ent);
+    }
+
+    /**
+     * Returns the transitive closure of the group-in-group memberships of this service, or null if
+     * the closure is not maintained for this service. The closure is only available when the
+     * memberships are stored by an <code>RDBMEntityGroupStore</code>; it is rebuilt in bulk once it
+     * is older than <code>closureIndexMaxAge</code> milliseconds, which bounds how long changes
+     * made on other portal servers go unseen.
+     */
+    /* package-private */ LocalGroupClosureIndex getClosureIndex() {
+        if (!USE_CLOSURE_INDEX || !(groupFactory instanceof RDBMEntityGroupStore)) {
+            return null;
+        }
+        LocalGroupClosureIndex rslt = closureIndex;
+        if (rslt == null || rslt.isExpired()) {
+            synchronized (this) {
+                rslt = closureIndex;
+                if (rslt == null || rslt.isExpired()) {
+                    try {
+                        final String svcName = getServiceName().toString();
+                        rslt =
+                                new LocalGroupClosureIndex(
+                                        ((RDBMEntityGroupStore) groupFactory)
+                                                .findGroupMemberships(svcName),
+                                        CLOSURE_INDEX_MAX_AGE);
+                        log.debug("Built the group closure index for service {}", svcName);
+                    } catch (GroupsException ge) {
+                        log.warn(
+                                "Failed to build the group closure index for service {}",
+                                getServiceName(),
+                                ge);
+                        return null;
+                    }
+                    closureIndex = rslt;
+                }
+            }
+        }
+        return rslt;
+    }
+
+    /** Answers if the group belongs to this service and so is covered by its closure index. */
+    /* package-private */ boolean isLocalGroup(IGroupMember gm) {
+        return gm.isGroup() && getServiceName().equals(gm.asGroup().getServiceName());
+    }
+
+    /**
+     * Applies the group-in-group changes of the updated group to the closure index. Members that
+     * belong to other services are not tracked.
+     */
+    private void updateClosureIndex(EntityGroupImpl group) {
+        final LocalGroupClosureIndex index = closureIndex;
+        if (index == null) {
+            return;
+        }
+        final List<String> added = new ArrayList<>();
+        for (IGroupMember gm : group.getAddedMembers().values()) {
+            if (isLocalGroup(gm)) {
+                added.add(gm.asGroup().getLocalKey());
+            }
+        }
+        final List<String> removed = new ArrayList<>();
+        for (IGroupMember gm : group.getRemovedMembers().values()) {
+            if (isLocalGroup(gm)) {
+                removed.add(gm.asGroup().getLocalKey());
+            }
+        }
+        if (!added.isEmpty() || !removed.isEmpty()) {
+            index.updateMemberships(group.getLocalKey(), added, removed);
+        }
+    }
+
     /**
      * Returns a pre-existing <code>ILockableEntityGroup</code> or null if the group is not found.
      */
@@ -717,6 +819,8 @@ public class ReferenceIndividualGroupService extends ReferenceCompositeGroupServ
         EntityGroupImpl egi = (EntityGroupImpl) group;
         GroupMemberImpl gmi = null;
 
+        updateClosureIndex(egi);
+
         for (Iterator it = egi.getAddedMembers().values().iterator(); it.hasNext(); ) {
             gmi = (GroupMemberImpl) it.next();
             gmi.invalidateInParentGroupsCache(Collections.singleton((IGroupMember) gmi));
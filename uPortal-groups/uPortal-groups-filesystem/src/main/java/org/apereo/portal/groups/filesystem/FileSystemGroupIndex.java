@@ -0,0 +1,267 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups.filesystem;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Inverted index of the group files below one entity type directory of a <code>
+ * FileSystemGroupStore</code>: member key -> files that list it. The index is built by reading
+ * every file once and is then kept current by a <code>WatchService</code> that re-reads only the
+ * files that change.
+ *
+ * <p>Each member key maps to an immutable <code>Set</code> that is replaced, never modified, so
+ * readers don't lock. Changes are applied one file at a time by the watcher thread.
+ */
+/* package-private */ final class FileSystemGroupIndex {
+    private static final Log log = LogFactory.getLog(FileSystemGroupIndex.class);
+
+    private final FileSystemGroupStore store;
+    private final File root;
+    private final FilenameFilter fileFilter;
+    private final WatchService watchService;
+    private final Thread watcher;
+
+    // Guarded by this.
+    private final Map<WatchKey, File> watchedDirectories = new HashMap<>();
+    private final Map<File, MemberIds> membersByFile = new HashMap<>();
+
+    // Read without locking;  the values are immutable.
+    private final ConcurrentMap<String, Set<File>> filesByEntityKey = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<File>> filesByGroupKey = new ConcurrentHashMap<>();
+
+    private volatile boolean closed = false;
+
+    /** The entity and group keys listed in one group file. */
+    private static final class MemberIds {
+        private final Set<String> entityIds = new HashSet<>();
+        private final Set<String> groupIds = new HashSet<>();
+    }
+
+    /**
+     * Reads every group file below <code>root</code> and starts watching the directory tree.
+     *
+     * @throws IOException if the file system does not support watching <code>root</code>
+     */
+    public FileSystemGroupIndex(FileSystemGroupStore store, File root, FilenameFilter fileFilter)
+            throws IOException {
+        this.store = store;
+        this.root = root;
+        this.fileFilter = fileFilter;
+        this.watchService = root.toPath().getFileSystem().newWatchService();
+        synchronized (this) {
+            scan(root);
+        }
+        this.watcher =
+                new Thread("FileSystemGroupIndex-" + root.getName()) {
+                    @Override
+                    public void run() {
+                        processEvents();
+                    }
+                };
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+    }
+
+    /** Stops watching the directory tree. */
+    public void close() {
+        closed = true;
+        try {
+            watchService.close();
+        } catch (IOException ioe) {
+            log.warn("Problem closing the watch service for " + root, ioe);
+        }
+    }
+
+    /** @return the group files that list the entity key */
+    public Set<File> getFilesContainingEntity(String key) {
+        return getOrEmpty(filesByEntityKey, key);
+    }
+
+    /** @return the group files that list the group key */
+    public Set<File> getFilesContainingGroup(String key) {
+        return getOrEmpty(filesByGroupKey, key);
+    }
+
+    /** Answers if this index is current for <code>f</code>. */
+    public boolean covers(File f) {
+        return !closed && f.getPath().startsWith(root.getPath());
+    }
+
+    /** @return the number of group files indexed */
+    public synchronized int size() {
+        return membersByFile.size();
+    }
+
+    /*
+     * Implementation
+     */
+
+    private void processEvents() {
+        while (!closed) {
+            final WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                break;
+            }
+            try {
+                synchronized (this) {
+                    processEvents(key);
+                }
+            } catch (RuntimeException re) {
+                log.error("Problem updating the group file index for " + root, re);
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Stopped watching " + root);
+        }
+    }
+
+    private void processEvents(WatchKey key) {
+        final File dir = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || dir == null) {
+                log.info("Missed file system events;  re-reading group files below " + root);
+                removeBelow(root);
+                scan(root);
+                continue;
+            }
+            final File f = new File(dir, ((Path) event.context()).toString());
+            if (!fileFilter.accept(dir, f.getName())) {
+                continue;
+            }
+            if (event.kind() == ENTRY_MODIFY && f.isDirectory()) {
+                // Changes to the files in it are reported by its own key
+                continue;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Group file event " + event.kind().name() + " for " + f);
+            }
+            removeBelow(f);
+            if (event.kind() != ENTRY_DELETE) {
+                scan(f);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+    }
+
+    /** Indexes f, or every file below it if it is a directory. */
+    private void scan(File f) {
+        if (f.isDirectory()) {
+            try {
+                final WatchKey key =
+                        f.toPath().register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                watchedDirectories.put(key, f);
+            } catch (IOException | ClosedWatchServiceException e) {
+                log.warn("Unable to watch group directory " + f, e);
+            }
+            final File[] files = f.listFiles(fileFilter);
+            if (files != null) {
+                for (File child : files) {
+                    scan(child);
+                }
+            }
+        } else if (f.isFile()) {
+            final MemberIds ids = new MemberIds();
+            try {
+                store.readIdsFromFile(f, ids.entityIds, ids.groupIds);
+            } catch (IOException ioe) {
+                // Most likely deleted or still being written;  a later event will catch up
+                log.warn("Problem reading group file " + f, ioe);
+                return;
+            }
+            membersByFile.put(f, ids);
+            addAll(filesByEntityKey, ids.entityIds, f);
+            addAll(filesByGroupKey, ids.groupIds, f);
+        }
+        store.fileChanged(f);
+    }
+
+    /** Removes f and, if it is a directory, every file below it from the index. */
+    private void removeBelow(File f) {
+        final List<File> removed = new ArrayList<>();
+        if (membersByFile.containsKey(f)) {
+            removed.add(f);
+        } else {
+            final String dirPath = f.getPath() + File.separator;
+            for (File indexed : membersByFile.keySet()) {
+                if (indexed.getPath().startsWith(dirPath)) {
+                    removed.add(indexed);
+                }
+            }
+        }
+        for (File indexed : removed) {
+            final MemberIds ids = membersByFile.remove(indexed);
+            removeAll(filesByEntityKey, ids.entityIds, indexed);
+            removeAll(filesByGroupKey, ids.groupIds, indexed);
+            store.fileChanged(indexed);
+        }
+        store.fileChanged(f);
+    }
+
+    private static void addAll(
+            ConcurrentMap<String, Set<File>> index, Collection<String> keys, File f) {
+        for (String key : keys) {
+            final Set<File> files = new HashSet<>(getOrEmpty(index, key));
+            files.add(f);
+            index.put(key, Collections.unmodifiableSet(files));
+        }
+    }
+
+    private static void removeAll(
+            ConcurrentMap<String, Set<File>> index, Collection<String> keys, File f) {
+        for (String key : keys) {
+            final Set<File> files = new HashSet<>(getOrEmpty(index, key));
+            files.remove(f);
+            if (files.isEmpty()) {
+                index.remove(key);
+            } else {
+                index.put(key, Collections.unmodifiableSet(files));
+            }
+        }
+    }
+
+    private static Set<File> getOrEmpty(Map<String, Set<File>> index, String key) {
+        final Set<File> rslt = index.get(key);
+        return rslt != null ? rslt : Collections.<File>emptySet();
+    }
+}
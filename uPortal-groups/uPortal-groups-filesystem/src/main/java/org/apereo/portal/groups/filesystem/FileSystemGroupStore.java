@@ -30,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -46,6 +47,7 @@ import org.apereo.portal.groups.IEntitySearcher;
 import org.apereo.portal.groups.IEntityStore;
 import org.apereo.portal.groups.IGroupMember;
 import org.apereo.portal.groups.ILockableEntityGroup;
+import org.apereo.portal.properties.PropertiesManager;
 import org.apereo.portal.security.IPerson;
 import org.apereo.portal.services.GroupService;
 import org.apereo.portal.spring.locator.EntityTypesLocator;
@@ -149,6 +151,14 @@ public class FileSystemGroupStore implements IEntityGroupStore, IEntityStore, IE
 
     private Class defaultEntityType;
 
+    // Inverted indexes of the group files, one per entity type directory.
+    private static final boolean USE_INDEX =
+            PropertiesManager.getPropertyAsBoolean(
+                    "org.apereo.portal.groups.filesystem.FileSystemGroupStore.useIndex", true);
+    private final Map<Class, FileSystemGroupIndex> indexes = new ConcurrentHashMap<>();
+    private final Set<Class> unindexedTypes = Collections.synchronizedSet(new HashSet());
+    private volatile boolean destroyed = false;
+
     // Value holder adds last modified timestamp.
     private class GroupHolder {
         private long lastModified = 0;
@@ -243,7 +253,9 @@ public class FileSystemGroupStore implements IEntityGroupStore, IEntityStore, IE
 
         GroupHolder groupHolder = cacheGet(key);
 
-        if (groupHolder == null || (groupHolder.getLastModified() != f.lastModified())) {
+        // A watched file is evicted from the cache when it changes.
+        if (groupHolder == null
+                || (!isIndexed(f) && groupHolder.getLastModified() != f.lastModified())) {
             if (log.isDebugEnabled()) {
                 log.debug(
                         DEBUG_CLASS_NAME
@@ -276,7 +288,13 @@ public class FileSystemGroupStore implements IEntityGroupStore, IEntityStore, IE
 
         List groups = new ArrayList();
         File root = getFileRoot(ent.getType());
-        if (root != null) {
+        FileSystemGroupIndex index = getIndex(ent.getType(), root);
+        if (index != null) {
+            for (Iterator itr = index.getFilesContainingEntity(ent.getKey()).iterator();
+                    itr.hasNext(); ) {
+                groups.add(find((File) itr.next()));
+            }
+        } else if (root != null) {
             File[] files = getAllFilesBelow(root);
 
             try {
@@ -312,6 +330,15 @@ public class FileSystemGroupStore implements IEntityGroupStore, IEntityStore, IE
             }
 
             File root = getFileRoot(group.getLeafType());
+            FileSystemGroupIndex index = getIndex(group.getLeafType(), root);
+            if (index != null) {
+                for (Iterator itr = index.getFilesContainingGroup(group.getLocalKey()).iterator();
+                        itr.hasNext(); ) {
+                    groups.add(find((File) itr.next()));
+                }
+                return groups.iterator();
+            }
+
             File[] files = getAllFilesBelow(root);
             try {
                 for (int i = 0; i < files.length; i++) {
@@ -599,32 +626,124 @@ public class FileSystemGroupStore implements IEntityGroupStore, IEntityStore, IE
     protected Collection getIdsFromFile(File idFile, boolean groupIds)
             throws IOException, FileNotFoundException {
         Collection ids = new HashSet();
+        if (groupIds) {
+            readIdsFromFile(idFile, null, ids);
+        } else {
+            readIdsFromFile(idFile, ids, null);
+        }
+        return ids;
+    }
+    /**
+     * Reads the entity and group keys of a file of ids in one pass.
+     *
+     * @param idFile java.io.File - a file of ids.
+     * @param entityIds Collection - receives the entity keys, or null to skip them.
+     * @param groupIds Collection - receives the group keys, or null to skip them.
+     */
+    protected void readIdsFromFile(File idFile, Collection entityIds, Collection groupIds)
+            throws IOException, FileNotFoundException {
         BufferedReader br = new BufferedReader(new FileReader(idFile));
         String line, tok;
 
-        line = br.readLine();
-        while (line != null) {
-            line = line.trim();
-            if (!line.startsWith(COMMENT) && (line.length() > 0)) {
-                StringTokenizer st = new StringTokenizer(line);
-                tok = st.nextToken();
-                if (tok != null) {
-                    if (tok.startsWith(GROUP_PREFIX)) {
-                        if (groupIds) {
-                            ids.add(tok.substring(GROUP_PREFIX.length()));
-                        }
-                    } else {
-                        if (!groupIds) {
-                            ids.add(tok);
+        try {
+            line = br.readLine();
+            while (line != null) {
+                line = line.trim();
+                if (!line.startsWith(COMMENT) && (line.length() > 0)) {
+                    StringTokenizer st = new StringTokenizer(line);
+                    tok = st.nextToken();
+                    if (tok != null) {
+                        if (tok.startsWith(GROUP_PREFIX)) {
+                            if (groupIds != null) {
+                                groupIds.add(tok.substring(GROUP_PREFIX.length()));
+                            }
+                        } else {
+                            if (entityIds != null) {
+                                entityIds.add(tok);
+                            }
                         }
                     }
                 }
+                line = br.readLine();
             }
-            line = br.readLine();
+        } finally {
+            br.close();
+        }
+    }
+    /**
+     * Returns the inverted index of the group files of the given type, building it on first use, or
+     * null if the files are not indexed.
+     *
+     * @param type Class - the entity type.
+     * @param root File - the directory for groups of that type, or null if there is none.
+     * @return FileSystemGroupIndex
+     */
+    private FileSystemGroupIndex getIndex(Class type, File root) {
+        if (!USE_INDEX || destroyed || root == null || unindexedTypes.contains(type)) {
+            return null;
+        }
+        FileSystemGroupIndex index = indexes.get(type);
+        if (index == null) {
+            synchronized (indexes) {
+                if (destroyed) {
+                    return null;
+                }
+                index = indexes.get(type);
+                if (index == null) {
+                    try {
+                        index = new FileSystemGroupIndex(this, root, fileFilter);
+                    } catch (IOException ex) {
+                        log.warn(
+                                DEBUG_CLASS_NAME
+                                        + ".getIndex(): unable to watch "
+                                        + root
+                                        + ";  group files will be read on each lookup",
+                                ex);
+                        unindexedTypes.add(type);
+                        return null;
+                    }
+                    if (log.isDebugEnabled()) {
+                        log.debug(
+                                DEBUG_CLASS_NAME
+                                        + ".getIndex(): indexed "
+                                        + index.size()
+                                        + " group files below "
+                                        + root);
+                    }
+                    indexes.put(type, index);
+                }
+            }
+        }
+        return index;
+    }
+    /**
+     * Stops the watcher threads of the group file indexes. Lookups made afterwards read the group
+     * files directly.
+     */
+    public void destroy() {
+        synchronized (indexes) {
+            destroyed = true;
+            for (FileSystemGroupIndex index : indexes.values()) {
+                index.close();
+            }
+            indexes.clear();
+        }
+    }
+    /** Answers if changes to <code>f</code> are tracked by an index. */
+    private boolean isIndexed(File f) {
+        for (Iterator itr = indexes.values().iterator(); itr.hasNext(); ) {
+            if (((FileSystemGroupIndex) itr.next()).covers(f)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    /** Called by an index when <code>f</code> has been created, modified or deleted. */
+    /* package-private */ void fileChanged(File f) {
+        String key = getKeyFromFile(f);
+        if (key != null) {
+            getCache().remove(key);
         }
-        br.close();
-
-        return ids;
     }
 
     protected String getKeyFromFile(File f) {
@@ -841,6 +960,16 @@ public class FileSystemGroupStore implements IEntityGroupStore, IEntityStore, IE
      * @return boolean
      */
     private boolean fileContains(File file, IGroupMember member) throws GroupsException {
+        FileSystemGroupIndex index =
+                getIndex(member.getLeafType(), getFileRoot(member.getLeafType()));
+        if (index != null) {
+            Set files =
+                    member.isGroup()
+                            ? index.getFilesContainingGroup(member.getKey())
+                            : index.getFilesContainingEntity(member.getKey());
+            return files.contains(file);
+        }
+
         Collection ids = null;
         try {
             ids = member.isGroup() ? getGroupIdsFromFile(file) : getEntityIdsFromFile(file);
@@ -22,6 +22,11 @@ import org.apereo.portal.groups.IEntityGroupStore;
 import org.apereo.portal.groups.IEntityGroupStoreFactory;
 import org.apereo.portal.groups.IEntityStore;
 import org.apereo.portal.groups.IEntityStoreFactory;
+import org.apereo.portal.spring.locator.ApplicationContextLocator;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextClosedEvent;
 
 /**
  * Returns <code>IEntityGroupStore</code> and <code>IEntityStore</code> implementations for the file
@@ -35,7 +40,32 @@ public class FileSystemGroupStoreFactory implements IEntityGroupStoreFactory, IE
     }
     /** @return org.apereo.portal.groups.filesystem.FileSystemGroupStore */
     protected static FileSystemGroupStore getGroupStore() throws GroupsException {
-        return new FileSystemGroupStore();
+        final FileSystemGroupStore store = new FileSystemGroupStore();
+        destroyOnClose(store);
+        return store;
+    }
+    /** Stops the store's file watchers when the portal application context is closed. */
+    private static void destroyOnClose(final FileSystemGroupStore store) {
+        final ApplicationContext applicationContext =
+                ApplicationContextLocator.getApplicationContext();
+        if (!(applicationContext instanceof ConfigurableApplicationContext)) {
+            log.warn(
+                    "Unable to listen for the close of "
+                            + applicationContext
+                            + ";  group file watchers will run until shutdown");
+            return;
+        }
+        ((ConfigurableApplicationContext) applicationContext)
+                .addApplicationListener(
+                        new ApplicationListener<ContextClosedEvent>() {
+                            @Override
+                            public void onApplicationEvent(ContextClosedEvent event) {
+                                // Child contexts publish their close events here too
+                                if (event.getApplicationContext() == applicationContext) {
+                                    store.destroy();
+                                }
+                            }
+                        });
     }
     /**
      * Return an instance of the entity store implementation.
@@ -14,7 +14,6 @@
  */
 package org.apereo.portal.groups.pags.dao;
 
-import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
@@ -74,6 +73,9 @@ public class EntityPersonAttributesGroupStore
      */
     private final Cache membershipCache;
 
+    /** Computes all the PAGS groups of a person in one pass */
+    private final PagsGroupEvaluatorService pagsGroupEvaluatorService;
+
     public EntityPersonAttributesGroupStore() {
         super();
         ApplicationContext applicationContext = ApplicationContextLocator.getApplicationContext();
@@ -91,6 +93,8 @@ public class EntityPersonAttributesGroupStore
         this.membershipCache =
                 cacheManager.getCache(
                         "org.apereo.portal.groups.pags.dao.EntityPersonAttributesGroupStore.membership");
+        this.pagsGroupEvaluatorService =
+                applicationContext.getBean(PagsGroupEvaluatorService.class);
     }
 
     @Override
@@ -252,15 +256,72 @@ public class EntityPersonAttributesGroupStore
         Set<IPersonAttributesGroupDefinition> pagsGroups =
                 personAttributesGroupDefinitionDao.getPersonAttributesGroupDefinitions();
         List<IEntityGroup> results = new ArrayList<IEntityGroup>();
+        List<IEntityGroup> uncached = new ArrayList<IEntityGroup>();
         for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
             IEntityGroup group = convertPagsGroupToEntity(pagsGroup);
-            if (contains(group, member)) {
+            final MembershipCacheKey cacheKey =
+                    new MembershipCacheKey(
+                            group.getEntityIdentifier(), member.getUnderlyingEntityIdentifier());
+            final Element element = membershipCache.get(cacheKey);
+            if (element == null) {
+                uncached.add(group);
+            } else if ((Boolean) element.getObjectValue()) {
                 results.add(group);
             }
         }
+
+        if (!uncached.isEmpty()) {
+            final PagsGroupEvaluator evaluator = pagsGroupEvaluatorService.getEvaluator();
+            final Set<String> memberOf =
+                    evaluator != null ? evaluateAllGroups(evaluator, member) : null;
+            for (IEntityGroup group : uncached) {
+                if (memberOf != null && evaluator.isCompiled(group.getName())) {
+                    // Warm the cache with every decision, not just the positive ones
+                    final boolean answer = memberOf.contains(group.getName());
+                    final MembershipCacheKey cacheKey =
+                            new MembershipCacheKey(
+                                    group.getEntityIdentifier(),
+                                    member.getUnderlyingEntityIdentifier());
+                    membershipCache.put(new Element(cacheKey, answer));
+                    if (answer) {
+                        results.add(group);
+                    }
+                } else if (contains(group, member)) {
+                    results.add(group);
+                }
+            }
+        }
+
         return results.iterator();
     }
 
+    /**
+     * Evaluates every compiled PAGS group against the attributes of the specified member in one
+     * pass.
+     *
+     * @return the names of the groups that contain the member, or null if the evaluation failed (in
+     *     which case groups must be evaluated one at a time)
+     */
+    private Set<String> evaluateAllGroups(PagsGroupEvaluator evaluator, IEntity member) {
+        try {
+            final IPersonAttributeDao pa = PersonAttributeDaoLocator.getPersonAttributeDao();
+            final IPersonAttributes personAttributes = pa.getPerson(member.getKey());
+            if (personAttributes == null) {
+                return Collections.emptySet();
+            }
+            final RestrictedPerson rp = PersonFactory.createRestrictedPerson();
+            rp.setAttributes(personAttributes.getAttributes());
+            return evaluator.evaluate(rp);
+        } catch (Exception ex) {
+            logger.warn(
+                    "Failed to evaluate PAGS groups in one pass for member {};  falling back to "
+                            + "evaluating each group",
+                    member,
+                    ex);
+            return null;
+        }
+    }
+
     @Override
     public Iterator<IEntityGroup> findEntitiesForGroup(IEntityGroup group) throws GroupsException {
         // PAGS groups are synthetic;  we don't support this behavior.
@@ -429,16 +490,7 @@ public class EntityPersonAttributesGroupStore
     }
 
     private IPersonTester initializeTester(IPersonAttributesGroupTestDefinition test) {
-        try {
-            Class<?> testerClass = Class.forName(test.getTesterClassName());
-            Constructor<?> c =
-                    testerClass.getConstructor(IPersonAttributesGroupTestDefinition.class);
-            Object o = c.newInstance(test);
-            return (IPersonTester) o;
-        } catch (Exception e) {
-            logger.error("Error in initializing tester class: {}", test.getTesterClassName(), e);
-            return null;
-        }
+        return PagsGroupEvaluator.initializeTester(test);
     }
 
     private Set<IEntityGroup> getParentGroups(String name, Set<IEntityGroup> groups)
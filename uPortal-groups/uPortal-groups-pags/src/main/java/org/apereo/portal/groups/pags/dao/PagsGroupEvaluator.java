@@ -0,0 +1,346 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups.pags.dao;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apereo.portal.groups.pags.IPersonTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsIgnoreCaseTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsTester;
+import org.apereo.portal.security.IPerson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiled form of every PAGS group definition, used to compute all the PAGS groups a person
+ * belongs to in a single pass.
+ *
+ * <p>Testers are shared between groups when they have the same class, attribute name, and test
+ * value, so each distinct test is evaluated at most once per person. {@link StringEqualsTester} and
+ * {@link StringEqualsIgnoreCaseTester} tests are not evaluated individually at all; they are
+ * indexed by attribute name and test value, and the person's values for each indexed attribute are
+ * looked up once. The remaining testers are evaluated lazily, only when a test group still depends
+ * on them. The result for each group is the same as {@link
+ * org.apereo.portal.groups.pags.PagsGroup#contains(IPerson)}.
+ *
+ * <p>Instances are immutable and safe for concurrent use.
+ *
+ * @since 5.0
+ */
+public final class PagsGroupEvaluator {
+
+    private static final byte UNKNOWN = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+
+    private static final Logger logger = LoggerFactory.getLogger(PagsGroupEvaluator.class);
+
+    /** Distinct testers, indexed by test id */
+    private final List<IPersonTester> testers;
+
+    /** Ids of the tests answered by the equality indexes */
+    private final int[] indexedTests;
+
+    /** Attribute name -> test value -> ids of {@link StringEqualsTester} tests */
+    private final Map<String, Map<String, int[]>> equalsIndex;
+
+    /** Attribute name -> case-folded test value -> ids of {@link StringEqualsIgnoreCaseTester} */
+    private final Map<String, Map<String, int[]>> equalsIgnoreCaseIndex;
+
+    /** Group name -> test groups -> ids of the tests that must all pass */
+    private final Map<String, int[][]> groups;
+
+    private PagsGroupEvaluator(
+            List<IPersonTester> testers,
+            int[] indexedTests,
+            Map<String, Map<String, int[]>> equalsIndex,
+            Map<String, Map<String, int[]>> equalsIgnoreCaseIndex,
+            Map<String, int[][]> groups) {
+        this.testers = testers;
+        this.indexedTests = indexedTests;
+        this.equalsIndex = equalsIndex;
+        this.equalsIgnoreCaseIndex = equalsIgnoreCaseIndex;
+        this.groups = groups;
+    }
+
+    /**
+     * Compiles the specified definitions. Groups that reference a tester which cannot be created
+     * are left out, and {@link #isCompiled(String)} answers false for them.
+     */
+    public static PagsGroupEvaluator compile(
+            Collection<IPersonAttributesGroupDefinition> definitions) {
+        final Compiler compiler = new Compiler();
+        for (IPersonAttributesGroupDefinition definition : definitions) {
+            compiler.addGroup(definition);
+        }
+        return compiler.build();
+    }
+
+    /**
+     * Creates the tester described by the specified test definition.
+     *
+     * @return the tester, or null if it could not be created
+     */
+    /* package-private */ static IPersonTester initializeTester(
+            IPersonAttributesGroupTestDefinition test) {
+        try {
+            Class<?> testerClass = Class.forName(test.getTesterClassName());
+            Constructor<?> c =
+                    testerClass.getConstructor(IPersonAttributesGroupTestDefinition.class);
+            Object o = c.newInstance(test);
+            return (IPersonTester) o;
+        } catch (Exception e) {
+            logger.error("Error in initializing tester class: {}", test.getTesterClassName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the named group was compiled and is answered by {@link #evaluate(IPerson)}
+     */
+    public boolean isCompiled(String groupName) {
+        return groups.containsKey(groupName);
+    }
+
+    /** @return the number of compiled groups */
+    public int getGroupCount() {
+        return groups.size();
+    }
+
+    /** @return the number of distinct tests shared by the compiled groups */
+    public int getTestCount() {
+        return testers.size();
+    }
+
+    /**
+     * Computes the names of all compiled groups that contain the specified person.
+     *
+     * @throws RuntimeException if one of the testers fails for this person
+     */
+    public Set<String> evaluate(IPerson person) {
+        final byte[] results = new byte[testers.size()];
+        for (int testId : indexedTests) {
+            results[testId] = FALSE;
+        }
+        for (Map.Entry<String, Map<String, int[]>> entry : equalsIndex.entrySet()) {
+            final Object[] values = person.getAttributeValues(entry.getKey());
+            if (values != null) {
+                for (Object value : values) {
+                    if (value instanceof String) {
+                        markTrue(results, entry.getValue().get(value));
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, Map<String, int[]>> entry : equalsIgnoreCaseIndex.entrySet()) {
+            final Object[] values = person.getAttributeValues(entry.getKey());
+            if (values != null) {
+                for (Object value : values) {
+                    if (value instanceof String) {
+                        markTrue(results, entry.getValue().get(foldCase((String) value)));
+                    }
+                }
+            }
+        }
+
+        final Set<String> rslt = new HashSet<>();
+        for (Map.Entry<String, int[][]> entry : groups.entrySet()) {
+            for (int[] testGroup : entry.getValue()) {
+                if (testAll(testGroup, person, results)) {
+                    rslt.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        return rslt;
+    }
+
+    private boolean testAll(int[] testGroup, IPerson person, byte[] results) {
+        for (int testId : testGroup) {
+            byte result = results[testId];
+            if (result == UNKNOWN) {
+                result = testers.get(testId).test(person) ? TRUE : FALSE;
+                results[testId] = result;
+            }
+            if (result == FALSE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void markTrue(byte[] results, int[] testIds) {
+        if (testIds != null) {
+            for (int testId : testIds) {
+                results[testId] = TRUE;
+            }
+        }
+    }
+
+    /**
+     * Maps a String to a key that is equal for two Strings exactly when {@link
+     * String#equalsIgnoreCase(String)} would answer true, using the same per-character comparison.
+     */
+    /* package-private */ static String foldCase(String s) {
+        final char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    /*
+     * Implementation
+     */
+
+    private static final class Compiler {
+
+        private final List<IPersonTester> testers = new ArrayList<>();
+        private final Map<List<String>, Integer> testIds = new HashMap<>();
+        private final Set<Integer> indexedTests = new HashSet<>();
+        private final Map<String, Map<String, List<Integer>>> equalsIndex = new HashMap<>();
+        private final Map<String, Map<String, List<Integer>>> equalsIgnoreCaseIndex =
+                new HashMap<>();
+        private final Map<String, int[][]> groups = new HashMap<>();
+
+        private void addGroup(IPersonAttributesGroupDefinition definition) {
+            final List<int[]> testGroups = new ArrayList<>();
+            for (IPersonAttributesGroupTestGroupDefinition testGroup : definition.getTestGroups()) {
+                final List<Integer> tests = new ArrayList<>();
+                for (IPersonAttributesGroupTestDefinition test : testGroup.getTests()) {
+                    final Integer testId = addTest(test);
+                    if (testId == null) {
+                        /*
+                         * Same policy as EntityPersonAttributesGroupStore:  a group
+                         * with a missing test could have a wider membership than
+                         * intended, so keep it out of the mix entirely.
+                         */
+                        return;
+                    }
+                    tests.add(testId);
+                }
+                testGroups.add(toTestGroup(tests));
+            }
+            groups.put(definition.getName(), testGroups.toArray(new int[testGroups.size()][]));
+        }
+
+        private Integer addTest(IPersonAttributesGroupTestDefinition test) {
+            final List<String> key =
+                    Arrays.asList(
+                            test.getTesterClassName(),
+                            test.getAttributeName(),
+                            test.getTestValue());
+            Integer rslt = testIds.get(key);
+            if (rslt != null) {
+                return rslt;
+            }
+            final IPersonTester tester = initializeTester(test);
+            if (tester == null) {
+                return null;
+            }
+            rslt = testers.size();
+            testers.add(tester);
+            testIds.put(key, rslt);
+
+            // Only the exact classes;  subclasses may redefine the comparison
+            if (tester.getClass() == StringEqualsTester.class && test.getTestValue() != null) {
+                addToIndex(equalsIndex, test.getAttributeName(), test.getTestValue(), rslt);
+            } else if (tester.getClass() == StringEqualsIgnoreCaseTester.class
+                    && test.getTestValue() != null) {
+                addToIndex(
+                        equalsIgnoreCaseIndex,
+                        test.getAttributeName(),
+                        foldCase(test.getTestValue()),
+                        rslt);
+            }
+            return rslt;
+        }
+
+        private void addToIndex(
+                Map<String, Map<String, List<Integer>>> index,
+                String attributeName,
+                String value,
+                Integer testId) {
+            Map<String, List<Integer>> values = index.get(attributeName);
+            if (values == null) {
+                values = new HashMap<>();
+                index.put(attributeName, values);
+            }
+            List<Integer> ids = values.get(value);
+            if (ids == null) {
+                ids = new ArrayList<>();
+                values.put(value, ids);
+            }
+            ids.add(testId);
+            indexedTests.add(testId);
+        }
+
+        /** Orders the indexed tests first, since they are already answered */
+        private int[] toTestGroup(List<Integer> tests) {
+            final int[] rslt = new int[tests.size()];
+            int i = 0;
+            for (Integer testId : tests) {
+                if (indexedTests.contains(testId)) {
+                    rslt[i++] = testId;
+                }
+            }
+            for (Integer testId : tests) {
+                if (!indexedTests.contains(testId)) {
+                    rslt[i++] = testId;
+                }
+            }
+            return rslt;
+        }
+
+        private PagsGroupEvaluator build() {
+            final int[] indexed = new int[indexedTests.size()];
+            int i = 0;
+            for (Integer testId : indexedTests) {
+                indexed[i++] = testId;
+            }
+            return new PagsGroupEvaluator(
+                    Collections.unmodifiableList(testers),
+                    indexed,
+                    freeze(equalsIndex),
+                    freeze(equalsIgnoreCaseIndex),
+                    Collections.unmodifiableMap(groups));
+        }
+
+        private static Map<String, Map<String, int[]>> freeze(
+                Map<String, Map<String, List<Integer>>> index) {
+            final Map<String, Map<String, int[]>> rslt = new HashMap<>();
+            for (Map.Entry<String, Map<String, List<Integer>>> attribute : index.entrySet()) {
+                final Map<String, int[]> values = new HashMap<>();
+                for (Map.Entry<String, List<Integer>> value : attribute.getValue().entrySet()) {
+                    final int[] ids = new int[value.getValue().size()];
+                    for (int i = 0; i < ids.length; i++) {
+                        ids[i] = value.getValue().get(i);
+                    }
+                    values.put(value.getKey(), ids);
+                }
+                rslt.put(attribute.getKey(), values);
+            }
+            return rslt;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups.pags.dao;
+
+import java.util.concurrent.atomic.AtomicLong;
+import net.sf.ehcache.Cache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Holds the current {@link PagsGroupEvaluator}, compiling it on first use and again whenever PAGS
+ * definitions change (or it reaches its maximum age, which covers changes made outside {@link
+ * PagsService}, e.g. by data import).
+ *
+ * @since 5.0
+ */
+@Service
+public class PagsGroupEvaluatorService {
+
+    @Autowired private IPersonAttributesGroupDefinitionDao pagsGroupDefDao;
+
+    @Autowired
+    @Qualifier(
+        value = "org.apereo.portal.groups.pags.dao.EntityPersonAttributesGroupStore.pagsGroup"
+    )
+    private Cache pagsGroupCache;
+
+    @Autowired
+    @Qualifier(
+        value = "org.apereo.portal.groups.pags.dao.EntityPersonAttributesGroupStore.membership"
+    )
+    private Cache membershipCache;
+
+    private boolean enabled = true;
+    private long maxAge = 300000;
+
+    /** Incremented by {@link #invalidate()} so that a compile racing with it is not kept */
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile CompiledEvaluator current;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Value("${org.apereo.portal.groups.pags.compiledEvaluator.enabled:true}")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Value("${org.apereo.portal.groups.pags.compiledEvaluator.maxAge:300000}")
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @return the compiled evaluator for the current PAGS definitions, or null if the compiled
+     *     evaluator is disabled
+     */
+    public PagsGroupEvaluator getEvaluator() {
+        if (!enabled) {
+            return null;
+        }
+        CompiledEvaluator rslt = current;
+        if (rslt == null || rslt.isExpired()) {
+            synchronized (this) {
+                rslt = current;
+                if (rslt == null || rslt.isExpired()) {
+                    rslt = compile();
+                }
+            }
+        }
+        return rslt.evaluator;
+    }
+
+    /**
+     * Discards the compiled evaluator, together with the cached group definitions and membership
+     * decisions, after PAGS definitions have been created, updated, or deleted.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        current = null;
+        pagsGroupCache.removeAll();
+        membershipCache.removeAll();
+        logger.debug("Invalidated the compiled PAGS evaluator");
+    }
+
+    private CompiledEvaluator compile() {
+        final long gen = generation.get();
+        final long timestamp = System.currentTimeMillis();
+        final PagsGroupEvaluator evaluator =
+                PagsGroupEvaluator.compile(pagsGroupDefDao.getPersonAttributesGroupDefinitions());
+        final CompiledEvaluator rslt = new CompiledEvaluator(evaluator, timestamp + maxAge);
+        if (gen == generation.get()) {
+            current = rslt;
+        }
+        logger.info(
+                "Compiled {} PAGS groups ({} distinct tests) in {}ms",
+                evaluator.getGroupCount(),
+                evaluator.getTestCount(),
+                System.currentTimeMillis() - timestamp);
+        return rslt;
+    }
+
+    private static final class CompiledEvaluator {
+        private final PagsGroupEvaluator evaluator;
+        private final long expires;
+
+        private CompiledEvaluator(PagsGroupEvaluator evaluator, long expires) {
+            this.evaluator = evaluator;
+            this.expires = expires;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() > expires;
+        }
+    }
+}
@@ -56,6 +56,8 @@ public final class PagsService {
 
     @Autowired private IPersonAttributesGroupDefinitionDao pagsGroupDefDao;
 
+    @Autowired private PagsGroupEvaluatorService pagsGroupEvaluatorService;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     /**
@@ -181,6 +183,7 @@ public final class PagsService {
             }
         }
 
+        pagsGroupEvaluatorService.invalidate();
         return rslt;
     }
 
@@ -201,6 +204,7 @@ public final class PagsService {
 
         IPersonAttributesGroupDefinition rslt =
                 pagsGroupDefDao.updatePersonAttributesGroupDefinition(pagsDef);
+        pagsGroupEvaluatorService.invalidate();
         return rslt;
     }
 
@@ -219,6 +223,7 @@ public final class PagsService {
         }
 
         pagsGroupDefDao.deletePersonAttributesGroupDefinition(pagsDef);
+        pagsGroupEvaluatorService.invalidate();
     }
 
     /*
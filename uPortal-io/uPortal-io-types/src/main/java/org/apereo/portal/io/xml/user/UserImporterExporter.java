@@ -35,11 +35,14 @@ import org.apereo.portal.io.xml.IPortalDataType;
 import org.apereo.portal.io.xml.PortalDataKey;
 import org.apereo.portal.io.xml.SimpleStringPortalData;
 import org.apereo.portal.jpa.BasePortalJpaDao;
+import org.apereo.portal.layout.StructIdsRewrittenEvent;
 import org.apereo.portal.persondir.ILocalAccountDao;
 import org.apereo.portal.persondir.ILocalAccountPerson;
 import org.apereo.portal.utils.SafeFilenameUtils;
 import org.apereo.portal.utils.Tuple;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.jdbc.core.JdbcOperations;
@@ -48,7 +51,8 @@ import org.springframework.jdbc.core.RowMapper;
 import org.springframework.transaction.annotation.Transactional;
 
 /** */
-public class UserImporterExporter extends AbstractJaxbDataHandler<UserType> {
+public class UserImporterExporter extends AbstractJaxbDataHandler<UserType>
+        implements ApplicationEventPublisherAware {
 
     private static final ImmutableSet<PortalDataKey> IMPORT_DATA_KEYS =
             ImmutableSet.of(
@@ -64,6 +68,7 @@ public class UserImporterExporter extends AbstractJaxbDataHandler<UserType> {
     private ILocalAccountDao localAccountDao;
     private ICounterStore counterStore;
     private IUserIdentityStore userIdentityStore;
+    private ApplicationEventPublisher eventPublisher;
 
     public void setForceDefaultUserName(boolean forceDefaultUserName) {
         this.forceDefaultUserName = forceDefaultUserName;
@@ -73,6 +78,11 @@ public class UserImporterExporter extends AbstractJaxbDataHandler<UserType> {
         this.defaultUserName = defaultUserName;
     }
 
+    @Override
+    public void setApplicationEventPublisher(ApplicationEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
     @Autowired
     public void setUserIdentityStore(IUserIdentityStore userIdentityStore) {
         this.userIdentityStore = userIdentityStore;
@@ -150,7 +160,15 @@ public class UserImporterExporter extends AbstractJaxbDataHandler<UserType> {
                         nextStructId,
                         username);
 
-        if (rowsUpdated != 1) {
+        if (rowsUpdated == 1) {
+            // Struct ids reserved in memory before the import may collide with the imported layout
+            final int userId =
+                    this.jdbcOperations.queryForObject(
+                            "SELECT USER_ID FROM UP_USER WHERE USER_NAME=?",
+                            Integer.class,
+                            username);
+            this.eventPublisher.publishEvent(new StructIdsRewrittenEvent(this, userId));
+        } else {
             final int userId = this.counterStore.getNextId("UP_USER");
 
             this.jdbcOperations.update(
@@ -180,6 +180,18 @@ public interface IStylesheetUserPreferencesService {
     Map<String, String> getAllNodesAndValuesForAttribute(
             HttpServletRequest request, PreferencesScope prefScope, String name);
 
+    /**
+     * Get a key for the layout attributes seen by the request. The key changes when a layout
+     * attribute is set or removed during the request or when the user's layout is reloaded, values
+     * derived from the layout attributes can be kept for the rest of the request under it.
+     *
+     * @param request The current request
+     * @param prefScope The stylesheet preferences scope
+     * @return Key that is equal to the key returned before only if the layout attributes are
+     *     unchanged
+     */
+    Object getLayoutAttributesCacheKey(HttpServletRequest request, PreferencesScope prefScope);
+
     /**
      * Add all layout attributes for the specified nodeId to the provided Map
      *
@@ -20,6 +20,7 @@ import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 import org.apache.commons.lang3.StringUtils;
@@ -56,6 +57,8 @@ public class StylesheetUserPreferencesServiceImpl implements IStylesheetUserPref
             StylesheetUserPreferencesServiceImpl.class.getName() + ".STYLESHEET_PARAMETERS";
     private static final String LAYOUT_ATTRIBUTES_KEY =
             StylesheetUserPreferencesServiceImpl.class.getName() + ".LAYOUT_ATTRIBUTES";
+    private static final String LAYOUT_ATTRIBUTES_VERSION_KEY =
+            StylesheetUserPreferencesServiceImpl.class.getName() + ".LAYOUT_ATTRIBUTES_VERSION";
 
     public static final String STYLESHEET_STRUCTURE_OVERRIDE_REQUEST_ATTRIBUTE =
             StylesheetUserPreferencesServiceImpl.class.getCanonicalName()
@@ -850,6 +853,20 @@ public class StylesheetUserPreferencesServiceImpl implements IStylesheetUserPref
             String nodeId,
             String name,
             String value) {
+        try {
+            return this.setLayoutAttributeInternal(request, prefScope, nodeId, name, value);
+        } finally {
+            // After the change so a key read during the change is not reused for the new values
+            this.incrementLayoutAttributesVersion(request);
+        }
+    }
+
+    private String setLayoutAttributeInternal(
+            HttpServletRequest request,
+            PreferencesScope prefScope,
+            String nodeId,
+            String name,
+            String value) {
         final StylesheetPreferencesKey stylesheetPreferencesKey =
                 this.getStylesheetPreferencesKey(request, prefScope);
         final IStylesheetDescriptor stylesheetDescriptor =
@@ -955,9 +972,18 @@ public class StylesheetUserPreferencesServiceImpl implements IStylesheetUserPref
 
     @Transactional
     @Override
-    @SuppressWarnings("FallThrough")
     public String removeLayoutAttribute(
             HttpServletRequest request, PreferencesScope prefScope, String nodeId, String name) {
+        try {
+            return this.removeLayoutAttributeInternal(request, prefScope, nodeId, name);
+        } finally {
+            this.incrementLayoutAttributesVersion(request);
+        }
+    }
+
+    @SuppressWarnings("FallThrough")
+    private String removeLayoutAttributeInternal(
+            HttpServletRequest request, PreferencesScope prefScope, String nodeId, String name) {
         final StylesheetPreferencesKey stylesheetPreferencesKey =
                 this.getStylesheetPreferencesKey(request, prefScope);
         final IStylesheetDescriptor stylesheetDescriptor =
@@ -1102,6 +1128,82 @@ public class StylesheetUserPreferencesServiceImpl implements IStylesheetUserPref
         return result.build();
     }
 
+    @Override
+    public Object getLayoutAttributesCacheKey(
+            HttpServletRequest request, PreferencesScope prefScope) {
+        final StylesheetPreferencesKey stylesheetPreferencesKey =
+                this.getStylesheetPreferencesKey(request, prefScope);
+        final IStylesheetUserPreferences distributedStylesheetUserPreferences =
+                this.getDistributedStylesheetUserPreferences(request, prefScope);
+        final AtomicInteger version =
+                (AtomicInteger) request.getAttribute(LAYOUT_ATTRIBUTES_VERSION_KEY);
+
+        return new LayoutAttributesCacheKey(
+                stylesheetPreferencesKey.toString(),
+                distributedStylesheetUserPreferences,
+                version != null ? version.get() : 0);
+    }
+
+    private void incrementLayoutAttributesVersion(HttpServletRequest request) {
+        AtomicInteger version;
+        synchronized (PortalWebUtils.getRequestAttributeMutex(request)) {
+            version = (AtomicInteger) request.getAttribute(LAYOUT_ATTRIBUTES_VERSION_KEY);
+            if (version == null) {
+                version = new AtomicInteger();
+                request.setAttribute(LAYOUT_ATTRIBUTES_VERSION_KEY, version);
+            }
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * Identifies the layout attributes seen by a request, the distributed preferences are compared
+     * by identity as they are replaced when the layout is reloaded.
+     */
+    private static final class LayoutAttributesCacheKey {
+        private final String stylesheetPreferencesKey;
+        private final IStylesheetUserPreferences distributedStylesheetUserPreferences;
+        private final int version;
+
+        LayoutAttributesCacheKey(
+                String stylesheetPreferencesKey,
+                IStylesheetUserPreferences distributedStylesheetUserPreferences,
+                int version) {
+            this.stylesheetPreferencesKey = stylesheetPreferencesKey;
+            this.distributedStylesheetUserPreferences = distributedStylesheetUserPreferences;
+            this.version = version;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.stylesheetPreferencesKey.hashCode() + this.version;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof LayoutAttributesCacheKey)) {
+                return false;
+            }
+            final LayoutAttributesCacheKey other = (LayoutAttributesCacheKey) obj;
+            return this.version == other.version
+                    && this.distributedStylesheetUserPreferences
+                            == other.distributedStylesheetUserPreferences
+                    && this.stylesheetPreferencesKey.equals(other.stylesheetPreferencesKey);
+        }
+
+        @Override
+        public String toString() {
+            return "LayoutAttributesCacheKey ["
+                    + this.stylesheetPreferencesKey
+                    + ","
+                    + this.version
+                    + "]";
+        }
+    }
+
     protected void getAllNodesAndValuesForAttribute(
             Map<String, Map<String, String>> layoutAttributes,
             String name,
@@ -0,0 +1,740 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import org.apereo.portal.PortalException;
+import org.apereo.portal.layout.INodeIdResolver;
+import org.apereo.portal.layout.IUserLayout;
+import org.apereo.portal.layout.node.IUserLayoutNodeDescription;
+import org.apereo.portal.layout.node.UserLayoutNodeDescription;
+import org.apereo.portal.layout.om.IStylesheetUserPreferences;
+import org.apereo.portal.utils.DocumentFactory;
+import org.apereo.portal.xml.stream.BaseXMLEventReader;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Immutable, compact form of a user's incorporated layout. This is what the layout cache holds for
+ * every user in place of the W3C DOM built by {@link ILFBuilder}. Every element is interned
+ * bottom-up so structurally identical subtrees, typically the nodes pulled in from DLM fragments,
+ * are a single shared instance across all users. Only the nodes a user's PLF edits or overlays
+ * actually change, and their ancestors, are held per user.
+ *
+ * <p>The layout streams directly as StAX events and answers the navigational lookups of {@link
+ * IUserLayout} and {@link DistributedLayoutManager} without a DOM. {@link
+ * #toDistributedUserLayout()} creates a mutable DOM copy for the edit managers and the PLF
+ * integration, and the two {@link #findNodeId} variants, which are defined against a W3C Document,
+ * evaluate against a temporary copy.
+ *
+ * @since 5.0
+ */
+public final class CompactUserLayout implements IUserLayout {
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newFactory();
+
+    // All of the caches use weak refs so they are never a cause for object retention
+    private static final Interner<Object> INTERNER = Interners.newWeakInterner();
+
+    private static final LoadingCache<Map.Entry<QName, String>, Attribute> ATTRIBUTE_CACHE =
+            CacheBuilder.newBuilder()
+                    .weakValues()
+                    .build(
+                            new CacheLoader<Map.Entry<QName, String>, Attribute>() {
+                                @Override
+                                public Attribute load(Map.Entry<QName, String> key) {
+                                    return EVENT_FACTORY.createAttribute(
+                                            key.getKey(), key.getValue());
+                                }
+                            });
+
+    private static final LoadingCache<Map.Entry<String, String>, Namespace> NAMESPACE_CACHE =
+            CacheBuilder.newBuilder()
+                    .weakValues()
+                    .build(
+                            new CacheLoader<Map.Entry<String, String>, Namespace>() {
+                                @Override
+                                public Namespace load(Map.Entry<String, String> key) {
+                                    if (key.getKey().isEmpty()) {
+                                        return EVENT_FACTORY.createNamespace(key.getValue());
+                                    }
+                                    return EVENT_FACTORY.createNamespace(
+                                            key.getKey(), key.getValue());
+                                }
+                            });
+
+    private final String layoutId;
+    private final LayoutElement root;
+    private final Map<String, Position> positions;
+    private final IStylesheetUserPreferences distributedStructureStylesheetUserPreferences;
+    private final IStylesheetUserPreferences distributedThemeStylesheetUserPreferences;
+
+    /**
+     * Copies the layout, the DOM is not referenced once this returns.
+     *
+     * @param userLayout The layout to copy
+     * @param layoutId The value returned by {@link #getId()}
+     */
+    public CompactUserLayout(DistributedUserLayout userLayout, String layoutId) {
+        this.layoutId = layoutId;
+        this.root = compact(userLayout.getLayout().getDocumentElement());
+        this.distributedStructureStylesheetUserPreferences =
+                userLayout.getDistributedStructureStylesheetUserPreferences();
+        this.distributedThemeStylesheetUserPreferences =
+                userLayout.getDistributedThemeStylesheetUserPreferences();
+
+        final Map<String, Position> positionsBuilder = new HashMap<String, Position>();
+        index(this.root, null, positionsBuilder);
+        this.positions = positionsBuilder;
+    }
+
+    /**
+     * @return A new, mutable DOM copy of the layout. Elements with an ID attribute are registered
+     *     so {@link Document#getElementById(String)} finds them.
+     */
+    public DistributedUserLayout toDistributedUserLayout() {
+        return new DistributedUserLayout(
+                this.toDocument(),
+                this.distributedStructureStylesheetUserPreferences,
+                this.distributedThemeStylesheetUserPreferences);
+    }
+
+    /** @return A new reader that streams the layout document */
+    public XMLEventReader getXMLEventReader() {
+        return new LayoutEventReader(this.root);
+    }
+
+    /** @return true if this is the layout of a fragment owner */
+    public boolean isFragmentLayout() {
+        return this.root.getAttribute(Constants.NS_URI, Constants.LCL_FRAGMENT_NAME) != null;
+    }
+
+    /** @return true if the layout has a node with the ID */
+    public boolean containsNode(String nodeId) {
+        return nodeId != null && this.positions.containsKey(nodeId);
+    }
+
+    /**
+     * @return A detached DOM copy of the node, folders are copied without their children. Null if
+     *     the node does not exist.
+     */
+    public Element getNodeElement(String nodeId) {
+        final Position position = nodeId != null ? this.positions.get(nodeId) : null;
+        if (position == null) {
+            return null;
+        }
+
+        // Node descriptions only read a node's attributes and its parameter children
+        final Document document = DocumentFactory.getThreadDocument();
+        return position.element.toElement(
+                document, !Constants.ELM_FOLDER.equals(position.element.getLocalName()));
+    }
+
+    @Override
+    public IUserLayoutNodeDescription getNodeDescription(String nodeId) throws PortalException {
+        final Element element = this.getNodeElement(nodeId);
+        if (element == null) {
+            throw new PortalException("No node with ID '" + nodeId + "' exists in the layout");
+        }
+        return UserLayoutNodeDescription.createUserLayoutNodeDescription(element);
+    }
+
+    /**
+     * @return The ID of the parent element, an empty String if the parent has no ID, null if the
+     *     node does not exist or is the document element
+     */
+    @Override
+    public String getParentId(String nodeId) throws PortalException {
+        final Position position = nodeId != null ? this.positions.get(nodeId) : null;
+        if (position == null || position.parent == null) {
+            return null;
+        }
+        return position.parent.getId();
+    }
+
+    @Override
+    public Enumeration getChildIds(String nodeId) throws PortalException {
+        final Position position = nodeId != null ? this.positions.get(nodeId) : null;
+        if (position == null || !Constants.ELM_FOLDER.equals(position.element.getLocalName())) {
+            return Collections.emptyEnumeration();
+        }
+        return Collections.enumeration(this.getChildIds(nodeId, false));
+    }
+
+    /**
+     * @param visibleOnly Only include children with a hidden attribute of 'false'
+     * @return The IDs of the element children of the node, an empty String for a child without
+     *     one
+     */
+    public List<String> getChildIds(String nodeId, boolean visibleOnly) {
+        final Position position = nodeId != null ? this.positions.get(nodeId) : null;
+        if (position == null) {
+            return Collections.emptyList();
+        }
+
+        final List<String> rslt = new ArrayList<String>();
+        for (final Object child : position.element.children) {
+            if (child instanceof LayoutElement) {
+                final LayoutElement element = (LayoutElement) child;
+                if (!visibleOnly || "false".equals(element.getAttribute(Constants.ATT_HIDDEN))) {
+                    rslt.add(element.getId());
+                }
+            }
+        }
+        return rslt;
+    }
+
+    /** @return ID of the next element sibling of the node, null if there is none */
+    public String getNextSiblingId(String nodeId) {
+        return this.getSiblingId(nodeId, 1);
+    }
+
+    /** @return ID of the previous element sibling of the node, null if there is none */
+    public String getPreviousSiblingId(String nodeId) {
+        return this.getSiblingId(nodeId, -1);
+    }
+
+    /** @return The IDs of all channels in the layout, in document order */
+    public Set<String> getChannelIds() {
+        final Set<String> rslt = new LinkedHashSet<String>();
+        final Deque<LayoutElement> elements = new ArrayDeque<LayoutElement>();
+        elements.push(this.root);
+        while (!elements.isEmpty()) {
+            final LayoutElement element = elements.pop();
+            if (Constants.ELM_CHANNEL.equals(element.getLocalName())) {
+                rslt.add(element.getId());
+            }
+            for (int i = element.children.length - 1; i >= 0; i--) {
+                if (element.children[i] instanceof LayoutElement) {
+                    elements.push((LayoutElement) element.children[i]);
+                }
+            }
+        }
+        return rslt;
+    }
+
+    /**
+     * Same result as {@link PortletSubscribeIdResolver}
+     *
+     * @return The ID of the first channel with the functional name, null if there is none
+     */
+    public String getSubscribeId(String fname) {
+        final LayoutElement channel = findChannel(this.root, fname);
+        if (channel == null || channel.getId().isEmpty()) {
+            return null;
+        }
+        return channel.getId();
+    }
+
+    /**
+     * @return The ID of the first channel with the functional name in the folder or its
+     *     descendants, null if there is none
+     */
+    public String getSubscribeId(String parentFolderId, String fname) {
+        final Position position =
+                parentFolderId != null ? this.positions.get(parentFolderId) : null;
+        if (position == null || !Constants.ELM_FOLDER.equals(position.element.getLocalName())) {
+            return null;
+        }
+        for (final Object child : position.element.children) {
+            if (child instanceof LayoutElement) {
+                final LayoutElement channel = findChannel((LayoutElement) child, fname);
+                if (channel != null) {
+                    return channel.getId();
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String getId() {
+        return this.layoutId;
+    }
+
+    @Override
+    public String findNodeId(XPathExpression xpathExpression) throws PortalException {
+        try {
+            return xpathExpression.evaluate(this.toDocument());
+        } catch (XPathExpressionException e) {
+            throw new PortalException(
+                    "Exception while executing XPathExpression: " + xpathExpression, e);
+        }
+    }
+
+    @Override
+    public String findNodeId(INodeIdResolver finder) {
+        return finder.traverseDocument(this.toDocument());
+    }
+
+    /** @return ID of the first folder in the layout element, null if there is none */
+    @Override
+    public String getRootId() {
+        if (!"layout".equals(this.root.getLocalName())) {
+            return null;
+        }
+        for (final Object child : this.root.children) {
+            if (child instanceof LayoutElement
+                    && Constants.ELM_FOLDER.equals(((LayoutElement) child).getLocalName())) {
+                return ((LayoutElement) child).getId();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public IStylesheetUserPreferences getDistributedStructureStylesheetUserPreferences() {
+        return this.distributedStructureStylesheetUserPreferences;
+    }
+
+    @Override
+    public IStylesheetUserPreferences getDistributedThemeStylesheetUserPreferences() {
+        return this.distributedThemeStylesheetUserPreferences;
+    }
+
+    /** @return true if the two layouts share the same instance for the node with the given ID */
+    static boolean isShared(CompactUserLayout first, CompactUserLayout second, String nodeId) {
+        final Position position = first.positions.get(nodeId);
+        final Position otherPosition = second.positions.get(nodeId);
+        return position != null
+                && otherPosition != null
+                && position.element == otherPosition.element;
+    }
+
+    private Document toDocument() {
+        final Document document = DocumentFactory.getThreadDocument();
+        document.appendChild(this.root.toElement(document, true));
+        return document;
+    }
+
+    private String getSiblingId(String nodeId, int offset) {
+        final Position position = nodeId != null ? this.positions.get(nodeId) : null;
+        if (position == null || position.parent == null) {
+            return null;
+        }
+
+        final List<LayoutElement> siblings = new ArrayList<LayoutElement>();
+        int index = -1;
+        for (final Object child : position.parent.children) {
+            if (child instanceof LayoutElement) {
+                if (index == -1 && nodeId.equals(((LayoutElement) child).getId())) {
+                    index = siblings.size();
+                }
+                siblings.add((LayoutElement) child);
+            }
+        }
+
+        final int siblingIndex = index + offset;
+        if (index == -1 || siblingIndex < 0 || siblingIndex >= siblings.size()) {
+            return null;
+        }
+        return siblings.get(siblingIndex).getId();
+    }
+
+    /** @return The element or its first descendant that is a channel with the fname */
+    private static LayoutElement findChannel(LayoutElement element, String fname) {
+        if (Constants.ELM_CHANNEL.equals(element.getLocalName())
+                && fname.equals(element.getAttribute("fname"))) {
+            return element;
+        }
+        for (final Object child : element.children) {
+            if (child instanceof LayoutElement) {
+                final LayoutElement rslt = findChannel((LayoutElement) child, fname);
+                if (rslt != null) {
+                    return rslt;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Index every element with an ID, the first element wins like a DOM ID lookup */
+    private static void index(
+            LayoutElement element, LayoutElement parent, Map<String, Position> positions) {
+        final String id = element.getAttribute(Constants.ATT_ID);
+        if (id != null && !positions.containsKey(id)) {
+            positions.put(id, new Position(element, parent));
+        }
+
+        for (final Object child : element.children) {
+            if (child instanceof LayoutElement) {
+                index((LayoutElement) child, element, positions);
+            }
+        }
+    }
+
+    /** Copy the element and its descendants, children are interned before their parents */
+    private static LayoutElement compact(Element element) {
+        final List<Object> children = new ArrayList<Object>();
+        StringBuilder text = null;
+        for (Node n = element.getFirstChild(); n != null; n = n.getNextSibling()) {
+            switch (n.getNodeType()) {
+                case Node.ELEMENT_NODE:
+                    if (text != null) {
+                        children.add(internString(text.toString()));
+                        text = null;
+                    }
+                    children.add(compact((Element) n));
+                    break;
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                    if (text == null) {
+                        text = new StringBuilder();
+                    }
+                    text.append(n.getNodeValue());
+                    break;
+                default:
+                    // Comments and processing instructions are not part of the layout
+                    break;
+            }
+        }
+        if (text != null) {
+            children.add(internString(text.toString()));
+        }
+
+        final List<Attribute> attributes = new ArrayList<Attribute>();
+        final List<Namespace> namespaces = new ArrayList<Namespace>();
+        final NamedNodeMap domAttributes = element.getAttributes();
+        for (int i = 0; i < domAttributes.getLength(); i++) {
+            final Node attribute = domAttributes.item(i);
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+                final String prefix = attribute.getLocalName();
+                namespaces.add(
+                        internNamespace(
+                                XMLConstants.XMLNS_ATTRIBUTE.equals(prefix) ? "" : prefix,
+                                attribute.getNodeValue()));
+            } else {
+                attributes.add(
+                        ATTRIBUTE_CACHE.getUnchecked(
+                                new SimpleImmutableEntry<QName, String>(
+                                        internName(attribute),
+                                        internString(attribute.getNodeValue()))));
+            }
+        }
+
+        final LayoutElement rslt =
+                new LayoutElement(
+                        internName(element),
+                        attributes.toArray(new Attribute[attributes.size()]),
+                        namespaces.toArray(new Namespace[namespaces.size()]),
+                        children.toArray());
+        return (LayoutElement) INTERNER.intern(rslt);
+    }
+
+    private static Namespace internNamespace(String prefix, String namespaceUri) {
+        return NAMESPACE_CACHE.getUnchecked(
+                new SimpleImmutableEntry<String, String>(
+                        internString(prefix), internString(namespaceUri)));
+    }
+
+    private static QName internName(Node node) {
+        final String localName = node.getLocalName();
+        final QName name;
+        if (localName == null) {
+            // DOM Level 1 node, the qualified name is all there is
+            name = new QName(internString(node.getNodeName()));
+        } else {
+            name =
+                    new QName(
+                            internString(node.getNamespaceURI()),
+                            internString(localName),
+                            internString(node.getPrefix()));
+        }
+        return (QName) INTERNER.intern(name);
+    }
+
+    private static String internString(String string) {
+        if (string == null || string.isEmpty()) {
+            return "";
+        }
+        return (String) INTERNER.intern(string);
+    }
+
+    /**
+     * A layout element, its children are either other {@link LayoutElement}s or text {@link
+     * String}s. Children are interned before their parent which lets equality compare them by
+     * identity.
+     */
+    private static final class LayoutElement {
+        private final QName name;
+        private final Attribute[] attributes;
+        private final Namespace[] namespaces;
+        private final Object[] children;
+        private final StartElement startElement;
+        private final EndElement endElement;
+        private final int hash;
+
+        LayoutElement(
+                QName name, Attribute[] attributes, Namespace[] namespaces, Object[] children) {
+            this.name = name;
+            this.attributes = attributes;
+            this.namespaces = namespaces;
+            this.children = children;
+            this.startElement =
+                    EVENT_FACTORY.createStartElement(
+                            name.getPrefix(),
+                            name.getNamespaceURI(),
+                            name.getLocalPart(),
+                            Arrays.asList(attributes).iterator(),
+                            Arrays.asList(namespaces).iterator());
+            this.endElement =
+                    EVENT_FACTORY.createEndElement(name, Arrays.asList(namespaces).iterator());
+
+            int h = name.hashCode();
+            h = 31 * h + Arrays.hashCode(attributes);
+            h = 31 * h + Arrays.hashCode(namespaces);
+            for (final Object child : children) {
+                h = 31 * h + System.identityHashCode(child);
+            }
+            this.hash = h;
+        }
+
+        String getLocalName() {
+            return this.name.getLocalPart();
+        }
+
+        /** @return The value of the ID attribute, an empty String if there is none */
+        String getId() {
+            final String id = this.getAttribute(Constants.ATT_ID);
+            return id != null ? id : "";
+        }
+
+        /** @return The value of the unqualified attribute, null if it does not exist */
+        String getAttribute(String localName) {
+            return this.getAttribute("", localName);
+        }
+
+        /** @return The value of the attribute, null if it does not exist */
+        String getAttribute(String namespaceUri, String localName) {
+            for (final Attribute attribute : this.attributes) {
+                final QName attributeName = attribute.getName();
+                if (localName.equals(attributeName.getLocalPart())
+                        && namespaceUri.equals(attributeName.getNamespaceURI())) {
+                    return attribute.getValue();
+                }
+            }
+            return null;
+        }
+
+        Element toElement(Document document, boolean deep) {
+            final Element element;
+            if (this.name.getNamespaceURI().isEmpty()) {
+                element = document.createElement(this.name.getLocalPart());
+            } else {
+                element = document.createElementNS(this.name.getNamespaceURI(), qualify(this.name));
+            }
+            for (final Namespace namespace : this.namespaces) {
+                final String prefix = namespace.getPrefix();
+                element.setAttributeNS(
+                        XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                        prefix.isEmpty()
+                                ? XMLConstants.XMLNS_ATTRIBUTE
+                                : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix,
+                        namespace.getNamespaceURI());
+            }
+            for (final Attribute attribute : this.attributes) {
+                final QName attributeName = attribute.getName();
+                if (attributeName.getNamespaceURI().isEmpty()) {
+                    element.setAttribute(attributeName.getLocalPart(), attribute.getValue());
+                    if (Constants.ATT_ID.equals(attributeName.getLocalPart())) {
+                        // Lets Document.getElementById find the node, as ILFBuilder does
+                        element.setIdAttribute(Constants.ATT_ID, true);
+                    }
+                } else {
+                    element.setAttributeNS(
+                            attributeName.getNamespaceURI(),
+                            qualify(attributeName),
+                            attribute.getValue());
+                }
+            }
+            if (deep) {
+                for (final Object child : this.children) {
+                    if (child instanceof LayoutElement) {
+                        element.appendChild(((LayoutElement) child).toElement(document, true));
+                    } else {
+                        element.appendChild(document.createTextNode((String) child));
+                    }
+                }
+            }
+            return element;
+        }
+
+        private static String qualify(QName name) {
+            if (name.getPrefix().isEmpty()) {
+                return name.getLocalPart();
+            }
+            return name.getPrefix() + ":" + name.getLocalPart();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof LayoutElement)) {
+                return false;
+            }
+            final LayoutElement other = (LayoutElement) obj;
+            if (this.hash != other.hash
+                    || !this.name.equals(other.name)
+                    || !Arrays.equals(this.attributes, other.attributes)
+                    || !Arrays.equals(this.namespaces, other.namespaces)
+                    || this.children.length != other.children.length) {
+                return false;
+            }
+            for (int i = 0; i < this.children.length; i++) {
+                final Object child = this.children[i];
+                final Object otherChild = other.children[i];
+                if (child instanceof String ? !child.equals(otherChild) : child != otherChild) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Where an element with an ID sits in the tree */
+    private static final class Position {
+        private final LayoutElement element;
+        private final LayoutElement parent;
+
+        Position(LayoutElement element, LayoutElement parent) {
+            this.element = element;
+            this.parent = parent;
+        }
+    }
+
+    /** Walks the element tree depth first, producing events as they are read. */
+    private static final class LayoutEventReader extends BaseXMLEventReader {
+        private final Deque<LayoutElement> elements = new ArrayDeque<LayoutElement>();
+        private final Deque<Integer> positions = new ArrayDeque<Integer>();
+        private final LayoutElement root;
+        private XMLEvent next;
+        private boolean startedDocument;
+        private boolean startedRoot;
+        private boolean endedDocument;
+
+        LayoutEventReader(LayoutElement root) {
+            super(null);
+            this.root = root;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.peek() != null;
+        }
+
+        @Override
+        public XMLEvent peek() {
+            if (this.next == null) {
+                this.next = this.readEvent();
+            }
+            return this.next;
+        }
+
+        @Override
+        protected XMLEvent internalNextEvent() throws XMLStreamException {
+            final XMLEvent event = this.peek();
+            if (event == null) {
+                throw new NoSuchElementException();
+            }
+            this.next = null;
+            return event;
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return null;
+        }
+
+        @Override
+        public void close() {
+            // NO-OP
+        }
+
+        private XMLEvent readEvent() {
+            if (!this.startedDocument) {
+                this.startedDocument = true;
+                return EVENT_FACTORY.createStartDocument();
+            }
+            if (!this.startedRoot) {
+                this.startedRoot = true;
+                return this.enter(this.root);
+            }
+            if (this.elements.isEmpty()) {
+                if (this.endedDocument) {
+                    return null;
+                }
+                this.endedDocument = true;
+                return EVENT_FACTORY.createEndDocument();
+            }
+
+            final LayoutElement element = this.elements.peek();
+            final int position = this.positions.pop() + 1;
+            if (position == element.children.length) {
+                this.elements.pop();
+                return element.endElement;
+            }
+
+            this.positions.push(position);
+            final Object child = element.children[position];
+            if (child instanceof LayoutElement) {
+                return this.enter((LayoutElement) child);
+            }
+            return EVENT_FACTORY.createCharacters((String) child);
+        }
+
+        private XMLEvent enter(LayoutElement element) {
+            this.elements.push(element);
+            this.positions.push(-1);
+            return element.startElement;
+        }
+    }
+}
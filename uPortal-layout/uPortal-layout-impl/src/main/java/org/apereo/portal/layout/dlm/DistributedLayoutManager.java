@@ -27,10 +27,6 @@ import java.util.Random;
 import java.util.Set;
 import java.util.Vector;
 import javax.xml.stream.XMLEventReader;
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.xpath.XPathConstants;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apereo.portal.IUserIdentityStore;
@@ -40,13 +36,11 @@ import org.apereo.portal.events.IPortalLayoutEventFactory;
 import org.apereo.portal.layout.IUserLayout;
 import org.apereo.portal.layout.IUserLayoutManager;
 import org.apereo.portal.layout.IUserLayoutStore;
-import org.apereo.portal.layout.PortletSubscribeIdResolver;
 import org.apereo.portal.layout.node.IUserLayoutChannelDescription;
 import org.apereo.portal.layout.node.IUserLayoutFolderDescription;
 import org.apereo.portal.layout.node.IUserLayoutNodeDescription;
 import org.apereo.portal.layout.node.IUserLayoutNodeDescription.LayoutNodeType;
 import org.apereo.portal.layout.node.UserLayoutFolderDescription;
-import org.apereo.portal.layout.simple.SimpleLayout;
 import org.apereo.portal.portlet.om.IPortletDefinition;
 import org.apereo.portal.portlet.om.IPortletDefinitionParameter;
 import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
@@ -99,6 +93,15 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
     private boolean channelsAdded = false;
     private boolean isFragmentOwner = false;
 
+    /*
+     * The layout cache only holds the immutable CompactUserLayout. Edits are made to a DOM copy of
+     * it, the working layout, which is published back to the cache the next time the layout is
+     * read after the cacheKey changed and is dropped once the layout is saved.
+     */
+    private DistributedUserLayout workingLayout;
+    private CompactUserLayout workingLayoutSource;
+    private String workingLayoutRevision;
+
     public DistributedLayoutManager(IPerson owner, IUserProfile profile) throws PortalException {
 
         if (owner == null) {
@@ -188,34 +191,77 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
         //        });
     }
 
-    private void setUserLayoutDOM(DistributedUserLayout userLayout) {
-
-        this.layoutCachingService.cacheLayout(owner, profile, userLayout);
-        this.updateCacheKey();
+    /** Caches the layout for all of the user's sessions and makes it the current layout. */
+    private CompactUserLayout publishUserLayout(DistributedUserLayout userLayout) {
+        final CompactUserLayout compactUserLayout =
+                new CompactUserLayout(userLayout, String.valueOf(profile.getLayoutId()));
+        this.layoutCachingService.cacheLayout(owner, profile, compactUserLayout);
 
         // determine if this is a layout fragment by looking at the root node
         // for a cp:fragment attribute.
-        Element layout = userLayout.getLayout().getDocumentElement();
-        Node attr = layout.getAttributeNodeNS(Constants.NS_URI, Constants.LCL_FRAGMENT_NAME);
-        this.isFragmentOwner = attr != null;
+        this.isFragmentOwner = compactUserLayout.isFragmentLayout();
+        return compactUserLayout;
     }
 
+    /**
+     * Returns a DOM of the layout that the caller may edit, call {@link #saveUserLayout()} to
+     * persist and publish the edits.
+     */
     @SuppressWarnings("deprecation")
     @Deprecated
     @Override
-    public Document getUserLayoutDOM() {
-        final DistributedUserLayout userLayout = getDistributedUserLayout();
-        return userLayout.getLayout();
+    public synchronized Document getUserLayoutDOM() {
+        final Document layout = this.getLayoutDocument();
+
+        // The caller may edit the DOM, publish it again on the next read
+        this.workingLayoutRevision = null;
+        return layout;
     }
 
-    protected DistributedUserLayout getDistributedUserLayout() {
-        DistributedUserLayout userLayout =
+    /**
+     * @return A mutable DOM copy of the current layout, copied from the cached layout the first
+     *     time it is needed after the layout was loaded or saved
+     */
+    protected synchronized DistributedUserLayout getDistributedUserLayout() {
+        final CompactUserLayout compactUserLayout = this.getCompactUserLayout();
+        if (this.workingLayout == null) {
+            this.workingLayout = compactUserLayout.toDistributedUserLayout();
+            this.workingLayoutSource = compactUserLayout;
+            this.workingLayoutRevision = this.cacheKey;
+        }
+        return this.workingLayout;
+    }
+
+    /**
+     * Returns the immutable current layout, loading it from the store when it is not cached.
+     * Pending edits to the working layout are published first.
+     */
+    protected synchronized CompactUserLayout getCompactUserLayout() {
+        final CompactUserLayout cachedLayout =
                 this.layoutCachingService.getCachedLayout(owner, profile);
-        if (null == userLayout) {
+
+        if (this.workingLayout != null) {
+            if (!this.cacheKey.equals(this.workingLayoutRevision)) {
+                // The working layout was edited since it was last published
+                this.workingLayoutSource = this.publishUserLayout(this.workingLayout);
+                this.workingLayoutRevision = this.cacheKey;
+                return this.workingLayoutSource;
+            }
+            if (cachedLayout == this.workingLayoutSource) {
+                return cachedLayout;
+            }
+
+            // Evicted or replaced by another session, the working copy is out of date
+            this.discardWorkingLayout();
+        }
+
+        CompactUserLayout rslt = cachedLayout;
+        if (null == rslt) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Load from store for " + owner.getAttribute(IPerson.USERNAME));
             }
-            userLayout = this.distributedLayoutStore.getUserLayout(this.owner, this.profile);
+            final DistributedUserLayout userLayout =
+                    this.distributedLayoutStore.getUserLayout(this.owner, this.profile);
 
             final Document userLayoutDocument = userLayout.getLayout();
 
@@ -268,31 +314,26 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
                 }
             }
 
-            setUserLayoutDOM(userLayout);
+            rslt = this.publishUserLayout(userLayout);
+            this.updateCacheKey();
         }
-        return userLayout;
+        return rslt;
     }
 
-    @Override
-    public XMLEventReader getUserLayoutReader() {
-        Document ul = this.getUserLayoutDOM();
-        if (ul == null) {
-            throw new PortalException(
-                    "User layout has not been initialized for "
-                            + owner.getAttribute(IPerson.USERNAME));
-        }
+    /** @return The working layout DOM, for making edits */
+    private Document getLayoutDocument() {
+        return this.getDistributedUserLayout().getLayout();
+    }
 
-        final XMLInputFactory xmlInputFactory = this.xmlUtilities.getXmlInputFactory();
+    private void discardWorkingLayout() {
+        this.workingLayout = null;
+        this.workingLayoutSource = null;
+        this.workingLayoutRevision = null;
+    }
 
-        final DOMSource layoutSoure = new DOMSource(ul);
-        try {
-            return xmlInputFactory.createXMLEventReader(layoutSoure);
-        } catch (XMLStreamException e) {
-            throw new RuntimeException(
-                    "Failed to create Layout XMLStreamReader for user: "
-                            + owner.getAttribute(IPerson.USERNAME),
-                    e);
-        }
+    @Override
+    public XMLEventReader getUserLayoutReader() {
+        return this.getCompactUserLayout().getXMLEventReader();
     }
 
     public synchronized void loadUserLayout() throws PortalException {
@@ -300,14 +341,14 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
     }
 
     public synchronized void loadUserLayout(boolean reload) throws PortalException {
-        Document uli = null;
+        CompactUserLayout uli = null;
         try {
             // Clear the loaded document first if this is a forced reload
             if (reload) {
                 this.layoutCachingService.removeCachedLayout(owner, profile);
             }
 
-            uli = getUserLayoutDOM();
+            uli = this.getCompactUserLayout();
         } catch (Exception e) {
             throw new PortalException(
                     "Exception encountered while "
@@ -331,7 +372,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
     }
 
     public synchronized void saveUserLayout() throws PortalException {
-        Document uld = this.getUserLayoutDOM();
+        Document uld = this.getLayoutDocument();
 
         if (uld == null) {
             throw new PortalException(
@@ -352,44 +393,22 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
         }
 
         this.channelsAdded = false;
+
+        // Publish any edits made through getUserLayoutDOM(), then let the working copy go
+        this.getCompactUserLayout();
+        this.discardWorkingLayout();
     }
 
     @Override
     public Set<String> getAllSubscribedChannels() {
-        final Document uld = this.getUserLayoutDOM();
-
-        if (uld == null) {
-            throw new PortalException(
-                    "UserLayout has not been initialized for "
-                            + owner.getAttribute(IPerson.USERNAME));
-        }
-
-        final NodeList channelElements = uld.getElementsByTagName(CHANNEL);
-
-        final Set<String> allSubscribedChannels =
-                new LinkedHashSet<String>(channelElements.getLength());
-        for (int nodeIndex = 0; nodeIndex < channelElements.getLength(); nodeIndex++) {
-            final Element channelElement = (Element) channelElements.item(nodeIndex);
-            final String subscribeId = channelElement.getAttribute("ID");
-            allSubscribedChannels.add(subscribeId);
-        }
-
-        return allSubscribedChannels;
+        return this.getCompactUserLayout().getChannelIds();
     }
 
     public IUserLayoutNodeDescription getNode(String nodeId) throws PortalException {
         if (nodeId == null) return null;
 
-        Document uld = this.getUserLayoutDOM();
-
-        if (uld == null)
-            throw new PortalException(
-                    "UserLayout has not been initialized for "
-                            + owner.getAttribute(IPerson.USERNAME)
-                            + ".");
-
         // find an element with a given id
-        Element element = uld.getElementById(nodeId);
+        Element element = this.getCompactUserLayout().getNodeElement(nodeId);
         if (element == null) {
             throw new PortalException(
                     "Element with ID=\""
@@ -425,7 +444,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
                         e);
             }
 
-            Document uld = getUserLayoutDOM();
+            Document uld = this.getLayoutDocument();
             Element childElement = node.getXML(uld);
             Element parentElement = uld.getElementById(parentId);
             if (nextSiblingId == null) {
@@ -466,7 +485,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
         String oldParentNodeId = getParentId(nodeId);
         if (canMoveNode(node, parent, nextSiblingId)) {
             // must be a folder
-            Document uld = this.getUserLayoutDOM();
+            Document uld = this.getLayoutDocument();
             Element childElement = uld.getElementById(nodeId);
             Element parentElement = uld.getElementById(parentId);
             if (nextSiblingId == null) {
@@ -501,7 +520,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
             IUserLayoutNodeDescription nodeDescription = this.getNode(nodeId);
             String parentNodeId = this.getParentId(nodeId);
 
-            Document uld = this.getUserLayoutDOM();
+            Document uld = this.getLayoutDocument();
             Element ilfNode = uld.getElementById(nodeId);
             Node parent = ilfNode.getParentNode();
             if (parent != null) {
@@ -601,7 +620,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
             IUserLayoutFolderDescription newFolderDesc,
             IUserLayoutFolderDescription oldFolderDesc)
             throws PortalException {
-        Element ilfNode = (Element) getUserLayoutDOM().getElementById(nodeId);
+        Element ilfNode = (Element) this.getLayoutDocument().getElementById(nodeId);
         List<ILayoutProcessingAction> pendingActions = new ArrayList<ILayoutProcessingAction>();
 
         /*
@@ -741,7 +760,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
             IUserLayoutChannelDescription newChanDesc,
             IUserLayoutChannelDescription oldChanDesc)
             throws PortalException {
-        Element ilfNode = (Element) getUserLayoutDOM().getElementById(nodeId);
+        Element ilfNode = (Element) this.getLayoutDocument().getElementById(nodeId);
         List<ILayoutProcessingAction> pendingActions = new ArrayList<ILayoutProcessingAction>();
         boolean isIncorporated = nodeId.startsWith(Constants.FRAGMENT_ID_USER_PREFIX);
 
@@ -998,19 +1017,16 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
                     && canAddNode(node, parent, nextSiblingId);
 
         // same parent. which direction are we moving?
-        Document uld = this.getUserLayoutDOM();
-        Element parentE = uld.getElementById(parent.getId());
-        Element child = (Element) parentE.getFirstChild();
+        final List<String> childIds =
+                this.getCompactUserLayout().getChildIds(parent.getId(), false);
         int idx = 0;
         int nodeIdx = -1;
         int sibIdx = -1;
 
-        while (child != null) {
-            String id = child.getAttribute(Constants.ATT_ID);
+        for (String id : childIds) {
             if (id.equals(node.getId())) nodeIdx = idx;
             if (id.equals(nextSiblingId)) sibIdx = idx;
             idx++;
-            child = (Element) child.getNextSibling();
         }
         if (nodeIdx == -1
                 || // couldn't find node
@@ -1106,21 +1122,9 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
     }
 
     public String getParentId(String nodeId) throws PortalException {
-        Document uld = this.getUserLayoutDOM();
-        Element nelement = uld.getElementById(nodeId);
-        if (nelement != null) {
-            Node parent = nelement.getParentNode();
-            if (parent != null) {
-                if (parent.getNodeType() != Node.ELEMENT_NODE) {
-                    throw new PortalException(
-                            "Node with id=\""
-                                    + nodeId
-                                    + "\" is attached to something other then an element node.");
-                }
-                Element e = (Element) parent;
-                return e.getAttribute("ID");
-            }
-            return null;
+        final CompactUserLayout layout = this.getCompactUserLayout();
+        if (layout.containsNode(nodeId)) {
+            return layout.getParentId(nodeId);
         }
         throw new PortalException(
                 "Node with id=\""
@@ -1131,19 +1135,9 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
     }
 
     public String getNextSiblingId(String nodeId) throws PortalException {
-        Document uld = this.getUserLayoutDOM();
-        Element nelement = uld.getElementById(nodeId);
-        if (nelement != null) {
-            Node nsibling = nelement.getNextSibling();
-            // scroll to the next element node
-            while (nsibling != null && nsibling.getNodeType() != Node.ELEMENT_NODE) {
-                nsibling = nsibling.getNextSibling();
-            }
-            if (nsibling != null) {
-                Element e = (Element) nsibling;
-                return e.getAttribute("ID");
-            }
-            return null;
+        final CompactUserLayout layout = this.getCompactUserLayout();
+        if (layout.containsNode(nodeId)) {
+            return layout.getNextSiblingId(nodeId);
         }
         throw new PortalException(
                 "Node with id=\""
@@ -1155,19 +1149,9 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
     }
 
     public String getPreviousSiblingId(String nodeId) throws PortalException {
-        Document uld = this.getUserLayoutDOM();
-        Element nelement = uld.getElementById(nodeId);
-        if (nelement != null) {
-            Node nsibling = nelement.getPreviousSibling();
-            // scroll to the next element node
-            while (nsibling != null && nsibling.getNodeType() != Node.ELEMENT_NODE) {
-                nsibling = nsibling.getNextSibling();
-            }
-            if (nsibling != null) {
-                Element e = (Element) nsibling;
-                return e.getAttribute("ID");
-            }
-            return null;
+        final CompactUserLayout layout = this.getCompactUserLayout();
+        if (layout.containsNode(nodeId)) {
+            return layout.getPreviousSiblingId(nodeId);
         }
         throw new PortalException(
                 "Node with id=\""
@@ -1190,21 +1174,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
         Vector<String> v = new Vector<String>();
         IUserLayoutNodeDescription node = getNode(nodeId);
         if (node instanceof IUserLayoutFolderDescription) {
-            Document uld = this.getUserLayoutDOM();
-            Element felement = uld.getElementById(nodeId);
-            for (Node n = felement.getFirstChild(); n != null; n = n.getNextSibling()) {
-                if (n.getNodeType() == Node.ELEMENT_NODE
-                        && (visibleOnly == false
-                                || (visibleOnly == true
-                                        && ((Element) n)
-                                                .getAttribute(Constants.ATT_HIDDEN)
-                                                .equals("false")))) {
-                    Element e = (Element) n;
-                    if (e.getAttribute("ID") != null) {
-                        v.add(e.getAttribute("ID"));
-                    }
-                }
-            }
+            v.addAll(this.getCompactUserLayout().getChildIds(nodeId, visibleOnly));
         }
         return v.elements();
     }
@@ -1235,37 +1205,18 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
      */
     @Override
     public String getSubscribeId(String fname) {
-        final Document userLayout = this.getUserLayoutDOM();
-        return new PortletSubscribeIdResolver(fname).traverseDocument(userLayout);
+        return this.getCompactUserLayout().getSubscribeId(fname);
     }
 
     public String getSubscribeId(String parentFolderId, String fname) {
-        final Map<String, String> variables = new HashMap<String, String>();
-        variables.put("parentFolderId", parentFolderId);
-        variables.put("fname", fname);
-
-        final Document userLayout = this.getUserLayoutDOM();
-        final Element fnameNode =
-                this.xpathOperations.evaluate(
-                        "//folder[@ID=$parentFolderId]/descendant::channel[@fname=$fname]",
-                        variables,
-                        userLayout,
-                        XPathConstants.NODE);
-        if (fnameNode != null) {
-            return fnameNode.getAttribute("ID");
-        }
-
-        return null;
+        return this.getCompactUserLayout().getSubscribeId(parentFolderId, fname);
     }
 
     /* (non-Javadoc)
      * @see org.apereo.portal.layout.IUserLayoutManager#getUserLayout()
      */
     public IUserLayout getUserLayout() throws PortalException {
-        // Copied from SimpleLayoutManager since our layouts are regular
-        // simple layouts, ie Documents.
-        return new SimpleLayout(
-                this.getDistributedUserLayout(), String.valueOf(profile.getLayoutId()));
+        return this.getCompactUserLayout();
     }
 
     /* Returns the ID attribute of the root folder of the layout. This folder
@@ -1276,36 +1227,41 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
      */
     public String getRootFolderId() {
         if (rootNodeId == null) {
-            Document layout = getUserLayoutDOM();
-
-            Element rootNode =
-                    this.xpathOperations.evaluate("//layout/folder", layout, XPathConstants.NODE);
-            if (rootNode == null
-                    || !rootNode.getAttribute(Constants.ATT_TYPE)
-                            .equals(Constants.ROOT_FOLDER_ID)) {
+            String rootId = this.getRootId(this.getCompactUserLayout());
+            if (rootId == null) {
                 LOG.error(
                         "Unable to locate root node in layout of "
                                 + owner.getAttribute(IPerson.USERNAME)
                                 + ". Resetting corrupted layout.");
                 resetLayout((String) null);
 
-                rootNode =
-                        this.xpathOperations.evaluate(
-                                "//layout/folder", layout, XPathConstants.NODE);
-                if (rootNode == null
-                        || !rootNode.getAttribute(Constants.ATT_TYPE)
-                                .equals(Constants.ROOT_FOLDER_ID)) {
+                rootId = this.getRootId(this.getCompactUserLayout());
+                if (rootId == null) {
                     throw new PortalException(
                             "Corrupted layout detected for "
                                     + owner.getAttribute(IPerson.USERNAME)
                                     + " and resetting layout failed.");
                 }
             }
-            rootNodeId = rootNode.getAttribute("ID");
+            rootNodeId = rootId;
         }
         return rootNodeId;
     }
 
+    /** @return ID of the layout's first folder if it is of the root type, null otherwise */
+    private String getRootId(CompactUserLayout layout) {
+        final String rootId = layout.getRootId();
+        if (rootId == null) {
+            return null;
+        }
+        final Element rootNode = layout.getNodeElement(rootId);
+        if (rootNode == null
+                || !rootNode.getAttribute(Constants.ATT_TYPE).equals(Constants.ROOT_FOLDER_ID)) {
+            return null;
+        }
+        return rootId;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -1410,8 +1366,9 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
             // so we need to refresh our local copy of their layout
             if (person == owner) {
                 this.layoutCachingService.removeCachedLayout(person, profile);
+                this.discardWorkingLayout();
                 updateCacheKey();
-                getUserLayoutDOM();
+                this.getCompactUserLayout();
             }
             // if (isFragmentOwner)
             // {
@@ -14,10 +14,12 @@
  */
 package org.apereo.portal.layout.dlm;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -36,6 +38,7 @@ import org.apereo.portal.layout.IUserLayoutStore;
 import org.apereo.portal.properties.PropertiesManager;
 import org.apereo.portal.security.IPerson;
 import org.apereo.portal.security.provider.PersonImpl;
+import org.apereo.portal.utils.Tuple;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
@@ -60,11 +63,18 @@ public class FragmentActivator {
                                 }
                             });
 
+    /**
+     * Merged fragment layouts keyed by locale and the ordered owners of the applicable fragments
+     */
+    private final Cache<Tuple<Locale, List<String>>, FragmentBaseline> fragmentBaselines =
+            CacheBuilder.newBuilder().maximumSize(100).build();
+
     private Ehcache userViews;
     private Ehcache userViewErrors;
     private IUserIdentityStore identityStore;
     private IUserLayoutStore userLayoutStore;
     private ConfigurationLoader configurationLoader;
+    private FragmentMergeStatistics fragmentMergeStatistics;
 
     private static final String PROPERTY_ALLOW_EXPANDED_CONTENT =
             "org.apereo.portal.layout.dlm.allowExpandedContent";
@@ -114,6 +124,11 @@ public class FragmentActivator {
         this.configurationLoader = configurationLoader;
     }
 
+    @Autowired
+    public void setFragmentMergeStatistics(FragmentMergeStatistics fragmentMergeStatistics) {
+        this.fragmentMergeStatistics = fragmentMergeStatistics;
+    }
+
     @Autowired
     public void setIdentityStore(IUserIdentityStore identityStore) {
         this.identityStore = identityStore;
@@ -237,6 +252,35 @@ public class FragmentActivator {
         return (UserView) userViewElement.getObjectValue();
     }
 
+    /**
+     * Get the merged layouts of the fragment definitions, shared by every user the same fragments
+     * apply to. The baseline is rebuilt when any of the fragments has been re-activated since it
+     * was created.
+     */
+    public FragmentBaseline getFragmentBaseline(
+            final List<FragmentDefinition> fragmentDefinitions, final Locale locale) {
+        final List<String> ownerIds = new ArrayList<String>(fragmentDefinitions.size());
+        final List<Document> layouts = new ArrayList<Document>(fragmentDefinitions.size());
+        for (final FragmentDefinition fd : fragmentDefinitions) {
+            final UserView userView = this.getUserView(fd, locale);
+            if (userView != null) {
+                ownerIds.add(fd.getOwnerId());
+                layouts.add(userView.getLayout());
+            }
+        }
+
+        final Tuple<Locale, List<String>> key =
+                new Tuple<Locale, List<String>>(locale, ownerIds, true);
+        FragmentBaseline baseline = this.fragmentBaselines.getIfPresent(key);
+        final boolean build = baseline == null || !baseline.isBuiltFrom(layouts);
+        if (build) {
+            baseline = new FragmentBaseline(ownerIds, layouts);
+            this.fragmentBaselines.put(key, baseline);
+        }
+        this.fragmentMergeStatistics.recordBaselineLookup(build);
+        return baseline;
+    }
+
     /**
      * Saves the loaded layout in the database for the user and profile.
      *
@@ -481,6 +525,12 @@ public class FragmentActivator {
     }
 
     public void clearChacheForOwner(final String ownerId) {
+        for (final Tuple<Locale, List<String>> key : this.fragmentBaselines.asMap().keySet()) {
+            if (key.second.contains(ownerId)) {
+                this.fragmentBaselines.invalidate(key);
+            }
+        }
+
         final List<Locale> locales = fragmentOwnerLocales.getIfPresent(ownerId);
         if (locales == null) {
             // Nothing to purge
@@ -0,0 +1,131 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.apereo.portal.security.IAuthorizationPrincipal;
+import org.apereo.portal.utils.DocumentFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * The merged layouts of an ordered set of fragments, built once and shared by every user the same
+ * fragments apply to. Each user gets a copy from {@link #createLayout(IAuthorizationPrincipal)}
+ * without the channels they cannot render, made with a single {@link Document#cloneNode(boolean)}
+ * of the merged document instead of merging every fragment again.
+ *
+ * <p>The merged document is never handed out, the ILF built from the copy is modified by the PLF
+ * merge and the layout manager.
+ *
+ * @since 5.0
+ */
+public final class FragmentBaseline {
+    private final List<String> ownerIds;
+    private final List<Document> fragmentLayouts;
+    private final Document layout;
+    private final Set<String> channelIds;
+
+    /**
+     * @param ownerIds Owners of the fragments, in merge order
+     * @param fragmentLayouts The fragment layouts from each owner's {@link UserView}, in merge
+     *     order
+     */
+    public FragmentBaseline(List<String> ownerIds, List<Document> fragmentLayouts) {
+        this.ownerIds = ImmutableList.copyOf(ownerIds);
+        this.fragmentLayouts = ImmutableList.copyOf(fragmentLayouts);
+
+        this.layout = createEmptyLayout();
+        for (final Document fragmentLayout : fragmentLayouts) {
+            ILFBuilder.mergeFragment(fragmentLayout, this.layout, null);
+        }
+
+        final Set<String> channelIds = new LinkedHashSet<String>();
+        final NodeList channels = this.layout.getElementsByTagName("channel");
+        for (int i = 0; i < channels.getLength(); i++) {
+            channelIds.add(((Element) channels.item(i)).getAttribute("chanID"));
+        }
+        this.channelIds = ImmutableSet.copyOf(channelIds);
+    }
+
+    /** @return Owners of the fragments, in merge order */
+    public List<String> getOwnerIds() {
+        return this.ownerIds;
+    }
+
+    /**
+     * @return true if this baseline was built from exactly these fragment layout instances, a
+     *     fragment that has been re-activated since has a new layout instance
+     */
+    public boolean isBuiltFrom(List<Document> fragmentLayouts) {
+        if (fragmentLayouts.size() != this.fragmentLayouts.size()) {
+            return false;
+        }
+        for (int i = 0; i < fragmentLayouts.size(); i++) {
+            if (fragmentLayouts.get(i) != this.fragmentLayouts.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy the merged fragment layouts for a user, without the channels the principal cannot
+     * render. Each distinct channel is checked once no matter how many fragments place it. The
+     * document clone keeps the node identifiers of the merged document, so unlike {@link
+     * ILFBuilder#mergeFragment(Document, Document, IAuthorizationPrincipal)} no node is inspected
+     * while copying.
+     */
+    public Document createLayout(IAuthorizationPrincipal ap) {
+        final Set<String> deniedChannelIds = new LinkedHashSet<String>();
+        for (final String channelId : this.channelIds) {
+            if (!ap.canRender(channelId)) {
+                deniedChannelIds.add(channelId);
+            }
+        }
+
+        final Document copy = (Document) this.layout.cloneNode(true);
+        if (deniedChannelIds.isEmpty()) {
+            return copy;
+        }
+
+        final NodeList channels = copy.getElementsByTagName("channel");
+        final List<Element> deniedChannels = new ArrayList<Element>();
+        for (int i = 0; i < channels.getLength(); i++) {
+            final Element channel = (Element) channels.item(i);
+            if (deniedChannelIds.contains(channel.getAttribute("chanID"))) {
+                deniedChannels.add(channel);
+            }
+        }
+        for (final Element channel : deniedChannels) {
+            channel.getParentNode().removeChild(channel);
+        }
+        return copy;
+    }
+
+    /** Layout and root folder elements for the fragment children to be merged into */
+    private static Document createEmptyLayout() {
+        final Document document = DocumentFactory.getThreadDocument();
+        final Element layoutElement = document.createElement("layout");
+        document.appendChild(layoutElement);
+        layoutElement.appendChild(document.createElement("folder"));
+        return document;
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.apereo.portal.utils.MovingAverage;
+import org.apereo.portal.utils.MovingAverageSample;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/** Timings of the fragment and PLF merge phases of ILF construction. */
+@Component
+@ManagedResource("uPortal:section=Layout,name=FragmentMergeStatistics")
+public class FragmentMergeStatistics implements FragmentMergeStatisticsMXBean {
+    private final MovingAverage fragmentMergeTimes = new MovingAverage();
+    private final MovingAverage plfMergeTimes = new MovingAverage();
+    private final AtomicLong baselineHits = new AtomicLong();
+    private final AtomicLong baselineMisses = new AtomicLong();
+
+    private volatile MovingAverageSample lastFragmentMerge = new MovingAverageSample();
+    private volatile MovingAverageSample lastPlfMerge = new MovingAverageSample();
+
+    /** @param built true if the baseline had to be built, false if an existing one was used */
+    public void recordBaselineLookup(boolean built) {
+        if (built) {
+            this.baselineMisses.incrementAndGet();
+        } else {
+            this.baselineHits.incrementAndGet();
+        }
+    }
+
+    /** @param micros Time spent building the baseline if needed and copying it into the ILF */
+    public void recordFragmentMerge(long micros) {
+        this.lastFragmentMerge = this.fragmentMergeTimes.add(micros);
+    }
+
+    /** @param micros Time spent merging the PLF into the ILF */
+    public void recordPlfMerge(long micros) {
+        this.lastPlfMerge = this.plfMergeTimes.add(micros);
+    }
+
+    @Override
+    public MovingAverageSample getLastFragmentMerge() {
+        return this.lastFragmentMerge;
+    }
+
+    @Override
+    public MovingAverageSample getLastPlfMerge() {
+        return this.lastPlfMerge;
+    }
+
+    @Override
+    public long getBaselineHits() {
+        return this.baselineHits.get();
+    }
+
+    @Override
+    public long getBaselineMisses() {
+        return this.baselineMisses.get();
+    }
+}
@@ -33,8 +33,10 @@ import org.apereo.portal.security.IAuthorizationPrincipal;
 import org.apereo.portal.security.IPerson;
 import org.apereo.portal.services.AuthorizationServiceFacade;
 import org.apereo.portal.utils.DocumentFactory;
+import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
 /**
@@ -52,6 +54,53 @@ public class ILFBuilder {
         if (LOG.isDebugEnabled()) {
             LOG.debug("Constructing ILF for IPerson='" + person + "'");
         }
+        Document result = createILFRoot(PLF);
+        IAuthorizationPrincipal ap = getAuthorizationPrincipal(person);
+
+        // now merge fragments one at a time into ILF document
+
+        for (final Document document : sequence) {
+            mergeFragment(document, result, ap);
+        }
+        return result;
+    }
+
+    /**
+     * Constructs the ILF from a copy of a baseline of already merged fragments, only the channels
+     * the user can render are kept in the copy. The layout and root folder of the copy take the
+     * attributes of the PLF's.
+     */
+    public static Document constructILF(Document PLF, FragmentBaseline baseline, IPerson person) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(
+                    "Constructing ILF for IPerson='"
+                            + person
+                            + "' from baseline of fragments "
+                            + baseline.getOwnerIds());
+        }
+        IAuthorizationPrincipal ap = getAuthorizationPrincipal(person);
+        Document result = baseline.createLayout(ap);
+
+        Element plfLayout = PLF.getDocumentElement();
+        Element ilfLayout = result.getDocumentElement();
+        copyAttributes(plfLayout, ilfLayout);
+        Element ilfRoot = (Element) ilfLayout.getFirstChild();
+        copyAttributes((Element) plfLayout.getFirstChild(), ilfRoot);
+
+        if (ilfRoot.hasAttribute(Constants.ATT_ID)) ilfRoot.setIdAttribute(Constants.ATT_ID, true);
+
+        return result;
+    }
+
+    private static void copyAttributes(Element source, Element dest) {
+        Document destDoc = dest.getOwnerDocument();
+        NamedNodeMap attributes = source.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            dest.setAttributeNode((Attr) destDoc.importNode(attributes.item(i), true));
+        }
+    }
+
+    private static Document createILFRoot(Document PLF) {
         // first construct the destination document and root element. The root
         // element should be a complete copy of the PLF's root including its
         // node identifier in the new document. This requires the use of
@@ -69,18 +118,15 @@ public class ILFBuilder {
         if (ilfRoot.getAttribute(Constants.ATT_ID) != null)
             ilfRoot.setIdAttribute(Constants.ATT_ID, true);
 
+        return result;
+    }
+
+    private static IAuthorizationPrincipal getAuthorizationPrincipal(IPerson person) {
         // build the auth principal for determining if pushed channels can be
         // used by this user
         EntityIdentifier ei = person.getEntityIdentifier();
         AuthorizationServiceFacade authS = AuthorizationServiceFacade.instance();
-        IAuthorizationPrincipal ap = authS.newPrincipal(ei.getKey(), ei.getType());
-
-        // now merge fragments one at a time into ILF document
-
-        for (final Document document : sequence) {
-            mergeFragment(document, result, ap);
-        }
-        return result;
+        return authS.newPrincipal(ei.getKey(), ei.getType());
     }
 
     /**
@@ -103,7 +149,8 @@ public class ILFBuilder {
     /**
      * @param source parent of children
      * @param dest receiver of children
-     * @param ap User's authorization principal for determining if they can view a channel
+     * @param ap User's authorization principal for determining if they can view a channel, null to
+     *     merge all channels
      * @param visitedNodes A Set of nodes from the source tree that have been visited to get to this
      *     node, used to ensure a loop doesn't exist in the source tree.
      * @throws AuthorizationException
@@ -168,7 +215,7 @@ public class ILFBuilder {
      */
     private static boolean mergeAllowed(Element child, IAuthorizationPrincipal ap)
             throws AuthorizationException {
-        if (!child.getTagName().equals("channel")) return true;
+        if (ap == null || !child.getTagName().equals("channel")) return true;
 
         String channelPublishId = child.getAttribute("chanID");
         return ap.canRender(channelPublishId);
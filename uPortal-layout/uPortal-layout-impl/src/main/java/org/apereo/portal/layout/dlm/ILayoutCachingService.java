@@ -23,9 +23,9 @@ import org.apereo.portal.security.IPerson;
  */
 public interface ILayoutCachingService {
 
-    public void cacheLayout(IPerson owner, IUserProfile profile, DistributedUserLayout layout);
+    public void cacheLayout(IPerson owner, IUserProfile profile, CompactUserLayout layout);
 
     public void removeCachedLayout(IPerson owner, IUserProfile profile);
 
-    public DistributedUserLayout getCachedLayout(IPerson owner, IUserProfile profile);
+    public CompactUserLayout getCachedLayout(IPerson owner, IUserProfile profile);
 }
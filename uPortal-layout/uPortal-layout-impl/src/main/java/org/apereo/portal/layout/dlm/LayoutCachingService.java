@@ -40,17 +40,17 @@ public class LayoutCachingService implements ILayoutCachingService {
     }
 
     @Override
-    public void cacheLayout(IPerson owner, IUserProfile profile, DistributedUserLayout layout) {
+    public void cacheLayout(IPerson owner, IUserProfile profile, CompactUserLayout layout) {
         final CacheKey cacheKey = this.getCacheKey(owner, profile);
         this.layoutCache.put(new Element(cacheKey, layout));
     }
 
     @Override
-    public DistributedUserLayout getCachedLayout(IPerson owner, IUserProfile profile) {
+    public CompactUserLayout getCachedLayout(IPerson owner, IUserProfile profile) {
         final CacheKey cacheKey = this.getCacheKey(owner, profile);
         final Element element = this.layoutCache.get(cacheKey);
         if (element != null) {
-            return (DistributedUserLayout) element.getObjectValue();
+            return (CompactUserLayout) element.getObjectValue();
         }
         return null;
     }
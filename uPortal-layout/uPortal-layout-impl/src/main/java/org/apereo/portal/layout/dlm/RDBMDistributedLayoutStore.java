@@ -16,8 +16,6 @@ package org.apereo.portal.layout.dlm;
 
 import com.google.common.cache.Cache;
 import java.io.StringWriter;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -30,6 +28,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import net.sf.ehcache.Ehcache;
 import org.apache.commons.lang.StringUtils;
@@ -46,6 +45,8 @@ import org.apereo.portal.layout.StylesheetUserPreferencesImpl;
 import org.apereo.portal.layout.dao.IStylesheetUserPreferencesDao;
 import org.apereo.portal.layout.om.IStylesheetDescriptor;
 import org.apereo.portal.layout.om.IStylesheetUserPreferences;
+import org.apereo.portal.layout.simple.LayoutStructureRows;
+import org.apereo.portal.layout.simple.LayoutStructureRows.StructRow;
 import org.apereo.portal.layout.simple.RDBMUserLayoutStore;
 import org.apereo.portal.portlet.dao.IPortletEntityDao;
 import org.apereo.portal.portlet.dao.jpa.PortletPreferenceImpl;
@@ -103,6 +104,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
     private boolean systemDefaultUserLoaded = false;
 
     private FragmentActivator fragmentActivator;
+    private FragmentMergeStatistics fragmentMergeStatistics;
 
     private Ehcache fragmentNodeInfoCache;
 
@@ -223,6 +225,11 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         this.fragmentActivator = fragmentActivator;
     }
 
+    @Autowired
+    public void setFragmentMergeStatistics(FragmentMergeStatistics fragmentMergeStatistics) {
+        this.fragmentMergeStatistics = fragmentMergeStatistics;
+    }
+
     private IStylesheetUserPreferences loadDistributedStylesheetUserPreferences(
             IPerson person,
             IUserProfile profile,
@@ -1288,11 +1295,10 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
             final Locale locale = profile.getLocaleManager().getLocales()[0];
             final List<FragmentDefinition> applicableFragmentDefinitions =
                     this.fragmentUtils.getFragmentDefinitionsApplicableToPerson(person);
-            final List<Document> applicableLayouts =
-                    this.fragmentUtils.getFragmentDefinitionUserViewLayouts(
-                            applicableFragmentDefinitions, locale);
             final IntegrationResult integrationResult = new IntegrationResult();
-            ILF = this.createCompositeILF(person, PLF, applicableLayouts, integrationResult);
+            ILF =
+                    this.createCompositeILF(
+                            person, PLF, applicableFragmentDefinitions, locale, integrationResult);
             // push optimizations made during merge back into db.
             if (integrationResult.isChangedPLF()) {
                 if (logger.isDebugEnabled()) {
@@ -1325,15 +1331,33 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
 
     /**
      * Creates a composite ILF (incorporated layouts fragment) by first using the applicable
-     * fragment layouts, then merging in the PLF (personal layout fragment).
+     * fragment layouts, then merging in the PLF (personal layout fragment). The fragment layouts
+     * come from a {@link FragmentBaseline} shared with all users the same fragments apply to.
      */
     private Document createCompositeILF(
             final IPerson person,
             final Document PLF,
-            final List<Document> applicableLayouts,
+            final List<FragmentDefinition> applicableFragmentDefinitions,
+            final Locale locale,
             final IntegrationResult integrationResult) {
-        final Document ILF = ILFBuilder.constructILF(PLF, applicableLayouts, person);
+        final long start = System.nanoTime();
+        final FragmentBaseline baseline =
+                this.fragmentActivator.getFragmentBaseline(applicableFragmentDefinitions, locale);
+        final Document ILF = ILFBuilder.constructILF(PLF, baseline, person);
+        final long fragmentsMerged = System.nanoTime();
         PLFIntegrator.mergePLFintoILF(PLF, ILF, integrationResult);
+        final long plfMerged = System.nanoTime();
+
+        final long fragmentMergeMicros = TimeUnit.NANOSECONDS.toMicros(fragmentsMerged - start);
+        final long plfMergeMicros = TimeUnit.NANOSECONDS.toMicros(plfMerged - fragmentsMerged);
+        this.fragmentMergeStatistics.recordFragmentMerge(fragmentMergeMicros);
+        this.fragmentMergeStatistics.recordPlfMerge(plfMergeMicros);
+        logger.debug(
+                "Merged fragments {} in {}us and PLF in {}us for {}",
+                baseline.getOwnerIds(),
+                fragmentMergeMicros,
+                plfMergeMicros,
+                person.getAttribute(IPerson.USERNAME));
         if (logger.isDebugEnabled()) {
             logger.debug(
                     "PLF for {} after MERGING\n{}",
@@ -1714,14 +1738,13 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
     }
 
     @Override
-    protected int saveStructure(Node node, PreparedStatement structStmt, PreparedStatement parmStmt)
-            throws SQLException {
+    protected int saveStructure(Node node, LayoutStructureRows layoutRows) {
         if (node == null) { // No more
             return 0;
         }
         if (node.getNodeName().equals("parameter")) {
             // parameter, skip it and go on to the next node
-            return this.saveStructure(node.getNextSibling(), structStmt, parmStmt);
+            return this.saveStructure(node.getNextSibling(), layoutRows);
         }
         if (!(node instanceof Element)) {
             return 0;
@@ -1763,36 +1786,30 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         }
 
         if (node.hasChildNodes()) {
-            childStructId = this.saveStructure(node.getFirstChild(), structStmt, parmStmt);
+            childStructId = this.saveStructure(node.getFirstChild(), layoutRows);
         }
-        nextStructId = this.saveStructure(node.getNextSibling(), structStmt, parmStmt);
-        structStmt.clearParameters();
-        structStmt.setInt(1, saveStructId);
-        structStmt.setInt(2, nextStructId);
-        structStmt.setInt(3, childStructId);
+        nextStructId = this.saveStructure(node.getNextSibling(), layoutRows);
 
         final String externalId = structure.getAttribute("external_id");
+        final Integer eID;
         if (externalId != null && externalId.trim().length() > 0) {
-            final Integer eID = new Integer(externalId);
-            structStmt.setInt(4, eID.intValue());
-        } else {
-            structStmt.setNull(4, java.sql.Types.NUMERIC);
-        }
-        if (isChannel) {
-            structStmt.setInt(5, chanId);
-            structStmt.setNull(6, java.sql.Types.VARCHAR);
+            eID = new Integer(externalId);
         } else {
-            structStmt.setNull(5, java.sql.Types.NUMERIC);
-            structStmt.setString(6, structure.getAttribute("name"));
+            eID = null;
         }
         final String structType = structure.getAttribute("type");
-        structStmt.setString(7, structType);
-        structStmt.setString(8, RDBMServices.dbFlag(xmlBool(structure.getAttribute("hidden"))));
-        structStmt.setString(9, RDBMServices.dbFlag(xmlBool(structure.getAttribute("immutable"))));
-        structStmt.setString(
-                10, RDBMServices.dbFlag(xmlBool(structure.getAttribute("unremovable"))));
-        logger.debug(structStmt.toString());
-        structStmt.executeUpdate();
+        layoutRows.addStruct(
+                new StructRow(
+                        saveStructId,
+                        nextStructId,
+                        childStructId,
+                        eID,
+                        isChannel ? chanId : null,
+                        isChannel ? null : structure.getAttribute("name"),
+                        structType,
+                        RDBMServices.dbFlag(xmlBool(structure.getAttribute("hidden"))),
+                        RDBMServices.dbFlag(xmlBool(structure.getAttribute("immutable"))),
+                        RDBMServices.dbFlag(xmlBool(structure.getAttribute("unremovable")))));
 
         // code to persist extension attributes for dlm
         final NamedNodeMap attribs = node.getAttributes();
@@ -1805,12 +1822,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                     && !name.equals(Constants.ATT_FRAGMENT)
                     && !name.equals(Constants.ATT_PRECEDENCE)) {
                 // a cp extension attribute. Push into param table.
-                parmStmt.clearParameters();
-                parmStmt.setInt(1, saveStructId);
-                parmStmt.setString(2, name);
-                parmStmt.setString(3, attrib.getNodeValue());
-                logger.debug(parmStmt.toString());
-                parmStmt.executeUpdate();
+                layoutRows.addParameter(saveStructId, name, attrib.getNodeValue());
             }
         }
         final NodeList parameters = node.getChildNodes();
@@ -1830,12 +1842,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                         // override only for adhoc or if diff from chan def
                         final IPortletDefinitionParameter cp = portletDef.getParameter(parmName);
                         if (cp == null || !cp.getValue().equals(parmValue)) {
-                            parmStmt.clearParameters();
-                            parmStmt.setInt(1, saveStructId);
-                            parmStmt.setString(2, parmName);
-                            parmStmt.setString(3, parmValue);
-                            logger.debug(parmStmt.toString());
-                            parmStmt.executeUpdate();
+                            layoutRows.addParameter(saveStructId, parmName, parmValue);
                         }
                     }
                 }
@@ -0,0 +1,291 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.simple;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.apereo.portal.layout.simple.LayoutStructureRows.StructRow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The row changes needed to turn the persisted rows of a layout into the rows of an updated layout.
+ * {@link #apply(Connection, int, int)} issues batched INSERT, UPDATE and DELETE statements for just
+ * the changed UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows.
+ */
+public final class LayoutStructureDelta {
+    static final String DELETE_PARAM_SQL =
+            "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=? AND STRUCT_PARM_NM=?";
+    static final String DELETE_STRUCT_SQL =
+            "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=?";
+    static final String UPDATE_STRUCT_SQL =
+            "UPDATE UP_LAYOUT_STRUCT SET NEXT_STRUCT_ID=?, CHLD_STRUCT_ID=?, EXTERNAL_ID=?, CHAN_ID=?, NAME=?, TYPE=?, HIDDEN=?, IMMUTABLE=?, UNREMOVABLE=? "
+                    + "WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=?";
+    static final String INSERT_STRUCT_SQL =
+            "INSERT INTO UP_LAYOUT_STRUCT "
+                    + "(NEXT_STRUCT_ID, CHLD_STRUCT_ID, EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE, UNREMOVABLE, USER_ID, LAYOUT_ID, STRUCT_ID) "
+                    + "VALUES (?,?,?,?,?,?,?,?,?,?,?,?)";
+    static final String UPDATE_PARAM_SQL =
+            "UPDATE UP_LAYOUT_PARAM SET STRUCT_PARM_VAL=? "
+                    + "WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=? AND STRUCT_PARM_NM=?";
+    static final String INSERT_PARAM_SQL =
+            "INSERT INTO UP_LAYOUT_PARAM "
+                    + "(STRUCT_PARM_VAL, USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM) "
+                    + "VALUES (?,?,?,?,?)";
+
+    private static final Logger logger = LoggerFactory.getLogger(LayoutStructureDelta.class);
+
+    private final List<Integer> deletedStructs = new ArrayList<Integer>();
+    private final List<StructRow> updatedStructs = new ArrayList<StructRow>();
+    private final List<StructRow> insertedStructs = new ArrayList<StructRow>();
+    private final List<ParamRow> deletedParameters = new ArrayList<ParamRow>();
+    private final List<ParamRow> updatedParameters = new ArrayList<ParamRow>();
+    private final List<ParamRow> insertedParameters = new ArrayList<ParamRow>();
+
+    /**
+     * @param persisted The rows currently in the database
+     * @param updated The rows that should be in the database
+     */
+    public static LayoutStructureDelta compare(
+            LayoutStructureRows persisted, LayoutStructureRows updated) {
+        final LayoutStructureDelta delta = new LayoutStructureDelta();
+
+        final Map<Integer, StructRow> persistedStructs = persisted.getStructs();
+        final Map<Integer, StructRow> updatedStructs = updated.getStructs();
+        for (final StructRow row : updatedStructs.values()) {
+            final StructRow persistedRow = persistedStructs.get(row.getStructId());
+            if (persistedRow == null) {
+                delta.insertedStructs.add(row);
+            } else if (!persistedRow.equals(row)) {
+                delta.updatedStructs.add(row);
+            }
+        }
+        for (final Integer structId : persistedStructs.keySet()) {
+            if (!updatedStructs.containsKey(structId)) {
+                delta.deletedStructs.add(structId);
+            }
+        }
+
+        final Map<Integer, Map<String, String>> persistedParameters = persisted.getParameters();
+        final Map<Integer, Map<String, String>> updatedParameters = updated.getParameters();
+        for (final Map.Entry<Integer, Map<String, String>> structEntry :
+                updatedParameters.entrySet()) {
+            final Integer structId = structEntry.getKey();
+            Map<String, String> persistedValues = persistedParameters.get(structId);
+            if (persistedValues == null) {
+                persistedValues = Collections.emptyMap();
+            }
+
+            for (final Map.Entry<String, String> parameterEntry :
+                    structEntry.getValue().entrySet()) {
+                final String name = parameterEntry.getKey();
+                final String value = parameterEntry.getValue();
+                final ParamRow row = new ParamRow(structId, name, value);
+                if (!persistedValues.containsKey(name)) {
+                    delta.insertedParameters.add(row);
+                } else if (!value.equals(persistedValues.get(name))) {
+                    delta.updatedParameters.add(row);
+                }
+            }
+        }
+        for (final Map.Entry<Integer, Map<String, String>> structEntry :
+                persistedParameters.entrySet()) {
+            final Integer structId = structEntry.getKey();
+            Map<String, String> updatedValues = updatedParameters.get(structId);
+            if (updatedValues == null) {
+                updatedValues = Collections.emptyMap();
+            }
+
+            for (final Map.Entry<String, String> parameterEntry :
+                    structEntry.getValue().entrySet()) {
+                if (!updatedValues.containsKey(parameterEntry.getKey())) {
+                    delta.deletedParameters.add(
+                            new ParamRow(
+                                    structId, parameterEntry.getKey(), parameterEntry.getValue()));
+                }
+            }
+        }
+
+        return delta;
+    }
+
+    private LayoutStructureDelta() {}
+
+    /** @return The number of rows that are inserted, updated or deleted by the delta */
+    public int getChangeCount() {
+        return this.deletedStructs.size()
+                + this.updatedStructs.size()
+                + this.insertedStructs.size()
+                + this.deletedParameters.size()
+                + this.updatedParameters.size()
+                + this.insertedParameters.size();
+    }
+
+    public boolean isEmpty() {
+        return this.getChangeCount() == 0;
+    }
+
+    /** Write the changed rows for the layout using one batched statement per type of change */
+    public void apply(Connection con, int userId, int layoutId) throws SQLException {
+        if (!this.deletedParameters.isEmpty()) {
+            final PreparedStatement pstmt = con.prepareStatement(DELETE_PARAM_SQL);
+            try {
+                for (final ParamRow row : this.deletedParameters) {
+                    pstmt.setInt(1, userId);
+                    pstmt.setInt(2, layoutId);
+                    pstmt.setInt(3, row.structId);
+                    pstmt.setString(4, row.name);
+                    pstmt.addBatch();
+                }
+                executeBatch(pstmt, DELETE_PARAM_SQL, this.deletedParameters.size());
+            } finally {
+                pstmt.close();
+            }
+        }
+
+        if (!this.deletedStructs.isEmpty()) {
+            final PreparedStatement pstmt = con.prepareStatement(DELETE_STRUCT_SQL);
+            try {
+                for (final Integer structId : this.deletedStructs) {
+                    pstmt.setInt(1, userId);
+                    pstmt.setInt(2, layoutId);
+                    pstmt.setInt(3, structId);
+                    pstmt.addBatch();
+                }
+                executeBatch(pstmt, DELETE_STRUCT_SQL, this.deletedStructs.size());
+            } finally {
+                pstmt.close();
+            }
+        }
+
+        writeStructs(con, UPDATE_STRUCT_SQL, this.updatedStructs, userId, layoutId);
+        writeStructs(con, INSERT_STRUCT_SQL, this.insertedStructs, userId, layoutId);
+        writeParameters(con, UPDATE_PARAM_SQL, this.updatedParameters, userId, layoutId);
+        writeParameters(con, INSERT_PARAM_SQL, this.insertedParameters, userId, layoutId);
+    }
+
+    /** The UPDATE and INSERT statements for structs share the same parameter order */
+    private static void writeStructs(
+            Connection con, String sql, List<StructRow> rows, int userId, int layoutId)
+            throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        final PreparedStatement pstmt = con.prepareStatement(sql);
+        try {
+            for (final StructRow row : rows) {
+                pstmt.setInt(1, row.getNextStructId());
+                pstmt.setInt(2, row.getChildStructId());
+                if (row.getExternalId() != null) {
+                    pstmt.setInt(3, row.getExternalId());
+                } else {
+                    pstmt.setNull(3, Types.NUMERIC);
+                }
+                if (row.getChanId() != null) {
+                    pstmt.setInt(4, row.getChanId());
+                } else {
+                    pstmt.setNull(4, Types.NUMERIC);
+                }
+                if (row.getName() != null) {
+                    pstmt.setString(5, row.getName());
+                } else {
+                    pstmt.setNull(5, Types.VARCHAR);
+                }
+                pstmt.setString(6, row.getType());
+                pstmt.setString(7, row.getHidden());
+                pstmt.setString(8, row.getImmutable());
+                pstmt.setString(9, row.getUnremovable());
+                pstmt.setInt(10, userId);
+                pstmt.setInt(11, layoutId);
+                pstmt.setInt(12, row.getStructId());
+                pstmt.addBatch();
+            }
+            executeBatch(pstmt, sql, rows.size());
+        } finally {
+            pstmt.close();
+        }
+    }
+
+    /** The UPDATE and INSERT statements for parameters share the same parameter order */
+    private static void writeParameters(
+            Connection con, String sql, List<ParamRow> rows, int userId, int layoutId)
+            throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        final PreparedStatement pstmt = con.prepareStatement(sql);
+        try {
+            for (final ParamRow row : rows) {
+                pstmt.setString(1, row.value);
+                pstmt.setInt(2, userId);
+                pstmt.setInt(3, layoutId);
+                pstmt.setInt(4, row.structId);
+                pstmt.setString(5, row.name);
+                pstmt.addBatch();
+            }
+            executeBatch(pstmt, sql, rows.size());
+        } finally {
+            pstmt.close();
+        }
+    }
+
+    private static void executeBatch(PreparedStatement pstmt, String sql, int rowCount)
+            throws SQLException {
+        logger.debug("{} for {} rows", sql, rowCount);
+        pstmt.executeBatch();
+    }
+
+    @Override
+    public String toString() {
+        return "LayoutStructureDelta [deletedStructs="
+                + this.deletedStructs
+                + ", updatedStructs="
+                + this.updatedStructs
+                + ", insertedStructs="
+                + this.insertedStructs
+                + ", deletedParameters="
+                + this.deletedParameters
+                + ", updatedParameters="
+                + this.updatedParameters
+                + ", insertedParameters="
+                + this.insertedParameters
+                + "]";
+    }
+
+    private static final class ParamRow {
+        private final int structId;
+        private final String name;
+        private final String value;
+
+        ParamRow(int structId, String name, String value) {
+            this.structId = structId;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return this.structId + ":" + this.name + "=" + this.value;
+        }
+    }
+}
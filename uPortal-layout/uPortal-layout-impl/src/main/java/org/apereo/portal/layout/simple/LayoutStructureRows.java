@@ -0,0 +1,324 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.simple;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Strings;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows for a single user layout. Built from a personal
+ * layout document by {@link RDBMUserLayoutStore#saveStructure(org.w3c.dom.Node,
+ * LayoutStructureRows)} or loaded from the database, and compared with {@link LayoutStructureDelta}
+ * to persist only the rows that changed.
+ */
+public final class LayoutStructureRows {
+    private final Map<Integer, StructRow> structs = new LinkedHashMap<Integer, StructRow>();
+    private final Map<Integer, Map<String, String>> parameters =
+            new LinkedHashMap<Integer, Map<String, String>>();
+    private int parameterCount = 0;
+
+    /**
+     * Load the persisted rows of a layout
+     *
+     * @param con Connection to read the rows with
+     */
+    public static LayoutStructureRows load(Connection con, int userId, int layoutId)
+            throws SQLException {
+        final LayoutStructureRows rows = new LayoutStructureRows();
+
+        PreparedStatement pstmt =
+                con.prepareStatement(
+                        "SELECT STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID, EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE, UNREMOVABLE "
+                                + "FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?");
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            final ResultSet rs = pstmt.executeQuery();
+            try {
+                while (rs.next()) {
+                    final String externalId = rs.getString(4);
+                    int chanId = rs.getInt(5);
+                    final Integer chanIdValue = rs.wasNull() ? null : chanId;
+                    rows.addStruct(
+                            new StructRow(
+                                    rs.getInt(1),
+                                    rs.getInt(2),
+                                    rs.getInt(3),
+                                    externalId != null && externalId.trim().length() > 0
+                                            ? Integer.valueOf(externalId.trim())
+                                            : null,
+                                    chanIdValue,
+                                    rs.getString(6),
+                                    rs.getString(7),
+                                    rs.getString(8),
+                                    rs.getString(9),
+                                    rs.getString(10)));
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            pstmt.close();
+        }
+
+        pstmt =
+                con.prepareStatement(
+                        "SELECT STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL "
+                                + "FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?");
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            final ResultSet rs = pstmt.executeQuery();
+            try {
+                while (rs.next()) {
+                    rows.addParameter(rs.getInt(1), rs.getString(2), rs.getString(3));
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            pstmt.close();
+        }
+
+        return rows;
+    }
+
+    /**
+     * Add a UP_LAYOUT_STRUCT row
+     *
+     * @throws IllegalArgumentException if a row already exists for the struct id
+     */
+    public void addStruct(StructRow row) {
+        if (this.structs.containsKey(row.getStructId())) {
+            throw new IllegalArgumentException(
+                    "Layout already contains a struct with id " + row.getStructId());
+        }
+        this.structs.put(row.getStructId(), row);
+    }
+
+    /**
+     * Add a UP_LAYOUT_PARAM row
+     *
+     * @throws IllegalArgumentException if the struct already has a parameter with the name
+     */
+    public void addParameter(int structId, String name, String value) {
+        Map<String, String> structParameters = this.parameters.get(structId);
+        if (structParameters == null) {
+            structParameters = new LinkedHashMap<String, String>();
+            this.parameters.put(structId, structParameters);
+        }
+        if (structParameters.containsKey(name)) {
+            throw new IllegalArgumentException(
+                    "Struct " + structId + " already contains a parameter named " + name);
+        }
+        structParameters.put(name, value);
+        this.parameterCount++;
+    }
+
+    /** @return The UP_LAYOUT_STRUCT rows keyed by struct id */
+    public Map<Integer, StructRow> getStructs() {
+        return Collections.unmodifiableMap(this.structs);
+    }
+
+    /** @return The UP_LAYOUT_PARAM values keyed by struct id and parameter name */
+    public Map<Integer, Map<String, String>> getParameters() {
+        return Collections.unmodifiableMap(this.parameters);
+    }
+
+    /** @return Total number of UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows */
+    public int getRowCount() {
+        return this.structs.size() + this.parameterCount;
+    }
+
+    public boolean isEmpty() {
+        return this.structs.isEmpty() && this.parameters.isEmpty();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(this.structs, this.parameters);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof LayoutStructureRows)) {
+            return false;
+        }
+        final LayoutStructureRows other = (LayoutStructureRows) obj;
+        return this.structs.equals(other.structs) && this.parameters.equals(other.parameters);
+    }
+
+    @Override
+    public String toString() {
+        return "LayoutStructureRows [structs="
+                + this.structs
+                + ", parameters="
+                + this.parameters
+                + "]";
+    }
+
+    /** A UP_LAYOUT_STRUCT row, excluding the USER_ID and LAYOUT_ID columns */
+    public static final class StructRow {
+        private final int structId;
+        private final int nextStructId;
+        private final int childStructId;
+        private final Integer externalId;
+        private final Integer chanId;
+        private final String name;
+        private final String type;
+        private final String hidden;
+        private final String immutable;
+        private final String unremovable;
+
+        public StructRow(
+                int structId,
+                int nextStructId,
+                int childStructId,
+                Integer externalId,
+                Integer chanId,
+                String name,
+                String type,
+                String hidden,
+                String immutable,
+                String unremovable) {
+            this.structId = structId;
+            this.nextStructId = nextStructId;
+            this.childStructId = childStructId;
+            this.externalId = externalId;
+            this.chanId = chanId;
+            this.name = name;
+            this.type = type;
+            this.hidden = hidden;
+            this.immutable = immutable;
+            this.unremovable = unremovable;
+        }
+
+        public int getStructId() {
+            return this.structId;
+        }
+
+        public int getNextStructId() {
+            return this.nextStructId;
+        }
+
+        public int getChildStructId() {
+            return this.childStructId;
+        }
+
+        public Integer getExternalId() {
+            return this.externalId;
+        }
+
+        public Integer getChanId() {
+            return this.chanId;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public String getType() {
+            return this.type;
+        }
+
+        public String getHidden() {
+            return this.hidden;
+        }
+
+        public String getImmutable() {
+            return this.immutable;
+        }
+
+        public String getUnremovable() {
+            return this.unremovable;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(
+                    this.structId,
+                    this.nextStructId,
+                    this.childStructId,
+                    this.externalId,
+                    this.chanId,
+                    Strings.emptyToNull(this.name),
+                    Strings.emptyToNull(this.type),
+                    this.hidden,
+                    this.immutable,
+                    this.unremovable);
+        }
+
+        /**
+         * Empty and null strings are considered equal as some databases store empty strings as null
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof StructRow)) {
+                return false;
+            }
+            final StructRow other = (StructRow) obj;
+            return this.structId == other.structId
+                    && this.nextStructId == other.nextStructId
+                    && this.childStructId == other.childStructId
+                    && Objects.equal(this.externalId, other.externalId)
+                    && Objects.equal(this.chanId, other.chanId)
+                    && Objects.equal(
+                            Strings.emptyToNull(this.name), Strings.emptyToNull(other.name))
+                    && Objects.equal(
+                            Strings.emptyToNull(this.type), Strings.emptyToNull(other.type))
+                    && Objects.equal(this.hidden, other.hidden)
+                    && Objects.equal(this.immutable, other.immutable)
+                    && Objects.equal(this.unremovable, other.unremovable);
+        }
+
+        @Override
+        public String toString() {
+            return "StructRow [structId="
+                    + this.structId
+                    + ", nextStructId="
+                    + this.nextStructId
+                    + ", childStructId="
+                    + this.childStructId
+                    + ", externalId="
+                    + this.externalId
+                    + ", chanId="
+                    + this.chanId
+                    + ", name="
+                    + this.name
+                    + ", type="
+                    + this.type
+                    + ", hidden="
+                    + this.hidden
+                    + ", immutable="
+                    + this.immutable
+                    + ", unremovable="
+                    + this.unremovable
+                    + "]";
+        }
+    }
+}
@@ -42,6 +42,7 @@ import org.apereo.portal.jdbc.IJoinQueryString;
 import org.apereo.portal.jpa.BasePortalJpaDao;
 import org.apereo.portal.layout.IUserLayoutStore;
 import org.apereo.portal.layout.LayoutStructure;
+import org.apereo.portal.layout.StructIdsRewrittenEvent;
 import org.apereo.portal.layout.dao.IStylesheetDescriptorDao;
 import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
 import org.apereo.portal.security.IPerson;
@@ -56,6 +57,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcOperations;
@@ -76,7 +79,10 @@ import org.w3c.dom.Node;
  * <p>Prior to uPortal 2.5, this class existed in the org.jasig.portal package. It was moved to its
  * present package to express that it is part of the Simple Layout Manager implementation.
  */
-public abstract class RDBMUserLayoutStore implements IUserLayoutStore, InitializingBean {
+public abstract class RDBMUserLayoutStore
+        implements IUserLayoutStore,
+                InitializingBean,
+                ApplicationListener<StructIdsRewrittenEvent> {
 
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     private static String PROFILE_TABLE = "UP_USER_PROFILE";
@@ -96,10 +102,42 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
     protected IDatabaseMetadata databaseMetadata;
     protected IPortletDefinitionRegistry portletDefinitionRegistry;
     protected IStylesheetDescriptorDao stylesheetDescriptorDao;
+    private boolean deltaLayoutSave = true;
+    private int structIdBlockSize = 10;
+    private long structIdBlockLifetime = 60000;
+    private StructIdBlockAllocator structIdAllocator;
 
     // I18n property
     protected static final boolean localeAware = LocaleManager.isLocaleAware();
 
+    /**
+     * @param deltaLayoutSave If true only the layout rows that changed are written when a layout is
+     *     saved, if false all rows of the layout are deleted and re-inserted
+     */
+    @Value("${org.apereo.portal.layout.simple.RDBMUserLayoutStore.deltaLayoutSave:true}")
+    public void setDeltaLayoutSave(boolean deltaLayoutSave) {
+        this.deltaLayoutSave = deltaLayoutSave;
+    }
+
+    /**
+     * @param structIdBlockSize Number of structure ids reserved for a user with each update of
+     *     UP_USER.NEXT_STRUCT_ID, ids of the block are then handed out from memory. Defaults to 10,
+     *     1 reserves every id in the database.
+     */
+    @Value("${org.apereo.portal.layout.simple.RDBMUserLayoutStore.structIdBlockSize:10}")
+    public void setStructIdBlockSize(int structIdBlockSize) {
+        this.structIdBlockSize = structIdBlockSize;
+    }
+
+    /**
+     * @param structIdBlockLifetime Time in milliseconds ids from a reserved block are handed out
+     *     before the rest of the block is discarded
+     */
+    @Value("${org.apereo.portal.layout.simple.RDBMUserLayoutStore.structIdBlockLifetime:60000}")
+    public void setStructIdBlockLifetime(long structIdBlockLifetime) {
+        this.structIdBlockLifetime = structIdBlockLifetime;
+    }
+
     @Autowired
     public void setLocaleStore(ILocaleStore localeStore) {
         this.localeStore = localeStore;
@@ -140,8 +178,20 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
         this.portletDefinitionRegistry = portletDefinitionRegistry;
     }
 
+    @Override
+    public void onApplicationEvent(StructIdsRewrittenEvent event) {
+        this.structIdAllocator.discardBlock(event.getUserId());
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
+        this.structIdAllocator =
+                new StructIdBlockAllocator(
+                        this.nextStructTransactionOperations,
+                        this.jdbcOperations,
+                        this.structIdBlockSize,
+                        this.structIdBlockLifetime);
+
         if (this.databaseMetadata.supportsOuterJoins()) {
             final IJoinQueryString joinQuery = this.databaseMetadata.getJoinQuery();
 
@@ -383,55 +433,7 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
      * @exception Exception
      */
     protected String getNextStructId(final IPerson person, final String prefix) {
-        final int userId = person.getID();
-        return this.nextStructTransactionOperations.execute(
-                new TransactionCallback<String>() {
-                    @Override
-                    public String doInTransaction(TransactionStatus status) {
-                        return jdbcOperations.execute(
-                                new ConnectionCallback<String>() {
-                                    @Override
-                                    public String doInConnection(Connection con)
-                                            throws SQLException, DataAccessException {
-
-                                        Statement stmt = con.createStatement();
-                                        try {
-                                            String sQuery =
-                                                    "SELECT NEXT_STRUCT_ID FROM UP_USER WHERE USER_ID="
-                                                            + userId;
-                                            logger.debug("getNextStructId(): {}", sQuery);
-                                            ResultSet rs = stmt.executeQuery(sQuery);
-                                            int currentStructId;
-                                            try {
-                                                if (rs.next()) {
-                                                    currentStructId = rs.getInt(1);
-                                                } else {
-                                                    throw new SQLException(
-                                                            "no rows returned for query ["
-                                                                    + sQuery
-                                                                    + "]");
-                                                }
-                                            } finally {
-                                                rs.close();
-                                            }
-                                            int nextStructId = currentStructId + 1;
-                                            String sUpdate =
-                                                    "UPDATE UP_USER SET NEXT_STRUCT_ID="
-                                                            + nextStructId
-                                                            + " WHERE USER_ID="
-                                                            + userId
-                                                            + " AND NEXT_STRUCT_ID="
-                                                            + currentStructId;
-                                            logger.debug("getNextStructId(): {}", sUpdate);
-                                            stmt.executeUpdate(sUpdate);
-                                            return prefix + nextStructId;
-                                        } finally {
-                                            stmt.close();
-                                        }
-                                    }
-                                });
-                    }
-                });
+        return prefix + this.structIdAllocator.getNextStructId(person.getID());
     }
 
     protected Document getPersonalUserLayout(final IPerson person, final IUserProfile profile) {
@@ -593,6 +595,13 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
                                                                                     sQuery);
                                                                         }
 
+                                                                        // Ids reserved before the
+                                                                        // template layout was
+                                                                        // copied may overlap it
+                                                                        structIdAllocator
+                                                                                .discardBlock(
+                                                                                        realUserId);
+
                                                                         return new Tuple<
                                                                                 Integer, Integer>(
                                                                                 newUserId,
@@ -1118,9 +1127,13 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
 
     protected abstract Element getStructure(Document doc, LayoutStructure ls);
 
-    protected abstract int saveStructure(
-            Node node, PreparedStatement structStmt, PreparedStatement parmStmt)
-            throws SQLException;
+    /**
+     * Add the UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows for the node, its children and following
+     * siblings to the layout rows.
+     *
+     * @return The struct id of the node, 0 if no row was added for it
+     */
+    protected abstract int saveStructure(Node node, LayoutStructureRows layoutRows);
 
     /**
      * Save the user layout.
@@ -1174,70 +1187,19 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
                                             firstLayout = true;
                                         }
 
-                                        String sql =
-                                                "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
-                                        PreparedStatement pstmt = con.prepareStatement(sql);
-                                        try {
-                                            pstmt.clearParameters();
-                                            pstmt.setInt(1, userId);
-                                            pstmt.setInt(2, layoutId);
-                                            logger.debug(sql);
-                                            pstmt.executeUpdate();
-                                        } finally {
-                                            pstmt.close();
-                                        }
-
-                                        sql =
-                                                "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
-                                        pstmt = con.prepareStatement(sql);
-                                        try {
-                                            pstmt.clearParameters();
-                                            pstmt.setInt(1, userId);
-                                            pstmt.setInt(2, layoutId);
-                                            logger.debug(sql);
-                                            pstmt.executeUpdate();
-                                        } finally {
-                                            pstmt.close();
-                                        }
-
-                                        PreparedStatement structStmt =
-                                                con.prepareStatement(
-                                                        "INSERT INTO UP_LAYOUT_STRUCT "
-                                                                + "(USER_ID, LAYOUT_ID, STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID,EXTERNAL_ID,CHAN_ID,NAME,TYPE,HIDDEN,IMMUTABLE,UNREMOVABLE) "
-                                                                + "VALUES ("
-                                                                + userId
-                                                                + ","
-                                                                + layoutId
-                                                                + ",?,?,?,?,?,?,?,?,?,?)");
-
-                                        PreparedStatement parmStmt =
-                                                con.prepareStatement(
-                                                        "INSERT INTO UP_LAYOUT_PARAM "
-                                                                + "(USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL) "
-                                                                + "VALUES ("
-                                                                + userId
-                                                                + ","
-                                                                + layoutId
-                                                                + ",?,?,?)");
-
-                                        int firstStructId;
-                                        try {
-                                            firstStructId =
-                                                    saveStructure(
-                                                            layoutXML
-                                                                    .getFirstChild()
-                                                                    .getFirstChild(),
-                                                            structStmt,
-                                                            parmStmt);
-                                        } finally {
-                                            structStmt.close();
-                                            parmStmt.close();
-                                        }
+                                        final LayoutStructureRows layoutRows =
+                                                new LayoutStructureRows();
+                                        final int firstStructId =
+                                                saveStructure(
+                                                        layoutXML.getFirstChild().getFirstChild(),
+                                                        layoutRows);
+                                        saveLayoutRows(
+                                                con, userId, layoutId, layoutRows, firstLayout);
 
                                         // Check to see if the user has a matching layout
-                                        sql =
+                                        String sql =
                                                 "SELECT * FROM UP_USER_LAYOUT WHERE USER_ID=? AND LAYOUT_ID=?";
-                                        pstmt = con.prepareStatement(sql);
+                                        PreparedStatement pstmt = con.prepareStatement(sql);
                                         try {
                                             pstmt.clearParameters();
                                             pstmt.setInt(1, userId);
@@ -1401,6 +1363,10 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
                                 });
                     }
                 });
+
+        // Catch NEXT_STRUCT_ID writes made elsewhere before more ids are handed out from memory
+        this.structIdAllocator.verifyBlock(userId);
+
         if (logger.isDebugEnabled()) {
             long stopTime = System.currentTimeMillis();
             long timeTook = stopTime - startTime;
@@ -1411,6 +1377,66 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
         }
     }
 
+    /**
+     * Write the rows of the layout. Unless this is the first layout for the user or delta saves are
+     * disabled only the rows that differ from the persisted layout are written. Falls back to
+     * deleting and re-inserting every row when there are no persisted rows or when more rows
+     * changed than the layout contains.
+     */
+    protected void saveLayoutRows(
+            Connection con,
+            int userId,
+            int layoutId,
+            LayoutStructureRows layoutRows,
+            boolean firstLayout)
+            throws SQLException {
+        if (this.deltaLayoutSave && !firstLayout) {
+            final LayoutStructureRows persistedRows =
+                    LayoutStructureRows.load(con, userId, layoutId);
+            if (!persistedRows.isEmpty()) {
+                final LayoutStructureDelta delta =
+                        LayoutStructureDelta.compare(persistedRows, layoutRows);
+                if (delta.getChangeCount() <= layoutRows.getRowCount()) {
+                    logger.debug(
+                            "Saving {} changed rows of {} for layout {} of user {}",
+                            delta.getChangeCount(),
+                            layoutRows.getRowCount(),
+                            layoutId,
+                            userId);
+                    delta.apply(con, userId, layoutId);
+                    return;
+                }
+            }
+        }
+
+        String sql = "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
+        PreparedStatement pstmt = con.prepareStatement(sql);
+        try {
+            pstmt.clearParameters();
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            logger.debug(sql);
+            pstmt.executeUpdate();
+        } finally {
+            pstmt.close();
+        }
+
+        sql = "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
+        pstmt = con.prepareStatement(sql);
+        try {
+            pstmt.clearParameters();
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            logger.debug(sql);
+            pstmt.executeUpdate();
+        } finally {
+            pstmt.close();
+        }
+
+        LayoutStructureDelta.compare(new LayoutStructureRows(), layoutRows)
+                .apply(con, userId, layoutId);
+    }
+
     public void updateUserProfile(final IPerson person, final IUserProfile profile) {
         final int userId = person.getID();
         this.transactionOperations.execute(
@@ -0,0 +1,176 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.simple;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * Hands out layout structure ids reserved from UP_USER.NEXT_STRUCT_ID. Each reservation advances
+ * the column by the block size with a single atomic UPDATE in its own transaction, so blocks
+ * reserved by different portal servers never overlap.
+ *
+ * <p>With a block size of 1 every id is reserved in the database and nothing is held in memory.
+ * With larger blocks the remaining ids of a block are handed out from memory without reading the
+ * database. Writers that rewrite NEXT_STRUCT_ID, such as a user reset, a user import or a template
+ * layout copy, call {@link #discardBlock(int)}. Writes this server is not told about, for example
+ * by another portal server, are caught by {@link #verifyBlock(int)} once per layout save. Blocks
+ * are also discarded after a limited time.
+ */
+class StructIdBlockAllocator {
+    private static final String SELECT_QUERY = "SELECT NEXT_STRUCT_ID FROM UP_USER WHERE USER_ID=?";
+    private static final String RESERVE_QUERY =
+            "UPDATE UP_USER SET NEXT_STRUCT_ID=COALESCE(NEXT_STRUCT_ID, 0)+? WHERE USER_ID=?";
+
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final TransactionOperations transactionOperations;
+    private final JdbcOperations jdbcOperations;
+    private final int blockSize;
+    private final long blockLifetime;
+    private final LoadingCache<Integer, StructIdBlock> userBlocks;
+
+    /**
+     * @param transactionOperations Used to run each block reservation, should start a new
+     *     transaction so the reservation is committed immediately
+     * @param blockSize Number of ids reserved at once, 1 reserves every id individually
+     * @param blockLifetime Time in milliseconds ids of a reserved block are handed out
+     */
+    StructIdBlockAllocator(
+            TransactionOperations transactionOperations,
+            JdbcOperations jdbcOperations,
+            int blockSize,
+            long blockLifetime) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be at least 1: " + blockSize);
+        }
+        this.transactionOperations = transactionOperations;
+        this.jdbcOperations = jdbcOperations;
+        this.blockSize = blockSize;
+        this.blockLifetime = blockLifetime;
+        this.userBlocks =
+                CacheBuilder.newBuilder()
+                        .maximumSize(10000)
+                        .expireAfterAccess(Math.max(blockLifetime, 1), TimeUnit.MILLISECONDS)
+                        .build(
+                                new CacheLoader<Integer, StructIdBlock>() {
+                                    @Override
+                                    public StructIdBlock load(Integer userId) {
+                                        return new StructIdBlock();
+                                    }
+                                });
+    }
+
+    /** @return The next unused structure id for the user */
+    public int getNextStructId(int userId) {
+        if (this.blockSize == 1) {
+            return this.reserveBlock(userId);
+        }
+
+        final StructIdBlock block = this.userBlocks.getUnchecked(userId);
+        synchronized (block) {
+            final long now = System.currentTimeMillis();
+            if (now - block.reserved >= this.blockLifetime) {
+                block.next = block.last + 1;
+            }
+            if (block.next > block.last) {
+                final int last = this.reserveBlock(userId);
+                block.next = last - this.blockSize + 1;
+                block.last = last;
+                block.reserved = now;
+            }
+            return block.next++;
+        }
+    }
+
+    /**
+     * Discard the ids remaining in the user's block, the next id is taken from a newly reserved
+     * block. Used when NEXT_STRUCT_ID is rewritten outside of this allocator.
+     */
+    public void discardBlock(int userId) {
+        this.userBlocks.invalidate(userId);
+    }
+
+    /**
+     * Discard the ids remaining in the user's block if NEXT_STRUCT_ID no longer holds the value set
+     * when the block was reserved. Runs a single query, and none when no ids remain in memory.
+     */
+    public void verifyBlock(int userId) {
+        final StructIdBlock block = this.userBlocks.getIfPresent(userId);
+        if (block == null) {
+            return;
+        }
+        synchronized (block) {
+            if (block.next > block.last) {
+                return;
+            }
+            final List<Integer> results =
+                    this.jdbcOperations.queryForList(SELECT_QUERY, Integer.class, userId);
+            if (results.isEmpty() || results.get(0) == null || results.get(0) != block.last) {
+                logger.debug(
+                        "NEXT_STRUCT_ID of user {} was rewritten, discarding struct ids {} to {}",
+                        userId,
+                        block.next,
+                        block.last);
+                block.next = block.last + 1;
+            }
+        }
+    }
+
+    /** @return The NEXT_STRUCT_ID value set by the reservation, the last id of the block */
+    private int reserveBlock(final int userId) {
+        final int last =
+                this.transactionOperations.execute(
+                        new TransactionCallback<Integer>() {
+                            @Override
+                            public Integer doInTransaction(TransactionStatus status) {
+                                // The update locks the row, the select then reads the value it set
+                                final int rowsAltered =
+                                        jdbcOperations.update(RESERVE_QUERY, blockSize, userId);
+                                final List<Integer> results =
+                                        jdbcOperations.queryForList(
+                                                SELECT_QUERY, Integer.class, userId);
+                                if (rowsAltered == 0 || results.isEmpty()) {
+                                    throw new EmptyResultDataAccessException(
+                                            "No UP_USER row found for USER_ID=" + userId, 1);
+                                }
+                                return results.get(0);
+                            }
+                        });
+
+        logger.debug(
+                "Reserved struct ids {} to {} for user {}",
+                last - this.blockSize + 1,
+                last,
+                userId);
+        return last;
+    }
+
+    private static final class StructIdBlock {
+        private int next = 1;
+        private int last = 0;
+        private long reserved = 0;
+    }
+}
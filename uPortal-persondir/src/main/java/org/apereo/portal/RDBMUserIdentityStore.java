@@ -34,6 +34,7 @@ import org.apereo.portal.groups.IGroupMember;
 import org.apereo.portal.groups.ILockableEntityGroup;
 import org.apereo.portal.jdbc.RDBMServices;
 import org.apereo.portal.jpa.BasePortalJpaDao;
+import org.apereo.portal.layout.StructIdsRewrittenEvent;
 import org.apereo.portal.layout.dao.IStylesheetUserPreferencesDao;
 import org.apereo.portal.layout.om.IStylesheetUserPreferences;
 import org.apereo.portal.persondir.ILocalAccountDao;
@@ -50,6 +51,8 @@ import org.apereo.portal.utils.SerializableObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.jdbc.core.ConnectionCallback;
@@ -69,7 +72,7 @@ import org.springframework.transaction.support.TransactionTemplate;
  * <p>Dalquist - edalquist@unicon.net)
  */
 @Service("userIdentityStore")
-public class RDBMUserIdentityStore implements IUserIdentityStore {
+public class RDBMUserIdentityStore implements IUserIdentityStore, ApplicationEventPublisherAware {
 
     private static final Log log = LogFactory.getLog(RDBMUserIdentityStore.class);
     private static final String PROFILE_TABLE = "UP_USER_PROFILE";
@@ -89,6 +92,12 @@ public class RDBMUserIdentityStore implements IUserIdentityStore {
     private IStylesheetUserPreferencesDao stylesheetUserPreferencesDao;
     private ILocalAccountDao localAccountDao;
     private Ehcache userLockCache;
+    private ApplicationEventPublisher eventPublisher;
+
+    @Override
+    public void setApplicationEventPublisher(ApplicationEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
 
     @Value("${org.apereo.portal.services.Authentication.defaultTemplateUserName}")
     public void setDefaultTemplateUserName(String defaultTemplateUserName) {
@@ -243,6 +252,9 @@ public class RDBMUserIdentityStore implements IUserIdentityStore {
                         if (person != null) {
                             localAccountDao.deleteAccount(person);
                         }
+
+                        eventPublisher.publishEvent(
+                                new StructIdsRewrittenEvent(RDBMUserIdentityStore.this, userId));
                     }
                 });
     }
@@ -852,6 +864,8 @@ public class RDBMUserIdentityStore implements IUserIdentityStore {
                                 });
                     }
                 });
+
+        this.eventPublisher.publishEvent(new StructIdsRewrittenEvent(this, userId));
     }
 
     protected int addNewUser(
@@ -22,9 +22,9 @@ import java.util.List;
 import javax.portlet.PortletRequest;
 import javax.servlet.http.HttpServletRequest;
 import org.apereo.portal.portlet.om.IPortletDefinition;
-import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
 import org.apereo.portal.portlets.search.IPortalSearchService;
 import org.apereo.portal.portlets.search.PortletRegistryUtil;
+import org.apereo.portal.portlets.search.PortletSearchIndex;
 import org.apereo.portal.search.SearchRequest;
 import org.apereo.portal.search.SearchResult;
 import org.apereo.portal.search.SearchResults;
@@ -41,15 +41,18 @@ import org.springframework.beans.factory.annotation.Value;
  *   <li>fname
  *   <li>title
  *   <li>description
+ *   <li>keywords
+ *   <li>category names
  * </ul>
  *
- * <p>Portlet content is not matched.
+ * <p>Portlet content is not matched. Results are ordered by relevance (see {@link
+ * PortletSearchIndex}).
  *
  * <p>Results comply with requester's permissions.
  */
 public class PortletRegistrySearchService implements IPortalSearchService {
 
-    @Autowired private IPortletDefinitionRegistry portletDefinitionRegistry;
+    @Autowired private PortletSearchIndex portletSearchIndex;
 
     @Autowired private IPortalRequestUtils portalRequestUtils;
 
@@ -60,25 +63,21 @@ public class PortletRegistrySearchService implements IPortalSearchService {
 
     @Override
     public SearchResults getSearchResults(PortletRequest request, SearchRequest query) {
-        final String queryString = query.getSearchTerms().toLowerCase();
-        final List<IPortletDefinition> portlets =
-                portletDefinitionRegistry.getAllPortletDefinitions();
+        final List<IPortletDefinition> portlets = portletSearchIndex.search(query.getSearchTerms());
         final HttpServletRequest httpServletRequest =
                 this.portalRequestUtils.getPortletHttpRequest(request);
 
         final SearchResults results = new SearchResults();
         for (IPortletDefinition portlet : portlets) {
-            if (portletRegistryUtil.matches(queryString, portlet)) {
-                final SearchResult result = new SearchResult();
-                result.setTitle(portlet.getTitle());
-                result.setSummary(portlet.getDescription());
-                result.getType().add(searchResultType);
+            final SearchResult result = new SearchResult();
+            result.setTitle(portlet.getTitle());
+            result.setSummary(portlet.getDescription());
+            result.getType().add(searchResultType);
 
-                String url = portletRegistryUtil.buildPortletUrl(httpServletRequest, portlet);
-                if (url != null) {
-                    result.setExternalUrl(url);
-                    results.getSearchResult().add(result);
-                }
+            String url = portletRegistryUtil.buildPortletUrl(httpServletRequest, portlet);
+            if (url != null) {
+                result.setExternalUrl(url);
+                results.getSearchResult().add(result);
             }
         }
 
@@ -21,6 +21,7 @@ public class PortletExecutionReportForm extends BaseReportForm {
 
     private Set<String> portlets = new HashSet<String>();
     private Set<String> executionTypeNames = new HashSet<String>();
+    private boolean latencyPercentiles = false;
 
     public final Set<String> getPortlets() {
         return portlets;
@@ -37,4 +38,12 @@ public class PortletExecutionReportForm extends BaseReportForm {
     public void setExecutionTypeNames(Set<String> executionTypeNames) {
         this.executionTypeNames = executionTypeNames;
     }
+
+    public boolean isLatencyPercentiles() {
+        return latencyPercentiles;
+    }
+
+    public void setLatencyPercentiles(boolean latencyPercentiles) {
+        this.latencyPercentiles = latencyPercentiles;
+    }
 }
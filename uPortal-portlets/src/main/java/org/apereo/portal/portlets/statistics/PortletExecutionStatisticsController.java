@@ -14,10 +14,13 @@
  */
 package org.apereo.portal.portlets.statistics;
 
+import com.google.common.collect.ImmutableList;
 import com.google.visualization.datasource.base.TypeMismatchException;
 import com.google.visualization.datasource.datatable.ColumnDescription;
 import com.google.visualization.datasource.datatable.value.NumberValue;
 import com.google.visualization.datasource.datatable.value.Value;
+import com.google.visualization.datasource.datatable.value.ValueType;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
@@ -62,6 +65,7 @@ public class PortletExecutionStatisticsController
 
     private static final String DATA_TABLE_RESOURCE_ID = "portletExecutionData";
     private static final String REPORT_NAME = "portletExecution.totals";
+    private static final double NANOS_PER_MILLI = 1000000;
 
     @Autowired private ReportTitleAndColumnDescriptionStrategy titleAndColumnDescriptionStrategy;
 
@@ -287,14 +291,66 @@ public class PortletExecutionStatisticsController
                     new TitleAndCount(groupName, groupSize)
                 };
 
-        return titleAndColumnDescriptionStrategy.getColumnDescriptions(
-                items, showFullColumnHeaderDescriptions(form), form);
+        final List<ColumnDescription> columnDescriptions =
+                titleAndColumnDescriptionStrategy.getColumnDescriptions(
+                        items, showFullColumnHeaderDescriptions(form), form);
+        if (!form.isLatencyPercentiles()) {
+            return columnDescriptions;
+        }
+
+        // THE ORDER OF RETURNED COLUMNS HERE MUST MATCH THE ORDER OF THE VALUES
+        // RETURNED IN createRowValues
+        final List<ColumnDescription> withPercentiles = new ArrayList<ColumnDescription>();
+        for (final ColumnDescription column : columnDescriptions) {
+            withPercentiles.add(column);
+            withPercentiles.add(
+                    new ColumnDescription(
+                            column.getId() + "-p50",
+                            ValueType.NUMBER,
+                            column.getLabel() + " - Median (ms)"));
+            withPercentiles.add(
+                    new ColumnDescription(
+                            column.getId() + "-p95",
+                            ValueType.NUMBER,
+                            column.getLabel() + " - 95th Percentile (ms)"));
+            withPercentiles.add(
+                    new ColumnDescription(
+                            column.getId() + "-p99",
+                            ValueType.NUMBER,
+                            column.getLabel() + " - 99th Percentile (ms)"));
+        }
+        return withPercentiles;
     }
 
     @Override
     protected List<Value> createRowValues(
             PortletExecutionAggregation aggr, PortletExecutionReportForm form) {
         int count = aggr != null ? aggr.getExecutionCount() : 0;
-        return Collections.<Value>singletonList(new NumberValue(count));
+        if (!form.isLatencyPercentiles()) {
+            return Collections.<Value>singletonList(new NumberValue(count));
+        }
+
+        if (aggr == null) {
+            return ImmutableList.<Value>of(
+                    new NumberValue(count),
+                    NumberValue.getNullValue(),
+                    NumberValue.getNullValue(),
+                    NumberValue.getNullValue());
+        }
+        return ImmutableList.<Value>of(
+                // THE ORDER OF RETURNED VALUES HERE MUST MATCH THE ORDER OF THE COLUMNS
+                // RETURNED IN getColumnDescriptions
+                new NumberValue(count),
+                toMillisValue(aggr.getMedian()),
+                toMillisValue(aggr.getPercentile95()),
+                toMillisValue(aggr.getPercentile99()));
+    }
+
+    /** Convert a nanosecond statistic to milliseconds, unknown values are reported as null */
+    private static Value toMillisValue(double nanos) {
+        if (Double.isNaN(nanos)) {
+            return NumberValue.getNullValue();
+        }
+        return new NumberValue(nanos / NANOS_PER_MILLI);
     }
 }
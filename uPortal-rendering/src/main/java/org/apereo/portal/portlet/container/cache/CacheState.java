@@ -27,6 +27,7 @@ public class CacheState<D extends CachedPortletResultHolder<T>, T extends Serial
     private boolean browserSetEtag = false;
     private PublicPortletCacheKey publicPortletCacheKey;
     private PrivatePortletCacheKey privatePortletCacheKey;
+    private PublicPortletCacheLoad publicCacheLoad;
 
     protected CacheState() {}
 
@@ -75,6 +76,24 @@ public class CacheState<D extends CachedPortletResultHolder<T>, T extends Serial
         return privatePortletCacheKey;
     }
 
+    /**
+     * @return true If this request is rendering the portlet's publicly cacheable output and other
+     *     requests may be waiting on it. If true {@link
+     *     IPortletCacheControlService#releasePublicCacheLoad(CacheState)} must be called once the
+     *     render is complete.
+     */
+    public boolean isPublicCacheLoader() {
+        return publicCacheLoad != null;
+    }
+
+    protected PublicPortletCacheLoad getPublicCacheLoad() {
+        return publicCacheLoad;
+    }
+
+    protected void setPublicCacheLoad(PublicPortletCacheLoad publicCacheLoad) {
+        this.publicCacheLoad = publicCacheLoad;
+    }
+
     protected void setBrowserSetEtag(boolean browserSetEtag) {
         this.browserSetEtag = browserSetEtag;
     }
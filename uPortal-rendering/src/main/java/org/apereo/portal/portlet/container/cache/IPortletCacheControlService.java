@@ -79,6 +79,13 @@ public interface IPortletCacheControlService {
             CacheState<CachedPortletResourceData<Long>, Long> cacheState,
             CachedPortletResourceData<Long> cachedPortletResourceData);
 
+    /**
+     * Release the requests waiting on a render of publicly cacheable output, to be called once the
+     * render for a {@link CacheState} with {@link CacheState#isPublicCacheLoader()} is complete
+     * whether it succeeded or not. Does nothing if the state is not loading public output.
+     */
+    void releasePublicCacheLoad(CacheState<?, ?> cacheState);
+
     /**
      * Purge any {@link CachedPortletRenderData} for the portlet.
      *
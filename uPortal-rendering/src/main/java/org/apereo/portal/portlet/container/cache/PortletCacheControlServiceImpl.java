@@ -17,6 +17,9 @@ package org.apereo.portal.portlet.container.cache;
 import java.io.Serializable;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import javax.portlet.CacheControl;
 import javax.portlet.MimeResponse;
 import javax.servlet.http.HttpServletRequest;
@@ -47,6 +50,11 @@ import org.springframework.web.servlet.support.RequestContextUtils;
 /**
  * Default implementation of {@link IPortletCacheControlService}. {@link CacheControl}s are stored
  * in a {@link Map} stored as a {@link HttpServletRequest} attribute.
+ *
+ * <p>Render and render-header misses for publicly scoped portlets are coalesced: the first request
+ * renders the portlet and concurrent requests for the same {@link PublicPortletCacheKey} wait, for
+ * a bounded time, for its output to be cached. Optionally expired public output is served to the
+ * waiting requests while the first one re-renders it.
  */
 @Service
 public class PortletCacheControlServiceImpl implements IPortletCacheControlService {
@@ -73,6 +81,11 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
     // default to 100 KB
     private int cacheSizeThreshold = 102400;
 
+    private final ConcurrentMap<PublicPortletCacheKey, PublicPortletCacheLoad> publicCacheLoads =
+            new ConcurrentHashMap<PublicPortletCacheKey, PublicPortletCacheLoad>();
+    private long publicCacheLoadWait = 5000;
+    private int staleWhileRevalidate = 0;
+
     @Autowired
     public void setTaggedCacheEntryPurger(TaggedCacheEntryPurger taggedCacheEntryPurger) {
         this.taggedCacheEntryPurger = taggedCacheEntryPurger;
@@ -139,6 +152,27 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         return cacheSizeThreshold;
     }
 
+    /**
+     * @param publicCacheLoadWait Maximum time in milliseconds a request waits for another request
+     *     that is rendering the same publicly cacheable output, 0 disables the coalescing of public
+     *     cache misses
+     */
+    @Value(
+            "${org.apereo.portal.portlet.container.cache.PortletCacheControlServiceImpl.publicCacheLoadWait:5000}")
+    public void setPublicCacheLoadWait(long publicCacheLoadWait) {
+        this.publicCacheLoadWait = publicCacheLoadWait;
+    }
+
+    /**
+     * @param staleWhileRevalidate Time in seconds after expiration that public render output is
+     *     kept and served to requests while another request renders new output, 0 disables
+     */
+    @Value(
+            "${org.apereo.portal.portlet.container.cache.PortletCacheControlServiceImpl.staleWhileRevalidate:0}")
+    public void setStaleWhileRevalidate(int staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
     @Autowired
     public void setPortletWindowRegistry(IPortletWindowRegistry portletWindowRegistry) {
         this.portletWindowRegistry = portletWindowRegistry;
@@ -182,7 +216,8 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 publicCacheKey,
                 this.publicScopePortletRenderHeaderOutputCache,
                 this.privateScopePortletRenderHeaderOutputCache,
-                false);
+                false,
+                true);
     }
 
     @Override
@@ -212,7 +247,8 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 publicCacheKey,
                 this.publicScopePortletRenderOutputCache,
                 this.privateScopePortletRenderOutputCache,
-                false);
+                false,
+                true);
     }
 
     @Override
@@ -242,7 +278,8 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 publicCacheKey,
                 this.publicScopePortletResourceOutputCache,
                 this.privateScopePortletResourceOutputCache,
-                true);
+                true,
+                false);
     }
 
     private <D extends CachedPortletResultHolder<T>, T extends Serializable>
@@ -252,7 +289,8 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                     PublicPortletCacheKey publicCacheKey,
                     Ehcache publicOutputCache,
                     Ehcache privateOutputCache,
-                    boolean useHttpHeaders) {
+                    boolean useHttpHeaders,
+                    boolean coalescePublicLoads) {
 
         // See if there is any cached data for the portlet header request
         final CacheState<D, T> cacheState =
@@ -329,9 +367,108 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
             cacheControl.setETag(cachedPortletData.getEtag());
         }
 
+        if (coalescePublicLoads
+                && cacheControl.isPublicScope()
+                && cacheControl.getExpirationTime() != 0) {
+            this.coalescePublicCacheLoad(
+                    cacheState, publicCacheKey, publicOutputCache, portletWindow);
+        }
+
         return cacheState;
     }
 
+    /**
+     * Either register the request as the one rendering the public output for the key or, if another
+     * request is already rendering it, wait for that render and use its cached output. If the wait
+     * times out or the output was not cached the request falls back to rendering the portlet
+     * itself.
+     */
+    @SuppressWarnings("unchecked")
+    private <D extends CachedPortletResultHolder<T>, T extends Serializable>
+            void coalescePublicCacheLoad(
+                    CacheState<D, T> cacheState,
+                    PublicPortletCacheKey publicCacheKey,
+                    Ehcache publicOutputCache,
+                    IPortletWindow portletWindow) {
+        if (this.publicCacheLoadWait <= 0) {
+            return;
+        }
+
+        final PublicPortletCacheLoad load =
+                new PublicPortletCacheLoad(publicCacheKey, this.publicCacheLoadWait);
+        final PublicPortletCacheLoad currentLoad =
+                this.publicCacheLoads.putIfAbsent(publicCacheKey, load);
+        if (currentLoad == null
+                || (currentLoad.isAbandoned()
+                        && this.publicCacheLoads.replace(publicCacheKey, currentLoad, load))) {
+            // No other request is rendering, concurrent requests will wait on this one
+            cacheState.setPublicCacheLoad(load);
+            return;
+        }
+
+        // Serve expired public data while the other request renders, if allowed
+        final D stalePortletData = cacheState.getCachedPortletData();
+        if (stalePortletData != null
+                && cacheState.getPrivatePortletCacheKey() == null
+                && this.isStaleDataUsable(stalePortletData)) {
+            logger.debug(
+                    "Using expired cached output for {} while another request renders it",
+                    portletWindow);
+            cacheState.setUseCachedData(true);
+            return;
+        }
+
+        logger.debug(
+                "Waiting on another request rendering output with key {} for {}",
+                publicCacheKey,
+                portletWindow);
+        try {
+            if (!currentLoad.await()) {
+                logger.debug(
+                        "Timed out waiting on another request rendering {}, rendering it",
+                        portletWindow);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        final D cachedPortletData =
+                (D) this.getCachedPortletData(publicCacheKey, publicOutputCache, portletWindow);
+        if (cachedPortletData != null) {
+            final long expirationTime = cachedPortletData.getExpirationTime();
+            if (expirationTime == -1 || expirationTime > System.currentTimeMillis()) {
+                cacheState.setCachedPortletData(cachedPortletData);
+                cacheState.setUseCachedData(true);
+                return;
+            }
+        }
+
+        logger.debug(
+                "Output rendered by another request was not cached, rendering {}", portletWindow);
+    }
+
+    private boolean isStaleDataUsable(CachedPortletResultHolder<?> cachedPortletData) {
+        final long expirationTime = cachedPortletData.getExpirationTime();
+        return this.staleWhileRevalidate > 0
+                && expirationTime != -1
+                && System.currentTimeMillis()
+                        < expirationTime + TimeUnit.SECONDS.toMillis(this.staleWhileRevalidate);
+    }
+
+    @Override
+    public void releasePublicCacheLoad(CacheState<?, ?> cacheState) {
+        final PublicPortletCacheLoad load = cacheState.getPublicCacheLoad();
+        if (load == null) {
+            return;
+        }
+
+        cacheState.setPublicCacheLoad(null);
+        this.publicCacheLoads.remove(load.getCacheKey(), load);
+        load.complete();
+    }
+
     /**
      * Get the cached portlet data looking in both the public and then private caches returning the
      * first found
@@ -437,7 +574,8 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 cacheState,
                 cachedPortletData,
                 this.publicScopePortletRenderHeaderOutputCache,
-                this.privateScopePortletRenderHeaderOutputCache);
+                this.privateScopePortletRenderHeaderOutputCache,
+                this.staleWhileRevalidate);
     }
 
     @Override
@@ -453,7 +591,8 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 cacheState,
                 cachedPortletData,
                 this.publicScopePortletRenderOutputCache,
-                this.privateScopePortletRenderOutputCache);
+                this.privateScopePortletRenderOutputCache,
+                this.staleWhileRevalidate);
     }
 
     @Override
@@ -469,7 +608,8 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 cacheState,
                 cachedPortletResourceData,
                 this.publicScopePortletResourceOutputCache,
-                this.privateScopePortletResourceOutputCache);
+                this.privateScopePortletResourceOutputCache,
+                0);
     }
 
     private <D extends CachedPortletResultHolder<T>, T extends Serializable>
@@ -479,7 +619,8 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                     CacheState<D, T> cacheState,
                     D cachedPortletData,
                     Ehcache publicOutputCache,
-                    Ehcache privateOutputCache) {
+                    Ehcache privateOutputCache,
+                    int staleSeconds) {
 
         final IPortletWindow portletWindow =
                 this.portletWindowRegistry.getPortletWindow(httpRequest, portletWindowId);
@@ -487,7 +628,12 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
 
         if (cacheControl.isPublicScope()) {
             final PublicPortletCacheKey publicCacheKey = cacheState.getPublicPortletCacheKey();
-            this.cacheElement(publicOutputCache, publicCacheKey, cachedPortletData, cacheControl);
+            this.cacheElement(
+                    publicOutputCache,
+                    publicCacheKey,
+                    cachedPortletData,
+                    cacheControl,
+                    staleSeconds);
             logger.debug("Cached public data under key {} for {}", publicCacheKey, portletWindow);
         } else {
             PrivatePortletCacheKey privateCacheKey = cacheState.getPrivatePortletCacheKey();
@@ -507,6 +653,9 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
             this.cacheElement(privateOutputCache, privateCacheKey, cachedPortletData, cacheControl);
             logger.debug("Cached private data under key {} for {}", privateCacheKey, portletWindow);
         }
+
+        // Output is cached, requests waiting on it can continue
+        this.releasePublicCacheLoad(cacheState);
     }
 
     /**
@@ -519,6 +668,20 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
             Serializable cacheKey,
             CachedPortletResultHolder<?> data,
             CacheControl cacheControl) {
+        this.cacheElement(cache, cacheKey, data, cacheControl, 0);
+    }
+
+    /**
+     * Same as {@link #cacheElement(Ehcache, Serializable, CachedPortletResultHolder, CacheControl)}
+     * but keeps an element cached with the expiration method for an additional number of seconds
+     * after it expires, so it can be served while it is being re-rendered.
+     */
+    protected void cacheElement(
+            Ehcache cache,
+            Serializable cacheKey,
+            CachedPortletResultHolder<?> data,
+            CacheControl cacheControl,
+            int staleSeconds) {
         // using validation method, ignore expirationTime and defer to cache configuration
         if (cacheControl.getETag() != null) {
             final Element element = new Element(cacheKey, data);
@@ -540,8 +703,9 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         final CacheConfiguration cacheConfiguration = cache.getCacheConfiguration();
         final Element element = new Element(cacheKey, data);
         final long cacheTTL = cacheConfiguration.getTimeToLiveSeconds();
-        if (expirationTime < cacheTTL) {
-            element.setTimeToLive(expirationTime);
+        final int timeToLive = expirationTime + staleSeconds;
+        if (timeToLive < cacheTTL) {
+            element.setTimeToLive(timeToLive);
         }
         cache.put(element);
     }
@@ -0,0 +1,61 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.container.cache;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks a render of publicly cacheable portlet output so concurrent requests for the same {@link
+ * PublicPortletCacheKey} can wait for its result instead of rendering the portlet themselves.
+ */
+final class PublicPortletCacheLoad {
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final PublicPortletCacheKey cacheKey;
+    private final long deadline;
+
+    /** @param maxWait Maximum time in milliseconds other requests wait on this load */
+    PublicPortletCacheLoad(PublicPortletCacheKey cacheKey, long maxWait) {
+        this.cacheKey = cacheKey;
+        this.deadline = System.currentTimeMillis() + maxWait;
+    }
+
+    PublicPortletCacheKey getCacheKey() {
+        return this.cacheKey;
+    }
+
+    /** @return true if the load is not complete and can no longer be waited on */
+    boolean isAbandoned() {
+        return this.latch.getCount() > 0 && System.currentTimeMillis() >= this.deadline;
+    }
+
+    /**
+     * Wait for the load to complete, at most until the load's deadline
+     *
+     * @return true if the load completed, false if the wait timed out
+     */
+    boolean await() throws InterruptedException {
+        final long remaining = this.deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            return this.latch.getCount() == 0;
+        }
+        return this.latch.await(remaining, TimeUnit.MILLISECONDS);
+    }
+
+    /** Release all requests waiting on the load */
+    void complete() {
+        this.latch.countDown();
+    }
+}
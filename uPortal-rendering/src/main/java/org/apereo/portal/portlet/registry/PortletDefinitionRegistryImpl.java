@@ -14,8 +14,13 @@
  */
 package org.apereo.portal.portlet.registry;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.ServletContext;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
 import org.apache.commons.lang.Validate;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -30,6 +35,7 @@ import org.apereo.portal.portlet.om.IPortletDefinition;
 import org.apereo.portal.portlet.om.IPortletDefinitionId;
 import org.apereo.portal.utils.Tuple;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import org.springframework.web.context.ServletContextAware;
 
@@ -40,11 +46,26 @@ import org.springframework.web.context.ServletContextAware;
 @Service("portletDefinitionRegistry")
 public class PortletDefinitionRegistryImpl
         implements IPortletDefinitionRegistry, ServletContextAware {
+    /**
+     * Holds the current {@link PortletDefinitionSnapshot}. Clearing it, which is replicated, makes
+     * every server build a new snapshot.
+     */
+    public static final String SNAPSHOT_CACHE_NAME =
+            "org.apereo.portal.portlet.registry.PortletDefinitionRegistryImpl.SNAPSHOT";
+
+    private static final String SNAPSHOT_KEY = "SNAPSHOT";
+
     protected final Log logger = LogFactory.getLog(this.getClass());
 
     private IPortletDefinitionDao portletDefinitionDao;
     private PortalDriverContainerServices portalDriverContainerServices;
     private ServletContext servletContext;
+    private Ehcache snapshotCache;
+
+    private final Object snapshotLock = new Object();
+    private final AtomicLong snapshotVersion = new AtomicLong();
+    /* Counts removals from the snapshot cache, local or replicated */
+    private final AtomicLong snapshotInvalidations = new AtomicLong();
 
     /** @return the portletDefinitionDao */
     public IPortletDefinitionDao getPortletDefinitionDao() {
@@ -66,6 +87,25 @@ public class PortletDefinitionRegistryImpl
         this.portalDriverContainerServices = portalDriverContainerServices;
     }
 
+    @Autowired
+    public void setSnapshotCache(@Qualifier(SNAPSHOT_CACHE_NAME) Ehcache snapshotCache) {
+        this.snapshotCache = snapshotCache;
+        this.snapshotCache
+                .getCacheEventNotificationService()
+                .registerListener(
+                        new CacheEventListenerAdapter() {
+                            @Override
+                            public void notifyElementRemoved(Ehcache cache, Element element) {
+                                snapshotInvalidations.incrementAndGet();
+                            }
+
+                            @Override
+                            public void notifyRemoveAll(Ehcache cache) {
+                                snapshotInvalidations.incrementAndGet();
+                            }
+                        });
+    }
+
     /* (non-Javadoc)
      * @see org.springframework.web.context.ServletContextAware#setServletContext(javax.servlet.ServletContext)
      */
@@ -113,7 +153,39 @@ public class PortletDefinitionRegistryImpl
 
     @Override
     public List<IPortletDefinition> getAllPortletDefinitions() {
-        return this.portletDefinitionDao.getPortletDefinitions();
+        return new ArrayList<>(this.getPortletDefinitionSnapshot().getPortletDefinitions());
+    }
+
+    @Override
+    public PortletDefinitionSnapshot getPortletDefinitionSnapshot() {
+        Element element = this.snapshotCache.get(SNAPSHOT_KEY);
+        if (element != null) {
+            return (PortletDefinitionSnapshot) element.getObjectValue();
+        }
+
+        synchronized (this.snapshotLock) {
+            element = this.snapshotCache.get(SNAPSHOT_KEY);
+            if (element != null) {
+                return (PortletDefinitionSnapshot) element.getObjectValue();
+            }
+
+            final long invalidations = this.snapshotInvalidations.get();
+            final PortletDefinitionSnapshot snapshot =
+                    new PortletDefinitionSnapshot(
+                            this.snapshotVersion.incrementAndGet(),
+                            this.portletDefinitionDao.getPortletDefinitions());
+            this.snapshotCache.put(new Element(SNAPSHOT_KEY, snapshot));
+
+            // Definitions changed while this one was loading, don't let the next caller use it
+            if (invalidations != this.snapshotInvalidations.get()) {
+                this.snapshotCache.remove(SNAPSHOT_KEY);
+            }
+
+            if (this.logger.isDebugEnabled()) {
+                this.logger.debug("Built " + snapshot);
+            }
+            return snapshot;
+        }
     }
 
     /* (non-Javadoc)
@@ -122,6 +194,7 @@ public class PortletDefinitionRegistryImpl
     @Override
     public IPortletDefinition savePortletDefinition(IPortletDefinition portletDefinition) {
         Validate.notNull(portletDefinition, "portletDefinition can not be null");
+        // The DAO clears the snapshot cache
         return this.portletDefinitionDao.savePortletDefinition(portletDefinition);
     }
 
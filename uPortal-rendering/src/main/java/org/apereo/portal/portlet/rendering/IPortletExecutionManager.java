@@ -94,6 +94,16 @@ public interface IPortletExecutionManager {
             HttpServletRequest request,
             HttpServletResponse response);
 
+    /**
+     * @return true if the specified portlet has been requested to render it's output for the BODY
+     *     during this request and that rendering has completed. If false retrieving the portlet's
+     *     output will block.
+     */
+    boolean isPortletRenderComplete(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response);
+
     /**
      * @param portletWindowId
      * @param request
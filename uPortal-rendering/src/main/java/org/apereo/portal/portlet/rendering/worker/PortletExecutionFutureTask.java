@@ -0,0 +1,56 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Task created by {@link PortletThreadPoolExecutor} for a portlet execution, tracks the portlet
+ * fname used to queue and limit the execution and the time the task was queued.
+ */
+final class PortletExecutionFutureTask<V> extends FutureTask<V> {
+    private final String portletFname;
+    private final long created = System.currentTimeMillis();
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    PortletExecutionFutureTask(String portletFname, Callable<V> callable) {
+        super(callable);
+        this.portletFname = portletFname != null ? portletFname : PortletExecutionQueue.DEFAULT_KEY;
+    }
+
+    String getPortletFname() {
+        return this.portletFname;
+    }
+
+    /** @return Time the task was created, just before it was handed to the executor */
+    long getCreated() {
+        return this.created;
+    }
+
+    /**
+     * @return true the first time it is called, when the task stops counting against its portlet's
+     *     executions
+     */
+    boolean release() {
+        return this.released.compareAndSet(false, true);
+    }
+
+    @Override
+    public String toString() {
+        return "PortletExecutionFutureTask [portletFname=" + this.portletFname + "]";
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import java.util.Iterator;
+import org.apereo.portal.utils.threading.QualityOfServiceBlockingQueue;
+
+/**
+ * Work queue for the portlet thread pool that keeps a sub-queue per portlet fname and hands out
+ * queued executions round-robin across the fnames. A portlet with a large backlog of queued
+ * executions only delays itself, executions of other portlets are not stuck behind it.
+ */
+public class PortletExecutionQueue extends QualityOfServiceBlockingQueue<String, Runnable> {
+    /** Key used for tasks that are not portlet executions */
+    static final String DEFAULT_KEY = "";
+
+    private Iterator<String> keyIterator;
+
+    public PortletExecutionQueue() {
+        super();
+    }
+
+    public PortletExecutionQueue(int capacity) {
+        super(capacity);
+    }
+
+    @Override
+    protected String getElementKey(Runnable e) {
+        if (e instanceof PortletExecutionFutureTask) {
+            return ((PortletExecutionFutureTask<?>) e).getPortletFname();
+        }
+        return DEFAULT_KEY;
+    }
+
+    @Override
+    protected String getNextElementKey() {
+        // Continue from the last returned key, wrapping around once to check all keys
+        for (int pass = 0; pass < 2; pass++) {
+            if (this.keyIterator == null || !this.keyIterator.hasNext()) {
+                this.keyIterator = this.getKeySet().iterator();
+            }
+
+            while (this.keyIterator.hasNext()) {
+                final String key = this.keyIterator.next();
+                if (!this.isKeyEmpty(key)) {
+                    return key;
+                }
+            }
+        }
+
+        throw new IllegalStateException(
+                "getNextElementKey called but there are no elements in the queue: " + this);
+    }
+}
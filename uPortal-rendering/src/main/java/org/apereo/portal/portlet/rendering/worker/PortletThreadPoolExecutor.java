@@ -0,0 +1,234 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apereo.portal.utils.ConcurrentMapUtils;
+import org.apereo.portal.utils.MovingAverage;
+import org.apereo.portal.utils.MovingAverageSample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread pool for portlet executions that limits the number of queued and running executions per
+ * portlet fname. Once a portlet has {@link #getMaxThreadsPerPortlet()} executions in the pool
+ * further executions of that portlet are rejected immediately, so a hung or slow portlet can only
+ * exhaust its own share of the pool. Used with a {@link PortletExecutionQueue} queued executions
+ * are also handed out fairly across portlets.
+ *
+ * <p>An execution counts against its portlet until it has run or has been taken out of the queue
+ * without running, by {@link #remove(Runnable)}, {@link #purge()} or {@link #shutdownNow()}.
+ *
+ * <p>Tracks a moving average of the time executions wait in the queue before starting.
+ */
+public class PortletThreadPoolExecutor extends ThreadPoolExecutor {
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final ConcurrentMap<String, AtomicInteger> portletExecutionCounts =
+            new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicLong rejectedPortletExecutionCount = new AtomicLong();
+    private final MovingAverage queueTimes = new MovingAverage();
+    private volatile MovingAverageSample lastQueueTime = new MovingAverageSample();
+
+    private volatile int maxThreadsPerPortlet = 0;
+
+    public PortletThreadPoolExecutor(
+            int corePoolSize,
+            int maximumPoolSize,
+            long keepAliveTime,
+            TimeUnit unit,
+            BlockingQueue<Runnable> workQueue,
+            ThreadFactory threadFactory,
+            RejectedExecutionHandler handler) {
+        super(
+                corePoolSize,
+                maximumPoolSize,
+                keepAliveTime,
+                unit,
+                workQueue,
+                threadFactory,
+                handler);
+    }
+
+    /**
+     * @param maxThreadsPerPortlet Maximum number of queued and running executions for a single
+     *     portlet fname, 0 or less for no limit
+     */
+    public void setMaxThreadsPerPortlet(int maxThreadsPerPortlet) {
+        this.maxThreadsPerPortlet = maxThreadsPerPortlet;
+    }
+
+    public int getMaxThreadsPerPortlet() {
+        return this.maxThreadsPerPortlet;
+    }
+
+    /** @return Fnames of the portlets that have been executed by the pool */
+    public String[] getPortletFnames() {
+        return this.portletExecutionCounts.keySet().toArray(new String[0]);
+    }
+
+    /** @return Number of queued and running executions of the portlet */
+    public int getPortletExecutionCount(String portletFname) {
+        final AtomicInteger count = this.portletExecutionCounts.get(portletFname);
+        return count != null ? count.get() : 0;
+    }
+
+    /** @return Number of executions rejected because the portlet was at its thread limit */
+    public long getRejectedPortletExecutionCount() {
+        return this.rejectedPortletExecutionCount.get();
+    }
+
+    /** @return Time in milliseconds executions waited in the queue before starting */
+    public MovingAverageSample getLastQueueTime() {
+        return this.lastQueueTime;
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        if (callable instanceof IPortletExecutionContext) {
+            final String portletFname = ((IPortletExecutionContext) callable).getPortletFname();
+            return new PortletExecutionFutureTask<T>(portletFname, callable);
+        }
+        return super.newTaskFor(callable);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (!(command instanceof PortletExecutionFutureTask)) {
+            super.execute(command);
+            return;
+        }
+
+        final String portletFname = ((PortletExecutionFutureTask<?>) command).getPortletFname();
+        AtomicInteger count = this.portletExecutionCounts.get(portletFname);
+        if (count == null) {
+            count =
+                    ConcurrentMapUtils.putIfAbsent(
+                            this.portletExecutionCounts, portletFname, new AtomicInteger());
+        }
+
+        final int executions = count.incrementAndGet();
+        final int maxThreads = this.maxThreadsPerPortlet;
+        if (maxThreads > 0 && executions > maxThreads) {
+            this.releaseExecution(command);
+            this.rejectedPortletExecutionCount.incrementAndGet();
+            throw new RejectedExecutionException(
+                    "Rejecting execution of portlet '"
+                            + portletFname
+                            + "', it already has "
+                            + maxThreads
+                            + " queued or running executions. activeCount="
+                            + this.getActiveCount()
+                            + ". maxPoolSize="
+                            + this.getMaximumPoolSize()
+                            + ". queueSize="
+                            + this.getQueue().size());
+        }
+
+        try {
+            super.execute(command);
+        } catch (RejectedExecutionException e) {
+            this.releaseExecution(command);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean remove(Runnable task) {
+        final boolean removed = super.remove(task);
+        if (removed) {
+            this.releaseExecution(task);
+        }
+        return removed;
+    }
+
+    @Override
+    public void purge() {
+        // Cancelled executions that are purged never run, a cancelled execution a thread takes
+        // first is released by afterExecute and not released again
+        final List<Runnable> cancelled = new ArrayList<Runnable>();
+        for (final Runnable task : this.getQueue()) {
+            if (task instanceof Future && ((Future<?>) task).isCancelled()) {
+                cancelled.add(task);
+            }
+        }
+
+        super.purge();
+
+        for (final Runnable task : cancelled) {
+            this.releaseExecution(task);
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        final List<Runnable> drained = super.shutdownNow();
+        for (final Runnable task : drained) {
+            this.releaseExecution(task);
+        }
+        return drained;
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+
+        if (r instanceof PortletExecutionFutureTask) {
+            final long queueTime =
+                    System.currentTimeMillis() - ((PortletExecutionFutureTask<?>) r).getCreated();
+            this.lastQueueTime = this.queueTimes.add(queueTime);
+        }
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        this.releaseExecution(r);
+    }
+
+    /** Stop counting the execution against its portlet, only the first call for a task counts */
+    private void releaseExecution(Runnable r) {
+        if (!(r instanceof PortletExecutionFutureTask)) {
+            return;
+        }
+
+        final PortletExecutionFutureTask<?> task = (PortletExecutionFutureTask<?>) r;
+        if (!task.release()) {
+            return;
+        }
+
+        final String portletFname = task.getPortletFname();
+        final AtomicInteger count = this.portletExecutionCounts.get(portletFname);
+        if (count != null) {
+            count.decrementAndGet();
+        } else {
+            logger.warn("No execution count found for released portlet {}", portletFname);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.springframework.scheduling.concurrent.ThreadPoolExecutorFactoryBean;
+
+/**
+ * Creates a {@link PortletThreadPoolExecutor}. A positive queue capacity uses a {@link
+ * PortletExecutionQueue} so queued portlet executions are handed out fairly across portlets, a
+ * capacity of 0 hands executions directly to threads without queuing.
+ *
+ * <p>A {@link ThreadPoolExecutor} only starts threads beyond the core pool size once its queue is
+ * full, so with a queue the core pool size is raised to the maximum pool size. Idle threads still
+ * time out when core threads are allowed to time out.
+ */
+public class PortletThreadPoolExecutorFactoryBean extends ThreadPoolExecutorFactoryBean {
+    private int maxThreadsPerPortlet = 0;
+
+    /**
+     * @param maxThreadsPerPortlet Maximum number of queued and running executions for a single
+     *     portlet fname, 0 for no limit
+     * @see PortletThreadPoolExecutor#setMaxThreadsPerPortlet(int)
+     */
+    public void setMaxThreadsPerPortlet(int maxThreadsPerPortlet) {
+        this.maxThreadsPerPortlet = maxThreadsPerPortlet;
+    }
+
+    @Override
+    protected BlockingQueue<Runnable> createQueue(int queueCapacity) {
+        if (queueCapacity > 0) {
+            return new PortletExecutionQueue(queueCapacity);
+        }
+        return super.createQueue(queueCapacity);
+    }
+
+    @Override
+    protected ThreadPoolExecutor createExecutor(
+            int corePoolSize,
+            int maxPoolSize,
+            int keepAliveSeconds,
+            BlockingQueue<Runnable> queue,
+            ThreadFactory threadFactory,
+            RejectedExecutionHandler rejectedExecutionHandler) {
+        final int coreThreads =
+                queue instanceof PortletExecutionQueue
+                        ? Math.max(corePoolSize, maxPoolSize)
+                        : corePoolSize;
+        final PortletThreadPoolExecutor executor =
+                new PortletThreadPoolExecutor(
+                        coreThreads,
+                        maxPoolSize,
+                        keepAliveSeconds,
+                        TimeUnit.SECONDS,
+                        queue,
+                        threadFactory,
+                        rejectedExecutionHandler);
+        executor.setMaxThreadsPerPortlet(this.maxThreadsPerPortlet);
+        return executor;
+    }
+}
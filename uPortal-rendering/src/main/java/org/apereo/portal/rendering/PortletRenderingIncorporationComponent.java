@@ -105,6 +105,7 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                                 (PortletContentPlaceholderEvent) event;
                         final IPortletWindowId portletWindowId =
                                 contentPlaceholderEvent.getPortletWindowId();
+                        this.flushIfRenderIncomplete(portletWindowId);
 
                         final String output =
                                 portletExecutionManager.getPortletOutput(
@@ -118,6 +119,7 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                                 (PortletTitlePlaceholderEvent) event;
                         final IPortletWindowId portletWindowId =
                                 titlePlaceholderEvent.getPortletWindowId();
+                        this.flushIfRenderIncomplete(portletWindowId);
 
                         final String title =
                                 portletExecutionManager.getPortletTitle(
@@ -131,6 +133,7 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                                 (PortletNewItemCountPlaceholderEvent) event;
                         final IPortletWindowId portletWindowId =
                                 newItemCountPlaceholderEvent.getPortletWindowId();
+                        this.flushIfRenderIncomplete(portletWindowId);
 
                         final int newItemCount =
                                 portletExecutionManager.getPortletNewItemCount(
@@ -162,5 +165,15 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                     }
             }
         }
+
+        /**
+         * Send the output so far to the client if the portlet's output will have to be waited on
+         */
+        private void flushIfRenderIncomplete(IPortletWindowId portletWindowId) {
+            if (!portletExecutionManager.isPortletRenderComplete(
+                    portletWindowId, this.request, this.response)) {
+                RenderedPageOutput.flushBeforeBlocking(this.request);
+            }
+        }
     }
 }
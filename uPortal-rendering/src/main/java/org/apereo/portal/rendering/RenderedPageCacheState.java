@@ -0,0 +1,154 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.portlet.CacheControl;
+import javax.servlet.http.HttpServletRequest;
+import org.apereo.portal.portlet.container.cache.PublicPortletCacheKey;
+import org.apereo.portal.portlet.om.IPortletDefinitionId;
+import org.apereo.portal.utils.cache.CacheEntryTag;
+
+/**
+ * Tracks whether the page being rendered for a request can be cached as a whole, based on the cache
+ * settings of every portlet rendered on it. The page is only cacheable if every portlet's output is
+ * publicly scoped and cacheable, it can be cached until the earliest portlet expiration. The
+ * instance for the current render is available to the portlet renderers, which run on worker
+ * threads, via {@link #getRenderedPageCacheState(HttpServletRequest)}.
+ */
+public class RenderedPageCacheState {
+    private static final String REQUEST_ATTRIBUTE = RenderedPageCacheState.class.getName();
+
+    private final Set<CacheEntryTag> tags = new LinkedHashSet<CacheEntryTag>();
+    private final Set<Serializable> portletCacheKeys = new LinkedHashSet<Serializable>();
+    private long expirationTime = -1;
+    private String uncacheableReason;
+
+    /**
+     * @return The cache state of the page currently being rendered for the request, null if none
+     */
+    public static RenderedPageCacheState getRenderedPageCacheState(HttpServletRequest request) {
+        return (RenderedPageCacheState) request.getAttribute(REQUEST_ATTRIBUTE);
+    }
+
+    /**
+     * Mark the page being rendered for the request as not cacheable. Does nothing if no page is
+     * being rendered for the request.
+     */
+    public static void markUncacheable(HttpServletRequest request, String reason) {
+        final RenderedPageCacheState renderedPageCacheState = getRenderedPageCacheState(request);
+        if (renderedPageCacheState != null) {
+            renderedPageCacheState.markUncacheable(reason);
+        }
+    }
+
+    /** Make this state available to the rest of the pipeline for the request */
+    public void bindToRequest(HttpServletRequest request) {
+        request.setAttribute(REQUEST_ATTRIBUTE, this);
+    }
+
+    /**
+     * Record output rendered by a portlet with the cache settings the portlet returned
+     *
+     * @param publicCacheKey The public cache key of the rendered portlet
+     * @param cacheControl The portlet's cache settings, the expiration time is in seconds
+     */
+    public void addPortletOutput(PublicPortletCacheKey publicCacheKey, CacheControl cacheControl) {
+        final IPortletDefinitionId portletDefinitionId = publicCacheKey.getPortletDefinitionId();
+        final int expirationSeconds = cacheControl.getExpirationTime();
+        if (expirationSeconds == 0) {
+            this.markUncacheable("uncacheable output of portlet " + portletDefinitionId);
+            return;
+        }
+
+        final long expirationTime;
+        if (expirationSeconds < 0) {
+            expirationTime = -1;
+        } else {
+            expirationTime =
+                    System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expirationSeconds);
+        }
+        this.addPortletOutput(
+                publicCacheKey, portletDefinitionId, cacheControl.isPublicScope(), expirationTime);
+    }
+
+    /**
+     * Record output of a portlet that was rendered or replayed from the portlet cache
+     *
+     * @param portletCacheKey The public cache key of the portlet's output
+     * @param portletDefinitionId The rendered portlet
+     * @param publicScope If the output is the same for every user
+     * @param expirationTime The time-since-epoch timestamp when the output expires, -1 if never
+     */
+    public synchronized void addPortletOutput(
+            Serializable portletCacheKey,
+            IPortletDefinitionId portletDefinitionId,
+            boolean publicScope,
+            long expirationTime) {
+        if (!publicScope) {
+            this.markUncacheable("privately scoped output of portlet " + portletDefinitionId);
+            return;
+        }
+        if (expirationTime >= 0 && expirationTime <= System.currentTimeMillis()) {
+            this.markUncacheable("expired output of portlet " + portletDefinitionId);
+            return;
+        }
+
+        this.portletCacheKeys.add(portletCacheKey);
+        this.tags.add(PublicPortletCacheKey.createTag(portletDefinitionId));
+        if (expirationTime >= 0
+                && (this.expirationTime < 0 || expirationTime < this.expirationTime)) {
+            this.expirationTime = expirationTime;
+        }
+    }
+
+    public synchronized void markUncacheable(String reason) {
+        if (this.uncacheableReason == null) {
+            this.uncacheableReason = reason;
+        }
+    }
+
+    /** @return true if every portlet rendered so far allows the page to be cached */
+    public synchronized boolean isCacheable() {
+        return this.uncacheableReason == null;
+    }
+
+    /** @return Why the page can not be cached, null if it can */
+    public synchronized String getUncacheableReason() {
+        return this.uncacheableReason;
+    }
+
+    /**
+     * @return The time-since-epoch timestamp when the output of the first portlet expires, -1 if
+     *     none of the portlets limited the expiration
+     */
+    public synchronized long getExpirationTime() {
+        return this.expirationTime;
+    }
+
+    /** @return Tags of the portlets rendered on the page, for purging the page with the portlets */
+    public synchronized Set<CacheEntryTag> getTags() {
+        return Collections.unmodifiableSet(new LinkedHashSet<CacheEntryTag>(this.tags));
+    }
+
+    /** @return Public cache keys of the portlet output rendered on the page, in render order */
+    public synchronized Set<Serializable> getPortletCacheKeys() {
+        return Collections.unmodifiableSet(new LinkedHashSet<Serializable>(this.portletCacheKeys));
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the character output of a page render to the response and tracks the number of bytes
+ * written, the number of times the response was flushed and the time to the first byte. The
+ * instance for the current render is available to the rest of the pipeline via {@link
+ * #getRenderedPageOutput(HttpServletRequest)}.
+ */
+public class RenderedPageOutput {
+    private static final String REQUEST_ATTRIBUTE = RenderedPageOutput.class.getName();
+
+    private static final Logger logger = LoggerFactory.getLogger(RenderedPageOutput.class);
+
+    private final HttpServletResponse response;
+    private final PrintWriter writer;
+    private final long startTime;
+    private long bytesWritten = 0;
+    private long bytesFlushed = 0;
+    private int flushCount = 0;
+    private long timeToFirstByte = -1;
+
+    /**
+     * @param startTime The {@link System#nanoTime()} the render started at, used to calculate the
+     *     time to first byte
+     */
+    public RenderedPageOutput(HttpServletResponse response, long startTime) throws IOException {
+        this.response = response;
+        this.writer = response.getWriter();
+        this.startTime = startTime;
+    }
+
+    /** @return The output of the page currently being rendered for the request, null if none */
+    public static RenderedPageOutput getRenderedPageOutput(HttpServletRequest request) {
+        return (RenderedPageOutput) request.getAttribute(REQUEST_ATTRIBUTE);
+    }
+
+    /**
+     * Sends any output that has not yet been flushed to the client. To be called by pipeline
+     * components before they block waiting on content, such as a portlet that has not finished
+     * rendering, so the client can work on the part of the page it already has. Does nothing if no
+     * page is being rendered for the request.
+     */
+    public static void flushBeforeBlocking(HttpServletRequest request) {
+        final RenderedPageOutput renderedPageOutput = getRenderedPageOutput(request);
+        if (renderedPageOutput == null) {
+            return;
+        }
+
+        try {
+            renderedPageOutput.flush();
+        } catch (IOException e) {
+            // The failure will be reported by the next write to the response
+            logger.debug("Failed to flush rendered page output before blocking", e);
+        }
+    }
+
+    /** Make this output available to the rest of the pipeline for the request */
+    public void bindToRequest(HttpServletRequest request) {
+        request.setAttribute(REQUEST_ATTRIBUTE, this);
+    }
+
+    /** Stop making this output available for the request, called once the page is written */
+    public void unbindFromRequest(HttpServletRequest request) {
+        if (request.getAttribute(REQUEST_ATTRIBUTE) == this) {
+            request.removeAttribute(REQUEST_ATTRIBUTE);
+        }
+    }
+
+    /** Write data to the response, it is buffered until the next flush or the buffer fills */
+    public void write(String data) {
+        this.writer.write(data);
+        this.bytesWritten += getEncodedLength(data);
+        this.checkCommitted();
+    }
+
+    /** Send buffered output to the client, does nothing if nothing was written since last flush */
+    public void flush() throws IOException {
+        if (this.bytesFlushed == this.bytesWritten) {
+            return;
+        }
+
+        this.writer.flush();
+        this.response.flushBuffer();
+        this.bytesFlushed = this.bytesWritten;
+        this.flushCount++;
+        this.checkCommitted();
+    }
+
+    /** @return Number of UTF-8 encoded bytes written */
+    public long getBytesWritten() {
+        return this.bytesWritten;
+    }
+
+    /** @return Number of times the response was explicitly flushed */
+    public int getFlushCount() {
+        return this.flushCount;
+    }
+
+    /**
+     * @return Milliseconds from the start of the render until the response was first sent to the
+     *     client, -1 if nothing has been sent yet
+     */
+    public long getTimeToFirstByte() {
+        if (this.timeToFirstByte < 0) {
+            return -1;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(this.timeToFirstByte);
+    }
+
+    private void checkCommitted() {
+        if (this.timeToFirstByte < 0 && this.response.isCommitted()) {
+            this.timeToFirstByte = System.nanoTime() - this.startTime;
+        }
+    }
+
+    /** Length of the string when encoded as UTF-8, without doing the encoding */
+    static int getEncodedLength(String data) {
+        int length = data.length();
+        for (int i = 0; i < data.length(); i++) {
+            final char c = data.charAt(i);
+            if (c >= 0x800) {
+                // Surrogate pairs are 4 bytes, 2 for each half
+                length += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                length += 1;
+            }
+        }
+        return length;
+    }
+}
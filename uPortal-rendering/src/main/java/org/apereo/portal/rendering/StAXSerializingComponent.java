@@ -18,6 +18,7 @@ import java.io.StringWriter;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.regex.Pattern;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -33,6 +34,7 @@ import org.apereo.portal.character.stream.events.CharacterEvent;
 import org.apereo.portal.utils.cache.CacheKey;
 import org.apereo.portal.xml.XmlUtilities;
 import org.apereo.portal.xml.stream.ChunkingEventReader;
+import org.apereo.portal.xml.stream.ChunkingPatternScanner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -49,7 +51,8 @@ public class StAXSerializingComponent implements CharacterPipelineComponent {
     private StAXPipelineComponent wrappedComponent;
     private Map<String, CharacterEventSource> chunkingElements;
     private Map<Pattern, CharacterEventSource> chunkingPatternEventSources;
-    private Pattern[] chunkingPatterns;
+    private ChunkingPatternScanner chunkingPatternScanner;
+    private boolean streaming = false;
 
     @Autowired
     public void setXmlUtilities(XmlUtilities xmlUtilities) {
@@ -60,6 +63,14 @@ public class StAXSerializingComponent implements CharacterPipelineComponent {
         this.wrappedComponent = wrappedComponent;
     }
 
+    /**
+     * If true the returned reader serializes the StAX events incrementally, producing each chunk as
+     * it is read. If false (the default) the whole document is serialized before returning.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
     public void setChunkingElements(Map<String, CharacterEventSource> chunkingElements) {
         this.chunkingElements = chunkingElements;
     }
@@ -77,10 +88,11 @@ public class StAXSerializingComponent implements CharacterPipelineComponent {
         }
 
         this.chunkingPatternEventSources = compiledChunkingPatternEventSources;
-        this.chunkingPatterns =
-                this.chunkingPatternEventSources
-                        .keySet()
-                        .toArray(new Pattern[this.chunkingPatternEventSources.size()]);
+        this.chunkingPatternScanner =
+                new ChunkingPatternScanner(
+                        this.chunkingPatternEventSources
+                                .keySet()
+                                .toArray(new Pattern[this.chunkingPatternEventSources.size()]));
     }
 
     @Override
@@ -107,11 +119,18 @@ public class StAXSerializingComponent implements CharacterPipelineComponent {
                         request,
                         this.chunkingElements,
                         this.chunkingPatternEventSources,
-                        this.chunkingPatterns,
+                        this.chunkingPatternScanner,
                         xmlEventReader,
                         xmlEventWriter,
                         writer);
 
+        final Map<String, String> outputProperties = eventReader.getOutputProperties();
+        if (this.streaming) {
+            return new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(
+                    new SerializingCharacterEventReader(chunkingEventReader, xmlEventWriter),
+                    outputProperties);
+        }
+
         try {
             xmlEventWriter.add(chunkingEventReader);
             xmlEventWriter.flush();
@@ -125,11 +144,75 @@ public class StAXSerializingComponent implements CharacterPipelineComponent {
         final List<CharacterEvent> characterEvents = chunkingEventReader.getCharacterEvents();
         final CharacterEventBufferReader characterEventReader =
                 new CharacterEventBufferReader(characterEvents.listIterator());
-        final Map<String, String> outputProperties = eventReader.getOutputProperties();
         return new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(
                 characterEventReader, outputProperties);
     }
 
+    /**
+     * Serializes events from the {@link ChunkingEventReader} only as far as needed to produce the
+     * next {@link CharacterEvent}.
+     */
+    private static class SerializingCharacterEventReader implements CharacterEventReader {
+        private final ChunkingEventReader chunkingEventReader;
+        private final XMLEventWriter xmlEventWriter;
+        private final List<CharacterEvent> characterEvents;
+        private boolean complete = false;
+
+        public SerializingCharacterEventReader(
+                ChunkingEventReader chunkingEventReader, XMLEventWriter xmlEventWriter) {
+            this.chunkingEventReader = chunkingEventReader;
+            this.xmlEventWriter = xmlEventWriter;
+            this.characterEvents = chunkingEventReader.getCharacterEvents();
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (this.characterEvents.isEmpty() && !this.complete) {
+                    if (this.chunkingEventReader.hasNext()) {
+                        this.xmlEventWriter.add(this.chunkingEventReader.nextEvent());
+                    } else {
+                        this.complete = true;
+                        this.xmlEventWriter.flush();
+                        this.xmlEventWriter.close();
+                        this.chunkingEventReader.close();
+                    }
+                }
+            } catch (XMLStreamException e) {
+                throw new RuntimeException("Failed to write events to Writer", e);
+            }
+
+            return !this.characterEvents.isEmpty();
+        }
+
+        @Override
+        public CharacterEvent peek() {
+            if (!this.hasNext()) {
+                return null;
+            }
+            return this.characterEvents.get(0);
+        }
+
+        @Override
+        public CharacterEvent next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            // The chunking reader buffers into a LinkedList, removing the head is cheap
+            return this.characterEvents.remove(0);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            // NO-OP
+        }
+    }
+
     @Override
     public CacheKey getCacheKey(HttpServletRequest request, HttpServletResponse response) {
         return this.wrappedComponent.getCacheKey(request, response);
@@ -0,0 +1,140 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiles a stream of pipeline events into the compact, immutable form stored in the event caches.
+ * Runs of adjacent events that can be merged are collapsed into a single event, the remaining
+ * events are interned so that equal data is shared between cache entries and the result is stored
+ * in an exactly sized array.
+ *
+ * <p>The compiler also keeps an approximate count of the heap retained by the compiled events, each
+ * distinct object is only counted once per entry. Instances are not thread-safe.
+ */
+public abstract class CachedEventCompiler<E> {
+    /** Approximate sizes, in bytes, for a 64-bit JVM with compressed references */
+    protected static final int OBJECT_HEADER_SIZE = 12;
+
+    protected static final int REFERENCE_SIZE = 4;
+    protected static final int ARRAY_HEADER_SIZE = 16;
+
+    private final List<E> events = new ArrayList<E>();
+    private final List<E> mergeableEvents = new ArrayList<E>();
+    private final Set<Object> sizedObjects =
+            Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    private int sourceEventCount = 0;
+    private long estimatedSize = 0;
+
+    /** Add the next event of the stream */
+    public final void add(E event) {
+        this.sourceEventCount++;
+
+        if (!this.mergeableEvents.isEmpty()) {
+            final E previous = this.mergeableEvents.get(this.mergeableEvents.size() - 1);
+            if (this.canMerge(previous, event)) {
+                this.mergeableEvents.add(event);
+                return;
+            }
+            this.addMergedEvents();
+        }
+
+        this.mergeableEvents.add(event);
+    }
+
+    /** @return The number of events passed to {@link #add(Object)} */
+    public final int getSourceEventCount() {
+        return this.sourceEventCount;
+    }
+
+    /** Compile the added events, the compiler should not be used after this is called */
+    @SuppressWarnings("unchecked")
+    final CachedEventReader<E> compile(Map<String, String> outputProperties) {
+        if (!this.mergeableEvents.isEmpty()) {
+            this.addMergedEvents();
+        }
+
+        final Object[] eventArray = this.events.toArray();
+        this.estimatedSize += align(ARRAY_HEADER_SIZE + (long) REFERENCE_SIZE * eventArray.length);
+
+        return new CachedEventReader<E>(
+                (List<E>) Arrays.asList(eventArray),
+                outputProperties,
+                this.sourceEventCount,
+                this.estimatedSize);
+    }
+
+    private void addMergedEvents() {
+        final E event;
+        if (this.mergeableEvents.size() == 1) {
+            event = this.mergeableEvents.get(0);
+        } else {
+            event = this.merge(this.mergeableEvents);
+        }
+        this.mergeableEvents.clear();
+
+        final E internedEvent = this.intern(event);
+        this.estimatedSize += this.estimateSize(internedEvent);
+        this.events.add(internedEvent);
+    }
+
+    /** @return true if the event can be merged with the event that directly preceded it */
+    protected abstract boolean canMerge(E previous, E event);
+
+    /** @return A single event equivalent to the list of adjacent, mergeable events */
+    protected abstract E merge(List<E> events);
+
+    /** @return An equivalent event that shares as much data as possible with other cache entries */
+    protected abstract E intern(E event);
+
+    /**
+     * @return The approximate heap size of the event, use the {@code sizeOf} methods to avoid
+     *     counting shared objects more than once
+     */
+    protected abstract long estimateSize(E event);
+
+    /**
+     * @return true if the object has not been counted yet in this entry, the object is marked as
+     *     counted
+     */
+    protected final boolean isUnsized(Object object) {
+        return object != null && this.sizedObjects.add(object);
+    }
+
+    /** @return The size of the string and its characters if not already counted */
+    protected final long sizeOf(String string) {
+        if (!this.isUnsized(string)) {
+            return 0;
+        }
+        return align(OBJECT_HEADER_SIZE + REFERENCE_SIZE + 4)
+                + align(ARRAY_HEADER_SIZE + 2L * string.length());
+    }
+
+    /** @return The shallow size of an object with the specified number of fields */
+    protected static long shallowSize(int referenceFields, int primitiveBytes) {
+        return align(OBJECT_HEADER_SIZE + referenceFields * REFERENCE_SIZE + primitiveBytes);
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
@@ -19,16 +19,26 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
-/** Holder class for an event cache and output properties */
+/**
+ * Holder class for an event cache and output properties, created by a {@link CachedEventCompiler}
+ */
 class CachedEventReader<E> implements Serializable {
     private static final long serialVersionUID = 1L;
 
     private final List<E> eventCache;
     private final Map<String, String> outputProperties;
+    private final int sourceEventCount;
+    private final long estimatedSize;
 
-    public CachedEventReader(List<E> eventCache, Map<String, String> outputProperties) {
+    public CachedEventReader(
+            List<E> eventCache,
+            Map<String, String> outputProperties,
+            int sourceEventCount,
+            long estimatedSize) {
         this.eventCache = Collections.unmodifiableList(eventCache);
         this.outputProperties = Collections.unmodifiableMap(outputProperties);
+        this.sourceEventCount = sourceEventCount;
+        this.estimatedSize = estimatedSize;
     }
 
     public List<E> getEventCache() {
@@ -38,4 +48,14 @@ class CachedEventReader<E> implements Serializable {
     public Map<String, String> getOutputProperties() {
         return this.outputProperties;
     }
+
+    /** @return The number of events read from the source before merging */
+    public int getSourceEventCount() {
+        return this.sourceEventCount;
+    }
+
+    /** @return The approximate heap size, in bytes, of the cached events */
+    public long getEstimatedSize() {
+        return this.estimatedSize;
+    }
 }
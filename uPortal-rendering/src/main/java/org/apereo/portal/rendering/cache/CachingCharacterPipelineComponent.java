@@ -25,6 +25,11 @@ public class CachingCharacterPipelineComponent
         extends CachingPipelineComponent<CharacterEventReader, CharacterEvent>
         implements CharacterPipelineComponent {
 
+    @Override
+    protected CachedEventCompiler<CharacterEvent> createEventCompiler() {
+        return new CharacterEventCompiler();
+    }
+
     @Override
     protected CharacterEventReader createEventReader(ListIterator<CharacterEvent> eventCache) {
         return new CharacterEventBufferReader(eventCache);
@@ -14,8 +14,9 @@
  */
 package org.apereo.portal.rendering.cache;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -42,6 +43,8 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
     private ResourcesElementsProvider resourcesElementsProvider;
     private Ehcache cache;
     private String beanName;
+    private boolean streaming = false;
+    private EventCacheStatsBean cacheStats = new EventCacheStatsBean();
 
     @Autowired
     public void setResourcesElementsProvider(ResourcesElementsProvider resourcesElementsProvider) {
@@ -52,11 +55,25 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
         this.cache = cache;
     }
 
+    /** Statistics about the compiled cache entries */
+    public void setCacheStats(EventCacheStatsBean cacheStats) {
+        this.cacheStats = cacheStats;
+    }
+
     @Override
     public void setBeanName(String name) {
         this.beanName = name;
     }
 
+    /**
+     * If true, on a cache miss events are passed on as they are read from the wrapped component and
+     * the cache entry is created once all events have been read. If false (the default) all events
+     * are read and cached before the first one is returned.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
     @Override
     public final CacheKey getCacheKey(HttpServletRequest request, HttpServletResponse response) {
         return this.wrappedComponent.getCacheKey(request, response);
@@ -94,23 +111,23 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
             final PipelineEventReader<R, E> pipelineEventReader =
                     this.wrappedComponent.getEventReader(request, response);
 
-            // Copy the events from the reader into a buffer to be cached
-            final List<E> eventCache = new LinkedList<E>();
+            if (this.streaming) {
+                final ListIterator<E> cachingIterator =
+                        new CachingEventIterator(cacheKey, pipelineEventReader);
+                final R eventReader = this.createEventReader(cachingIterator);
+                return new PipelineEventReaderImpl<R, E>(
+                        eventReader, pipelineEventReader.getOutputProperties());
+            }
+
+            // Compile the events from the reader into a buffer to be cached
+            final CachedEventCompiler<E> eventCompiler = this.createEventCompiler();
             for (final E event : pipelineEventReader) {
-                // TODO add de-duplication logic here
-                eventCache.add(event);
+                eventCompiler.add(event);
             }
 
-            final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
             cachedEventReader =
-                    new CachedEventReader<E>(
-                            eventCache, new LinkedHashMap<String, String>(outputProperties));
-
-            // Cache the buffer
-            element = new Element(cacheKey, cachedEventReader);
-            this.cache.put(element);
-            logger.debug(
-                    "{} - Cached {} events for key {}", this.beanName, eventCache.size(), cacheKey);
+                    this.cacheEvents(
+                            cacheKey, eventCompiler, pipelineEventReader.getOutputProperties());
         } else {
             logger.debug("{} - Found cached events for key {}", this.beanName, cacheKey);
         }
@@ -122,6 +139,118 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
         return new PipelineEventReaderImpl<R, E>(eventReader, outputProperties);
     }
 
+    private CachedEventReader<E> cacheEvents(
+            CacheKey cacheKey,
+            CachedEventCompiler<E> eventCompiler,
+            Map<String, String> outputProperties) {
+        final CachedEventReader<E> cachedEventReader =
+                eventCompiler.compile(new LinkedHashMap<String, String>(outputProperties));
+        this.cacheStats.entryCompiled(cachedEventReader);
+
+        // Cache the buffer
+        final Element element = new Element(cacheKey, cachedEventReader);
+        this.cache.put(element);
+        logger.debug(
+                "{} - Cached {} events ({} before merging, ~{} bytes) for key {}",
+                this.beanName,
+                cachedEventReader.getEventCache().size(),
+                cachedEventReader.getSourceEventCount(),
+                cachedEventReader.getEstimatedSize(),
+                cacheKey);
+
+        return cachedEventReader;
+    }
+
+    /**
+     * Passes through the events of the wrapped reader, recording them as they are read. The
+     * recorded events are compiled and cached once the wrapped reader is exhausted. Supports
+     * stepping back over already read events so that the buffer readers can implement peek.
+     */
+    private class CachingEventIterator implements ListIterator<E> {
+        private final List<E> eventCache = new ArrayList<E>();
+        private final CachedEventCompiler<E> eventCompiler = createEventCompiler();
+        private final CacheKey cacheKey;
+        private final PipelineEventReader<R, E> pipelineEventReader;
+        private final Iterator<E> events;
+        private int index = 0;
+        private boolean cached = false;
+
+        public CachingEventIterator(
+                CacheKey cacheKey, PipelineEventReader<R, E> pipelineEventReader) {
+            this.cacheKey = cacheKey;
+            this.pipelineEventReader = pipelineEventReader;
+            this.events = pipelineEventReader.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.index < this.eventCache.size()) {
+                return true;
+            }
+
+            if (this.events.hasNext()) {
+                return true;
+            }
+
+            if (!this.cached) {
+                this.cached = true;
+                cacheEvents(
+                        this.cacheKey,
+                        this.eventCompiler,
+                        this.pipelineEventReader.getOutputProperties());
+            }
+            return false;
+        }
+
+        @Override
+        public E next() {
+            if (this.index == this.eventCache.size()) {
+                final E event = this.events.next();
+                this.eventCache.add(event);
+                this.eventCompiler.add(event);
+            }
+            return this.eventCache.get(this.index++);
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            return this.index > 0;
+        }
+
+        @Override
+        public E previous() {
+            return this.eventCache.get(--this.index);
+        }
+
+        @Override
+        public int nextIndex() {
+            return this.index;
+        }
+
+        @Override
+        public int previousIndex() {
+            return this.index - 1;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void set(E e) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(E e) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /** @return A new compiler for the events of a single cache entry */
+    protected abstract CachedEventCompiler<E> createEventCompiler();
+
     // Ugly!!! Needed because XMLEventReader implements Iterator but does not parameterize it
     protected abstract R createEventReader(ListIterator<E> eventCache);
 }
@@ -24,6 +24,11 @@ import org.apereo.portal.xml.stream.XMLEventBufferReader;
 public class CachingStAXPipelineComponent extends CachingPipelineComponent<XMLEventReader, XMLEvent>
         implements StAXPipelineComponent {
 
+    @Override
+    protected CachedEventCompiler<XMLEvent> createEventCompiler() {
+        return new XMLEventCompiler();
+    }
+
     @Override
     protected XMLEventReader createEventReader(ListIterator<XMLEvent> eventCache) {
         return new XMLEventBufferReader(eventCache);
@@ -0,0 +1,73 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering.cache;
+
+import java.util.List;
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
+import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.character.stream.events.CharacterEventTypes;
+import org.apereo.portal.character.stream.events.ChunkPointPlaceholderEventSource;
+
+/**
+ * Compiles {@link CharacterEvent}s for caching. Adjacent character data events are merged and the
+ * resulting data events are shared via {@link CharacterDataEventImpl#create(String)}.
+ *
+ * <p>Empty character data events, as created for {@link
+ * ChunkPointPlaceholderEventSource#CHUNK_POINT} elements, are never merged. They separate user
+ * specific markup from markup that is common to many users, merging across them would defeat the
+ * sharing of the common strings.
+ */
+final class CharacterEventCompiler extends CachedEventCompiler<CharacterEvent> {
+
+    @Override
+    protected boolean canMerge(CharacterEvent previous, CharacterEvent event) {
+        return isMergeableData(previous) && isMergeableData(event);
+    }
+
+    private static boolean isMergeableData(CharacterEvent event) {
+        return event.getEventType() == CharacterEventTypes.CHARACTER
+                && !((CharacterDataEvent) event).getData().isEmpty();
+    }
+
+    @Override
+    protected CharacterEvent merge(List<CharacterEvent> events) {
+        final StringBuilder data = new StringBuilder();
+        for (final CharacterEvent event : events) {
+            data.append(((CharacterDataEvent) event).getData());
+        }
+        return CharacterDataEventImpl.create(data.toString());
+    }
+
+    @Override
+    protected CharacterEvent intern(CharacterEvent event) {
+        if (event.getEventType() == CharacterEventTypes.CHARACTER) {
+            return CharacterDataEventImpl.create(((CharacterDataEvent) event).getData());
+        }
+        return event;
+    }
+
+    @Override
+    protected long estimateSize(CharacterEvent event) {
+        if (!this.isUnsized(event)) {
+            return 0;
+        }
+
+        if (event.getEventType() == CharacterEventTypes.CHARACTER) {
+            return shallowSize(1, 4) + this.sizeOf(((CharacterDataEvent) event).getData());
+        }
+        return shallowSize(2, 0);
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import net.sf.ehcache.Ehcache;
+
+/**
+ * Exposes statistics about the entries compiled by a {@link CachingPipelineComponent}, intended to
+ * help size the backing cache. Sizes are approximate heap sizes in bytes.
+ */
+public class EventCacheStatsBean {
+    private final AtomicLong compiledEntries = new AtomicLong();
+    private final AtomicLong sourceEvents = new AtomicLong();
+    private final AtomicLong cachedEvents = new AtomicLong();
+    private final AtomicLong totalEntrySize = new AtomicLong();
+    private final AtomicLong maxEntrySize = new AtomicLong();
+    private volatile long lastEntrySize;
+    private Ehcache cache;
+
+    /** The cache the entries are stored in, used to report the number of cached entries */
+    public void setCache(Ehcache cache) {
+        this.cache = cache;
+    }
+
+    void entryCompiled(CachedEventReader<?> cachedEventReader) {
+        final long entrySize = cachedEventReader.getEstimatedSize();
+
+        this.compiledEntries.incrementAndGet();
+        this.sourceEvents.addAndGet(cachedEventReader.getSourceEventCount());
+        this.cachedEvents.addAndGet(cachedEventReader.getEventCache().size());
+        this.totalEntrySize.addAndGet(entrySize);
+        this.lastEntrySize = entrySize;
+
+        long max;
+        do {
+            max = this.maxEntrySize.get();
+        } while (entrySize > max && !this.maxEntrySize.compareAndSet(max, entrySize));
+    }
+
+    /** @return Number of cache entries compiled since startup */
+    public long getCompiledEntries() {
+        return this.compiledEntries.get();
+    }
+
+    /** @return Average number of events read from the wrapped component per entry */
+    public long getAverageSourceEventsPerEntry() {
+        return average(this.sourceEvents.get());
+    }
+
+    /** @return Average number of events stored per entry after merging */
+    public long getAverageCachedEventsPerEntry() {
+        return average(this.cachedEvents.get());
+    }
+
+    /** @return Average size of a compiled entry */
+    public long getAverageEntrySize() {
+        return average(this.totalEntrySize.get());
+    }
+
+    /** @return Size of the largest compiled entry */
+    public long getMaxEntrySize() {
+        return this.maxEntrySize.get();
+    }
+
+    /** @return Size of the most recently compiled entry */
+    public long getLastEntrySize() {
+        return this.lastEntrySize;
+    }
+
+    /** @return Number of entries currently in the cache, -1 if no cache is configured */
+    public long getCacheSize() {
+        final Ehcache cache = this.cache;
+        if (cache == null) {
+            return -1;
+        }
+        return cache.getSize();
+    }
+
+    /** @return Average entry size multiplied by the number of entries currently in the cache */
+    public long getEstimatedCacheHeapSize() {
+        return Math.max(0, this.getCacheSize()) * this.getAverageEntrySize();
+    }
+
+    private long average(long total) {
+        final long entries = this.compiledEntries.get();
+        if (entries == 0) {
+            return 0;
+        }
+        return total / entries;
+    }
+}
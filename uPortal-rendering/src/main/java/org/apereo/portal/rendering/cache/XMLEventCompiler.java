@@ -0,0 +1,256 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering.cache;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Compiles {@link XMLEvent}s for caching. Adjacent non-CDATA character events are merged and
+ * element names, attributes, namespaces and text are shared between all cache entries.
+ */
+final class XMLEventCompiler extends CachedEventCompiler<XMLEvent> {
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newFactory();
+
+    // All of the caches use weak refs so they are never a cause for object retention
+    private static final Interner<Object> NAME_INTERNER = Interners.newWeakInterner();
+
+    private static final LoadingCache<Map.Entry<QName, String>, Attribute> ATTRIBUTE_CACHE =
+            CacheBuilder.newBuilder()
+                    .weakValues()
+                    .build(
+                            new CacheLoader<Map.Entry<QName, String>, Attribute>() {
+                                @Override
+                                public Attribute load(Map.Entry<QName, String> key) {
+                                    return EVENT_FACTORY.createAttribute(
+                                            key.getKey(), key.getValue());
+                                }
+                            });
+
+    private static final LoadingCache<Map.Entry<String, String>, Namespace> NAMESPACE_CACHE =
+            CacheBuilder.newBuilder()
+                    .weakValues()
+                    .build(
+                            new CacheLoader<Map.Entry<String, String>, Namespace>() {
+                                @Override
+                                public Namespace load(Map.Entry<String, String> key) {
+                                    if (key.getKey().isEmpty()) {
+                                        return EVENT_FACTORY.createNamespace(key.getValue());
+                                    }
+                                    return EVENT_FACTORY.createNamespace(
+                                            key.getKey(), key.getValue());
+                                }
+                            });
+
+    private static final LoadingCache<QName, EndElement> END_ELEMENT_CACHE =
+            CacheBuilder.newBuilder()
+                    .weakValues()
+                    .build(
+                            new CacheLoader<QName, EndElement>() {
+                                @Override
+                                public EndElement load(QName name) {
+                                    return EVENT_FACTORY.createEndElement(
+                                            name, Collections.<Namespace>emptyIterator());
+                                }
+                            });
+
+    @Override
+    protected boolean canMerge(XMLEvent previous, XMLEvent event) {
+        return isMergeableCharacters(previous) && isMergeableCharacters(event);
+    }
+
+    private static boolean isMergeableCharacters(XMLEvent event) {
+        if (!event.isCharacters()) {
+            return false;
+        }
+
+        final Characters characters = event.asCharacters();
+        return !characters.isCData() && !characters.isIgnorableWhiteSpace();
+    }
+
+    @Override
+    protected XMLEvent merge(List<XMLEvent> events) {
+        final StringBuilder data = new StringBuilder();
+        for (final XMLEvent event : events) {
+            data.append(event.asCharacters().getData());
+        }
+        return EVENT_FACTORY.createCharacters(data.toString());
+    }
+
+    @Override
+    protected XMLEvent intern(XMLEvent event) {
+        switch (event.getEventType()) {
+            case XMLEvent.START_ELEMENT:
+                return this.internStartElement(event.asStartElement());
+            case XMLEvent.END_ELEMENT:
+                return this.internEndElement(event.asEndElement());
+            case XMLEvent.CHARACTERS:
+            case XMLEvent.CDATA:
+            case XMLEvent.SPACE:
+                return this.internCharacters(event.asCharacters());
+            default:
+                return event;
+        }
+    }
+
+    private StartElement internStartElement(StartElement startElement) {
+        final QName name = internName(startElement.getName());
+
+        final List<Attribute> attributes = new ArrayList<Attribute>();
+        for (final Iterator<?> itr = startElement.getAttributes(); itr.hasNext(); ) {
+            final Attribute attribute = (Attribute) itr.next();
+            final QName attributeName = internName(attribute.getName());
+            final String value = internString(attribute.getValue());
+            attributes.add(
+                    ATTRIBUTE_CACHE.getUnchecked(
+                            new SimpleImmutableEntry<QName, String>(attributeName, value)));
+        }
+
+        final List<Namespace> namespaces = new ArrayList<Namespace>();
+        for (final Iterator<?> itr = startElement.getNamespaces(); itr.hasNext(); ) {
+            namespaces.add(internNamespace((Namespace) itr.next()));
+        }
+
+        return EVENT_FACTORY.createStartElement(
+                name.getPrefix(),
+                name.getNamespaceURI(),
+                name.getLocalPart(),
+                attributes.iterator(),
+                namespaces.iterator(),
+                startElement.getNamespaceContext());
+    }
+
+    private EndElement internEndElement(EndElement endElement) {
+        final QName name = internName(endElement.getName());
+
+        final Iterator<?> namespaceItr = endElement.getNamespaces();
+        if (!namespaceItr.hasNext()) {
+            return END_ELEMENT_CACHE.getUnchecked(name);
+        }
+
+        final List<Namespace> namespaces = new ArrayList<Namespace>();
+        while (namespaceItr.hasNext()) {
+            namespaces.add(internNamespace((Namespace) namespaceItr.next()));
+        }
+        return EVENT_FACTORY.createEndElement(name, namespaces.iterator());
+    }
+
+    private XMLEvent internCharacters(Characters characters) {
+        final String data = internString(characters.getData());
+        if (characters.isCData()) {
+            return EVENT_FACTORY.createCData(data);
+        }
+        if (characters.isIgnorableWhiteSpace()) {
+            return EVENT_FACTORY.createIgnorableSpace(data);
+        }
+        return EVENT_FACTORY.createCharacters(data);
+    }
+
+    private static Namespace internNamespace(Namespace namespace) {
+        final String prefix =
+                namespace.isDefaultNamespaceDeclaration() ? "" : namespace.getPrefix();
+        return NAMESPACE_CACHE.getUnchecked(
+                new SimpleImmutableEntry<String, String>(
+                        internString(prefix), internString(namespace.getNamespaceURI())));
+    }
+
+    private static QName internName(QName name) {
+        return (QName)
+                NAME_INTERNER.intern(
+                        new QName(
+                                internString(name.getNamespaceURI()),
+                                internString(name.getLocalPart()),
+                                internString(name.getPrefix())));
+    }
+
+    private static String internString(String string) {
+        if (string == null || string.isEmpty()) {
+            return "";
+        }
+        return (String) NAME_INTERNER.intern(string);
+    }
+
+    @Override
+    protected long estimateSize(XMLEvent event) {
+        if (!this.isUnsized(event)) {
+            return 0;
+        }
+
+        switch (event.getEventType()) {
+            case XMLEvent.START_ELEMENT:
+                {
+                    final StartElement startElement = event.asStartElement();
+                    long size = shallowSize(4, 0) + this.sizeOf(startElement.getName());
+                    size += shallowSize(2, 4) + ARRAY_HEADER_SIZE;
+                    for (final Iterator<?> itr = startElement.getAttributes(); itr.hasNext(); ) {
+                        final Attribute attribute = (Attribute) itr.next();
+                        size += REFERENCE_SIZE;
+                        if (this.isUnsized(attribute)) {
+                            size +=
+                                    shallowSize(2, 0)
+                                            + this.sizeOf(attribute.getName())
+                                            + this.sizeOf(attribute.getValue());
+                        }
+                    }
+                    for (final Iterator<?> itr = startElement.getNamespaces(); itr.hasNext(); ) {
+                        final Namespace namespace = (Namespace) itr.next();
+                        size += REFERENCE_SIZE;
+                        if (this.isUnsized(namespace)) {
+                            size +=
+                                    shallowSize(2, 0)
+                                            + this.sizeOf(namespace.getPrefix())
+                                            + this.sizeOf(namespace.getNamespaceURI());
+                        }
+                    }
+                    return size;
+                }
+            case XMLEvent.END_ELEMENT:
+                return shallowSize(2, 0) + this.sizeOf(event.asEndElement().getName());
+            case XMLEvent.CHARACTERS:
+            case XMLEvent.CDATA:
+            case XMLEvent.SPACE:
+                return shallowSize(1, 4) + this.sizeOf(event.asCharacters().getData());
+            default:
+                return shallowSize(2, 0);
+        }
+    }
+
+    private long sizeOf(QName name) {
+        if (!this.isUnsized(name)) {
+            return 0;
+        }
+        return shallowSize(3, 0)
+                + this.sizeOf(name.getNamespaceURI())
+                + this.sizeOf(name.getLocalPart())
+                + this.sizeOf(name.getPrefix());
+    }
+}
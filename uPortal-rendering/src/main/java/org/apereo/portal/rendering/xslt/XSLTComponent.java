@@ -17,9 +17,13 @@ package org.apereo.portal.rendering.xslt;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.events.XMLEvent;
@@ -35,21 +39,37 @@ import org.apereo.portal.rendering.PipelineEventReader;
 import org.apereo.portal.rendering.PipelineEventReaderImpl;
 import org.apereo.portal.rendering.StAXPipelineComponentWrapper;
 import org.apereo.portal.utils.cache.CacheKey;
+import org.apereo.portal.utils.threading.ThreadNamingRunnable;
 import org.apereo.portal.xml.ResourceLoaderURIResolver;
+import org.apereo.portal.xml.stream.BlockingXMLEventBuffer;
+import org.apereo.portal.xml.stream.PumpingXMLEventReader;
 import org.apereo.portal.xml.stream.XMLEventBufferReader;
 import org.apereo.portal.xml.stream.XMLEventBufferWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.context.ResourceLoaderAware;
+import org.springframework.context.i18n.LocaleContext;
+import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.core.io.ResourceLoader;
 import org.springframework.util.xml.FixedXMLEventStreamReader;
 import org.springframework.util.xml.SimpleTransformErrorListener;
 import org.springframework.util.xml.StaxUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.helpers.LocatorImpl;
 
-/** */
+/**
+ * Applies an XSLT transform to the events of the wrapped component.
+ *
+ * <p>By default the whole transform runs before {@link #getEventReader(HttpServletRequest,
+ * HttpServletResponse)} returns and the result is buffered in memory. If a streaming executor is
+ * configured the stylesheet runs on that executor instead, letting later pipeline stages consume
+ * events while the transform is still running. Its input and output are handed over through bounded
+ * {@link BlockingXMLEventBuffer}s by a {@link PumpingXMLEventReader}, which reads the wrapped
+ * component on the request thread, so only the stylesheet itself runs on the executor thread.
+ */
 public class XSLTComponent extends StAXPipelineComponentWrapper
         implements BeanNameAware, ResourceLoaderAware {
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
@@ -58,6 +78,9 @@ public class XSLTComponent extends StAXPipelineComponentWrapper
     private ResourceLoaderURIResolver uriResolver;
     private TransformerSource transformerSource;
     private TransformerConfigurationSource xsltParameterSource;
+    private ExecutorService streamingExecutor;
+    private int streamingBufferSize = 1024;
+    private long streamingTimeout = TimeUnit.SECONDS.toMillis(30);
 
     private String beanName;
 
@@ -73,6 +96,27 @@ public class XSLTComponent extends StAXPipelineComponentWrapper
         this.transformerSource = transformerSource;
     }
 
+    /**
+     * Executor used to run the transform in streaming mode. If null (the default) the transform
+     * runs on the calling thread and its output is fully buffered.
+     */
+    public void setStreamingExecutor(ExecutorService streamingExecutor) {
+        this.streamingExecutor = streamingExecutor;
+    }
+
+    /** Maximum number of events buffered between the transform and its reader in streaming mode */
+    public void setStreamingBufferSize(int streamingBufferSize) {
+        this.streamingBufferSize = streamingBufferSize;
+    }
+
+    /**
+     * Maximum time in milliseconds either side of the streaming buffer waits on the other before
+     * the render fails, defaults to 30 seconds.
+     */
+    public void setStreamingTimeout(long streamingTimeout) {
+        this.streamingTimeout = streamingTimeout;
+    }
+
     @Override
     public void setBeanName(String name) {
         this.beanName = name;
@@ -130,22 +174,134 @@ public class XSLTComponent extends StAXPipelineComponentWrapper
         // The event reader from the previous component in the pipeline
         final XMLEventReader eventReader = pipelineEventReader.getEventReader();
 
-        // Wrap the event reader in a stream reader to avoid a JDK bug
+        // Setup logging for the transform
+        transformer.setErrorListener(this.errorListener);
+
+        final String mediaType = transformer.getOutputProperty(OutputKeys.MEDIA_TYPE);
+
+        XMLEventReader outputEventReader = null;
+        if (this.streamingExecutor != null) {
+            outputEventReader = this.startStreamingTransform(transformer, eventReader);
+        }
+        if (outputEventReader == null) {
+            outputEventReader = this.bufferedTransform(transformer, createSource(eventReader));
+        }
+
+        final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
+        final PipelineEventReaderImpl<XMLEventReader, XMLEvent> pipelineEventReaderImpl =
+                new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(
+                        outputEventReader, outputProperties);
+        pipelineEventReaderImpl.setOutputProperty(OutputKeys.MEDIA_TYPE, mediaType);
+        return pipelineEventReaderImpl;
+    }
+
+    /** Run the transform on the calling thread, buffering all of the resulting events */
+    protected XMLEventReader bufferedTransform(Transformer transformer, Source xmlReaderSource) {
+        final XMLEventBufferWriter eventWriterBuffer = new XMLEventBufferWriter();
+        this.transform(transformer, xmlReaderSource, eventWriterBuffer);
+
+        final List<XMLEvent> eventBuffer = eventWriterBuffer.getEventBuffer();
+        return new XMLEventBufferReader(eventBuffer.listIterator());
+    }
+
+    /**
+     * Submit the transform to the streaming executor, returns null if the executor rejected the
+     * transform.
+     *
+     * @param eventReader Events of the wrapped component, only read on the calling thread
+     */
+    protected XMLEventReader startStreamingTransform(
+            final Transformer transformer, final XMLEventReader eventReader) {
+        final BlockingXMLEventBuffer inputBuffer =
+                new BlockingXMLEventBuffer(
+                        this.streamingBufferSize, this.streamingTimeout, TimeUnit.MILLISECONDS);
+        final BlockingXMLEventBuffer outputBuffer =
+                new BlockingXMLEventBuffer(
+                        this.streamingBufferSize, this.streamingTimeout, TimeUnit.MILLISECONDS);
+
+        // Request scoped thread locals used by the stylesheet's extension functions
+        final RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        final LocaleContext localeContext = LocaleContextHolder.getLocaleContext();
+
+        final Runnable transformRunnable =
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        RequestContextHolder.setRequestAttributes(requestAttributes);
+                        LocaleContextHolder.setLocaleContext(localeContext);
+                        try {
+                            // Created here as the stream reader reads the first event
+                            final Source xmlReaderSource =
+                                    createSource(inputBuffer.getEventReader());
+                            final XMLEventWriter eventWriter = outputBuffer.getEventWriter();
+                            transform(transformer, xmlReaderSource, eventWriter);
+                            eventWriter.close();
+                        } catch (Throwable t) {
+                            logger.debug("{} - Streaming XML Transformation failed", beanName, t);
+                            outputBuffer.fail(t);
+                            inputBuffer.close();
+                        } finally {
+                            RequestContextHolder.resetRequestAttributes();
+                            LocaleContextHolder.resetLocaleContext();
+                        }
+                    }
+                };
+
+        try {
+            this.streamingExecutor.execute(
+                    new ThreadNamingRunnable("-" + this.beanName, transformRunnable));
+        } catch (RejectedExecutionException e) {
+            this.logger.warn(
+                    "{} - Streaming executor rejected the transform, falling back to a buffered transform: {}",
+                    this.beanName,
+                    e.getMessage());
+            return null;
+        }
+
+        final PumpingXMLEventReader outputEventReader =
+                new PumpingXMLEventReader(
+                        eventReader,
+                        inputBuffer,
+                        outputBuffer,
+                        this.streamingTimeout,
+                        TimeUnit.MILLISECONDS);
+
+        // Release the transform thread if the reader is abandoned before all events are read
+        if (requestAttributes != null) {
+            requestAttributes.registerDestructionCallback(
+                    XSLTComponent.class.getName()
+                            + "."
+                            + this.beanName
+                            + "@"
+                            + System.identityHashCode(outputEventReader),
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            outputEventReader.close();
+                        }
+                    },
+                    RequestAttributes.SCOPE_REQUEST);
+        }
+
+        return outputEventReader;
+    }
+
+    /** Wrap the event reader in a stream reader to avoid a JDK bug */
+    private static Source createSource(XMLEventReader eventReader) {
         final XMLStreamReader streamReader;
         try {
             streamReader = new FixedXMLEventStreamReader(eventReader);
         } catch (XMLStreamException e) {
             throw new RuntimeException("Failed to create XMLStreamReader from XMLEventReader", e);
         }
-        final Source xmlReaderSource = new StAXSource(streamReader);
-
-        // Setup logging for the transform
-        transformer.setErrorListener(this.errorListener);
+        return new StAXSource(streamReader);
+    }
 
+    private void transform(
+            Transformer transformer, Source xmlReaderSource, XMLEventWriter eventWriter) {
         // Transform to a SAX ContentHandler to avoid JDK bug:
         // http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6775588
-        final XMLEventBufferWriter eventWriterBuffer = new XMLEventBufferWriter();
-        final ContentHandler contentHandler = StaxUtils.createContentHandler(eventWriterBuffer);
+        final ContentHandler contentHandler = StaxUtils.createContentHandler(eventWriter);
         contentHandler.setDocumentLocator(new LocatorImpl());
 
         final SAXResult outputTarget = new SAXResult(contentHandler);
@@ -156,19 +312,6 @@ public class XSLTComponent extends StAXPipelineComponentWrapper
         } catch (TransformerException e) {
             throw new RuntimeException("Failed to transform document", e);
         }
-
-        final String mediaType = transformer.getOutputProperty(OutputKeys.MEDIA_TYPE);
-
-        final List<XMLEvent> eventBuffer = eventWriterBuffer.getEventBuffer();
-        final XMLEventReader outputEventReader =
-                new XMLEventBufferReader(eventBuffer.listIterator());
-
-        final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
-        final PipelineEventReaderImpl<XMLEventReader, XMLEvent> pipelineEventReaderImpl =
-                new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(
-                        outputEventReader, outputProperties);
-        pipelineEventReaderImpl.setOutputProperty(OutputKeys.MEDIA_TYPE, mediaType);
-        return pipelineEventReaderImpl;
     }
 
     @Override
@@ -0,0 +1,158 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.url;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apereo.portal.layout.INodeIdResolver;
+import org.apereo.portal.layout.IUserLayout;
+import org.apereo.portal.layout.PortletTabIdResolver;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Index of the tabs in a user layout and the nodes each tab contains. The index is built with a
+ * single walk of the layout and kept for as long as the {@link IUserLayout} instance it was built
+ * from is in use, layout managers hand out a new instance whenever the layout changes.
+ */
+final class LayoutNodeIndex {
+    // Weak keys so an index never outlives the layout version it describes
+    private static final LoadingCache<IUserLayout, LayoutNodeIndex> INDEXES =
+            CacheBuilder.newBuilder()
+                    .weakKeys()
+                    .build(
+                            new CacheLoader<IUserLayout, LayoutNodeIndex>() {
+                                @Override
+                                public LayoutNodeIndex load(IUserLayout userLayout) {
+                                    return create(userLayout);
+                                }
+                            });
+
+    private final Map<String, String> tabIdsByNodeId;
+    private final ImmutableList<String> visibleTabIds;
+
+    private LayoutNodeIndex(
+            Map<String, String> tabIdsByNodeId, ImmutableList<String> visibleTabIds) {
+        this.tabIdsByNodeId = tabIdsByNodeId;
+        this.visibleTabIds = visibleTabIds;
+    }
+
+    /** @return The index for the layout, built on the first call for each layout instance */
+    static LayoutNodeIndex get(IUserLayout userLayout) {
+        return INDEXES.getUnchecked(userLayout);
+    }
+
+    /**
+     * Same result as {@link PortletTabIdResolver}
+     *
+     * @return The ID of the tab that is or contains the node, null if the node is not in a tab
+     */
+    String getTabId(String nodeId) {
+        return this.tabIdsByNodeId.get(nodeId);
+    }
+
+    /**
+     * Finds a tab by its position among the regular, non-hidden tabs. This is the node the XPath
+     * expression {@code /layout/folder/folder[@type='regular' and @hidden='false'][position() =
+     * $tabIndex]/@ID} selects.
+     *
+     * @param tabIndex One based index of the tab
+     * @return The ID of the visible tab at the index, null if there is no such tab
+     */
+    String getVisibleTabId(String tabIndex) {
+        final int index;
+        try {
+            index = Integer.parseInt(tabIndex.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (index < 1 || index > this.visibleTabIds.size()) {
+            return null;
+        }
+        return this.visibleTabIds.get(index - 1);
+    }
+
+    private static LayoutNodeIndex create(IUserLayout userLayout) {
+        final Map<String, String> tabIdsByNodeId = new LinkedHashMap<String, String>();
+        final ImmutableList.Builder<String> visibleTabIds = ImmutableList.builder();
+        userLayout.findNodeId(
+                new INodeIdResolver() {
+                    @Override
+                    public String traverseDocument(Document document) {
+                        indexDocument(document, tabIdsByNodeId, visibleTabIds);
+                        return null;
+                    }
+                });
+        return new LayoutNodeIndex(ImmutableMap.copyOf(tabIdsByNodeId), visibleTabIds.build());
+    }
+
+    private static void indexDocument(
+            Document document,
+            Map<String, String> tabIdsByNodeId,
+            ImmutableList.Builder<String> visibleTabIds) {
+        // '/layout' - layouts
+        for (Node root = document.getFirstChild(); root != null; root = root.getNextSibling()) {
+            // '/layout/folder' - root/header/footer folders
+            for (Node rootFolder = root.getFirstChild();
+                    rootFolder != null;
+                    rootFolder = rootFolder.getNextSibling()) {
+                // '/layout/folder/folder' - tabs
+                for (Node tab = rootFolder.getFirstChild();
+                        tab != null;
+                        tab = tab.getNextSibling()) {
+                    if (!isFolderOrChannel(tab)) {
+                        continue;
+                    }
+                    final Element tabElement = (Element) tab;
+                    indexTab(tabElement, tabElement.getAttribute("ID"), tabIdsByNodeId);
+
+                    if ("layout".equals(root.getNodeName())
+                            && "folder".equals(rootFolder.getNodeName())
+                            && "folder".equals(tab.getNodeName())
+                            && "regular".equals(tabElement.getAttribute("type"))
+                            && "false".equals(tabElement.getAttribute("hidden"))) {
+                        visibleTabIds.add(tabElement.getAttribute("ID"));
+                    }
+                }
+            }
+        }
+    }
+
+    /** Maps the node and, for folders, all nested folders and channels to the tab */
+    private static void indexTab(Element node, String tabId, Map<String, String> tabIdsByNodeId) {
+        final String id = node.getAttribute("ID");
+        if (!id.isEmpty() && !tabIdsByNodeId.containsKey(id)) {
+            tabIdsByNodeId.put(id, tabId);
+        }
+        if ("folder".equals(node.getNodeName())) {
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (isFolderOrChannel(child)) {
+                    indexTab((Element) child, tabId, tabIdsByNodeId);
+                }
+            }
+        }
+    }
+
+    private static boolean isFolderOrChannel(Node node) {
+        final String nodeName = node.getNodeName();
+        return "channel".equals(nodeName) || "folder".equals(nodeName);
+    }
+}
@@ -14,14 +14,14 @@
  */
 package org.apereo.portal.url;
 
-import com.google.common.base.Function;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import javax.servlet.http.HttpServletRequest;
-import javax.xml.xpath.XPathExpression;
 import org.apache.commons.lang.StringUtils;
 import org.apereo.portal.IUserPreferencesManager;
 import org.apereo.portal.PortalException;
@@ -31,7 +31,6 @@ import org.apereo.portal.layout.IStylesheetUserPreferencesService;
 import org.apereo.portal.layout.IStylesheetUserPreferencesService.PreferencesScope;
 import org.apereo.portal.layout.IUserLayout;
 import org.apereo.portal.layout.IUserLayoutManager;
-import org.apereo.portal.layout.PortletTabIdResolver;
 import org.apereo.portal.layout.node.IUserLayoutNodeDescription;
 import org.apereo.portal.layout.om.IStylesheetDescriptor;
 import org.apereo.portal.layout.om.IStylesheetParameterDescriptor;
@@ -44,7 +43,6 @@ import org.apereo.portal.portlet.registry.IPortletEntityRegistry;
 import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
 import org.apereo.portal.user.IUserInstance;
 import org.apereo.portal.user.IUserInstanceManager;
-import org.apereo.portal.xml.xpath.XPathOperations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -62,14 +60,12 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
 
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private String defaultLayoutNodeIdExpression =
-            "/layout/folder/folder[@type='regular' and @hidden!='true'][$defaultTab]/@ID";
-    //    private String tabIdExpression = "/layout/folder/folder[@ID=$nodeId or
-    // descendant::node()[@ID=$nodeId]]/@ID";
+    private static final String EXTERNAL_ID_INDEX_ATTR =
+            SingleTabUrlNodeSyntaxHelper.class.getName() + ".EXTERNAL_ID_INDEX";
+
     private String defaultTabParameter = "defaultTab";
 
     private IUserInstanceManager userInstanceManager;
-    private XPathOperations xpathOperations;
     private IStylesheetUserPreferencesService stylesheetUserPreferencesService;
     private IPortletWindowRegistry portletWindowRegistry;
     private IPortletEntityRegistry portletEntityRegistry;
@@ -89,11 +85,6 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
         this.userInstanceManager = userInstanceManager;
     }
 
-    @Autowired
-    public void setXpathOperations(XPathOperations xpathOperations) {
-        this.xpathOperations = xpathOperations;
-    }
-
     @Autowired
     public void setStylesheetUserPreferencesService(
             IStylesheetUserPreferencesService stylesheetUserPreferencesService) {
@@ -144,15 +135,7 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
     }
 
     protected String getTabId(final IUserLayout userLayout, final String tabIndex) {
-        return this.xpathOperations.doWithExpression(
-                defaultLayoutNodeIdExpression,
-                Collections.singletonMap("defaultTab", tabIndex),
-                new Function<XPathExpression, String>() {
-                    @Override
-                    public String apply(XPathExpression xPathExpression) {
-                        return userLayout.findNodeId(xPathExpression);
-                    }
-                });
+        return LayoutNodeIndex.get(userLayout).getVisibleTabId(tabIndex);
     }
 
     /** Get the index of the default tab for the user */
@@ -193,7 +176,7 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
         final IUserLayoutManager userLayoutManager = preferencesManager.getUserLayoutManager();
         final IUserLayout userLayout = userLayoutManager.getUserLayout();
 
-        final String tabId = userLayout.findNodeId(new PortletTabIdResolver(layoutNodeId));
+        final String tabId = LayoutNodeIndex.get(userLayout).getTabId(layoutNodeId);
 
         if (StringUtils.isEmpty(tabId)) {
             return Collections.emptyList();
@@ -203,16 +186,11 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
                 stylesheetUserPreferencesService.getLayoutAttribute(
                         request, PreferencesScope.STRUCTURE, tabId, EXTERNAL_ID_ATTR);
         if (externalId != null) {
-            final Map<String, String> allNodesAndValuesForAttribute =
-                    stylesheetUserPreferencesService.getAllNodesAndValuesForAttribute(
-                            request, PreferencesScope.STRUCTURE, EXTERNAL_ID_ATTR);
+            final ExternalIdIndex externalIdIndex = this.getExternalIdIndex(request);
 
             boolean appendNodeId = false;
-            for (final Entry<String, String> nodeAttributeEntry :
-                    allNodesAndValuesForAttribute.entrySet()) {
-                final String entryNodeId = nodeAttributeEntry.getKey();
-                final String entryValue = nodeAttributeEntry.getValue();
-                if (!tabId.equals(entryNodeId) && externalId.equals(entryValue)) {
+            for (final String entryNodeId : externalIdIndex.getNodeIds(externalId)) {
+                if (!tabId.equals(entryNodeId)) {
                     appendNodeId = true;
                     break;
                 }
@@ -282,27 +260,17 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
 
         // Search the users layout attributes for a layout node with a matching externalId value
         String firstMatchingNodeId = null;
-        final Map<String, String> allNodesAndValuesForAttribute =
-                stylesheetUserPreferencesService.getAllNodesAndValuesForAttribute(
-                        request, PreferencesScope.STRUCTURE, EXTERNAL_ID_ATTR);
-        for (final Entry<String, String> entry : allNodesAndValuesForAttribute.entrySet()) {
-            final String value = entry.getValue();
-            // Have to test against the fname safe version of the externalId since the folderName
-            // could have already been translated
-            if (value.equals(folderName)
-                    || FunctionalNameType.makeValid(value).equals(folderName)) {
-                final String nodeId = entry.getKey();
-
-                if (nodeId.equals(layoutNodeId)) {
-                    // ExternalId matched as well as the layoutNodeId, clear the firstMatchingNodeId
-                    // since we found the nodeId here
+        final ExternalIdIndex externalIdIndex = this.getExternalIdIndex(request);
+        for (final String nodeId : externalIdIndex.getNodeIdsForFolderName(folderName)) {
+            if (nodeId.equals(layoutNodeId)) {
+                // ExternalId matched as well as the layoutNodeId, clear the firstMatchingNodeId
+                // since we found the nodeId here
 
-                    logger.trace("Parsed folder names {} to nodeId {}.", folderNames, nodeId);
+                logger.trace("Parsed folder names {} to nodeId {}.", folderNames, nodeId);
 
-                    return nodeId;
-                } else if (firstMatchingNodeId == null) {
-                    firstMatchingNodeId = nodeId;
-                }
+                return nodeId;
+            } else if (firstMatchingNodeId == null) {
+                firstMatchingNodeId = nodeId;
             }
         }
 
@@ -440,4 +408,62 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
 
         return portletWindow.getPortletWindowId();
     }
+
+    /**
+     * Get the index of the externalId layout attributes for the request. The index is kept in the
+     * request and rebuilt only if the layout attributes cache key has changed since it was created.
+     */
+    protected ExternalIdIndex getExternalIdIndex(HttpServletRequest request) {
+        final Object layoutAttributesKey =
+                stylesheetUserPreferencesService.getLayoutAttributesCacheKey(
+                        request, PreferencesScope.STRUCTURE);
+
+        ExternalIdIndex externalIdIndex =
+                (ExternalIdIndex) request.getAttribute(EXTERNAL_ID_INDEX_ATTR);
+        if (externalIdIndex == null
+                || !externalIdIndex.layoutAttributesKey.equals(layoutAttributesKey)) {
+            final Map<String, String> allNodesAndValuesForAttribute =
+                    stylesheetUserPreferencesService.getAllNodesAndValuesForAttribute(
+                            request, PreferencesScope.STRUCTURE, EXTERNAL_ID_ATTR);
+            externalIdIndex =
+                    new ExternalIdIndex(layoutAttributesKey, allNodesAndValuesForAttribute);
+            request.setAttribute(EXTERNAL_ID_INDEX_ATTR, externalIdIndex);
+        }
+        return externalIdIndex;
+    }
+
+    /** Layout node IDs by externalId and by the fname safe version of the externalId */
+    protected static final class ExternalIdIndex {
+        private final Object layoutAttributesKey;
+        private final ListMultimap<String, String> nodeIdsByExternalId;
+        private final ListMultimap<String, String> nodeIdsByFolderName;
+
+        ExternalIdIndex(Object layoutAttributesKey, Map<String, String> externalIdsByNodeId) {
+            this.layoutAttributesKey = layoutAttributesKey;
+            this.nodeIdsByExternalId = ArrayListMultimap.create();
+            this.nodeIdsByFolderName = ArrayListMultimap.create();
+            for (final Entry<String, String> entry : externalIdsByNodeId.entrySet()) {
+                final String nodeId = entry.getKey();
+                final String externalId = entry.getValue();
+                this.nodeIdsByExternalId.put(externalId, nodeId);
+                this.nodeIdsByFolderName.put(externalId, nodeId);
+
+                // The folderName could have already been translated to an fname safe value
+                final String validExternalId = FunctionalNameType.makeValid(externalId);
+                if (!validExternalId.equals(externalId)) {
+                    this.nodeIdsByFolderName.put(validExternalId, nodeId);
+                }
+            }
+        }
+
+        /** @return IDs of the nodes with the externalId, in layout attribute order */
+        public List<String> getNodeIds(String externalId) {
+            return this.nodeIdsByExternalId.get(externalId);
+        }
+
+        /** @return IDs of the nodes whose externalId or its fname safe version is the name */
+        public List<String> getNodeIdsForFolderName(String folderName) {
+            return this.nodeIdsByFolderName.get(folderName);
+        }
+    }
 }
@@ -38,6 +38,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 /**
@@ -81,6 +82,33 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
     )
     private Cache hasUnblockedGrantCache;
 
+    @Autowired
+    @Qualifier(
+        value =
+                "org.apereo.portal.security.provider.AnyUnblockedGrantPermissionPolicy.EFFECTIVE_PERMISSIONS"
+    )
+    private Cache effectivePermissionsCache;
+
+    private boolean useEffectivePermissions = true;
+    private long effectivePermissionsMaxAge = 300000;
+
+    /**
+     * Non-group principals (i.e. users) are checked against an {@link EffectivePermissionSnapshot}
+     * of their ancestor groups instead of walking the groups hierarchy for every check.
+     */
+    @Value(
+            "${org.apereo.portal.security.provider.AnyUnblockedGrantPermissionPolicy.useEffectivePermissions:true}")
+    public void setUseEffectivePermissions(boolean useEffectivePermissions) {
+        this.useEffectivePermissions = useEffectivePermissions;
+    }
+
+    /** Upper bound on the life of a snapshot, so that group membership changes are picked up */
+    @Value(
+            "${org.apereo.portal.security.provider.AnyUnblockedGrantPermissionPolicy.effectivePermissionsMaxAge:300000}")
+    public void setEffectivePermissionsMaxAge(long effectivePermissionsMaxAge) {
+        this.effectivePermissionsMaxAge = effectivePermissionsMaxAge;
+    }
+
     @Override
     public boolean doesPrincipalHavePermission(
             IAuthorizationService service,
@@ -186,10 +214,16 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
         boolean rslt;
         try {
             // Track groups we've already explored to avoid infinite loop
-            final Set<IGroupMember> seenGroups = new HashSet<>();
-            rslt =
-                    hasUnblockedPathToGrantWithCache(
-                            service, principal, owner, activity, target, seenGroups);
+            if (useEffectivePermissions && !principal.isGroup()) {
+                rslt =
+                        getEffectivePermissions(service, principal)
+                                .hasUnblockedPathToGrant(service, owner, activity, target);
+            } else {
+                final Set<IGroupMember> seenGroups = new HashSet<>();
+                rslt =
+                        hasUnblockedPathToGrantWithCache(
+                                service, principal, owner, activity, target, seenGroups);
+            }
         } catch (Exception e) {
             log.error(
                     "Error searching for unblocked path to grant for principal [" + principal + "]",
@@ -223,6 +257,31 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
         return rslt;
     }
 
+    private EffectivePermissionSnapshot getEffectivePermissions(
+            IAuthorizationService service, IAuthorizationPrincipal principal)
+            throws GroupsException {
+
+        // Tagged with the username so the snapshot is rebuilt when the user re-authenticates
+        final CacheKey cacheKey =
+                CacheKey.buildTagged(
+                        AnyUnblockedGrantPermissionPolicy.class.getName(),
+                        UsernameTaggedCacheEntryPurger.createCacheEntryTag(principal.getKey()),
+                        principal.getPrincipalString());
+        final Element element = effectivePermissionsCache.get(cacheKey);
+        if (element != null) {
+            final EffectivePermissionSnapshot snapshot =
+                    (EffectivePermissionSnapshot) element.getObjectValue();
+            if (!snapshot.isExpired()) {
+                return snapshot;
+            }
+        }
+
+        final EffectivePermissionSnapshot snapshot =
+                EffectivePermissionSnapshot.build(service, principal, effectivePermissionsMaxAge);
+        effectivePermissionsCache.put(new Element(cacheKey, snapshot));
+        return snapshot;
+    }
+
     private boolean hasUnblockedPathToGrantWithCache(
             IAuthorizationService service,
             IAuthorizationPrincipal principal,
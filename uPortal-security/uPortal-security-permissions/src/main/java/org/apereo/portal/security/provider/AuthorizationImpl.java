@@ -100,6 +100,11 @@ public class AuthorizationImpl implements IAuthorizationService {
     /** The cache to hold permission resolution. */
     private Ehcache doesPrincipalHavePermissionCache;
 
+    /**
+     * The cache to hold the effective permissions of users (see AnyUnblockedGrantPermissionPolicy)
+     */
+    private Ehcache effectivePermissionsCache;
+
     /** The class representing the permission set type. */
     private static final Class<IPermissionSet> PERMISSION_SET_TYPE = IPermissionSet.class;
 
@@ -156,6 +161,14 @@ public class AuthorizationImpl implements IAuthorizationService {
         this.doesPrincipalHavePermissionCache = doesPrincipalHavePermissionCache;
     }
 
+    @Autowired
+    public void setEffectivePermissionsCache(
+            @Qualifier(
+                            "org.apereo.portal.security.provider.AnyUnblockedGrantPermissionPolicy.EFFECTIVE_PERMISSIONS")
+                    Ehcache effectivePermissionsCache) {
+        this.effectivePermissionsCache = effectivePermissionsCache;
+    }
+
     @Autowired
     public void setPortletDefinitionRegistry(IPortletDefinitionRegistry portletDefinitionRegistry) {
         this.portletDefinitionRegistry = portletDefinitionRegistry;
@@ -184,6 +197,7 @@ public class AuthorizationImpl implements IAuthorizationService {
             if (this.cachePermissions) {
                 removeFromPermissionsCache(permissions);
             }
+            purgePermissionResolutions();
         }
     }
 
@@ -1096,6 +1110,15 @@ public class AuthorizationImpl implements IAuthorizationService {
         removeFromPermissionsCache(principals);
     }
 
+    /**
+     * Discards resolved permission checks after permissions have changed. A GRANT or DENY on a
+     * group affects every member, so there is no narrower set of entries to remove.
+     */
+    private void purgePermissionResolutions() {
+        this.doesPrincipalHavePermissionCache.removeAll();
+        this.effectivePermissionsCache.removeAll();
+    }
+
     /**
      * Removes <code>IPermissions</code> from the back end store.
      *
@@ -1109,6 +1132,7 @@ public class AuthorizationImpl implements IAuthorizationService {
             if (this.cachePermissions) {
                 removeFromPermissionsCache(permissions);
             }
+            purgePermissionResolutions();
         }
     }
 
@@ -1125,6 +1149,7 @@ public class AuthorizationImpl implements IAuthorizationService {
             if (this.cachePermissions) {
                 removeFromPermissionsCache(permissions);
             }
+            purgePermissionResolutions();
         }
     }
 }
@@ -0,0 +1,253 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.security.provider;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apereo.portal.groups.GroupsException;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.groups.IGroupMember;
+import org.apereo.portal.permission.IPermissionActivity;
+import org.apereo.portal.permission.IPermissionOwner;
+import org.apereo.portal.permission.target.IPermissionTarget;
+import org.apereo.portal.security.IAuthorizationPrincipal;
+import org.apereo.portal.security.IAuthorizationService;
+import org.apereo.portal.security.IPermission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The groups hierarchy above one (non-group) principal, captured once so that {@link
+ * AnyUnblockedGrantPermissionPolicy} can answer any number of permission checks for that principal
+ * without walking the groups system again.
+ *
+ * <p>Each ancestor remembers which owner/activity pairs it holds permissions for, so a check only
+ * consults the permissions of ancestors that could possibly GRANT or DENY it. The most recently
+ * used answers are remembered for the life of the snapshot. The snapshot expires at the first
+ * moment one of the captured permissions becomes effective or expires, since remembered answers
+ * could then be wrong.
+ *
+ * @since 5.0
+ */
+/* package-private */ final class EffectivePermissionSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(EffectivePermissionSnapshot.class);
+
+    /** Upper bound on the answers remembered by each snapshot */
+    /* package-private */ static final int MAX_ANSWERS = 1000;
+
+    private final Node root;
+    private final long expires;
+    private final Cache<List<String>, Boolean> answers =
+            CacheBuilder.newBuilder().maximumSize(MAX_ANSWERS).build();
+
+    private EffectivePermissionSnapshot(Node root, long expires) {
+        this.root = root;
+        this.expires = expires;
+    }
+
+    /**
+     * Traverses the principal and all its ancestor groups a single time.
+     *
+     * @param maxAge Upper bound on the life of the snapshot in milliseconds
+     */
+    public static EffectivePermissionSnapshot build(
+            IAuthorizationService service, IAuthorizationPrincipal principal, long maxAge)
+            throws GroupsException {
+        final long now = System.currentTimeMillis();
+        long expires = now + maxAge;
+
+        final Map<IGroupMember, Node> nodes = new HashMap<>();
+        final IGroupMember member = service.getGroupMember(principal);
+        final Node root = new Node(principal);
+        nodes.put(member, root);
+
+        final LinkedList<IGroupMember> queue = new LinkedList<>();
+        queue.add(member);
+        while (!queue.isEmpty()) {
+            final IGroupMember current = queue.removeFirst();
+            final Node node = nodes.get(current);
+            expires = Math.min(expires, node.loadPermissions(service, now));
+            final Set<IEntityGroup> parents;
+            try {
+                parents = current.getParentGroups();
+            } catch (Exception e) {
+                // Same policy as the recursive walk:  a broken portion of the
+                // group structure must not prevent exploring the other paths
+                logger.error("Error evaluating parent groups of [{}]", current, e);
+                continue;
+            }
+            for (IEntityGroup parent : parents) {
+                if (parent == null) {
+                    continue;
+                }
+                Node parentNode = nodes.get(parent);
+                if (parentNode == null) {
+                    try {
+                        parentNode = new Node(service.newPrincipal(parent));
+                    } catch (Exception e) {
+                        logger.error(
+                                "Error evaluating permissions of parent group [{}]", parent, e);
+                        continue;
+                    }
+                    nodes.put(parent, parentNode);
+                    queue.add(parent);
+                }
+                node.parents.add(parentNode);
+            }
+        }
+
+        logger.debug(
+                "Captured {} groups in the effective permissions of principal '{}'",
+                nodes.size() - 1,
+                principal.getKey());
+        return new EffectivePermissionSnapshot(root, expires);
+    }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expires;
+    }
+
+    /**
+     * Answers whether there is a path from the principal to a GRANT of this activity on this target
+     * that is not blocked by a DENY, exactly as {@link AnyUnblockedGrantPermissionPolicy} defines
+     * it.
+     */
+    public boolean hasUnblockedPathToGrant(
+            IAuthorizationService service,
+            IPermissionOwner owner,
+            IPermissionActivity activity,
+            IPermissionTarget target) {
+        final List<String> key =
+                Arrays.asList(owner.getFname(), activity.getFname(), target.getKey());
+        Boolean rslt = answers.getIfPresent(key);
+        if (rslt == null) {
+            rslt =
+                    hasUnblockedPathToGrant(
+                            service,
+                            root,
+                            owner.getFname(),
+                            activity.getFname(),
+                            target.getKey(),
+                            new HashSet<Node>());
+            answers.put(key, rslt);
+        }
+        return rslt;
+    }
+
+    private boolean hasUnblockedPathToGrant(
+            IAuthorizationService service,
+            Node node,
+            String owner,
+            String activity,
+            String target,
+            Set<Node> seen) {
+
+        // Step #1:  Specific GRANT/DENY attached to this principal
+        if (node.hasPermissionsFor(owner, activity)) {
+            final IPermission[] permissions =
+                    service.getPermissionsForPrincipal(node.principal, owner, activity, target);
+            final Date now = new Date();
+            boolean grantExists = false;
+            for (IPermission p : permissions) {
+                if (!isActive(p, now)) {
+                    continue;
+                }
+                if (IPermission.PERMISSION_TYPE_DENY.equals(p.getType())) {
+                    // DENY trumps both GRANT & inherited permissions
+                    return false;
+                }
+                if (IPermission.PERMISSION_TYPE_GRANT.equals(p.getType())) {
+                    grantExists = true;
+                }
+            }
+            if (grantExists) {
+                return true;
+            }
+        }
+
+        // Step #2:  Seek an answer from affiliated groups
+        if (!seen.add(node)) {
+            return false;
+        }
+        for (Node parent : node.parents) {
+            try {
+                if (hasUnblockedPathToGrant(service, parent, owner, activity, target, seen)) {
+                    return true;
+                }
+            } catch (Exception e) {
+                // Permission may still be granted by an unbroken portion of the structure
+                logger.error("Error evaluating permissions of parent group [{}]", parent, e);
+            }
+        }
+
+        // Step #3:  No explicit GRANT means no permission
+        return false;
+    }
+
+    private static boolean isActive(IPermission p, Date now) {
+        return (p.getEffective() == null || !p.getEffective().after(now))
+                && (p.getExpires() == null || p.getExpires().after(now));
+    }
+
+    private static final class Node {
+        private final IAuthorizationPrincipal principal;
+        private final List<Node> parents = new ArrayList<>();
+        private Set<List<String>> ownerActivities = Collections.emptySet();
+
+        private Node(IAuthorizationPrincipal principal) {
+            this.principal = principal;
+        }
+
+        /** @return the first future moment at which one of the permissions changes state */
+        private long loadPermissions(IAuthorizationService service, long now) {
+            long rslt = Long.MAX_VALUE;
+            final IPermission[] permissions =
+                    service.getPermissionsForPrincipal(principal, null, null, null);
+            if (permissions.length != 0) {
+                ownerActivities = new HashSet<>();
+                for (IPermission p : permissions) {
+                    ownerActivities.add(Arrays.asList(p.getOwner(), p.getActivity()));
+                    if (p.getEffective() != null && p.getEffective().getTime() > now) {
+                        rslt = Math.min(rslt, p.getEffective().getTime());
+                    }
+                    if (p.getExpires() != null && p.getExpires().getTime() > now) {
+                        rslt = Math.min(rslt, p.getExpires().getTime());
+                    }
+                }
+            }
+            return rslt;
+        }
+
+        private boolean hasPermissionsFor(String owner, String activity) {
+            return ownerActivities.contains(Arrays.asList(owner, activity));
+        }
+
+        @Override
+        public String toString() {
+            return principal.toString();
+        }
+    }
+}
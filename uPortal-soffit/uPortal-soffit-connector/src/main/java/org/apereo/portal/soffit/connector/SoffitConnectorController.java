@@ -19,7 +19,20 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 import javax.portlet.PortletPreferences;
 import javax.portlet.RenderRequest;
 import javax.portlet.RenderResponse;
@@ -31,10 +44,14 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 import org.apereo.portal.soffit.Headers;
 import org.slf4j.Logger;
@@ -46,11 +63,26 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.jmx.export.MBeanExportOperations;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.portlet.bind.annotation.RenderMapping;
 
-/** @since 5.0 */
+/**
+ * Renders a remote soffit. All soffits share one long-lived HTTP client, so connections to a soffit
+ * host are kept alive and reused across renders, up to <code>maxConnectionsPerRoute</code>.
+ *
+ * <p>When <code>asyncRender</code> is enabled, the HTTP request runs on a separate pool and the
+ * render waits at most <code>renderTimeoutMillis</code> for it. A slow soffit then releases the
+ * portlet worker early with an error message in place of its content; its response is still read
+ * and cached, if the soffit allows caching, for the next render.
+ *
+ * <p>Per-service latency and connection pool statistics are registered with JMX in the
+ * uPortal:section=Soffit domain section.
+ *
+ * @since 5.0
+ */
 @Controller
 @RequestMapping(value = {"VIEW", "EDIT", "HELP"})
 public class SoffitConnectorController implements ApplicationContextAware {
@@ -64,6 +96,10 @@ public class SoffitConnectorController implements ApplicationContextAware {
 
     private static final int TIMEOUT_SECONDS = 10;
 
+    /** Rendered in place of the content of a soffit that did not respond in time */
+    static final String UNAVAILABLE_MESSAGE =
+            "This content is not available right now.  Please try again later.";
+
     @Value(
             "${org.apereo.portlet.soffit.connector.SoffitConnectorController.maxConnectionsPerRoute:20}")
     private Integer maxConnectionsPerRoute;
@@ -72,17 +108,35 @@ public class SoffitConnectorController implements ApplicationContextAware {
             "${org.apereo.portlet.soffit.connector.SoffitConnectorController.maxConnectionsTotal:50}")
     private Integer maxConnectionsTotal;
 
+    /** How long to keep an idle connection when the soffit does not send a Keep-Alive timeout */
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.keepAliveMillis:30000}")
+    private long keepAliveMillis;
+
+    /** Idle connections are closed after this long, even if the soffit would keep them */
+    @Value(
+            "${org.apereo.portlet.soffit.connector.SoffitConnectorController.idleConnectionTimeoutMillis:30000}")
+    private long idleConnectionTimeoutMillis;
+
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.asyncRender:false}")
+    private boolean asyncRender;
+
+    @Value(
+            "${org.apereo.portlet.soffit.connector.SoffitConnectorController.renderTimeoutMillis:5000}")
+    private long renderTimeoutMillis;
+
     private final RequestConfig requestConfig =
             RequestConfig.custom()
                     .setSocketTimeout(TIMEOUT_SECONDS * 1000)
                     .setConnectTimeout(TIMEOUT_SECONDS * 1000)
+                    .setConnectionRequestTimeout(TIMEOUT_SECONDS * 1000)
                     .build();
 
-    private final HttpClientBuilder httpClientBuilder =
-            HttpClientBuilder.create()
-                    .setDefaultRequestConfig(requestConfig)
-                    .setConnectionManagerShared(
-                            true); // Prevents the client from shutting down the pool
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+    private ThreadPoolExecutor asyncExecutor;
+
+    private final ConcurrentMap<String, SoffitServiceStatistics> serviceStatistics =
+            new ConcurrentHashMap<>();
 
     private ApplicationContext applicationContext;
     private List<IHeaderProvider> headerProviders;
@@ -93,6 +147,9 @@ public class SoffitConnectorController implements ApplicationContextAware {
     )
     private Cache responseCache;
 
+    @Autowired(required = false)
+    private MBeanExportOperations mBeanExportOperations;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     @Override
@@ -102,11 +159,44 @@ public class SoffitConnectorController implements ApplicationContextAware {
 
     @PostConstruct
     public void init() {
-        PoolingHttpClientConnectionManager poolingHttpClientConnectionManager =
-                new PoolingHttpClientConnectionManager();
-        poolingHttpClientConnectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
-        poolingHttpClientConnectionManager.setMaxTotal(maxConnectionsTotal);
-        httpClientBuilder.setConnectionManager(poolingHttpClientConnectionManager);
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        connectionManager.setMaxTotal(maxConnectionsTotal);
+
+        final ConnectionKeepAliveStrategy keepAliveStrategy =
+                new ConnectionKeepAliveStrategy() {
+                    @Override
+                    public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                        final long rslt =
+                                DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(
+                                        response, context);
+                        return rslt > 0 ? rslt : keepAliveMillis;
+                    }
+                };
+
+        httpClient =
+                HttpClientBuilder.create()
+                        .setDefaultRequestConfig(requestConfig)
+                        .setConnectionManager(connectionManager)
+                        .setKeepAliveStrategy(keepAliveStrategy)
+                        .evictExpiredConnections()
+                        .evictIdleConnections(idleConnectionTimeoutMillis, TimeUnit.MILLISECONDS)
+                        .build();
+
+        if (asyncRender) {
+            final CustomizableThreadFactory threadFactory =
+                    new CustomizableThreadFactory("uP-SoffitConnector-");
+            threadFactory.setDaemon(true);
+            // No more threads than connections;  when all are busy the render is rejected
+            asyncExecutor =
+                    new ThreadPoolExecutor(
+                            0,
+                            maxConnectionsTotal,
+                            60L,
+                            TimeUnit.SECONDS,
+                            new SynchronousQueue<Runnable>(),
+                            threadFactory);
+        }
 
         final Map<String, IHeaderProvider> beans =
                 BeanFactoryUtils.beansOfTypeIncludingAncestors(
@@ -115,6 +205,27 @@ public class SoffitConnectorController implements ApplicationContextAware {
         headerProviders = Collections.unmodifiableList(values);
     }
 
+    @PreDestroy
+    public void destroy() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdownNow();
+        }
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close the soffit HTTP client", e);
+        }
+        if (mBeanExportOperations != null) {
+            for (String serviceUrl : serviceStatistics.keySet()) {
+                try {
+                    mBeanExportOperations.unregisterManagedResource(getObjectName(serviceUrl));
+                } catch (RuntimeException | MalformedObjectNameException e) {
+                    logger.debug("Failed to unregister statistics for '{}'", serviceUrl, e);
+                }
+            }
+        }
+    }
+
     @RenderMapping
     public void invokeService(final RenderRequest req, final RenderResponse res) {
 
@@ -134,40 +245,42 @@ public class SoffitConnectorController implements ApplicationContextAware {
             logger.debug("No applicable response in cache;  invoking serviceUrl '{}'", serviceUrl);
 
             final HttpGet getMethod = new HttpGet(serviceUrl);
-            try (final CloseableHttpClient httpClient = httpClientBuilder.build()) {
 
-                // Send the data model as encrypted JWT HTTP headers
-                for (IHeaderProvider headerProvider : headerProviders) {
-                    final Header header = headerProvider.createHeader(req, res);
-                    getMethod.addHeader(header);
-                }
+            // Send the data model as encrypted JWT HTTP headers
+            for (IHeaderProvider headerProvider : headerProviders) {
+                final Header header = headerProvider.createHeader(req, res);
+                getMethod.addHeader(header);
+            }
 
-                // Send the request
-                final HttpResponse httpResponse = httpClient.execute(getMethod);
-                try {
-                    final int statusCode = httpResponse.getStatusLine().getStatusCode();
-                    logger.debug(
-                            "HTTP response code for url '{}' was '{}'", serviceUrl, statusCode);
-
-                    if (statusCode == HttpStatus.SC_OK) {
-                        responseValue =
-                                extractResponseAndCacheIfAppropriate(httpResponse, req, serviceUrl);
-                    } else {
-                        logger.error(
-                                "Failed to get content from remote service '{}';  HttpStatus={}",
-                                serviceUrl,
-                                statusCode);
-                        res.getWriter()
-                                .write(
-                                        "FAILED!  statusCode="
-                                                + statusCode); // TODO:  Better message
-                    }
-                } finally {
-                    if (null != httpResponse) {
-                        // Ensures that the entity content is fully consumed and the content stream,
-                        // if exists, is closed.
-                        EntityUtils.consumeQuietly(httpResponse.getEntity());
-                    }
+            // Response caching must not touch the request, which may be gone by then
+            final CacheTuple privateScopeKey =
+                    new CacheTuple(
+                            serviceUrl,
+                            req.getPortletMode().toString(),
+                            req.getWindowState().toString(),
+                            req.getRemoteUser());
+            final CacheTuple publicScopeKey =
+                    new CacheTuple(
+                            serviceUrl,
+                            req.getPortletMode().toString(),
+                            req.getWindowState().toString());
+
+            try {
+                final ServiceResponse serviceResponse =
+                        asyncRender
+                                ? invokeAsync(
+                                        getMethod, serviceUrl, privateScopeKey, publicScopeKey)
+                                : invoke(getMethod, serviceUrl, privateScopeKey, publicScopeKey);
+                if (serviceResponse == null) {
+                    // The async render gave up waiting for the soffit
+                    res.getWriter().write(UNAVAILABLE_MESSAGE);
+                } else if (serviceResponse.statusCode == HttpStatus.SC_OK) {
+                    responseValue = serviceResponse.content;
+                } else {
+                    res.getWriter()
+                            .write(
+                                    "FAILED!  statusCode="
+                                            + serviceResponse.statusCode); // TODO:  Better message
                 }
             } catch (IOException e) {
                 logger.error("Failed to invoke serviceUrl '{}'", serviceUrl, e);
@@ -188,6 +301,118 @@ public class SoffitConnectorController implements ApplicationContextAware {
      * Implementation
      */
 
+    /**
+     * Runs {@link #invoke} on the async pool, waiting at most <code>renderTimeoutMillis</code>.
+     *
+     * @return The response, or null if the soffit did not respond in time or every async thread
+     *     was busy
+     */
+    private ServiceResponse invokeAsync(
+            final HttpGet getMethod,
+            final String serviceUrl,
+            final CacheTuple privateScopeKey,
+            final CacheTuple publicScopeKey)
+            throws IOException {
+        final Future<ServiceResponse> future;
+        try {
+            future =
+                    asyncExecutor.submit(
+                            new Callable<ServiceResponse>() {
+                                @Override
+                                public ServiceResponse call() throws IOException {
+                                    return invoke(
+                                            getMethod, serviceUrl, privateScopeKey, publicScopeKey);
+                                }
+                            });
+        } catch (RejectedExecutionException e) {
+            // Every connection is already waiting on a soffit, fetching inline would block too
+            logger.warn(
+                    "All {} soffit connections are busy;  rendering serviceUrl '{}' without it",
+                    maxConnectionsTotal,
+                    serviceUrl);
+            return null;
+        }
+        try {
+            return future.get(renderTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.warn(
+                    "Soffit with serviceUrl '{}' did not respond within {}ms;  "
+                            + "rendering an error message instead",
+                    serviceUrl,
+                    renderTimeoutMillis);
+            return null;
+        } catch (InterruptedException e) {
+            getMethod.abort();
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException("Failed to invoke serviceUrl " + serviceUrl, e.getCause());
+        }
+    }
+
+    private ServiceResponse invoke(
+            HttpGet getMethod,
+            String serviceUrl,
+            CacheTuple privateScopeKey,
+            CacheTuple publicScopeKey)
+            throws IOException {
+        final long start = System.currentTimeMillis();
+        boolean success = false;
+        try (final CloseableHttpResponse httpResponse = httpClient.execute(getMethod)) {
+            final int statusCode = httpResponse.getStatusLine().getStatusCode();
+            logger.debug("HTTP response code for url '{}' was '{}'", serviceUrl, statusCode);
+
+            ResponseWrapper content = null;
+            if (statusCode == HttpStatus.SC_OK) {
+                content =
+                        extractResponseAndCacheIfAppropriate(
+                                httpResponse, serviceUrl, privateScopeKey, publicScopeKey);
+                success = true;
+            } else {
+                logger.error(
+                        "Failed to get content from remote service '{}';  HttpStatus={}",
+                        serviceUrl,
+                        statusCode);
+                // Ensures that the entity content is fully consumed so the connection is reused
+                EntityUtils.consumeQuietly(httpResponse.getEntity());
+            }
+            return new ServiceResponse(statusCode, content);
+        } finally {
+            final long latency = System.currentTimeMillis() - start;
+            getServiceStatistics(serviceUrl).recordInvocation(latency, success);
+        }
+    }
+
+    private SoffitServiceStatistics getServiceStatistics(String serviceUrl) {
+        SoffitServiceStatistics rslt = serviceStatistics.get(serviceUrl);
+        if (rslt == null) {
+            final SoffitServiceStatistics created =
+                    new SoffitServiceStatistics(serviceUrl, connectionManager);
+            rslt = serviceStatistics.putIfAbsent(serviceUrl, created);
+            if (rslt == null) {
+                rslt = created;
+                if (mBeanExportOperations != null) {
+                    try {
+                        mBeanExportOperations.registerManagedResource(
+                                created, getObjectName(serviceUrl));
+                    } catch (RuntimeException | MalformedObjectNameException e) {
+                        logger.warn("Failed to register statistics for '{}'", serviceUrl, e);
+                    }
+                }
+            }
+        }
+        return rslt;
+    }
+
+    private ObjectName getObjectName(String serviceUrl) throws MalformedObjectNameException {
+        return new ObjectName(
+                "uPortal:section=Soffit,name=ServiceStatistics,serviceUrl="
+                        + ObjectName.quote(serviceUrl));
+    }
+
     private ResponseWrapper fetchContentFromCacheIfAvailable(
             final RenderRequest req, final String serviceUrl) {
 
@@ -223,7 +448,10 @@ public class SoffitConnectorController implements ApplicationContextAware {
     }
 
     private ResponseWrapper extractResponseAndCacheIfAppropriate(
-            final HttpResponse httpResponse, final RenderRequest req, final String serviceUrl) {
+            final HttpResponse httpResponse,
+            final String serviceUrl,
+            final CacheTuple privateScopeKey,
+            final CacheTuple publicScopeKey) {
 
         // Extract
         final HttpEntity entity = httpResponse.getEntity();
@@ -273,18 +501,9 @@ public class SoffitConnectorController implements ApplicationContextAware {
                             final String maxAge = tokens[1].trim().substring("max-age=".length());
                             int timeToLive = Integer.parseInt(maxAge);
                             if ("private".equals(tokens[0].trim())) {
-                                cacheTuple =
-                                        new CacheTuple(
-                                                serviceUrl,
-                                                req.getPortletMode().toString(),
-                                                req.getWindowState().toString(),
-                                                req.getRemoteUser());
+                                cacheTuple = privateScopeKey;
                             } else if ("public".equals(tokens[0].trim())) {
-                                cacheTuple =
-                                        new CacheTuple(
-                                                serviceUrl,
-                                                req.getPortletMode().toString(),
-                                                req.getWindowState().toString());
+                                cacheTuple = publicScopeKey;
                             }
                             logger.debug(
                                     "Produced cacheTuple='{}' for cacheControlValue='{}'",
@@ -387,6 +606,16 @@ public class SoffitConnectorController implements ApplicationContextAware {
         }
     }
 
+    private static final class ServiceResponse {
+        private final int statusCode;
+        private final ResponseWrapper content;
+
+        public ServiceResponse(int statusCode, ResponseWrapper content) {
+            this.statusCode = statusCode;
+            this.content = content;
+        }
+    }
+
     public static final class ResponseWrapper {
         private final byte[] bytes;
 
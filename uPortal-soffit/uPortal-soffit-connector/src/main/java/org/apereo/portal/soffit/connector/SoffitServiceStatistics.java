@@ -0,0 +1,135 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.soffit.connector;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * Statistics for one remote soffit service, tracked by {@link SoffitConnectorController}.
+ *
+ * @since 5.0
+ */
+public final class SoffitServiceStatistics implements SoffitServiceStatisticsMBean {
+
+    private final String serviceUrl;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final HttpRoute route;
+
+    private final AtomicLong invocationCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    public SoffitServiceStatistics(
+            String serviceUrl, PoolingHttpClientConnectionManager connectionManager) {
+        this.serviceUrl = serviceUrl;
+        this.connectionManager = connectionManager;
+        this.route = getRoute(serviceUrl);
+    }
+
+    public void recordInvocation(long latency, boolean success) {
+        invocationCount.incrementAndGet();
+        if (!success) {
+            failureCount.incrementAndGet();
+        }
+        totalLatency.addAndGet(latency);
+        long max = maxLatency.get();
+        while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+            max = maxLatency.get();
+        }
+    }
+
+    @Override
+    public String getServiceUrl() {
+        return serviceUrl;
+    }
+
+    @Override
+    public long getInvocationCount() {
+        return invocationCount.get();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    @Override
+    public double getAverageLatency() {
+        final long count = invocationCount.get();
+        return count == 0 ? 0 : (double) totalLatency.get() / count;
+    }
+
+    @Override
+    public long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    @Override
+    public int getLeasedConnections() {
+        return getPoolStats().getLeased();
+    }
+
+    @Override
+    public int getAvailableConnections() {
+        return getPoolStats().getAvailable();
+    }
+
+    @Override
+    public int getPendingConnections() {
+        return getPoolStats().getPending();
+    }
+
+    @Override
+    public int getMaxConnections() {
+        return getPoolStats().getMax();
+    }
+
+    private PoolStats getPoolStats() {
+        return route != null
+                ? connectionManager.getStats(route)
+                : connectionManager.getTotalStats();
+    }
+
+    /** The pool route HttpClient uses for a URL when no proxy is configured. */
+    private static HttpRoute getRoute(String serviceUrl) {
+        try {
+            final URI uri = URI.create(serviceUrl);
+            final boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+            final int port = uri.getPort() > 0 ? uri.getPort() : secure ? 443 : 80;
+            return new HttpRoute(new HttpHost(uri.getHost(), port, uri.getScheme()), null, secure);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SoffitServiceStatistics [serviceUrl="
+                + serviceUrl
+                + ", invocationCount="
+                + invocationCount
+                + ", failureCount="
+                + failureCount
+                + ", maxLatency="
+                + maxLatency
+                + "]";
+    }
+}
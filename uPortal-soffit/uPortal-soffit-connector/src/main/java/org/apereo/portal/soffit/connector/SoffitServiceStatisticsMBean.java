@@ -0,0 +1,50 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.soffit.connector;
+
+/**
+ * Latency and connection pool statistics for one remote soffit service.
+ *
+ * @since 5.0
+ */
+public interface SoffitServiceStatisticsMBean {
+
+    /** @return The remote service URL */
+    String getServiceUrl();
+
+    /** @return Number of HTTP requests sent to the service */
+    long getInvocationCount();
+
+    /** @return Number of requests that failed or returned a status other than 200 */
+    long getFailureCount();
+
+    /** @return Mean time, in milliseconds, from sending a request to reading its response */
+    double getAverageLatency();
+
+    /** @return Longest time, in milliseconds, from sending a request to reading its response */
+    long getMaxLatency();
+
+    /** @return Connections to the service's host currently in use */
+    int getLeasedConnections();
+
+    /** @return Idle, kept-alive connections to the service's host */
+    int getAvailableConnections();
+
+    /** @return Requests waiting for a connection to the service's host */
+    int getPendingConnections();
+
+    /** @return Maximum number of connections to the service's host */
+    int getMaxConnections();
+}
@@ -0,0 +1,235 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.soffit.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.portlet.PortletMode;
+import javax.portlet.PortletPreferences;
+import javax.portlet.RenderRequest;
+import javax.portlet.RenderResponse;
+import javax.portlet.WindowState;
+import net.sf.ehcache.Cache;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SoffitConnectorControllerTest {
+
+    private static final String CONTENT = "<p>Hello from the soffit</p>";
+
+    private HttpServer server;
+    private String serviceUrl;
+
+    /** Requests to the soffit wait on this latch until the test releases them */
+    private CountDownLatch slowResponses;
+
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final Set<Integer> clientPorts = ConcurrentHashMap.<Integer>newKeySet();
+
+    private SoffitConnectorController controller;
+
+    @Before
+    public void setUp() throws IOException {
+        slowResponses = new CountDownLatch(0);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext(
+                "/soffit",
+                new HttpHandler() {
+                    @Override
+                    public void handle(HttpExchange exchange) throws IOException {
+                        requestCount.incrementAndGet();
+                        clientPorts.add(exchange.getRemoteAddress().getPort());
+                        try {
+                            slowResponses.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        final byte[] body = CONTENT.getBytes(StandardCharsets.UTF_8);
+                        exchange.sendResponseHeaders(200, body.length);
+                        try (final OutputStream out = exchange.getResponseBody()) {
+                            out.write(body);
+                        }
+                    }
+                });
+        server.start();
+        serviceUrl = "http://localhost:" + server.getAddress().getPort() + "/soffit";
+    }
+
+    @After
+    public void tearDown() {
+        slowResponses.countDown();
+        if (controller != null) {
+            controller.destroy();
+        }
+        server.stop(0);
+    }
+
+    @Test
+    public void testConnectionReused() throws Exception {
+        controller = createController(false, 20, 50);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(CONTENT, render().content);
+        }
+
+        // Every render went over the same kept-alive connection of the shared client
+        assertEquals(5, requestCount.get());
+        assertEquals(1, clientPorts.size());
+        assertEquals(1, getConnectionManager().getTotalStats().getAvailable());
+    }
+
+    @Test
+    public void testTimeoutRendersErrorMessage() throws Exception {
+        controller = createController(true, 20, 50);
+        slowResponses = new CountDownLatch(1);
+
+        final long start = System.currentTimeMillis();
+        final Rendered rendered = render();
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals("", rendered.content);
+        assertEquals(SoffitConnectorController.UNAVAILABLE_MESSAGE, rendered.message);
+
+        // The late response still completes and its connection goes back to the pool
+        slowResponses.countDown();
+        awaitConnectionsReleased();
+        assertEquals(CONTENT, render().content);
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testPoolExhaustionRendersErrorMessage() throws Exception {
+        // One connection to the soffit, but two async threads to wait for it
+        controller = createController(true, 1, 2);
+        slowResponses = new CountDownLatch(1);
+
+        assertEquals(SoffitConnectorController.UNAVAILABLE_MESSAGE, render().message);
+        assertEquals(1, getConnectionManager().getTotalStats().getLeased());
+
+        // Waits for the leased connection, not on the portlet worker, and gives up in time
+        final long start = System.currentTimeMillis();
+        assertEquals(SoffitConnectorController.UNAVAILABLE_MESSAGE, render().message);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(1, requestCount.get());
+
+        slowResponses.countDown();
+        awaitConnectionsReleased();
+        assertEquals(CONTENT, render().content);
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testBusyAsyncPoolRendersErrorMessage() throws Exception {
+        // The only async thread is taken by the first, slow render
+        controller = createController(true, 1, 1);
+        slowResponses = new CountDownLatch(1);
+
+        assertEquals(SoffitConnectorController.UNAVAILABLE_MESSAGE, render().message);
+
+        // Rejected right away rather than fetched inline on the portlet worker
+        final long start = System.currentTimeMillis();
+        assertEquals(SoffitConnectorController.UNAVAILABLE_MESSAGE, render().message);
+        assertTrue(System.currentTimeMillis() - start < 500);
+        assertEquals(1, requestCount.get());
+    }
+
+    /*
+     * Implementation
+     */
+
+    private SoffitConnectorController createController(
+            boolean asyncRender, int maxConnectionsPerRoute, int maxConnectionsTotal) {
+        final SoffitConnectorController rslt = new SoffitConnectorController();
+        ReflectionTestUtils.setField(rslt, "maxConnectionsPerRoute", maxConnectionsPerRoute);
+        ReflectionTestUtils.setField(rslt, "maxConnectionsTotal", maxConnectionsTotal);
+        ReflectionTestUtils.setField(rslt, "keepAliveMillis", 30000L);
+        ReflectionTestUtils.setField(rslt, "idleConnectionTimeoutMillis", 30000L);
+        ReflectionTestUtils.setField(rslt, "asyncRender", asyncRender);
+        ReflectionTestUtils.setField(rslt, "renderTimeoutMillis", 500L);
+        ReflectionTestUtils.setField(rslt, "responseCache", mock(Cache.class));
+        rslt.setApplicationContext(new StaticApplicationContext());
+        rslt.init();
+        return rslt;
+    }
+
+    private PoolingHttpClientConnectionManager getConnectionManager() {
+        return (PoolingHttpClientConnectionManager)
+                ReflectionTestUtils.getField(controller, "connectionManager");
+    }
+
+    private void awaitConnectionsReleased() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (getConnectionManager().getTotalStats().getLeased() > 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, getConnectionManager().getTotalStats().getLeased());
+    }
+
+    private Rendered render() throws IOException {
+        final PortletPreferences prefs = mock(PortletPreferences.class);
+        when(prefs.getValue(
+                        SoffitConnectorController.CONNECTOR_PREFERENCE_PREFIX + ".serviceUrl",
+                        null))
+                .thenReturn(serviceUrl);
+
+        final RenderRequest req = mock(RenderRequest.class);
+        when(req.getPreferences()).thenReturn(prefs);
+        when(req.getPortletMode()).thenReturn(PortletMode.VIEW);
+        when(req.getWindowState()).thenReturn(WindowState.NORMAL);
+        when(req.getRemoteUser()).thenReturn("student");
+
+        final StringWriter message = new StringWriter();
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final RenderResponse res = mock(RenderResponse.class);
+        when(res.getWriter()).thenReturn(new PrintWriter(message, true));
+        when(res.getPortletOutputStream()).thenReturn(content);
+
+        controller.invokeService(req, res);
+        return new Rendered(
+                message.toString(), new String(content.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static final class Rendered {
+        private final String message;
+        private final String content;
+
+        private Rendered(String message, String content) {
+            this.message = message;
+            this.content = content;
+        }
+    }
+}
@@ -14,13 +14,32 @@
  */
 package org.apereo.portal.soffit.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jws;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
 import javax.annotation.PostConstruct;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
 import org.apache.commons.lang3.StringUtils;
 import org.apereo.portal.soffit.ITokenizable;
 import org.jasypt.util.text.BasicTextEncryptor;
@@ -31,6 +50,16 @@ import org.springframework.beans.factory.annotation.Value;
 /**
  * Base class for services that produce JASON Web Tokens.
  *
+ * <p>Tokens are encrypted with the original Jasypt <code>BasicTextEncryptor</code> by default, so
+ * that Soffits built on earlier releases can read them. Setting {@link #LEGACY_ENCRYPTION_PROPERTY}
+ * to false encrypts them with AES-GCM instead, using a key derived once from the encryption
+ * password. Tokens in either format can be parsed.
+ *
+ * <p>Subclasses may ask for a reusable token. A request for a reusable token with the same class,
+ * subject and content claims as one issued less than {@link #REUSE_SECONDS_PROPERTY} ago receives
+ * that token, jti included, and skips the signing and encryption. Other tokens always get a fresh
+ * jti.
+ *
  * @since 5.0
  */
 public class AbstractJwtService {
@@ -44,6 +73,41 @@ public class AbstractJwtService {
             "org.apereo.portal.soffit.jwt.encryptionPassword";
     public static final String DEFAULT_ENCRYPTION_PASSWORD = "CHANGEME";
 
+    public static final String LEGACY_ENCRYPTION_PROPERTY =
+            "org.apereo.portal.soffit.jwt.legacyEncryption";
+
+    public static final String ENCRYPTION_SALT_PROPERTY =
+            "org.apereo.portal.soffit.jwt.encryptionSalt";
+    public static final String DEFAULT_ENCRYPTION_SALT = "org.apereo.portal.soffit";
+
+    public static final String REUSE_SECONDS_PROPERTY = "org.apereo.portal.soffit.jwt.reuseSeconds";
+
+    public static final String REUSE_MAX_TOKENS_PROPERTY =
+            "org.apereo.portal.soffit.jwt.reuseMaxTokens";
+
+    /** Marks tokens encrypted with AES-GCM; Jasypt's Base64 output never contains ':' */
+    private static final String ENCRYPTED_TOKEN_PREFIX = "aesgcm:";
+
+    private static final String CIPHER_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH_BYTES = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    /*
+     * AES-128 avoids the JCE Unlimited Strength Policy Files (see below).
+     */
+    private static final int KEY_ITERATIONS = 65536;
+    private static final int KEY_LENGTH_BITS = 128;
+
+    /* Claims that differ between otherwise identical tokens */
+    private static final String[] VOLATILE_CLAIMS = {
+        Claims.EXPIRATION, Claims.ISSUED_AT, Claims.ID
+    };
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final ObjectMapper CLAIMS_MAPPER =
+            new ObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
     @Value("${" + SIGNATURE_KEY_PROPERTY + ":" + DEFAULT_SIGNATURE_KEY + "}")
@@ -52,6 +116,32 @@ public class AbstractJwtService {
     @Value("${" + ENCRYPTION_PASSWORD_PROPERTY + ":" + DEFAULT_ENCRYPTION_PASSWORD + "}")
     private String encryptionPassword;
 
+    @Value("${" + LEGACY_ENCRYPTION_PROPERTY + ":true}")
+    private boolean legacyEncryption = true;
+
+    /*
+     * Both ends of the transaction must derive the same AES key from the
+     * password, so the salt is configured like the password rather than
+     * generated.  The default is the same for every deployment;  it only keeps
+     * the key from being the bare password hash.  Each deployment's secret is
+     * the password, and a deployment may set its own salt on both ends to rule
+     * out keys precomputed for the default.
+     */
+    @Value("${" + ENCRYPTION_SALT_PROPERTY + ":" + DEFAULT_ENCRYPTION_SALT + "}")
+    private String encryptionSalt = DEFAULT_ENCRYPTION_SALT;
+
+    /** Zero or less disables token reuse */
+    @Value("${" + REUSE_SECONDS_PROPERTY + ":60}")
+    private long reuseSeconds = 60L;
+
+    @Value("${" + REUSE_MAX_TOKENS_PROPERTY + ":1000}")
+    private int reuseMaxTokens = 1000;
+
+    private SecretKey encryptionKey;
+
+    /* Least recently used reusable tokens, by reuse key */
+    private Map<String, IssuedToken> issuedTokens;
+
     /*
      * NOTE:  There is also a StrongTextEncryptor, but it requires each deployment
      * to download and install the "Java Cryptography Extension (JCE) Unlimited
@@ -85,6 +175,39 @@ public class AbstractJwtService {
                     ENCRYPTION_PASSWORD_PROPERTY);
         }
         textEncryptor.setPassword(encryptionPassword);
+
+        // Encryption Salt
+        if (StringUtils.isBlank(encryptionSalt)) {
+            logger.error("The value of required property {} is blank", ENCRYPTION_SALT_PROPERTY);
+            throw new IllegalStateException("Missing property " + ENCRYPTION_SALT_PROPERTY);
+        }
+
+        try {
+            final SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+            final PBEKeySpec spec =
+                    new PBEKeySpec(
+                            encryptionPassword.toCharArray(),
+                            encryptionSalt.getBytes(StandardCharsets.UTF_8),
+                            KEY_ITERATIONS,
+                            KEY_LENGTH_BITS);
+            encryptionKey = new SecretKeySpec(factory.generateSecret(spec).getEncoded(), "AES");
+            spec.clearPassword();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to derive the Soffit encryption key", e);
+        }
+
+        final int maxTokens = reuseMaxTokens;
+        issuedTokens =
+                Collections.synchronizedMap(
+                        new LinkedHashMap<String, IssuedToken>(16, 0.75f, true) {
+                            private static final long serialVersionUID = 1L;
+
+                            @Override
+                            protected boolean removeEldestEntry(
+                                    Map.Entry<String, IssuedToken> eldest) {
+                                return size() > maxTokens;
+                            }
+                        });
     }
 
     protected Claims createClaims(
@@ -105,7 +228,29 @@ public class AbstractJwtService {
         return rslt;
     }
 
+    /** Issues a new token, with its own jti. */
     protected String generateEncryptedToken(Claims claims) {
+        return generateEncryptedToken(claims, false);
+    }
+
+    /**
+     * @param reusable True if a token with the same content that was issued recently may be
+     *     returned instead of a new one. The token returned never expires after the expiration in
+     *     the claims.
+     */
+    protected String generateEncryptedToken(Claims claims, boolean reusable) {
+
+        // Reuse?
+        final String reuseKey =
+                reusable && reuseSeconds > 0 && claims.getExpiration() != null
+                        ? getReuseKey(claims)
+                        : null;
+        if (reuseKey != null) {
+            final IssuedToken issued = issuedTokens.get(reuseKey);
+            if (issued != null && issued.isReusable(claims.getExpiration())) {
+                return issued.encryptedToken;
+            }
+        }
 
         final String jwt =
                 Jwts.builder()
@@ -114,7 +259,13 @@ public class AbstractJwtService {
                         .compact();
 
         // Encryption
-        final String rslt = textEncryptor.encrypt(jwt);
+        final String rslt = legacyEncryption ? textEncryptor.encrypt(jwt) : encrypt(jwt);
+
+        // A token is only reused for part of its lifetime
+        final long reuseUntil = System.currentTimeMillis() + reuseSeconds * 1000L;
+        if (reuseKey != null && reuseUntil < claims.getExpiration().getTime()) {
+            issuedTokens.put(reuseKey, new IssuedToken(rslt, claims.getExpiration(), reuseUntil));
+        }
 
         return rslt;
     }
@@ -123,7 +274,10 @@ public class AbstractJwtService {
             String encryptedToken, Class<? extends ITokenizable> clazz) {
 
         // Decryption
-        final String jwt = textEncryptor.decrypt(encryptedToken);
+        final String jwt =
+                encryptedToken.startsWith(ENCRYPTED_TOKEN_PREFIX)
+                        ? decrypt(encryptedToken)
+                        : textEncryptor.decrypt(encryptedToken);
 
         final Jws<Claims> rslt = Jwts.parser().setSigningKey(signatureKey).parseClaimsJws(jwt);
 
@@ -145,4 +299,85 @@ public class AbstractJwtService {
 
         return rslt;
     }
+
+    /*
+     * Implementation
+     */
+
+    private String encrypt(String jwt) {
+        try {
+            final byte[] iv = new byte[IV_LENGTH_BYTES];
+            RANDOM.nextBytes(iv);
+            final Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+            cipher.init(
+                    Cipher.ENCRYPT_MODE, encryptionKey, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+            final byte[] encrypted = cipher.doFinal(jwt.getBytes(StandardCharsets.UTF_8));
+            final ByteBuffer token = ByteBuffer.allocate(iv.length + encrypted.length);
+            token.put(iv).put(encrypted);
+            return ENCRYPTED_TOKEN_PREFIX
+                    + Base64.getUrlEncoder().withoutPadding().encodeToString(token.array());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to encrypt the token", e);
+        }
+    }
+
+    private String decrypt(String encryptedToken) {
+        try {
+            final byte[] token =
+                    Base64.getUrlDecoder()
+                            .decode(encryptedToken.substring(ENCRYPTED_TOKEN_PREFIX.length()));
+            final Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+            cipher.init(
+                    Cipher.DECRYPT_MODE,
+                    encryptionKey,
+                    new GCMParameterSpec(TAG_LENGTH_BITS, token, 0, IV_LENGTH_BYTES));
+            final byte[] decrypted =
+                    cipher.doFinal(token, IV_LENGTH_BYTES, token.length - IV_LENGTH_BYTES);
+            return new String(decrypted, StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new SecurityException("Failed to decrypt the specified token", e);
+        }
+    }
+
+    /**
+     * Tokens are interchangeable if they have the same class, subject and content claims.
+     *
+     * @return A digest of those, or null if the claims can't be serialized
+     */
+    private String getReuseKey(Claims claims) {
+        final Map<String, Object> content = new TreeMap<>(claims);
+        for (String name : VOLATILE_CLAIMS) {
+            content.remove(name);
+        }
+        try {
+            final byte[] digest =
+                    MessageDigest.getInstance("SHA-256")
+                            .digest(CLAIMS_MAPPER.writeValueAsBytes(content));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (JsonProcessingException | GeneralSecurityException e) {
+            logger.debug("Failed to compute a reuse key;  the token will not be reused", e);
+            return null;
+        }
+    }
+
+    /*
+     * Nested Types
+     */
+
+    private static final class IssuedToken {
+        private final String encryptedToken;
+        private final Date expires;
+        private final long reuseUntil;
+
+        private IssuedToken(String encryptedToken, Date expires, long reuseUntil) {
+            this.encryptedToken = encryptedToken;
+            this.expires = expires;
+            this.reuseUntil = reuseUntil;
+        }
+
+        /** Never extends a token beyond the requested expiration */
+        private boolean isReusable(Date requestedExpiration) {
+            return System.currentTimeMillis() < reuseUntil && !expires.after(requestedExpiration);
+        }
+    }
 }
@@ -61,7 +61,7 @@ public class BearerService extends AbstractJwtService {
         // Groups
         claims.put(JwtClaims.GROUPS.getName(), groups);
 
-        return new Bearer(generateEncryptedToken(claims), username, attributes, groups);
+        return new Bearer(generateEncryptedToken(claims, true), username, attributes, groups);
     }
 
     public Bearer parseBearerToken(String bearerToken) {
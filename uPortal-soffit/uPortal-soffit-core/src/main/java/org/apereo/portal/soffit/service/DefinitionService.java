@@ -57,7 +57,12 @@ public class DefinitionService extends AbstractJwtService {
         claims.put(JwtClaims.PARAMETERS.getName(), parameters);
 
         return new Definition(
-                generateEncryptedToken(claims), title, fname, description, categories, parameters);
+                generateEncryptedToken(claims, true),
+                title,
+                fname,
+                description,
+                categories,
+                parameters);
     }
 
     public Definition parseDefinition(String definitionToken) {
@@ -41,7 +41,7 @@ public class PreferencesService extends AbstractJwtService {
             claims.put(y.getKey(), y.getValue());
         }
 
-        return new Preferences(generateEncryptedToken(claims), preferencesMap);
+        return new Preferences(generateEncryptedToken(claims, true), preferencesMap);
     }
 
     public Preferences parsePreferences(String preferencesToken) {
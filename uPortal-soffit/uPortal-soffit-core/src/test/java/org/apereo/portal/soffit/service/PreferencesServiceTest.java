@@ -0,0 +1,193 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.soffit.service;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apereo.portal.soffit.model.v1_0.Preferences;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class PreferencesServiceTest {
+
+    private static final long HOUR = 60L * 60L * 1000L;
+
+    private PreferencesService preferencesService;
+    private Map<String, List<String>> preferencesMap;
+
+    @Before
+    public void setUp() {
+        preferencesService = createService(false);
+        preferencesMap = new HashMap<>();
+        preferencesMap.put("color", Arrays.asList("red", "blue"));
+        preferencesMap.put("size", Collections.singletonList("large"));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        final Preferences preferences =
+                preferencesService.createPreferences(preferencesMap, "student", inOneHour());
+        assertTrue(preferences.getEncryptedToken().startsWith("aesgcm:"));
+
+        final Preferences parsed =
+                preferencesService.parsePreferences(preferences.getEncryptedToken());
+        assertEquals(preferencesMap, parsed.getPreferencesMap());
+    }
+
+    @Test
+    public void testLegacyTokensStillParse() {
+        final PreferencesService legacyService = createService(true);
+        final Preferences preferences =
+                legacyService.createPreferences(preferencesMap, "student", inOneHour());
+        assertFalse(preferences.getEncryptedToken().startsWith("aesgcm:"));
+
+        final Preferences parsed =
+                preferencesService.parsePreferences(preferences.getEncryptedToken());
+        assertEquals(preferencesMap, parsed.getPreferencesMap());
+    }
+
+    @Test
+    public void testLegacyEncryptionByDefault() {
+        final PreferencesService defaultService = new PreferencesService();
+        ReflectionTestUtils.setField(defaultService, "signatureKey", "signature-key");
+        ReflectionTestUtils.setField(defaultService, "encryptionPassword", "encryption-password");
+        defaultService.init();
+
+        final Preferences preferences =
+                defaultService.createPreferences(preferencesMap, "student", inOneHour());
+        assertFalse(preferences.getEncryptedToken().startsWith("aesgcm:"));
+    }
+
+    @Test
+    public void testTokensReused() {
+        final Preferences first =
+                preferencesService.createPreferences(preferencesMap, "student", inOneHour());
+        final Preferences second =
+                preferencesService.createPreferences(preferencesMap, "student", inOneHour());
+        assertEquals(first.getEncryptedToken(), second.getEncryptedToken());
+
+        // Different content gets its own token
+        final Preferences other =
+                preferencesService.createPreferences(preferencesMap, "faculty", inOneHour());
+        assertNotEquals(first.getEncryptedToken(), other.getEncryptedToken());
+    }
+
+    @Test
+    public void testNoReuseBeyondReuseWindow() {
+        // Expires before the 60 second reuse window ends
+        final Date soon = new Date(System.currentTimeMillis() + 30000L);
+        final Preferences first =
+                preferencesService.createPreferences(preferencesMap, "student", soon);
+        final Preferences second =
+                preferencesService.createPreferences(preferencesMap, "student", soon);
+        assertNotEquals(getId(first), getId(second));
+
+        // Never reused past the requested expiration
+        final Preferences longLived =
+                preferencesService.createPreferences(preferencesMap, "student", inOneHour());
+        final Preferences shortLived =
+                preferencesService.createPreferences(
+                        preferencesMap, "student", new Date(System.currentTimeMillis() + HOUR / 2));
+        assertNotEquals(getId(longLived), getId(shortLived));
+    }
+
+    @Test
+    public void testReuseBounded() {
+        ReflectionTestUtils.setField(preferencesService, "reuseMaxTokens", 1);
+        preferencesService.init();
+
+        final Preferences first =
+                preferencesService.createPreferences(preferencesMap, "student", inOneHour());
+        preferencesService.createPreferences(preferencesMap, "faculty", inOneHour());
+        final Preferences again =
+                preferencesService.createPreferences(preferencesMap, "student", inOneHour());
+        assertNotEquals(getId(first), getId(again));
+    }
+
+    @Test
+    public void testFreshTokenNotReused() {
+        final Date expires = inOneHour();
+        final String first =
+                preferencesService.generateEncryptedToken(
+                        preferencesService.createClaims(Preferences.class, "student", expires));
+        final String second =
+                preferencesService.generateEncryptedToken(
+                        preferencesService.createClaims(Preferences.class, "student", expires));
+
+        // Each token has its own jti
+        final String firstId =
+                preferencesService
+                        .parseEncrypteToken(first, Preferences.class)
+                        .getBody()
+                        .getId();
+        final String secondId =
+                preferencesService
+                        .parseEncrypteToken(second, Preferences.class)
+                        .getBody()
+                        .getId();
+        assertNotEquals(firstId, secondId);
+    }
+
+    @Test(expected = SecurityException.class)
+    public void testSaltMismatch() {
+        final PreferencesService otherSalt = createService(false);
+        ReflectionTestUtils.setField(otherSalt, "encryptionSalt", "other-salt");
+        otherSalt.init();
+
+        final Preferences preferences =
+                preferencesService.createPreferences(preferencesMap, "student", inOneHour());
+        otherSalt.parsePreferences(preferences.getEncryptedToken());
+    }
+
+    @Test(expected = SecurityException.class)
+    public void testTamperedToken() {
+        final String token =
+                preferencesService
+                        .createPreferences(preferencesMap, "student", inOneHour())
+                        .getEncryptedToken();
+        final int middle = token.length() / 2;
+        final char c = token.charAt(middle);
+        final String tampered =
+                token.substring(0, middle) + (c == 'A' ? 'B' : 'A') + token.substring(middle + 1);
+        preferencesService.parsePreferences(tampered);
+    }
+
+    private static PreferencesService createService(boolean legacyEncryption) {
+        final PreferencesService rslt = new PreferencesService();
+        ReflectionTestUtils.setField(rslt, "signatureKey", "signature-key");
+        ReflectionTestUtils.setField(rslt, "encryptionPassword", "encryption-password");
+        ReflectionTestUtils.setField(rslt, "legacyEncryption", legacyEncryption);
+        rslt.init();
+        return rslt;
+    }
+
+    private String getId(Preferences preferences) {
+        return preferencesService
+                .parseEncrypteToken(preferences.getEncryptedToken(), Preferences.class)
+                .getBody()
+                .getId();
+    }
+
+    private static Date inOneHour() {
+        return new Date(System.currentTimeMillis() + HOUR);
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.xml.stream;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Bounded hand-off of {@link XMLEvent}s between a producing thread and a consuming thread. The
+ * producer writes to {@link #getEventWriter()} and calls {@link XMLEventWriter#close()} when done
+ * or {@link #fail(Throwable)} if it could not finish, the consumer reads from {@link
+ * #getEventReader()}. Writes block while the buffer is full and reads block while it is empty, in
+ * both cases for at most the configured timeout. {@link #offer(XMLEvent)} and {@link
+ * #awaitEvent(long, TimeUnit)} let a thread that must not block on one side poll it instead.
+ *
+ * <p>Either side can give up on the hand-off with {@link #close()}, which releases the other side
+ * immediately instead of leaving it blocked until the timeout.
+ */
+public class BlockingXMLEventBuffer {
+    /** Marks the end of the event stream in the queue */
+    private static final Object END_OF_EVENTS = new Object();
+
+    private final BlockingQueue<Object> queue;
+    private final long timeout;
+    private final TimeUnit timeUnit;
+    private final XMLEventWriter eventWriter = new BlockingEventWriter();
+    private final XMLEventReader eventReader = new BlockingEventReader();
+
+    private volatile Throwable failure;
+    private volatile boolean closed = false;
+
+    /**
+     * @param capacity Maximum number of events buffered before the writer blocks
+     * @param timeout Maximum time to block on a full or empty buffer
+     * @param timeUnit Unit of the timeout
+     */
+    public BlockingXMLEventBuffer(int capacity, long timeout, TimeUnit timeUnit) {
+        this.queue = new ArrayBlockingQueue<Object>(capacity);
+        this.timeout = timeout;
+        this.timeUnit = timeUnit;
+    }
+
+    /** @return The producer side of the buffer */
+    public XMLEventWriter getEventWriter() {
+        return this.eventWriter;
+    }
+
+    /** @return The consumer side of the buffer */
+    public XMLEventReader getEventReader() {
+        return this.eventReader;
+    }
+
+    /**
+     * Ends the event stream due to an error in the producer. Any events still buffered are
+     * discarded and the next read throws an exception wrapping the failure.
+     */
+    public void fail(Throwable failure) {
+        this.failure = failure;
+        this.endEvents();
+    }
+
+    /**
+     * Abandons the hand-off. Buffered events are discarded, a blocked or later read fails and a
+     * blocked or later write fails.
+     */
+    public void close() {
+        this.closed = true;
+        if (this.failure == null) {
+            this.failure = new IllegalStateException("Event buffer was closed");
+        }
+        this.endEvents();
+    }
+
+    /**
+     * Buffer the event without blocking, for a producer that must not wait on the consumer.
+     *
+     * @return false if the buffer is full
+     * @throws XMLStreamException if the buffer was closed
+     */
+    public boolean offer(XMLEvent event) throws XMLStreamException {
+        this.checkOpen();
+        return this.queue.offer(event);
+    }
+
+    /**
+     * End the event stream without blocking, the non-blocking version of closing the writer.
+     *
+     * @return false if the buffer is full
+     * @throws XMLStreamException if the buffer was closed
+     */
+    public boolean offerEnd() throws XMLStreamException {
+        this.checkOpen();
+        return this.queue.offer(END_OF_EVENTS);
+    }
+
+    /**
+     * Wait for the next event or the end of the events to be available to the reader.
+     *
+     * @return true if the next read from the reader will not block
+     */
+    public boolean awaitEvent(long timeout, TimeUnit timeUnit) throws XMLStreamException {
+        return ((BlockingEventReader) this.eventReader).poll(timeout, timeUnit);
+    }
+
+    private void checkOpen() throws XMLStreamException {
+        if (this.closed) {
+            throw new XMLStreamException("Event buffer was closed before all events were read");
+        }
+    }
+
+    /** Replace any buffered events with the end marker, releasing a blocked reader or writer */
+    private void endEvents() {
+        do {
+            this.queue.clear();
+        } while (!this.queue.offer(END_OF_EVENTS));
+    }
+
+    private class BlockingEventWriter implements XMLEventWriter {
+        private NamespaceContext namespaceContext;
+
+        @Override
+        public void add(XMLEvent event) throws XMLStreamException {
+            this.put(event);
+        }
+
+        @Override
+        public void add(XMLEventReader reader) throws XMLStreamException {
+            while (reader.hasNext()) {
+                this.put(reader.nextEvent());
+            }
+        }
+
+        @Override
+        public void flush() throws XMLStreamException {}
+
+        @Override
+        public void close() throws XMLStreamException {
+            this.put(END_OF_EVENTS);
+        }
+
+        private void put(Object event) throws XMLStreamException {
+            checkOpen();
+
+            final boolean added;
+            try {
+                added = queue.offer(event, timeout, timeUnit);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XMLStreamException("Interrupted while waiting to buffer event", e);
+            }
+
+            if (!added) {
+                throw new XMLStreamException(
+                        "Timed out after " + timeout + " " + timeUnit + " waiting to buffer event");
+            }
+
+            // Closed while waiting, the event may have taken the place of the end marker
+            checkOpen();
+        }
+
+        @Override
+        public String getPrefix(String uri) throws XMLStreamException {
+            return null;
+        }
+
+        @Override
+        public void setPrefix(String prefix, String uri) throws XMLStreamException {}
+
+        @Override
+        public void setDefaultNamespace(String uri) throws XMLStreamException {}
+
+        @Override
+        public void setNamespaceContext(NamespaceContext context) throws XMLStreamException {
+            this.namespaceContext = context;
+        }
+
+        @Override
+        public NamespaceContext getNamespaceContext() {
+            return this.namespaceContext;
+        }
+    }
+
+    private class BlockingEventReader extends BaseXMLEventReader {
+        private XMLEvent peekedEvent;
+        private boolean endOfEvents = false;
+        private boolean completed = false;
+
+        public BlockingEventReader() {
+            // Events come from the queue, there is no parent reader to delegate to
+            super(null);
+        }
+
+        @Override
+        protected XMLEvent internalNextEvent() throws XMLStreamException {
+            final XMLEvent event = this.peek();
+            if (event == null) {
+                throw new NoSuchElementException();
+            }
+
+            this.peekedEvent = null;
+            return event;
+        }
+
+        @Override
+        public XMLEvent peek() throws XMLStreamException {
+            if (!this.poll(timeout, timeUnit)) {
+                throw new XMLStreamException(
+                        "Timed out after " + timeout + " " + timeUnit + " waiting for next event");
+            }
+
+            if (this.endOfEvents) {
+                // A failure or close after all events were read is not an error
+                final Throwable cause = failure;
+                if (cause != null && !this.completed) {
+                    throw new XMLStreamException("Event producer failed", cause);
+                }
+                this.completed = true;
+                return null;
+            }
+
+            return this.peekedEvent;
+        }
+
+        /** @return true if the next event or the end of the events was taken from the queue */
+        private boolean poll(long pollTimeout, TimeUnit pollTimeUnit) throws XMLStreamException {
+            if (this.peekedEvent != null || this.endOfEvents) {
+                return true;
+            }
+
+            final Object event;
+            try {
+                event = queue.poll(pollTimeout, pollTimeUnit);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XMLStreamException("Interrupted while waiting for next event", e);
+            }
+
+            if (event == null) {
+                return false;
+            }
+            if (event == END_OF_EVENTS) {
+                this.endOfEvents = true;
+            } else {
+                this.peekedEvent = (XMLEvent) event;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                return this.peek() != null;
+            } catch (XMLStreamException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            // Unblock a producer waiting on a full buffer, its next write will fail
+            BlockingXMLEventBuffer.this.close();
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return null;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
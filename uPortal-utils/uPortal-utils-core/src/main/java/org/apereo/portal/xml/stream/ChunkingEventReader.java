@@ -20,7 +20,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.regex.MatchResult;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.servlet.http.HttpServletRequest;
 import javax.xml.namespace.QName;
@@ -47,6 +46,7 @@ public class ChunkingEventReader extends BaseXMLEventReader {
     private final Map<String, CharacterEventSource> chunkingElements;
     private final Map<Pattern, CharacterEventSource> chunkingPatternEventSources;
     private final Pattern[] chunkingPatterns;
+    private final ChunkingPatternScanner chunkingPatternScanner;
     private final XMLEventWriter xmlEventWriter;
     private final StringWriter writer;
     private boolean removeXmlDeclaration = true;
@@ -65,12 +65,35 @@ public class ChunkingEventReader extends BaseXMLEventReader {
             XMLEventReader xmlEventReader,
             XMLEventWriter xmlEventWriter,
             StringWriter writer) {
+        this(
+                request,
+                chunkingElements,
+                chunkingPatternEventSources,
+                new ChunkingPatternScanner(chunkingPatterns),
+                xmlEventReader,
+                xmlEventWriter,
+                writer);
+    }
+
+    /**
+     * @param chunkingPatternScanner Scanner for the patterns in chunkingPatternEventSources, it is
+     *     immutable and should be shared across readers
+     */
+    public ChunkingEventReader(
+            HttpServletRequest request,
+            Map<String, CharacterEventSource> chunkingElements,
+            Map<Pattern, CharacterEventSource> chunkingPatternEventSources,
+            ChunkingPatternScanner chunkingPatternScanner,
+            XMLEventReader xmlEventReader,
+            XMLEventWriter xmlEventWriter,
+            StringWriter writer) {
         super(xmlEventReader);
 
         this.request = request;
         this.chunkingElements = chunkingElements;
         this.chunkingPatternEventSources = chunkingPatternEventSources;
-        this.chunkingPatterns = chunkingPatterns;
+        this.chunkingPatterns = chunkingPatternScanner.getPatterns();
+        this.chunkingPatternScanner = chunkingPatternScanner;
         this.xmlEventWriter = xmlEventWriter;
         this.writer = writer;
     }
@@ -174,7 +197,7 @@ public class ChunkingEventReader extends BaseXMLEventReader {
         this.xmlEventWriter.flush();
 
         // Add character chunk to events
-        this.chunkString(this.characterEvents, this.writer.toString(), 0);
+        this.chunkString(this.characterEvents, this.writer.toString());
 
         this.clearWriter();
     }
@@ -187,54 +210,26 @@ public class ChunkingEventReader extends BaseXMLEventReader {
 
     /**
      * Breaks up the String into a List of CharacterEvents based on the configured Map of Patterns
-     * to CharacterEventSources
+     * to CharacterEventSources. All patterns are matched in a single pass over the buffer.
      */
     protected void chunkString(
-            final List<CharacterEvent> characterEvents,
-            final CharSequence buffer,
-            int patternIndex) {
-        // Iterate over the chunking patterns
-        for (; patternIndex < this.chunkingPatterns.length; patternIndex++) {
-            final Pattern pattern = this.chunkingPatterns[patternIndex];
-
-            final Matcher matcher = pattern.matcher(buffer);
-            if (matcher.find()) {
-                final CharacterEventSource eventSource =
-                        this.chunkingPatternEventSources.get(pattern);
-                int prevMatchEnd = 0;
-
-                do {
-                    // Add all of the text up to the match as a new chunk, use subSequence to avoid
-                    // extra string alloc
-                    this.chunkString(
-                            characterEvents,
-                            buffer.subSequence(prevMatchEnd, matcher.start()),
-                            patternIndex + 1);
-
-                    // Get the generated CharacterEvents for the match
-                    final MatchResult matchResult = matcher.toMatchResult();
-                    eventSource.generateCharacterEvents(this.request, matchResult, characterEvents);
-
-                    prevMatchEnd = matcher.end();
-                } while (matcher.find());
-
-                // Add any remaining text from the original CharacterDataEvent
-                if (prevMatchEnd < buffer.length()) {
-                    this.chunkString(
-                            characterEvents,
-                            buffer.subSequence(prevMatchEnd, buffer.length()),
-                            patternIndex + 1);
-                }
-
-                return;
-            }
-        }
-
-        // Buffer didn't match anything, just append the string data
-
-        // de-duplication of the event string data
-        final String eventString = buffer.toString();
-        characterEvents.add(CharacterDataEventImpl.create(eventString));
+            final List<CharacterEvent> characterEvents, final CharSequence buffer) {
+        this.chunkingPatternScanner.scan(
+                buffer,
+                new ChunkingPatternScanner.ScanHandler() {
+                    @Override
+                    public void handleText(CharSequence text) {
+                        characterEvents.add(CharacterDataEventImpl.create(text.toString()));
+                    }
+
+                    @Override
+                    public void handleMatch(int patternIndex, MatchResult matchResult) {
+                        // Get the generated CharacterEvents for the match
+                        final CharacterEventSource eventSource =
+                                chunkingPatternEventSources.get(chunkingPatterns[patternIndex]);
+                        eventSource.generateCharacterEvents(request, matchResult, characterEvents);
+                    }
+                });
     }
 
     @Override
@@ -0,0 +1,395 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.xml.stream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the matches of a set of {@link Pattern}s in a single left to right pass over a character
+ * buffer.
+ *
+ * <p>The literal prefix of each pattern (for example <code>{up-portlet-title(</code> for <code>
+ * \{up-portlet-title\(([^\)]+)\)\}</code>) is compiled into an Aho-Corasick automaton. The
+ * automaton locates candidate positions for all patterns at once and the full pattern is only
+ * evaluated at those positions. Patterns that do not start with a literal, or that use flags or
+ * alternation, are searched with {@link Matcher#find(int)} as the scan progresses.
+ *
+ * <p>Matches never overlap. When matches of several patterns overlap the one starting first wins,
+ * if they start at the same position the pattern given first wins.
+ *
+ * <p>Instances are immutable and thread-safe.
+ */
+public class ChunkingPatternScanner {
+    /** Callback for the text and matches found by {@link ChunkingPatternScanner#scan} */
+    public interface ScanHandler {
+        /** Text between matches, never empty unless no pattern matched an empty buffer */
+        void handleText(CharSequence text);
+
+        /** A match of the pattern at the specified index */
+        void handleMatch(int patternIndex, MatchResult matchResult);
+    }
+
+    private static final String REGEX_META_CHARACTERS = "[](){}.*+?^$|";
+    private static final String REGEX_QUANTIFIERS = "*+?{";
+    private static final int[] NO_OUTPUTS = new int[0];
+
+    private final Pattern[] patterns;
+    private final int[] prefixLengths;
+    private final int[] fallbackPatternIndexes;
+    private final int maxPrefixLength;
+
+    // Trie of the literal prefixes, the transitions of each state are stored as parallel arrays
+    private final char[][] transitionChars;
+    private final int[][] transitionStates;
+    private final int[] failureStates;
+    private final int[][] outputs;
+
+    // Dense transition table built from the trie and failure links, indexed by state and the class
+    // of the input character. Class 0 is every character that does not appear in any prefix.
+    private final char[] alphabet;
+    private final int[] asciiCharClasses = new int[128];
+    private final int[] stateTransitions;
+
+    // If all prefixes start with the same character, used to skip ahead while in the root state
+    private final int firstChar;
+
+    public ChunkingPatternScanner(Pattern... patterns) {
+        this.patterns = patterns.clone();
+        this.prefixLengths = new int[patterns.length];
+
+        final List<char[]> transitionCharList = new ArrayList<char[]>();
+        final List<int[]> transitionStateList = new ArrayList<int[]>();
+        final List<int[]> outputList = new ArrayList<int[]>();
+        transitionCharList.add(new char[0]);
+        transitionStateList.add(new int[0]);
+        outputList.add(NO_OUTPUTS);
+
+        // Build the trie of literal prefixes
+        final List<Integer> fallbackIndexList = new ArrayList<Integer>();
+        int maxLength = 0;
+        for (int patternIndex = 0; patternIndex < patterns.length; patternIndex++) {
+            final String prefix = getLiteralPrefix(patterns[patternIndex]);
+            this.prefixLengths[patternIndex] = prefix.length();
+            if (prefix.isEmpty()) {
+                fallbackIndexList.add(patternIndex);
+                continue;
+            }
+            maxLength = Math.max(maxLength, prefix.length());
+
+            int state = 0;
+            for (int i = 0; i < prefix.length(); i++) {
+                final char c = prefix.charAt(i);
+                int next = findTransition(transitionCharList.get(state), c);
+                if (next < 0) {
+                    final int newState = transitionCharList.size();
+                    transitionCharList.add(new char[0]);
+                    transitionStateList.add(new int[0]);
+                    outputList.add(NO_OUTPUTS);
+
+                    final char[] chars = transitionCharList.get(state);
+                    final int[] states = transitionStateList.get(state);
+                    final char[] newChars = Arrays.copyOf(chars, chars.length + 1);
+                    final int[] newStates = Arrays.copyOf(states, states.length + 1);
+                    newChars[chars.length] = c;
+                    newStates[states.length] = newState;
+                    transitionCharList.set(state, newChars);
+                    transitionStateList.set(state, newStates);
+                    state = newState;
+                } else {
+                    state = transitionStateList.get(state)[next];
+                }
+            }
+            outputList.set(state, appendOutput(outputList.get(state), patternIndex));
+        }
+
+        this.maxPrefixLength = maxLength;
+        this.fallbackPatternIndexes = new int[fallbackIndexList.size()];
+        for (int i = 0; i < this.fallbackPatternIndexes.length; i++) {
+            this.fallbackPatternIndexes[i] = fallbackIndexList.get(i);
+        }
+
+        this.transitionChars = transitionCharList.toArray(new char[0][]);
+        this.transitionStates = transitionStateList.toArray(new int[0][]);
+        this.outputs = outputList.toArray(new int[0][]);
+        this.failureStates = new int[this.transitionChars.length];
+
+        // Breadth first computation of failure links, merging the outputs of the failure state
+        final Queue<Integer> queue = new LinkedList<Integer>();
+        for (final int child : this.transitionStates[0]) {
+            this.failureStates[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.remove();
+            final char[] chars = this.transitionChars[state];
+            final int[] states = this.transitionStates[state];
+            for (int i = 0; i < chars.length; i++) {
+                final int child = states[i];
+                final int failure = this.nextState(this.failureStates[state], chars[i]);
+                this.failureStates[child] = failure;
+                for (final int output : this.outputs[failure]) {
+                    this.outputs[child] = appendOutput(this.outputs[child], output);
+                }
+                queue.add(child);
+            }
+        }
+
+        final StringBuilder alphabetBuilder = new StringBuilder();
+        for (final char[] chars : this.transitionChars) {
+            for (final char c : chars) {
+                if (alphabetBuilder.indexOf(String.valueOf(c)) < 0) {
+                    alphabetBuilder.append(c);
+                }
+            }
+        }
+        this.alphabet = alphabetBuilder.toString().toCharArray();
+        Arrays.sort(this.alphabet);
+        for (int i = 0; i < this.alphabet.length; i++) {
+            if (this.alphabet[i] < this.asciiCharClasses.length) {
+                this.asciiCharClasses[this.alphabet[i]] = i + 1;
+            }
+        }
+
+        this.firstChar = this.transitionChars[0].length == 1 ? this.transitionChars[0][0] : -1;
+
+        final int width = this.alphabet.length + 1;
+        this.stateTransitions = new int[this.transitionChars.length * width];
+        for (int state = 0; state < this.transitionChars.length; state++) {
+            for (int i = 0; i < this.alphabet.length; i++) {
+                this.stateTransitions[state * width + i + 1] =
+                        this.nextState(state, this.alphabet[i]);
+            }
+        }
+    }
+
+    /** @return The patterns searched for, in priority order */
+    public Pattern[] getPatterns() {
+        return this.patterns.clone();
+    }
+
+    /**
+     * Scan the buffer, calling the handler for the text between matches and for each match in the
+     * order they appear in the buffer.
+     */
+    public void scan(CharSequence buffer, ScanHandler handler) {
+        final int length = buffer.length();
+        final Matcher[] matchers = new Matcher[this.patterns.length];
+
+        // Start of the next match of each fallback pattern, -2 if not yet searched, -1 if none
+        final int[] fallbackStarts = new int[this.patterns.length];
+        Arrays.fill(fallbackStarts, -2);
+
+        boolean matched = false;
+        int position = 0;
+        while (position < length) {
+            Matcher bestMatcher = null;
+            int bestIndex = -1;
+            int bestStart = Integer.MAX_VALUE;
+
+            // Next match of patterns that have no literal prefix
+            for (final int patternIndex : this.fallbackPatternIndexes) {
+                if (fallbackStarts[patternIndex] == -1) {
+                    continue;
+                }
+
+                Matcher matcher = matchers[patternIndex];
+                if (matcher == null) {
+                    matcher = this.patterns[patternIndex].matcher(buffer);
+                    matchers[patternIndex] = matcher;
+                }
+                if (fallbackStarts[patternIndex] < position) {
+                    fallbackStarts[patternIndex] = findNonEmpty(matcher, position);
+                }
+
+                final int start = fallbackStarts[patternIndex];
+                if (start >= 0 && start < bestStart) {
+                    bestMatcher = matcher;
+                    bestIndex = patternIndex;
+                    bestStart = start;
+                }
+            }
+
+            // Candidates from the literal prefixes, only needed up to the best match so far
+            final int width = this.alphabet.length + 1;
+            int state = 0;
+            for (int i = position; i < length; i++) {
+                if (state == 0 && this.firstChar >= 0 && buffer instanceof String) {
+                    i = ((String) buffer).indexOf(this.firstChar, i);
+                    if (i < 0) {
+                        break;
+                    }
+                }
+                if (i - this.maxPrefixLength + 1 > bestStart) {
+                    break;
+                }
+
+                state = this.stateTransitions[state * width + this.getCharClass(buffer.charAt(i))];
+                if (this.outputs[state].length == 0) {
+                    continue;
+                }
+                for (final int patternIndex : this.outputs[state]) {
+                    final int start = i - this.prefixLengths[patternIndex] + 1;
+                    if (start > bestStart
+                            || (start == bestStart && patternIndex > bestIndex)
+                            || patternIndex == bestIndex) {
+                        continue;
+                    }
+
+                    Matcher matcher = matchers[patternIndex];
+                    if (matcher == null) {
+                        matcher = this.patterns[patternIndex].matcher(buffer);
+                        matcher.useTransparentBounds(true);
+                        matcher.useAnchoringBounds(false);
+                        matchers[patternIndex] = matcher;
+                    }
+                    matcher.region(start, length);
+                    if (matcher.lookingAt()) {
+                        bestMatcher = matcher;
+                        bestIndex = patternIndex;
+                        bestStart = start;
+                    }
+                }
+            }
+
+            if (bestMatcher == null) {
+                break;
+            }
+
+            if (bestStart > position) {
+                handler.handleText(buffer.subSequence(position, bestStart));
+            }
+            final MatchResult matchResult = bestMatcher.toMatchResult();
+            handler.handleMatch(bestIndex, matchResult);
+            matched = true;
+            position = matchResult.end();
+        }
+
+        if (!matched) {
+            handler.handleText(buffer);
+        } else if (position < length) {
+            handler.handleText(buffer.subSequence(position, length));
+        }
+    }
+
+    private int getCharClass(char c) {
+        if (c < this.asciiCharClasses.length) {
+            return this.asciiCharClasses[c];
+        }
+        final int index = Arrays.binarySearch(this.alphabet, c);
+        return index < 0 ? 0 : index + 1;
+    }
+
+    /** Transition function of the trie following failure links, used to build the table */
+    private int nextState(int state, char c) {
+        while (true) {
+            final int transition = findTransition(this.transitionChars[state], c);
+            if (transition >= 0) {
+                return this.transitionStates[state][transition];
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = this.failureStates[state];
+        }
+    }
+
+    private static int findTransition(char[] chars, char c) {
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] appendOutput(int[] outputs, int patternIndex) {
+        final int[] newOutputs = Arrays.copyOf(outputs, outputs.length + 1);
+        newOutputs[outputs.length] = patternIndex;
+        Arrays.sort(newOutputs);
+        return newOutputs;
+    }
+
+    /** Find the next non-empty match at or after from, returns its start or -1 if none */
+    private static int findNonEmpty(Matcher matcher, int from) {
+        final int length = matcher.regionEnd();
+        while (from <= length && matcher.find(from)) {
+            if (matcher.end() > matcher.start()) {
+                return matcher.start();
+            }
+            from = matcher.start() + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the literal text every match of the pattern must start with, returns an empty string if
+     * there is none or it cannot be determined safely.
+     */
+    static String getLiteralPrefix(Pattern pattern) {
+        if (pattern.flags() != 0) {
+            return "";
+        }
+
+        final String regex = pattern.pattern();
+
+        // Any alternation could allow matches that don't start with the prefix
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '|') {
+                return "";
+            }
+        }
+
+        final StringBuilder prefix = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            final char literal;
+            final int next;
+            if (c == '\\') {
+                if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    // Character classes, back references, quoting and the like
+                    break;
+                }
+                literal = regex.charAt(i + 1);
+                next = i + 2;
+            } else if (REGEX_META_CHARACTERS.indexOf(c) >= 0) {
+                break;
+            } else {
+                literal = c;
+                next = i + 1;
+            }
+
+            // A quantifier makes the literal optional or repeated
+            if (next < regex.length() && REGEX_QUANTIFIERS.indexOf(regex.charAt(next)) >= 0) {
+                break;
+            }
+
+            prefix.append(literal);
+            i = next;
+        }
+
+        return prefix.toString();
+    }
+}
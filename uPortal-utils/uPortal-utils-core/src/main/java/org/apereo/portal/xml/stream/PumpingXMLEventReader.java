@@ -0,0 +1,157 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.xml.stream;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Reads the output of a transform that runs on another thread while feeding the transform its input
+ * from the calling thread. Whenever no output is ready, events are moved from the source reader to
+ * the transform's input buffer, so the source reader is only ever read by the thread reading this
+ * reader. Components that produce the source events and rely on request thread state, such as the
+ * request itself or the bound persistence context, never run concurrently with the request thread.
+ *
+ * <p>Closing this reader closes both buffers, which releases the transform thread immediately.
+ */
+public class PumpingXMLEventReader extends BaseXMLEventReader {
+    /** How long to wait for output when the transform's input buffer is full */
+    private static final long OUTPUT_WAIT_MILLIS = 10;
+
+    private final XMLEventReader sourceReader;
+    private final BlockingXMLEventBuffer inputBuffer;
+    private final BlockingXMLEventBuffer outputBuffer;
+    private final long timeoutMillis;
+
+    private XMLEvent pendingInput;
+    private boolean sourceExhausted = false;
+    private boolean inputEnded = false;
+
+    /**
+     * @param sourceReader Events to feed to the transform, read on the calling thread
+     * @param inputBuffer The buffer the transform reads its input from
+     * @param outputBuffer The buffer the transform writes its output to
+     * @param timeout Maximum time to wait for output while the transform has all the input it can
+     *     take
+     * @param timeUnit Unit of the timeout
+     */
+    public PumpingXMLEventReader(
+            XMLEventReader sourceReader,
+            BlockingXMLEventBuffer inputBuffer,
+            BlockingXMLEventBuffer outputBuffer,
+            long timeout,
+            TimeUnit timeUnit) {
+        super(outputBuffer.getEventReader());
+        this.sourceReader = sourceReader;
+        this.inputBuffer = inputBuffer;
+        this.outputBuffer = outputBuffer;
+        this.timeoutMillis = timeUnit.toMillis(timeout);
+    }
+
+    @Override
+    protected XMLEvent internalNextEvent() throws XMLStreamException {
+        final XMLEvent event = this.peek();
+        if (event == null) {
+            throw new NoSuchElementException();
+        }
+        return this.getParent().nextEvent();
+    }
+
+    @Override
+    public XMLEvent peek() throws XMLStreamException {
+        long waited = 0;
+        while (!this.outputBuffer.awaitEvent(0, TimeUnit.MILLISECONDS)) {
+            final boolean pumped;
+            try {
+                pumped = this.pumpInput();
+            } catch (XMLStreamException e) {
+                // A failed transform closes its input, report the failure from its output instead
+                if (this.outputBuffer.awaitEvent(0, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+                throw e;
+            }
+            if (pumped) {
+                waited = 0;
+                continue;
+            }
+
+            // The transform has all the input it can take, give it time to produce output
+            if (this.outputBuffer.awaitEvent(OUTPUT_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                break;
+            }
+            waited += OUTPUT_WAIT_MILLIS;
+            if (waited >= this.timeoutMillis) {
+                throw new XMLStreamException(
+                        "Timed out after " + this.timeoutMillis + " ms waiting for next event");
+            }
+        }
+        return this.getParent().peek();
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            return this.peek() != null;
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.inputBuffer.close();
+        this.outputBuffer.close();
+    }
+
+    /** @return true if an event or the end of the events was handed to the transform */
+    private boolean pumpInput() throws XMLStreamException {
+        if (this.inputEnded) {
+            return false;
+        }
+
+        if (this.pendingInput == null && !this.sourceExhausted) {
+            if (this.sourceReader.hasNext()) {
+                this.pendingInput = this.sourceReader.nextEvent();
+            } else {
+                this.sourceExhausted = true;
+            }
+        }
+
+        if (this.pendingInput != null) {
+            if (!this.inputBuffer.offer(this.pendingInput)) {
+                return false;
+            }
+            this.pendingInput = null;
+            return true;
+        }
+
+        this.inputEnded = this.inputBuffer.offerEnd();
+        return this.inputEnded;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return null;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
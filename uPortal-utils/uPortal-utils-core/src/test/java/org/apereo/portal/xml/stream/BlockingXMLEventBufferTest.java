@@ -0,0 +1,138 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.xml.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+import org.junit.Test;
+
+public class BlockingXMLEventBufferTest {
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newFactory();
+
+    @Test
+    public void testEventsHandedOffBetweenThreads() throws Exception {
+        final BlockingXMLEventBuffer buffer = new BlockingXMLEventBuffer(2, 5, TimeUnit.SECONDS);
+
+        final Thread producer =
+                new Thread(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    final XMLEventWriter writer = buffer.getEventWriter();
+                                    writer.add(EVENT_FACTORY.createStartDocument());
+                                    for (int i = 0; i < 100; i++) {
+                                        writer.add(EVENT_FACTORY.createCharacters("c" + i));
+                                    }
+                                    writer.add(EVENT_FACTORY.createEndDocument());
+                                    writer.close();
+                                } catch (XMLStreamException e) {
+                                    buffer.fail(e);
+                                }
+                            }
+                        });
+        producer.start();
+
+        final XMLEventReader reader = buffer.getEventReader();
+        assertTrue(reader.nextEvent().isStartDocument());
+        for (int i = 0; i < 100; i++) {
+            final XMLEvent event = reader.peek();
+            assertEquals("c" + i, event.asCharacters().getData());
+            assertEquals(event, reader.nextEvent());
+        }
+        assertTrue(reader.nextEvent().isEndDocument());
+        assertFalse(reader.hasNext());
+
+        producer.join();
+    }
+
+    @Test
+    public void testProducerFailure() throws Exception {
+        final BlockingXMLEventBuffer buffer = new BlockingXMLEventBuffer(10, 5, TimeUnit.SECONDS);
+        buffer.getEventWriter().add(EVENT_FACTORY.createStartDocument());
+        buffer.fail(new IllegalStateException("transform failed"));
+
+        try {
+            buffer.getEventReader().nextEvent();
+            fail("Producer failure should be rethrown by the reader");
+        } catch (XMLStreamException e) {
+            assertTrue(e.getNestedException() instanceof IllegalStateException);
+        }
+    }
+
+    @Test(expected = XMLStreamException.class)
+    public void testWriteAfterReaderClosed() throws Exception {
+        final BlockingXMLEventBuffer buffer = new BlockingXMLEventBuffer(10, 5, TimeUnit.SECONDS);
+        buffer.getEventReader().close();
+        buffer.getEventWriter().add(EVENT_FACTORY.createStartDocument());
+    }
+
+    @Test
+    public void testCloseReleasesBlockedWriter() throws Exception {
+        final BlockingXMLEventBuffer buffer = new BlockingXMLEventBuffer(1, 30, TimeUnit.SECONDS);
+        final XMLStreamException[] writeFailure = new XMLStreamException[1];
+        final Thread producer =
+                new Thread(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    final XMLEventWriter writer = buffer.getEventWriter();
+                                    for (int i = 0; i < 100; i++) {
+                                        writer.add(EVENT_FACTORY.createCharacters("c" + i));
+                                    }
+                                } catch (XMLStreamException e) {
+                                    writeFailure[0] = e;
+                                }
+                            }
+                        });
+        producer.start();
+
+        // The consumer abandons the buffer without reading, the producer must not wait 30 seconds
+        Thread.sleep(100);
+        buffer.close();
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertTrue(writeFailure[0] != null);
+    }
+
+    @Test
+    public void testNonBlockingOfferAndAwait() throws Exception {
+        final BlockingXMLEventBuffer buffer = new BlockingXMLEventBuffer(1, 5, TimeUnit.SECONDS);
+        assertFalse(buffer.awaitEvent(0, TimeUnit.MILLISECONDS));
+
+        assertTrue(buffer.offer(EVENT_FACTORY.createStartDocument()));
+        assertFalse(buffer.offer(EVENT_FACTORY.createEndDocument()));
+        assertTrue(buffer.awaitEvent(0, TimeUnit.MILLISECONDS));
+        assertTrue(buffer.getEventReader().nextEvent().isStartDocument());
+
+        assertTrue(buffer.offerEnd());
+        assertTrue(buffer.awaitEvent(0, TimeUnit.MILLISECONDS));
+        assertFalse(buffer.getEventReader().hasNext());
+
+        // Closing after all events were read is not a failure
+        buffer.close();
+        assertFalse(buffer.getEventReader().hasNext());
+    }
+}
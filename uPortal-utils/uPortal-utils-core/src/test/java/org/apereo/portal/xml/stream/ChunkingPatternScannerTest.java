@@ -0,0 +1,270 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.xml.stream;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class ChunkingPatternScannerTest {
+    private static final Pattern[] PLACEHOLDER_PATTERNS = {
+        Pattern.compile("\\{up-portlet-title\\(([^\\)]+)\\)\\}"),
+        Pattern.compile("\\{up-portlet-help\\(([^\\)]+)\\)\\}"),
+        Pattern.compile("\\{up-portlet-new-item-count\\(([^\\)]+)\\)\\}"),
+        Pattern.compile("\\{up-portlet-link\\(([^,]+),([^\\)]+)\\)\\}")
+    };
+
+    @Test
+    public void testLiteralPrefix() {
+        assertEquals(
+                "{up-portlet-title(",
+                ChunkingPatternScanner.getLiteralPrefix(PLACEHOLDER_PATTERNS[0]));
+        assertEquals(
+                "{up-portlet-link(",
+                ChunkingPatternScanner.getLiteralPrefix(PLACEHOLDER_PATTERNS[3]));
+        assertEquals("ab", ChunkingPatternScanner.getLiteralPrefix(Pattern.compile("abc?d")));
+        assertEquals("", ChunkingPatternScanner.getLiteralPrefix(Pattern.compile("\\d+abc")));
+        assertEquals("", ChunkingPatternScanner.getLiteralPrefix(Pattern.compile("abc|def")));
+        assertEquals(
+                "",
+                ChunkingPatternScanner.getLiteralPrefix(
+                        Pattern.compile("abc", Pattern.CASE_INSENSITIVE)));
+    }
+
+    @Test
+    public void testPlaceholders() {
+        final ChunkingPatternScanner scanner = new ChunkingPatternScanner(PLACEHOLDER_PATTERNS);
+        final List<String> chunks =
+                scan(
+                        scanner,
+                        "<h2>{up-portlet-title(u1l1n5)}</h2><a href=\"{up-portlet-help(u1l1n5)}\">"
+                                + "{up-portlet-link(u1l1n5,normal)}{up-portlet-new-item-count(u1l1n5)}"
+                                + "{up-portlet-unknown(u1l1n5)}</a>");
+
+        final List<String> expected = new ArrayList<String>();
+        expected.add("<h2>");
+        expected.add("0[u1l1n5]");
+        expected.add("</h2><a href=\"");
+        expected.add("1[u1l1n5]");
+        expected.add("\">");
+        expected.add("3[u1l1n5, normal]");
+        expected.add("2[u1l1n5]");
+        expected.add("{up-portlet-unknown(u1l1n5)}</a>");
+        assertEquals(expected, chunks);
+    }
+
+    @Test
+    public void testNoMatch() {
+        final ChunkingPatternScanner scanner = new ChunkingPatternScanner(PLACEHOLDER_PATTERNS);
+        assertEquals(
+                singleChunk("no placeholders {up-portlet"),
+                scan(scanner, "no placeholders {up-portlet"));
+        assertEquals(singleChunk(""), scan(scanner, ""));
+    }
+
+    @Test
+    public void testOverlappingPrefixes() {
+        final ChunkingPatternScanner scanner =
+                new ChunkingPatternScanner(
+                        Pattern.compile("bcd(\\d)"), Pattern.compile("abc(\\d)"));
+        final List<String> chunks = scan(scanner, "xabc1 bcd2 abcd3");
+
+        final List<String> expected = new ArrayList<String>();
+        expected.add("x");
+        expected.add("1[1]");
+        expected.add(" ");
+        expected.add("0[2]");
+        expected.add(" a");
+        expected.add("0[3]");
+        assertEquals(expected, chunks);
+    }
+
+    @Test
+    public void testFallbackPatterns() {
+        final ChunkingPatternScanner scanner =
+                new ChunkingPatternScanner(
+                        PLACEHOLDER_PATTERNS[0], Pattern.compile("[0-9]+"), Pattern.compile("x*"));
+        final List<String> chunks = scan(scanner, "a{up-portlet-title(t1)}b22c");
+
+        final List<String> expected = new ArrayList<String>();
+        expected.add("a");
+        expected.add("0[t1]");
+        expected.add("b");
+        expected.add("1[]");
+        expected.add("c");
+        assertEquals(expected, chunks);
+    }
+
+    @Test
+    public void testSameAsSequentialPatterns() {
+        final ChunkingPatternScanner scanner = new ChunkingPatternScanner(PLACEHOLDER_PATTERNS);
+        final String page = buildThemeOutput(30);
+
+        final List<String> expected = new ArrayList<String>();
+        sequentialChunk(expected, PLACEHOLDER_PATTERNS, page, 0);
+        assertEquals(expected, scan(scanner, page));
+    }
+
+    /**
+     * Compares the scanner with the previous pattern at a time approach, with the default patterns
+     * and with additional adopter patterns that do not occur in the page. Run manually.
+     */
+    @Ignore
+    @Test
+    public void benchmarkThemeOutput() {
+        final String page = buildThemeOutput(30);
+
+        final Pattern[] adopterPatterns = new Pattern[PLACEHOLDER_PATTERNS.length + 12];
+        System.arraycopy(PLACEHOLDER_PATTERNS, 0, adopterPatterns, 0, PLACEHOLDER_PATTERNS.length);
+        for (int i = PLACEHOLDER_PATTERNS.length; i < adopterPatterns.length; i++) {
+            adopterPatterns[i] = Pattern.compile("\\{up-adopter-" + i + "\\(([^\\)]+)\\)\\}");
+        }
+
+        for (final Pattern[] patterns : new Pattern[][] {PLACEHOLDER_PATTERNS, adopterPatterns}) {
+            final ChunkingPatternScanner scanner = new ChunkingPatternScanner(patterns);
+            for (int run = 0; run < 5; run++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < 2000; i++) {
+                    sequentialChunk(new ArrayList<String>(), patterns, page, 0);
+                }
+                final long sequentialTime = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < 2000; i++) {
+                    scan(scanner, page);
+                }
+                final long scannerTime = System.nanoTime() - start;
+
+                System.out.println(
+                        "patterns: "
+                                + patterns.length
+                                + ", page chars: "
+                                + page.length()
+                                + ", sequential patterns: "
+                                + sequentialTime / 2000
+                                + "ns/page, scanner: "
+                                + scannerTime / 2000
+                                + "ns/page");
+            }
+        }
+    }
+
+    private static List<String> singleChunk(String text) {
+        final List<String> chunks = new ArrayList<String>();
+        chunks.add(text);
+        return chunks;
+    }
+
+    private static List<String> scan(ChunkingPatternScanner scanner, CharSequence buffer) {
+        final List<String> chunks = new ArrayList<String>();
+        scanner.scan(
+                buffer,
+                new ChunkingPatternScanner.ScanHandler() {
+                    @Override
+                    public void handleText(CharSequence text) {
+                        chunks.add(text.toString());
+                    }
+
+                    @Override
+                    public void handleMatch(int patternIndex, MatchResult matchResult) {
+                        chunks.add(describeMatch(patternIndex, matchResult));
+                    }
+                });
+        return chunks;
+    }
+
+    private static String describeMatch(int patternIndex, MatchResult matchResult) {
+        final List<String> groups = new ArrayList<String>();
+        for (int group = 1; group <= matchResult.groupCount(); group++) {
+            groups.add(matchResult.group(group));
+        }
+        return patternIndex + "" + groups;
+    }
+
+    /** The chunking approach the scanner replaced, skipping empty text between matches */
+    private static void sequentialChunk(
+            List<String> chunks, Pattern[] patterns, CharSequence buffer, int patternIndex) {
+        for (; patternIndex < patterns.length; patternIndex++) {
+            final Matcher matcher = patterns[patternIndex].matcher(buffer);
+            if (matcher.find()) {
+                int prevMatchEnd = 0;
+                do {
+                    if (matcher.start() > prevMatchEnd) {
+                        sequentialChunk(
+                                chunks,
+                                patterns,
+                                buffer.subSequence(prevMatchEnd, matcher.start()),
+                                patternIndex + 1);
+                    }
+                    chunks.add(describeMatch(patternIndex, matcher.toMatchResult()));
+                    prevMatchEnd = matcher.end();
+                } while (matcher.find());
+
+                if (prevMatchEnd < buffer.length()) {
+                    sequentialChunk(
+                            chunks,
+                            patterns,
+                            buffer.subSequence(prevMatchEnd, buffer.length()),
+                            patternIndex + 1);
+                }
+                return;
+            }
+        }
+
+        chunks.add(buffer.toString());
+    }
+
+    /** Roughly the shape of the respondr theme output between two portlet content chunks */
+    private static String buildThemeOutput(int portlets) {
+        final StringBuilder page = new StringBuilder();
+        page.append("<!DOCTYPE html><html><head><title>uPortal</title>");
+        for (int i = 0; i < 40; i++) {
+            page.append(
+                            "<link rel=\"stylesheet\" type=\"text/css\" href=\"/ResourceServingWebapp/rs/")
+                    .append(i)
+                    .append("/style.css\" />");
+        }
+        page.append(
+                "</head><body class=\"up dashboard portal fl-theme-mist\"><div id=\"up-content\">");
+        for (int i = 0; i < portlets; i++) {
+            final String id = "u12l1n" + i;
+            page.append("<section id=\"portlet_")
+                    .append(id)
+                    .append("\" class=\"up-portlet-wrapper\"><div class=\"up-portlet-titlebar\">")
+                    .append("<h2><a href=\"{up-portlet-link(")
+                    .append(id)
+                    .append(",maximized)}\">{up-portlet-title(")
+                    .append(id)
+                    .append(")}</a><span class=\"badge\">{up-portlet-new-item-count(")
+                    .append(id)
+                    .append(")}</span></h2><ul class=\"dropdown-menu\">")
+                    .append("<li><a href=\"{up-portlet-help(")
+                    .append(id)
+                    .append(")}\"><span class=\"fa fa-question-circle\"></span> Help</a></li>")
+                    .append("<li><a href=\"/uPortal/f/u12l1s4/p/")
+                    .append(id)
+                    .append("/max/render.uP\">Maximize</a></li></ul></div>")
+                    .append("<div class=\"up-portlet-content-wrapper\"></div></section>");
+        }
+        page.append("</div><footer>Powered by uPortal</footer></body></html>");
+        return page.toString();
+    }
+}
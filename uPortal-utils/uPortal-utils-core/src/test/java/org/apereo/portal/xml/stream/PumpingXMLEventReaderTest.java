@@ -0,0 +1,137 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.xml.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.EventReaderDelegate;
+import org.junit.Test;
+
+public class PumpingXMLEventReaderTest {
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newFactory();
+
+    @Test
+    public void testSourceReadOnCallingThread() throws Exception {
+        final List<XMLEvent> events = new ArrayList<XMLEvent>();
+        events.add(EVENT_FACTORY.createStartDocument());
+        for (int i = 0; i < 100; i++) {
+            events.add(EVENT_FACTORY.createCharacters("c" + i));
+        }
+        events.add(EVENT_FACTORY.createEndDocument());
+
+        // Records the threads the source is read on
+        final Set<Thread> sourceThreads =
+                Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        final XMLEventReader sourceReader =
+                new EventReaderDelegate(new XMLEventBufferReader(events.listIterator())) {
+                    @Override
+                    public XMLEvent nextEvent() throws XMLStreamException {
+                        sourceThreads.add(Thread.currentThread());
+                        return super.nextEvent();
+                    }
+                };
+
+        final BlockingXMLEventBuffer inputBuffer = new BlockingXMLEventBuffer(2, 5, TimeUnit.SECONDS);
+        final BlockingXMLEventBuffer outputBuffer = new BlockingXMLEventBuffer(2, 5, TimeUnit.SECONDS);
+        final Thread transform = startCopy(inputBuffer, outputBuffer, null);
+
+        final PumpingXMLEventReader reader =
+                new PumpingXMLEventReader(
+                        sourceReader, inputBuffer, outputBuffer, 5, TimeUnit.SECONDS);
+        for (final XMLEvent expected : events) {
+            assertTrue(reader.hasNext());
+            assertEquals(expected, reader.nextEvent());
+        }
+        assertFalse(reader.hasNext());
+
+        transform.join(5000);
+        assertEquals(1, sourceThreads.size());
+        assertTrue(sourceThreads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void testCloseReleasesTransform() throws Exception {
+        final List<XMLEvent> events = new ArrayList<XMLEvent>();
+        for (int i = 0; i < 100; i++) {
+            events.add(EVENT_FACTORY.createCharacters("c" + i));
+        }
+
+        final BlockingXMLEventBuffer inputBuffer =
+                new BlockingXMLEventBuffer(2, 30, TimeUnit.SECONDS);
+        final BlockingXMLEventBuffer outputBuffer =
+                new BlockingXMLEventBuffer(2, 30, TimeUnit.SECONDS);
+        final CountDownLatch failed = new CountDownLatch(1);
+        final Thread transform = startCopy(inputBuffer, outputBuffer, failed);
+
+        final PumpingXMLEventReader reader =
+                new PumpingXMLEventReader(
+                        new XMLEventBufferReader(events.listIterator()),
+                        inputBuffer,
+                        outputBuffer,
+                        30,
+                        TimeUnit.SECONDS);
+        reader.nextEvent();
+
+        // The reader is abandoned part way, the transform must not wait for the 30 second timeout
+        reader.close();
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        transform.join(5000);
+        assertFalse(transform.isAlive());
+    }
+
+    /** Start a thread that copies the input buffer to the output buffer, like a transform */
+    private static Thread startCopy(
+            final BlockingXMLEventBuffer inputBuffer,
+            final BlockingXMLEventBuffer outputBuffer,
+            final CountDownLatch failed) {
+        final Thread thread =
+                new Thread(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    final XMLEventReader input = inputBuffer.getEventReader();
+                                    final XMLEventWriter output = outputBuffer.getEventWriter();
+                                    while (input.hasNext()) {
+                                        output.add(input.nextEvent());
+                                    }
+                                    output.close();
+                                } catch (RuntimeException | XMLStreamException e) {
+                                    outputBuffer.fail(e);
+                                    inputBuffer.close();
+                                    if (failed != null) {
+                                        failed.countDown();
+                                    }
+                                }
+                            }
+                        });
+        thread.start();
+        return thread;
+    }
+}
@@ -25,16 +25,22 @@ import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.JoinType;
 import javax.persistence.criteria.ParameterExpression;
 import javax.persistence.criteria.Root;
+import net.sf.ehcache.Ehcache;
 import org.apache.commons.lang.Validate;
 import org.apereo.portal.jpa.BasePortalJpaDao;
 import org.apereo.portal.jpa.OpenEntityManager;
 import org.apereo.portal.portlet.dao.IPortletDefinitionDao;
 import org.apereo.portal.portlet.om.IPortletDefinition;
 import org.apereo.portal.portlet.om.IPortletDefinitionId;
+import org.apereo.portal.portlet.registry.PortletDefinitionRegistryImpl;
 import org.apereo.portal.spring.tx.DialectAwareTransactional;
 import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /** JPA implementation of the portlet definition DAO */
 @Repository
@@ -45,6 +51,14 @@ public class JpaPortletDefinitionDao extends BasePortalJpaDao implements IPortle
     private CriteriaQuery<PortletDefinitionImpl> searchDefinitionByNameOrTitleQuery;
     private ParameterExpression<String> nameParameter;
     private ParameterExpression<String> titleParameter;
+    private Ehcache portletDefinitionSnapshotCache;
+
+    @Autowired
+    public void setPortletDefinitionSnapshotCache(
+            @Qualifier(PortletDefinitionRegistryImpl.SNAPSHOT_CACHE_NAME)
+                    Ehcache portletDefinitionSnapshotCache) {
+        this.portletDefinitionSnapshotCache = portletDefinitionSnapshotCache;
+    }
 
     @Override
     public void afterPropertiesSet() throws Exception {
@@ -244,6 +258,7 @@ public class JpaPortletDefinitionDao extends BasePortalJpaDao implements IPortle
         }
 
         entityManager.remove(persistentPortletDefinition);
+        this.invalidatePortletDefinitionSnapshot();
     }
 
     @Override
@@ -269,9 +284,28 @@ public class JpaPortletDefinitionDao extends BasePortalJpaDao implements IPortle
         Validate.notEmpty(portletDefinition.getName(), "portletDefinition name can not be null");
         Validate.notEmpty(portletDefinition.getTitle(), "portletDefinition title can not be null");
         this.getEntityManager().persist(portletDefinition);
+        this.invalidatePortletDefinitionSnapshot();
         return portletDefinition;
     }
 
+    /**
+     * Clears the snapshot of all definitions held by the registry, on every server. Clears it again
+     * once the transaction completes, in case a snapshot was built from the database before the
+     * change was committed.
+     */
+    protected void invalidatePortletDefinitionSnapshot() {
+        this.portletDefinitionSnapshotCache.removeAll();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                    new TransactionSynchronizationAdapter() {
+                        @Override
+                        public void afterCompletion(int status) {
+                            portletDefinitionSnapshotCache.removeAll();
+                        }
+                    });
+        }
+    }
+
     protected long getNativePortletDefinitionId(IPortletDefinitionId portletDefinitionId) {
         return Long.parseLong(portletDefinitionId.getStringId());
     }
@@ -15,10 +15,10 @@
 package org.apereo.portal.portlet.rendering;
 
 import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import java.io.Serializable;
 import java.io.StringReader;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.portlet.Event;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -39,11 +40,13 @@ import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
-import org.apache.commons.lang.StringUtils;
 import org.apache.pluto.container.PortletContainer;
 import org.apache.pluto.container.PortletContainerException;
 import org.apache.pluto.container.PortletWindow;
 import org.apache.pluto.container.driver.PortletContextService;
+import org.apache.pluto.container.driver.PortletRegistryEvent;
+import org.apache.pluto.container.driver.PortletRegistryListener;
+import org.apache.pluto.container.driver.PortletRegistryService;
 import org.apache.pluto.container.om.portlet.ContainerRuntimeOption;
 import org.apache.pluto.container.om.portlet.EventDefinition;
 import org.apache.pluto.container.om.portlet.EventDefinitionReference;
@@ -63,6 +66,7 @@ import org.apereo.portal.portlet.om.IPortletWindowId;
 import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
 import org.apereo.portal.portlet.registry.IPortletEntityRegistry;
 import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
+import org.apereo.portal.portlet.registry.PortletDefinitionSnapshot;
 import org.apereo.portal.security.IAuthorizationPrincipal;
 import org.apereo.portal.security.IPerson;
 import org.apereo.portal.services.AuthorizationServiceFacade;
@@ -106,11 +110,32 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
     private XmlUtilities xmlUtilities;
     private PortletContextService portletContextService;
 
+    /** Incremented when a portlet application is registered or removed */
+    private final AtomicLong portletApplicationsVersion = new AtomicLong();
+
+    private volatile PortletEventRoutingTable portletEventRoutingTable;
+
     @Autowired
     public void setPortletContextService(PortletContextService portletContextService) {
         this.portletContextService = portletContextService;
     }
 
+    @Autowired
+    public void setPortletRegistryService(PortletRegistryService portletRegistryService) {
+        portletRegistryService.addPortletRegistryListener(
+                new PortletRegistryListener() {
+                    @Override
+                    public void portletApplicationRegistered(PortletRegistryEvent event) {
+                        portletApplicationsVersion.incrementAndGet();
+                    }
+
+                    @Override
+                    public void portletApplicationRemoved(PortletRegistryEvent event) {
+                        portletApplicationsVersion.incrementAndGet();
+                    }
+                });
+    }
+
     @Autowired
     public void setXmlUtilities(XmlUtilities xmlUtilities) {
         this.xmlUtilities = xmlUtilities;
@@ -220,6 +245,8 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
         final Map<String, IPortletEntity> portletEntityCache =
                 new LinkedHashMap<String, IPortletEntity>();
 
+        final PortletEventRoutingTable routingTable = this.getPortletEventRoutingTable();
+
         while (!events.isEmpty()) {
             final QueuedEvent queuedEvent = events.poll();
             if (queuedEvent == null) {
@@ -232,11 +259,11 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
 
             final boolean globalEvent = isGlobalEvent(request, sourceWindowId, event);
 
+            // Only the definitions that process the event can be targeted by a global event
             final Set<IPortletDefinition> portletDefinitions =
                     new LinkedHashSet<IPortletDefinition>();
             if (globalEvent) {
-                portletDefinitions.addAll(
-                        this.portletDefinitionRegistry.getAllPortletDefinitions());
+                portletDefinitions.addAll(routingTable.getSubscribers(event.getQName()));
             }
 
             // Check each subscription to see what events it is registered to see
@@ -285,7 +312,7 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
                 final IPortletDefinition portletDefinition = portletEntity.getPortletDefinition();
                 final IPortletDefinitionId portletDefinitionId =
                         portletDefinition.getPortletDefinitionId();
-                if (this.supportsEvent(event, portletDefinitionId)) {
+                if (this.supportsEvent(routingTable, event, portletDefinitionId)) {
                     this.logger.debug("{} supports event {}", portletDefinition, event);
 
                     // If this is the default portlet entity remove the definition from the all defs
@@ -356,7 +383,7 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
                             portletDefinition.getPortletDefinitionId();
                     // Check if the user can render the portlet definition before doing event tests
                     if (ap.canRender(portletDefinitionId.getStringId())) {
-                        if (this.supportsEvent(event, portletDefinitionId)) {
+                        if (this.supportsEvent(routingTable, event, portletDefinitionId)) {
                             this.logger.debug("{} supports event {}", portletDefinition, event);
 
                             final IPortletEntity portletEntity =
@@ -489,29 +516,39 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
         throw new IllegalStateException();
     }
 
-    protected Set<QName> getAllAliases(
-            QName eventName, PortletApplicationDefinition portletApplicationDefinition) {
-        final List<? extends EventDefinition> eventDefinitions =
-                portletApplicationDefinition.getEventDefinitions();
-        if (eventDefinitions == null || eventDefinitions.isEmpty()) {
-            return Collections.emptySet();
+    /**
+     * Get the event routing table for the current portlet definitions and deployed portlet
+     * applications, building a new one if either has changed.
+     */
+    private PortletEventRoutingTable getPortletEventRoutingTable() {
+        final PortletDefinitionSnapshot snapshot =
+                this.portletDefinitionRegistry.getPortletDefinitionSnapshot();
+        final long applicationsVersion = this.portletApplicationsVersion.get();
+
+        PortletEventRoutingTable routingTable = this.portletEventRoutingTable;
+        if (routingTable == null
+                || !routingTable.isCurrent(snapshot.getVersion(), applicationsVersion)) {
+            routingTable =
+                    PortletEventRoutingTable.build(
+                            snapshot, applicationsVersion, this.portletDefinitionRegistry);
+            this.portletEventRoutingTable = routingTable;
+            this.logger.debug("Built {}", routingTable);
         }
+        return routingTable;
+    }
 
-        final String defaultNamespace = portletApplicationDefinition.getDefaultNamespace();
-
-        for (final EventDefinition eventDefinition : eventDefinitions) {
-            final QName defQName = eventDefinition.getQualifiedName(defaultNamespace);
-            if (defQName != null && defQName.equals(eventName)) {
-                final List<QName> aliases = eventDefinition.getAliases();
-                if (aliases == null || aliases.isEmpty()) {
-                    return Collections.emptySet();
-                }
-
-                return new LinkedHashSet<QName>(aliases);
-            }
+    /**
+     * Looks the event up in the routing table, definitions created after the table was built are
+     * checked with {@link #supportsEvent(Event, IPortletDefinitionId)}
+     */
+    private boolean supportsEvent(
+            PortletEventRoutingTable routingTable,
+            Event event,
+            IPortletDefinitionId portletDefinitionId) {
+        if (routingTable.isIndexed(portletDefinitionId)) {
+            return routingTable.isSubscribed(portletDefinitionId, event.getQName());
         }
-
-        return Collections.emptySet();
+        return this.supportsEvent(event, portletDefinitionId);
     }
 
     protected boolean supportsEvent(Event event, IPortletDefinitionId portletDefinitionId) {
@@ -537,44 +574,29 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
             return false;
         }
 
-        final Set<QName> aliases = this.getAllAliases(eventName, portletApplicationDescriptor);
-
-        final String defaultNamespace = portletApplicationDescriptor.getDefaultNamespace();
-
-        // No support found so far, do more complex namespace matching
         final PortletDefinition portletDescriptor =
                 this.portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId);
         if (portletDescriptor == null) {
             return false;
         }
 
-        final List<? extends EventDefinitionReference> supportedProcessingEvents =
-                portletDescriptor.getSupportedProcessingEvents();
-        for (final EventDefinitionReference eventDefinitionReference : supportedProcessingEvents) {
-            final QName qualifiedName = eventDefinitionReference.getQualifiedName(defaultNamespace);
-            if (qualifiedName == null) {
-                continue;
-            }
-
-            // See if the supported qname and event qname match explicitly
-            // Look for alias names
-            if (qualifiedName.equals(eventName) || aliases.contains(qualifiedName)) {
-                this.supportedEventCache.put(new Element(key, Boolean.TRUE));
-                return true;
-            }
-
-            // Look for namespaced events
-            if (StringUtils.isEmpty(qualifiedName.getNamespaceURI())) {
-                final QName namespacedName =
-                        new QName(defaultNamespace, qualifiedName.getLocalPart());
-                if (eventName.equals(namespacedName)) {
-                    this.supportedEventCache.put(new Element(key, Boolean.TRUE));
-                    return true;
-                }
-            }
+        // Match the same way as the routing table does
+        final Set<QName> eventNames = new LinkedHashSet<QName>();
+        final ImmutableList.Builder<PortletEventRoutingTable.Wildcard> wildcards =
+                ImmutableList.builder();
+        PortletEventRoutingTable.addProcessedEvents(
+                portletApplicationDescriptor,
+                portletDescriptor,
+                portletDefinitionId,
+                eventNames,
+                wildcards);
+
+        boolean supported = eventNames.contains(eventName);
+        for (final PortletEventRoutingTable.Wildcard wildcard : wildcards.build()) {
+            supported = supported || wildcard.matches(eventName);
         }
 
-        this.supportedEventCache.put(new Element(key, Boolean.FALSE));
-        return false;
+        this.supportedEventCache.put(new Element(key, supported));
+        return supported;
     }
 }
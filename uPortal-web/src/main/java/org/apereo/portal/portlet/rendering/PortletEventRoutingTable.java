@@ -0,0 +1,255 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.namespace.QName;
+import org.apache.commons.lang.StringUtils;
+import org.apache.pluto.container.om.portlet.EventDefinition;
+import org.apache.pluto.container.om.portlet.EventDefinitionReference;
+import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDefinitionId;
+import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.apereo.portal.portlet.registry.PortletDefinitionSnapshot;
+
+/**
+ * Routes portlet events by name to the portlet definitions that process them. Built from a {@link
+ * PortletDefinitionSnapshot} and the portlet descriptors of the deployed portlet applications, it
+ * is immutable and replaced when either changes.
+ *
+ * <p>A definition processes an event if one of its supported processing events matches the event
+ * name, in the application's default namespace if it has none, or an alias of the event declared by
+ * the application. A supported processing event whose local part ends with '.' matches every event
+ * in its namespace whose local part starts with it.
+ */
+final class PortletEventRoutingTable {
+    private static final String WILDCARD_SUFFIX = ".";
+
+    private final long snapshotVersion;
+    private final long applicationsVersion;
+    private final Map<IPortletDefinitionId, IPortletDefinition> portletDefinitions;
+    private final ImmutableSetMultimap<QName, IPortletDefinitionId> subscribers;
+    private final List<Wildcard> wildcards;
+
+    private PortletEventRoutingTable(
+            long snapshotVersion,
+            long applicationsVersion,
+            Map<IPortletDefinitionId, IPortletDefinition> portletDefinitions,
+            ImmutableSetMultimap<QName, IPortletDefinitionId> subscribers,
+            List<Wildcard> wildcards) {
+        this.snapshotVersion = snapshotVersion;
+        this.applicationsVersion = applicationsVersion;
+        this.portletDefinitions = portletDefinitions;
+        this.subscribers = subscribers;
+        this.wildcards = wildcards;
+    }
+
+    /**
+     * @param snapshot The portlet definitions to route events to
+     * @param applicationsVersion Changes each time a portlet application is registered or removed
+     * @param portletDefinitionRegistry Used to find each definition's portlet descriptor
+     */
+    static PortletEventRoutingTable build(
+            PortletDefinitionSnapshot snapshot,
+            long applicationsVersion,
+            IPortletDefinitionRegistry portletDefinitionRegistry) {
+        final ImmutableMap.Builder<IPortletDefinitionId, IPortletDefinition> portletDefinitions =
+                ImmutableMap.builder();
+        final ImmutableSetMultimap.Builder<QName, IPortletDefinitionId> subscribers =
+                ImmutableSetMultimap.builder();
+        final ImmutableList.Builder<Wildcard> wildcards = ImmutableList.builder();
+
+        for (final IPortletDefinition portletDefinition : snapshot.getPortletDefinitions()) {
+            final IPortletDefinitionId portletDefinitionId =
+                    portletDefinition.getPortletDefinitionId();
+            portletDefinitions.put(portletDefinitionId, portletDefinition);
+
+            final PortletDefinition portletDescriptor =
+                    portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId);
+            if (portletDescriptor == null) {
+                // Not deployed, the table is rebuilt when the application is registered
+                continue;
+            }
+
+            final Set<QName> eventNames = new LinkedHashSet<QName>();
+            addProcessedEvents(
+                    portletDescriptor.getApplication(),
+                    portletDescriptor,
+                    portletDefinitionId,
+                    eventNames,
+                    wildcards);
+            for (final QName eventName : eventNames) {
+                subscribers.put(eventName, portletDefinitionId);
+            }
+        }
+
+        return new PortletEventRoutingTable(
+                snapshot.getVersion(),
+                applicationsVersion,
+                portletDefinitions.build(),
+                subscribers.build(),
+                wildcards.build());
+    }
+
+    /**
+     * Adds the names of the events the portlet processes to eventNames, and its wildcard
+     * subscriptions to wildcards.
+     */
+    static void addProcessedEvents(
+            PortletApplicationDefinition application,
+            PortletDefinition portletDescriptor,
+            IPortletDefinitionId portletDefinitionId,
+            Set<QName> eventNames,
+            ImmutableList.Builder<Wildcard> wildcards) {
+        final List<? extends EventDefinitionReference> supportedProcessingEvents =
+                portletDescriptor.getSupportedProcessingEvents();
+        if (supportedProcessingEvents == null || supportedProcessingEvents.isEmpty()) {
+            return;
+        }
+
+        final String defaultNamespace = application.getDefaultNamespace();
+
+        final Set<QName> supportedNames = new LinkedHashSet<QName>();
+        for (final EventDefinitionReference eventDefinitionReference : supportedProcessingEvents) {
+            final QName qualifiedName = eventDefinitionReference.getQualifiedName(defaultNamespace);
+            if (qualifiedName == null) {
+                continue;
+            }
+            supportedNames.add(qualifiedName);
+            eventNames.add(qualifiedName);
+
+            final String namespaceURI;
+            if (StringUtils.isEmpty(qualifiedName.getNamespaceURI())) {
+                namespaceURI = StringUtils.defaultString(defaultNamespace);
+                eventNames.add(new QName(defaultNamespace, qualifiedName.getLocalPart()));
+            } else {
+                namespaceURI = qualifiedName.getNamespaceURI();
+            }
+
+            final String localPart = qualifiedName.getLocalPart();
+            if (localPart.endsWith(WILDCARD_SUFFIX)) {
+                wildcards.add(new Wildcard(namespaceURI, localPart, portletDefinitionId));
+            }
+        }
+
+        // Events the application declares with an alias the portlet processes
+        final List<? extends EventDefinition> eventDefinitions = application.getEventDefinitions();
+        if (eventDefinitions == null) {
+            return;
+        }
+        final Set<QName> declaredNames = new LinkedHashSet<QName>();
+        for (final EventDefinition eventDefinition : eventDefinitions) {
+            final QName eventName = eventDefinition.getQualifiedName(defaultNamespace);
+            // Only the first definition of a name is used for its aliases
+            if (eventName == null || !declaredNames.add(eventName)) {
+                continue;
+            }
+            final List<QName> aliases = eventDefinition.getAliases();
+            if (aliases == null) {
+                continue;
+            }
+            for (final QName alias : aliases) {
+                if (supportedNames.contains(alias)) {
+                    eventNames.add(eventName);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the table was built from the snapshot version and applications version
+     *     specified
+     */
+    boolean isCurrent(long snapshotVersion, long applicationsVersion) {
+        return this.snapshotVersion == snapshotVersion
+                && this.applicationsVersion == applicationsVersion;
+    }
+
+    /** @return true if the definition was in the snapshot the table was built from */
+    boolean isIndexed(IPortletDefinitionId portletDefinitionId) {
+        return this.portletDefinitions.containsKey(portletDefinitionId);
+    }
+
+    /** @return true if the definition processes the event */
+    boolean isSubscribed(IPortletDefinitionId portletDefinitionId, QName eventName) {
+        if (this.subscribers.containsEntry(eventName, portletDefinitionId)) {
+            return true;
+        }
+        for (final Wildcard wildcard : this.wildcards) {
+            if (wildcard.portletDefinitionId.equals(portletDefinitionId)
+                    && wildcard.matches(eventName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return The definitions that process the event */
+    Set<IPortletDefinition> getSubscribers(QName eventName) {
+        final Set<IPortletDefinitionId> subscriberIds =
+                new LinkedHashSet<IPortletDefinitionId>(this.subscribers.get(eventName));
+        for (final Wildcard wildcard : this.wildcards) {
+            if (wildcard.matches(eventName)) {
+                subscriberIds.add(wildcard.portletDefinitionId);
+            }
+        }
+
+        final Set<IPortletDefinition> result = new LinkedHashSet<IPortletDefinition>();
+        for (final IPortletDefinitionId portletDefinitionId : subscriberIds) {
+            result.add(this.portletDefinitions.get(portletDefinitionId));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "PortletEventRoutingTable [snapshotVersion="
+                + snapshotVersion
+                + ", applicationsVersion="
+                + applicationsVersion
+                + ", eventNames="
+                + subscribers.keySet().size()
+                + ", wildcards="
+                + wildcards.size()
+                + "]";
+    }
+
+    /** A supported processing event ending with '.', matches events it is a prefix of */
+    static final class Wildcard {
+        private final String namespaceURI;
+        private final String prefix;
+        private final IPortletDefinitionId portletDefinitionId;
+
+        Wildcard(String namespaceURI, String prefix, IPortletDefinitionId portletDefinitionId) {
+            this.namespaceURI = namespaceURI;
+            this.prefix = prefix;
+            this.portletDefinitionId = portletDefinitionId;
+        }
+
+        boolean matches(QName eventName) {
+            return this.namespaceURI.equals(eventName.getNamespaceURI())
+                    && eventName.getLocalPart().startsWith(this.prefix);
+        }
+    }
+}
@@ -51,6 +51,7 @@ import org.apereo.portal.portlet.rendering.worker.IPortletFailureExecutionWorker
 import org.apereo.portal.portlet.rendering.worker.IPortletRenderExecutionWorker;
 import org.apereo.portal.portlet.rendering.worker.IPortletWorkerFactory;
 import org.apereo.portal.portlets.error.MaintenanceModeException;
+import org.apereo.portal.rendering.RenderedPageCacheState;
 import org.apereo.portal.utils.ConcurrentMapUtils;
 import org.apereo.portal.utils.web.PortalWebUtils;
 import org.slf4j.Logger;
@@ -633,6 +634,21 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return tracker != null;
     }
 
+    /* (non-Javadoc)
+     * @see org.apereo.portal.portlet.rendering.IPortletExecutionManager#isPortletRenderComplete(org.apereo.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public boolean isPortletRenderComplete(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletRenderingMap =
+                this.getPortletRenderingMap(request);
+        final IPortletRenderExecutionWorker tracker = portletRenderingMap.get(portletWindowId);
+
+        return tracker != null && tracker.isComplete();
+    }
+
     /* (non-Javadoc)
      * @see org.apereo.portal.portlet.rendering.IPortletExecutionManager#getPortletHeadOutput(org.apereo.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
      */
@@ -650,6 +666,8 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
                 return output == null ? "" : output;
             } catch (Exception e) {
                 logger.error("failed to render header output for " + portletWindowId, e);
+                RenderedPageCacheState.markUncacheable(
+                        request, "failed header render of " + portletWindowId);
                 return "";
             }
         }
@@ -674,6 +692,7 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
             final String output = tracker.getOutput(timeout);
             return output == null ? "" : output;
         } catch (Exception e) {
+            RenderedPageCacheState.markUncacheable(request, "failed render of " + portletWindowId);
             final IPortletFailureExecutionWorker failureWorker =
                     this.portletWorkerFactory.createFailureWorker(
                             request, response, portletWindowId, e);
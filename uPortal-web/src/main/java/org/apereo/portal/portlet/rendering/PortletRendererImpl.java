@@ -41,6 +41,7 @@ import org.apereo.portal.portlet.container.cache.CachingPortletResourceOutputHan
 import org.apereo.portal.portlet.container.cache.HeaderSettingCacheControl;
 import org.apereo.portal.portlet.container.cache.IPortletCacheControlService;
 import org.apereo.portal.portlet.container.cache.PortletCachingHeaderUtils;
+import org.apereo.portal.portlet.container.cache.PublicPortletCacheKey;
 import org.apereo.portal.portlet.container.services.AdministrativeRequestListenerController;
 import org.apereo.portal.portlet.om.IPortletDefinition;
 import org.apereo.portal.portlet.om.IPortletEntity;
@@ -48,6 +49,7 @@ import org.apereo.portal.portlet.om.IPortletWindow;
 import org.apereo.portal.portlet.om.IPortletWindowId;
 import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
 import org.apereo.portal.portlet.session.PortletSessionAdministrativeRequestListener;
+import org.apereo.portal.rendering.RenderedPageCacheState;
 import org.apereo.portal.security.IAuthorizationPrincipal;
 import org.apereo.portal.security.IPerson;
 import org.apereo.portal.security.IPersonManager;
@@ -406,6 +408,65 @@ public class PortletRendererImpl implements IPortletRenderer {
                 renderPart.getCacheState(
                         this.portletCacheControlService, httpServletRequest, portletWindowId);
 
+        try {
+            final PortletRenderResult portletRenderResult =
+                    doRender(
+                            portletWindowId,
+                            httpServletRequest,
+                            httpServletResponse,
+                            portletOutputHandler,
+                            renderPart,
+                            cacheState);
+            updateRenderedPageCacheState(httpServletRequest, cacheState);
+            return portletRenderResult;
+        } finally {
+            // Make sure requests waiting on this render are released even if it failed
+            if (cacheState.isPublicCacheLoader()) {
+                this.portletCacheControlService.releasePublicCacheLoad(cacheState);
+            }
+        }
+    }
+
+    /** Record the cache settings of the portlet's output for the page it is rendered on */
+    protected void updateRenderedPageCacheState(
+            HttpServletRequest httpServletRequest,
+            CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState) {
+        final RenderedPageCacheState renderedPageCacheState =
+                RenderedPageCacheState.getRenderedPageCacheState(httpServletRequest);
+        if (renderedPageCacheState == null) {
+            return;
+        }
+
+        final PublicPortletCacheKey publicCacheKey = cacheState.getPublicPortletCacheKey();
+        if (publicCacheKey == null) {
+            renderedPageCacheState.markUncacheable("portlet without a cache key");
+            return;
+        }
+
+        if (cacheState.isUseCachedData()) {
+            // Cached output came from the public cache if no private key was needed to find it
+            final CachedPortletData<PortletRenderResult> cachedPortletData =
+                    cacheState.getCachedPortletData();
+            renderedPageCacheState.addPortletOutput(
+                    publicCacheKey,
+                    publicCacheKey.getPortletDefinitionId(),
+                    cacheState.getPrivatePortletCacheKey() == null,
+                    cachedPortletData.getExpirationTime());
+        } else {
+            renderedPageCacheState.addPortletOutput(publicCacheKey, cacheState.getCacheControl());
+        }
+    }
+
+    /** Render the portlet or replay its cached output based on the cache state */
+    protected PortletRenderResult doRender(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest httpServletRequest,
+            HttpServletResponse httpServletResponse,
+            PortletOutputHandler portletOutputHandler,
+            RenderPart renderPart,
+            CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState)
+            throws IOException {
+
         final IPortletWindow portletWindow =
                 this.portletWindowRegistry.getPortletWindow(httpServletRequest, portletWindowId);
 
@@ -15,7 +15,6 @@
 package org.apereo.portal.rendering;
 
 import java.io.IOException;
-import java.io.PrintWriter;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -36,11 +35,25 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
     public static final String CHARACTER_SET = "UTF-8";
     public static final String DEFAULT_MEDIA_TYPE = "text/html";
 
+    /** How the rendered page is written to the response */
+    public enum OutputStrategy {
+        /** Flush the response after every character event */
+        FLUSH_EVERY_EVENT,
+        /**
+         * Buffer the output and only flush after the opening head tag, before waiting on a portlet
+         * that has not finished rendering and at the end of the page
+         */
+        COALESCE;
+    }
+
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
     private CharacterPipelineComponent pipeline;
     private IPortletExecutionEventFactory portalEventFactory;
     private IUrlSyntaxProvider urlSyntaxProvider;
+    private OutputStrategy outputStrategy = OutputStrategy.FLUSH_EVERY_EVENT;
+    private int outputBufferSize = 0;
+    private RenderedPageStatistics renderedPageStatistics;
 
     @Autowired
     public void setUrlSyntaxProvider(IUrlSyntaxProvider urlSyntaxProvider) {
@@ -52,6 +65,11 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
         this.portalEventFactory = portalEventFactory;
     }
 
+    @Autowired(required = false)
+    public void setRenderedPageStatistics(RenderedPageStatistics renderedPageStatistics) {
+        this.renderedPageStatistics = renderedPageStatistics;
+    }
+
     /**
      * The root element in the rendering pipeline. This element MUST only return {@link
      * CharacterEventTypes#CHARACTER} type events.
@@ -60,6 +78,19 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
         this.pipeline = pipeline;
     }
 
+    /** How the rendered page is written to the response, defaults to FLUSH_EVERY_EVENT */
+    public void setOutputStrategy(OutputStrategy outputStrategy) {
+        this.outputStrategy = outputStrategy;
+    }
+
+    /**
+     * Size of the response buffer in characters when using {@link OutputStrategy#COALESCE}, if 0
+     * (the default) the container's default is used.
+     */
+    public void setOutputBufferSize(int outputBufferSize) {
+        this.outputBufferSize = outputBufferSize;
+    }
+
     @Override
     public void renderState(HttpServletRequest req, HttpServletResponse res)
             throws ServletException, IOException {
@@ -78,8 +109,44 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
         final String contentType = mediaType + "; charset=" + CHARACTER_SET;
         res.setContentType(contentType);
 
-        final PrintWriter writer = res.getWriter();
+        final boolean coalesce = this.outputStrategy == OutputStrategy.COALESCE;
+        if (coalesce && this.outputBufferSize > 0) {
+            res.setBufferSize(this.outputBufferSize);
+        }
+
+        final RenderedPageOutput output = new RenderedPageOutput(res, startTime);
+        output.bindToRequest(req);
+        try {
+            this.writeEvents(pipelineEventReader, output, coalesce);
+        } finally {
+            output.unbindFromRequest(req);
+        }
+
+        this.logger.debug(
+                "Wrote {} bytes in {} flushes for {}, time to first byte {}ms",
+                output.getBytesWritten(),
+                output.getFlushCount(),
+                req.getRequestURI(),
+                output.getTimeToFirstByte());
+        if (this.renderedPageStatistics != null) {
+            this.renderedPageStatistics.recordRenderedPage(output);
+        }
 
+        final long executionTime = System.nanoTime() - startTime;
+        final IPortalRequestInfo portalRequestInfo =
+                this.urlSyntaxProvider.getPortalRequestInfo(req);
+        this.portalEventFactory.publishPortalRenderEvent(
+                req, this, req.getPathInfo(), executionTime, portalRequestInfo);
+    }
+
+    private void writeEvents(
+            PipelineEventReader<CharacterEventReader, CharacterEvent> pipelineEventReader,
+            RenderedPageOutput output,
+            boolean coalesce)
+            throws IOException {
+        // The head tag can be split across events, the scanner keeps its state between them
+        final HeadTagScanner headTagScanner = coalesce ? new HeadTagScanner() : null;
+        boolean headFlushed = false;
         for (final CharacterEvent event : pipelineEventReader) {
             if (CharacterEventTypes.CHARACTER != event.getEventType()) {
                 throw new RenderingPipelineConfigurationException(
@@ -91,16 +158,76 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
             }
 
             final String data = ((CharacterDataEvent) event).getData();
-            writer.print(data);
-            writer.flush();
-            res.flushBuffer();
+            if (!coalesce) {
+                output.write(data);
+                output.flush();
+            } else if (!headFlushed) {
+                // Let the client start loading page resources as early as possible
+                final int headEnd = headTagScanner.scan(data);
+                if (headEnd < 0) {
+                    output.write(data);
+                } else {
+                    output.write(data.substring(0, headEnd));
+                    output.flush();
+                    output.write(data.substring(headEnd));
+                    headFlushed = true;
+                }
+            } else {
+                output.write(data);
+            }
         }
+        output.flush();
+    }
 
-        final long executionTime = System.nanoTime() - startTime;
-        final IPortalRequestInfo portalRequestInfo =
-                this.urlSyntaxProvider.getPortalRequestInfo(req);
-        this.portalEventFactory.publishPortalRenderEvent(
-                req, this, req.getPathInfo(), executionTime, portalRequestInfo);
+    /** @return The index just after the opening head tag in the data, -1 if there is none */
+    static int getHeadTagEnd(String data) {
+        return new HeadTagScanner().scan(data);
+    }
+
+    /**
+     * Finds the end of the opening head tag in a page that is written in several pieces, the tag
+     * may start in one piece and end in a later one.
+     */
+    static final class HeadTagScanner {
+        private static final String HEAD_TAG = "<head";
+
+        /** Characters of {@link #HEAD_TAG} matched so far */
+        private int matched = 0;
+        /** The tag name was matched, looking for the end of the tag */
+        private boolean inTag = false;
+
+        /**
+         * @return The index just after the opening head tag in the data, -1 if the tag does not
+         *     end in the data
+         */
+        int scan(String data) {
+            for (int i = 0; i < data.length(); i++) {
+                final char c = data.charAt(i);
+                if (this.inTag) {
+                    if (c == '>') {
+                        this.inTag = false;
+                        this.matched = 0;
+                        return i + 1;
+                    }
+                } else if (this.matched == HEAD_TAG.length()) {
+                    // The name must end here, <header is a different tag
+                    if (c == '>') {
+                        this.matched = 0;
+                        return i + 1;
+                    }
+                    if (Character.isWhitespace(c)) {
+                        this.inTag = true;
+                    } else {
+                        this.matched = c == '<' ? 1 : 0;
+                    }
+                } else if (c == HEAD_TAG.charAt(this.matched)) {
+                    this.matched++;
+                } else {
+                    this.matched = c == '<' ? 1 : 0;
+                }
+            }
+            return -1;
+        }
     }
 
     /** Determine the media type to use for the response */
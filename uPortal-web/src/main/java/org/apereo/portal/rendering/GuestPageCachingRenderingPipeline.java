@@ -0,0 +1,583 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import javax.servlet.http.HttpSession;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.apache.commons.lang3.StringUtils;
+import org.apereo.portal.events.IPortletExecutionEventFactory;
+import org.apereo.portal.layout.IStylesheetUserPreferencesService;
+import org.apereo.portal.layout.IStylesheetUserPreferencesService.PreferencesScope;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.security.IPersonManager;
+import org.apereo.portal.url.IPortalRequestInfo;
+import org.apereo.portal.url.IUrlSyntaxProvider;
+import org.apereo.portal.url.UrlType;
+import org.apereo.portal.utils.cache.CacheEntryTag;
+import org.apereo.portal.utils.cache.CacheKey;
+import org.apereo.portal.utils.cache.TaggedCacheEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.web.csrf.CsrfToken;
+import org.springframework.web.servlet.support.RequestContextUtils;
+
+/**
+ * Caches the complete output of pages rendered for guest users in front of another rendering
+ * pipeline. All guests using the same guest user share a small number of layouts, so one cached
+ * page can be served to many of them.
+ *
+ * <p>Pages are cached by guest username, canonical URL, locale, skin, the cache key of the
+ * rendering pipeline, which covers the layout and transforms, and the public cache keys of the
+ * portlets rendered on the page. The portlet keys are only known once the page has been rendered,
+ * so the page key refers to the key the page was last stored under. A page is only cached if every
+ * portlet on it returned publicly scoped, cacheable output; it expires with the first portlet and
+ * is purged with the portlets' cached output. The output is stored compressed and served with an
+ * ETag so browsers can revalidate it with a conditional GET.
+ *
+ * <p>The session's CSRF token is replaced with a placeholder before a page is stored and the token
+ * of the requesting session is written in its place when the page is served. Pages that contain
+ * the session id, for example in URLs rewritten for a browser without cookies, are not cached.
+ *
+ * <p>Once a guest targets a portlet the portlet state in their session differs from other guests
+ * and their pages are no longer served from or stored in the cache.
+ */
+public class GuestPageCachingRenderingPipeline implements IPortalRenderingPipeline {
+    private static final String STATEFUL_SESSION_ATTRIBUTE =
+            GuestPageCachingRenderingPipeline.class.getName() + ".STATEFUL_SESSION";
+    private static final String SKIN_PARAMETER = "skin";
+    private static final String CSRF_TOKEN_PLACEHOLDER =
+            "__" + GuestPageCachingRenderingPipeline.class.getName() + ".CSRF_TOKEN__";
+    private static final Charset CHARSET = Charset.forName(DynamicRenderingPipeline.CHARACTER_SET);
+
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private IPortalRenderingPipeline renderingPipeline;
+    private CharacterPipelineComponent pipeline;
+    private Ehcache cache;
+    private IPersonManager personManager;
+    private IUrlSyntaxProvider urlSyntaxProvider;
+    private IStylesheetUserPreferencesService stylesheetUserPreferencesService;
+    private IPortletExecutionEventFactory portalEventFactory;
+    private int maxPageSize = 1024 * 1024;
+
+    /** The pipeline that renders pages that are not cached */
+    public void setRenderingPipeline(IPortalRenderingPipeline renderingPipeline) {
+        this.renderingPipeline = renderingPipeline;
+    }
+
+    /** The root component of the rendering pipeline, used for its cache key */
+    public void setPipeline(CharacterPipelineComponent pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    public void setCache(Ehcache cache) {
+        this.cache = cache;
+    }
+
+    @Autowired
+    public void setPersonManager(IPersonManager personManager) {
+        this.personManager = personManager;
+    }
+
+    @Autowired
+    public void setUrlSyntaxProvider(IUrlSyntaxProvider urlSyntaxProvider) {
+        this.urlSyntaxProvider = urlSyntaxProvider;
+    }
+
+    @Autowired
+    public void setStylesheetUserPreferencesService(
+            IStylesheetUserPreferencesService stylesheetUserPreferencesService) {
+        this.stylesheetUserPreferencesService = stylesheetUserPreferencesService;
+    }
+
+    @Autowired
+    public void setPortalEventFactory(IPortletExecutionEventFactory portalEventFactory) {
+        this.portalEventFactory = portalEventFactory;
+    }
+
+    /** Largest page in characters that will be cached, defaults to 1048576 */
+    public void setMaxPageSize(int maxPageSize) {
+        this.maxPageSize = maxPageSize;
+    }
+
+    @Override
+    public void renderState(HttpServletRequest req, HttpServletResponse res)
+            throws ServletException, IOException {
+        final CacheKey cacheKey = this.getCacheKey(req, res);
+        if (cacheKey == null) {
+            this.renderingPipeline.renderState(req, res);
+            return;
+        }
+
+        final String csrfToken = getCsrfToken(req);
+        final CachedPage cachedPage = this.getCachedPage(cacheKey);
+        if (cachedPage != null
+                && !cachedPage.isExpired()
+                && (csrfToken != null || !cachedPage.isCsrfTokenBound())) {
+            this.writeCachedPage(req, res, cachedPage, csrfToken);
+            return;
+        }
+
+        this.renderAndCachePage(req, res, cacheKey, csrfToken);
+    }
+
+    /** @return The page last cached for the page key, null if there is none */
+    protected CachedPage getCachedPage(CacheKey cacheKey) {
+        final Element pageKeyElement = this.cache.get(cacheKey);
+        if (pageKeyElement == null) {
+            return null;
+        }
+
+        // The page key refers to the key including the portlet cache keys
+        final Element element = this.cache.get(pageKeyElement.getObjectValue());
+        if (element == null) {
+            return null;
+        }
+        return (CachedPage) element.getObjectValue();
+    }
+
+    /**
+     * @return The page key for the request, null if it can not be cached. The page is stored under
+     *     this key combined with the cache keys of its portlets.
+     */
+    protected CacheKey getCacheKey(HttpServletRequest req, HttpServletResponse res) {
+        if (!"GET".equals(req.getMethod())) {
+            return null;
+        }
+
+        final IPerson person = this.personManager.getPerson(req);
+        if (person == null || !person.isGuest()) {
+            return null;
+        }
+
+        final HttpSession session = req.getSession(false);
+        if (session != null && session.getAttribute(STATEFUL_SESSION_ATTRIBUTE) != null) {
+            return null;
+        }
+
+        final IPortalRequestInfo portalRequestInfo =
+                this.urlSyntaxProvider.getPortalRequestInfo(req);
+        if (portalRequestInfo.getUrlType() != UrlType.RENDER
+                || portalRequestInfo.getTargetedPortletWindowId() != null
+                || !portalRequestInfo.getPortletRequestInfoMap().isEmpty()) {
+            // Portlet state in the session now differs from the other guests
+            req.getSession().setAttribute(STATEFUL_SESSION_ATTRIBUTE, Boolean.TRUE);
+            return null;
+        }
+
+        final CacheKey pipelineCacheKey = this.pipeline.getCacheKey(req, res);
+        if (pipelineCacheKey == null) {
+            return null;
+        }
+
+        final Locale locale = RequestContextUtils.getLocale(req);
+        final String skin =
+                this.stylesheetUserPreferencesService.getStylesheetParameter(
+                        req, PreferencesScope.THEME, SKIN_PARAMETER);
+        return CacheKey.build(
+                GuestPageCachingRenderingPipeline.class.getName(),
+                person.getUserName(),
+                this.urlSyntaxProvider.getCanonicalUrl(req),
+                locale,
+                skin,
+                pipelineCacheKey);
+    }
+
+    /** Render the page with the wrapped pipeline and cache it if all of its portlets allow it */
+    protected void renderAndCachePage(
+            HttpServletRequest req, HttpServletResponse res, CacheKey cacheKey, String csrfToken)
+            throws ServletException, IOException {
+        final RenderedPageCacheState renderedPageCacheState = new RenderedPageCacheState();
+        renderedPageCacheState.bindToRequest(req);
+
+        // The ETag has to be sent before the page is streamed, so it can not be a content hash
+        final String etag =
+                Hashing.murmur3_128()
+                        .newHasher()
+                        .putInt(cacheKey.hashCode())
+                        .putLong(System.currentTimeMillis())
+                        .putLong(System.nanoTime())
+                        .hash()
+                        .toString();
+
+        final CapturingHttpServletResponse capturingResponse =
+                new CapturingHttpServletResponse(res, this.maxPageSize);
+        capturingResponse.setHeader("ETag", toEtag(etag, csrfToken));
+        this.renderingPipeline.renderState(req, capturingResponse);
+
+        final String content = capturingResponse.getCapturedContent();
+        if (content == null) {
+            this.logger.debug("Not caching {}, the page could not be captured", cacheKey);
+            return;
+        }
+        if (!renderedPageCacheState.isCacheable()) {
+            this.logger.debug(
+                    "Not caching {}: {}", cacheKey, renderedPageCacheState.getUncacheableReason());
+            return;
+        }
+
+        final HttpSession session = req.getSession(false);
+        if (session != null && content.contains(session.getId())) {
+            this.logger.debug("Not caching {}, the page contains the session id", cacheKey);
+            return;
+        }
+
+        // Other guests get their own CSRF token in place of this session's
+        final boolean csrfTokenBound = csrfToken != null && content.contains(csrfToken);
+        final String template =
+                csrfTokenBound ? content.replace(csrfToken, CSRF_TOKEN_PLACEHOLDER) : content;
+
+        final long expirationTime = renderedPageCacheState.getExpirationTime();
+        final CachedPage cachedPage =
+                new CachedPage(
+                        template,
+                        capturingResponse.getContentType(),
+                        etag,
+                        csrfTokenBound,
+                        expirationTime,
+                        renderedPageCacheState.getTags());
+
+        final CacheKey pageCacheKey =
+                CacheKey.build(
+                        GuestPageCachingRenderingPipeline.class.getName(),
+                        cacheKey,
+                        new ArrayList<Serializable>(renderedPageCacheState.getPortletCacheKeys()));
+        this.cache.put(this.createElement(pageCacheKey, cachedPage, expirationTime));
+        this.cache.put(this.createElement(cacheKey, pageCacheKey, expirationTime));
+
+        this.logger.debug("Cached {} characters for {}", content.length(), cacheKey);
+    }
+
+    /** Create a cache element that expires with the first portlet on the page */
+    private Element createElement(Serializable key, Serializable value, long expirationTime) {
+        final Element element = new Element(key, value);
+        if (expirationTime >= 0) {
+            // Expire the element with the first portlet if that is before the configured TTL
+            final long timeToLive =
+                    TimeUnit.MILLISECONDS.toSeconds(
+                            expirationTime - System.currentTimeMillis() + 999);
+            final long cacheTimeToLive = this.cache.getCacheConfiguration().getTimeToLiveSeconds();
+            if (cacheTimeToLive == 0 || timeToLive < cacheTimeToLive) {
+                element.setTimeToLive((int) timeToLive);
+            }
+        }
+        return element;
+    }
+
+    /**
+     * Write the cached page to the response, or only its headers if the browser's copy matches
+     *
+     * @param csrfToken The CSRF token of the requesting session, written in place of the token of
+     *     the session the page was rendered for
+     */
+    protected void writeCachedPage(
+            HttpServletRequest req,
+            HttpServletResponse res,
+            CachedPage cachedPage,
+            String csrfToken)
+            throws IOException {
+        final long startTime = System.nanoTime();
+
+        // Same headers as a rendered page, the ETag lets the browser revalidate its copy
+        final String etag = toEtag(cachedPage.getEtag(), csrfToken);
+        res.setHeader("pragma", "no-cache");
+        res.setHeader("Cache-Control", "no-cache, max-age=0, must-revalidate");
+        res.setDateHeader("Expires", 0);
+        res.setHeader("ETag", etag);
+
+        if (isEtagMatch(req.getHeader("If-None-Match"), etag)) {
+            res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            this.logger.debug("Browser copy of {} is current", req.getRequestURI());
+        } else {
+            res.setContentType(cachedPage.getContentType());
+            res.setHeader("Vary", "Accept-Encoding");
+
+            final String acceptEncoding = req.getHeader("Accept-Encoding");
+            if (!cachedPage.isCsrfTokenBound()
+                    && acceptEncoding != null
+                    && acceptEncoding.contains("gzip")) {
+                final byte[] compressedContent = cachedPage.getCompressedContent();
+                res.setHeader("Content-Encoding", "gzip");
+                res.setContentLength(compressedContent.length);
+                final ServletOutputStream outputStream = res.getOutputStream();
+                outputStream.write(compressedContent);
+                outputStream.flush();
+            } else {
+                final PrintWriter writer = res.getWriter();
+                writer.write(cachedPage.getContent(csrfToken));
+                writer.flush();
+            }
+            this.logger.debug("Served cached page for {}", req.getRequestURI());
+        }
+
+        final long executionTime = System.nanoTime() - startTime;
+        final IPortalRequestInfo portalRequestInfo =
+                this.urlSyntaxProvider.getPortalRequestInfo(req);
+        this.portalEventFactory.publishPortalRenderEvent(
+                req, this, req.getPathInfo(), executionTime, portalRequestInfo);
+    }
+
+    /** @return The CSRF token of the request's session, null if it has none */
+    static String getCsrfToken(HttpServletRequest req) {
+        final CsrfToken csrfToken = (CsrfToken) req.getAttribute(CsrfToken.class.getName());
+        return csrfToken != null ? csrfToken.getToken() : null;
+    }
+
+    /** @return The ETag for a page, distinct per CSRF token as the token is part of the page */
+    static String toEtag(String etag, String csrfToken) {
+        if (csrfToken == null) {
+            return "\"" + etag + "\"";
+        }
+        return "\""
+                + etag
+                + "-"
+                + Hashing.murmur3_32().hashString(csrfToken, CHARSET).toString()
+                + "\"";
+    }
+
+    /** @return true if the If-None-Match header value includes the ETag */
+    static boolean isEtagMatch(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (final String candidate : StringUtils.split(ifNoneMatch, ',')) {
+            final String trimmed = StringUtils.removeStart(candidate.trim(), "W/");
+            if ("*".equals(trimmed) || etag.equals(trimmed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "GuestPageCachingRenderingPipeline caching ["
+                + this.cache.getName()
+                + "] in front of ["
+                + this.renderingPipeline
+                + "].";
+    }
+
+    /**
+     * Compressed page output, tagged with the portlets rendered on it. If the page contained a CSRF
+     * token it is stored with a placeholder in place of the token.
+     */
+    static final class CachedPage implements Serializable, TaggedCacheEntry {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] compressedContent;
+        private final String contentType;
+        private final String etag;
+        private final boolean csrfTokenBound;
+        private final long expirationTime;
+        private final Set<CacheEntryTag> tags;
+
+        CachedPage(
+                String content,
+                String contentType,
+                String etag,
+                boolean csrfTokenBound,
+                long expirationTime,
+                Set<CacheEntryTag> tags) {
+            this.compressedContent = compress(content.getBytes(CHARSET));
+            this.contentType = contentType;
+            this.etag = etag;
+            this.csrfTokenBound = csrfTokenBound;
+            this.expirationTime = expirationTime;
+            this.tags = tags;
+        }
+
+        /** @return The compressed page, only usable as is if the page is not CSRF token bound */
+        byte[] getCompressedContent() {
+            return this.compressedContent;
+        }
+
+        /** @return true if the page has to be completed with the requesting session's CSRF token */
+        boolean isCsrfTokenBound() {
+            return this.csrfTokenBound;
+        }
+
+        /** @return The page with the CSRF token placeholder replaced by the token */
+        String getContent(String csrfToken) throws IOException {
+            final StringBuilder content = new StringBuilder(this.compressedContent.length * 4);
+            try (Reader reader =
+                    new InputStreamReader(
+                            new GZIPInputStream(new ByteArrayInputStream(this.compressedContent)),
+                            CHARSET)) {
+                final char[] buffer = new char[4096];
+                for (int read = reader.read(buffer); read >= 0; read = reader.read(buffer)) {
+                    content.append(buffer, 0, read);
+                }
+            }
+            if (this.csrfTokenBound) {
+                return StringUtils.replace(content.toString(), CSRF_TOKEN_PLACEHOLDER, csrfToken);
+            }
+            return content.toString();
+        }
+
+        String getContentType() {
+            return this.contentType;
+        }
+
+        String getEtag() {
+            return this.etag;
+        }
+
+        boolean isExpired() {
+            return this.expirationTime >= 0 && this.expirationTime <= System.currentTimeMillis();
+        }
+
+        @Override
+        public Set<CacheEntryTag> getTags() {
+            return this.tags;
+        }
+
+        private static byte[] compress(byte[] bytes) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(bytes);
+            } catch (IOException e) {
+                // Not possible when writing to a byte array
+                throw new IllegalStateException(e);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Passes the rendered page through to the response while keeping a copy of it, the copy is
+     * discarded if the page is larger than the limit or the response is not a normal page.
+     */
+    static final class CapturingHttpServletResponse extends HttpServletResponseWrapper {
+        private final int maxSize;
+        private StringBuilder captured = new StringBuilder();
+        private PrintWriter writer;
+
+        CapturingHttpServletResponse(HttpServletResponse response, int maxSize) {
+            super(response);
+            this.maxSize = maxSize;
+        }
+
+        /** @return The page written to the response, null if it was not captured */
+        String getCapturedContent() {
+            return this.captured != null ? this.captured.toString() : null;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (this.writer == null) {
+                this.writer = new PrintWriter(new CapturingWriter(super.getWriter()));
+            }
+            return this.writer;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            this.captured = null;
+            return super.getOutputStream();
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            if (sc != SC_OK) {
+                this.captured = null;
+            }
+            super.setStatus(sc);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            this.captured = null;
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            this.captured = null;
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            this.captured = null;
+            super.sendRedirect(location);
+        }
+
+        private void capture(String str, int off, int len) {
+            if (this.captured == null) {
+                return;
+            }
+            if (this.captured.length() + len > this.maxSize) {
+                this.captured = null;
+                return;
+            }
+            this.captured.append(str, off, off + len);
+        }
+
+        private final class CapturingWriter extends Writer {
+            private final Writer delegate;
+
+            CapturingWriter(Writer delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            public void write(String str, int off, int len) throws IOException {
+                this.delegate.write(str, off, len);
+                capture(str, off, len);
+            }
+
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                this.delegate.write(cbuf, off, len);
+                capture(new String(cbuf, off, len), 0, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                this.delegate.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                this.delegate.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import org.apereo.portal.utils.MovingAverage;
+import org.apereo.portal.utils.MovingAverageSample;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/** Size, flush count and time to first byte of the pages written by the rendering pipeline. */
+@Component
+@ManagedResource("uPortal:section=Rendering,name=RenderedPageStatistics")
+public class RenderedPageStatistics implements RenderedPageStatisticsMXBean {
+    private final MovingAverage bytesWritten = new MovingAverage();
+    private final MovingAverage flushCounts = new MovingAverage();
+    private final MovingAverage timesToFirstByte = new MovingAverage();
+
+    private volatile MovingAverageSample lastBytesWritten = new MovingAverageSample();
+    private volatile MovingAverageSample lastFlushCount = new MovingAverageSample();
+    private volatile MovingAverageSample lastTimeToFirstByte = new MovingAverageSample();
+
+    /** @param output The output of a page that has finished rendering */
+    public void recordRenderedPage(RenderedPageOutput output) {
+        this.lastBytesWritten = this.bytesWritten.add(output.getBytesWritten());
+        this.lastFlushCount = this.flushCounts.add(output.getFlushCount());
+
+        final long timeToFirstByte = output.getTimeToFirstByte();
+        if (timeToFirstByte >= 0) {
+            this.lastTimeToFirstByte = this.timesToFirstByte.add(timeToFirstByte);
+        }
+    }
+
+    @Override
+    public MovingAverageSample getLastBytesWritten() {
+        return this.lastBytesWritten;
+    }
+
+    @Override
+    public MovingAverageSample getLastFlushCount() {
+        return this.lastFlushCount;
+    }
+
+    @Override
+    public MovingAverageSample getLastTimeToFirstByte() {
+        return this.lastTimeToFirstByte;
+    }
+}
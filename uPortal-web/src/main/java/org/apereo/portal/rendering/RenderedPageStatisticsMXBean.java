@@ -0,0 +1,30 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import org.apereo.portal.utils.MovingAverageSample;
+
+/** JMX stats for the output written by rendered pages */
+public interface RenderedPageStatisticsMXBean {
+
+    /** @return UTF-8 encoded bytes written for each page */
+    MovingAverageSample getLastBytesWritten();
+
+    /** @return Number of times the response was flushed for each page */
+    MovingAverageSample getLastFlushCount();
+
+    /** @return Milliseconds from the start of each render until the first byte was sent */
+    MovingAverageSample getLastTimeToFirstByte();
+}
@@ -23,6 +23,10 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Resource;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -40,6 +44,7 @@ import org.apereo.portal.layout.IUserLayoutManager;
 import org.apereo.portal.rendering.AnalyticsIncorporationComponent;
 import org.apereo.portal.rendering.CharacterPipelineComponent;
 import org.apereo.portal.rendering.DynamicRenderingPipeline;
+import org.apereo.portal.rendering.GuestPageCachingRenderingPipeline;
 import org.apereo.portal.rendering.IPortalRenderingPipeline;
 import org.apereo.portal.rendering.LoggingCharacterComponent;
 import org.apereo.portal.rendering.LoggingStAXComponent;
@@ -61,6 +66,7 @@ import org.apereo.portal.rendering.UserLayoutStoreComponent;
 import org.apereo.portal.rendering.WindowStateSettingsStAXComponent;
 import org.apereo.portal.rendering.cache.CachingCharacterPipelineComponent;
 import org.apereo.portal.rendering.cache.CachingStAXPipelineComponent;
+import org.apereo.portal.rendering.cache.EventCacheStatsBean;
 import org.apereo.portal.rendering.xslt.LocaleTransformerConfigurationSource;
 import org.apereo.portal.rendering.xslt.MergingTransformerConfigurationSource;
 import org.apereo.portal.rendering.xslt.StaticTransformerConfigurationSource;
@@ -75,6 +81,7 @@ import org.apereo.portal.rendering.xslt.TransformerSource;
 import org.apereo.portal.rendering.xslt.UserImpersonationTransformerConfigurationSource;
 import org.apereo.portal.rendering.xslt.XSLTComponent;
 import org.apereo.portal.url.xml.XsltPortalUrlProvider;
+import org.apereo.portal.utils.threading.LoggingAbortHandler;
 import org.apereo.portal.web.skin.ResourcesElementsXsltcHelper;
 import org.jasig.resourceserver.aggr.ResourcesDao;
 import org.jasig.resourceserver.aggr.ResourcesDaoImpl;
@@ -87,6 +94,7 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 /**
  * This @Configuration class sets up (roughly) the same beans that renderingPipelineContext.xml did
@@ -149,6 +157,30 @@ public class RenderingPipelineConfiguration {
     @Resource(name = "org.apereo.portal.rendering.THEME_TRANSFORM")
     private Cache themeTransformCache;
 
+    @Value("${org.apereo.portal.rendering.streaming.enabled:false}")
+    private boolean streamingEnabled;
+
+    @Value("${org.apereo.portal.rendering.streaming.bufferSize:1024}")
+    private int streamingBufferSize;
+
+    @Value("${org.apereo.portal.rendering.streaming.timeout:30000}")
+    private long streamingTimeout;
+
+    @Value("${org.apereo.portal.rendering.streaming.threadPool.maxThreads:400}")
+    private int streamingMaxThreads;
+
+    @Value("${org.apereo.portal.rendering.output.strategy:COALESCE}")
+    private DynamicRenderingPipeline.OutputStrategy outputStrategy;
+
+    @Value("${org.apereo.portal.rendering.output.bufferSize:32768}")
+    private int outputBufferSize;
+
+    @Value("${org.apereo.portal.rendering.guestPageCache.enabled:false}")
+    private boolean guestPageCacheEnabled;
+
+    @Resource(name = "org.apereo.portal.rendering.GUEST_PAGE")
+    private Cache guestPageCache;
+
     @Autowired(required = false)
     private List<RenderingPipelineBranchPoint> branchPoints;
 
@@ -190,8 +222,11 @@ public class RenderingPipelineConfiguration {
                     "Multiple RenderingPipelineBranchPoint beans have the same 'order' value, which likely a misconfiguration");
         }
 
-        // "Standard" Pipeline
-        final IPortalRenderingPipeline standardRenderingPipeline = getStandardRenderingPipeline();
+        // "Standard" Pipeline, behind the guest page cache if it is enabled
+        final IPortalRenderingPipeline standardRenderingPipeline =
+                guestPageCacheEnabled
+                        ? getGuestPageCachingRenderingPipeline()
+                        : getStandardRenderingPipeline();
 
         return new IPortalRenderingPipeline() {
             @Override
@@ -223,9 +258,48 @@ public class RenderingPipelineConfiguration {
     public IPortalRenderingPipeline getStandardRenderingPipeline() {
         final DynamicRenderingPipeline rslt = new DynamicRenderingPipeline();
         rslt.setPipeline(getAnalyticsIncorporationComponent());
+        rslt.setOutputStrategy(outputStrategy);
+        rslt.setOutputBufferSize(outputBufferSize);
+        return rslt;
+    }
+
+    /** Serves cached pages to guest users in front of the standard pipeline. */
+    @Bean(name = "guestPageCachingRenderingPipeline")
+    public IPortalRenderingPipeline getGuestPageCachingRenderingPipeline() {
+        final GuestPageCachingRenderingPipeline rslt = new GuestPageCachingRenderingPipeline();
+        rslt.setRenderingPipeline(getStandardRenderingPipeline());
+        rslt.setPipeline(getAnalyticsIncorporationComponent());
+        rslt.setCache(guestPageCache);
         return rslt;
     }
 
+    /**
+     * Runs the XSLT transforms when streaming is enabled. Uses a hand-off queue so a saturated pool
+     * rejects the transform, which then runs buffered on the request thread.
+     */
+    @Bean(name = "renderingTransformThreadPool", destroyMethod = "shutdown")
+    public ExecutorService getRenderingTransformThreadPool() {
+        final CustomizableThreadFactory threadFactory =
+                new CustomizableThreadFactory("uP-RenderingTransform-");
+        threadFactory.setDaemon(true);
+        return new ThreadPoolExecutor(
+                0,
+                streamingMaxThreads,
+                300,
+                TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                threadFactory,
+                new LoggingAbortHandler());
+    }
+
+    private void configureStreaming(XSLTComponent xsltComponent) {
+        if (streamingEnabled) {
+            xsltComponent.setStreamingExecutor(getRenderingTransformThreadPool());
+            xsltComponent.setStreamingBufferSize(streamingBufferSize);
+            xsltComponent.setStreamingTimeout(streamingTimeout);
+        }
+    }
+
     @Bean(name = "userLayoutStoreComponent")
     public StAXPipelineComponent getUserLayoutStoreComponent() {
         return new UserLayoutStoreComponent();
@@ -336,6 +410,7 @@ public class RenderingPipelineConfiguration {
                 new MergingTransformerConfigurationSource();
         mtcs.setSources(sources);
         rslt.setXsltParameterSource(mtcs);
+        configureStreaming(rslt);
         return rslt;
     }
 
@@ -355,6 +430,15 @@ public class RenderingPipelineConfiguration {
         final CachingStAXPipelineComponent rslt = new CachingStAXPipelineComponent();
         rslt.setWrappedComponent(getPostStructureTransformLogger());
         rslt.setCache(structureTransformCache);
+        rslt.setCacheStats(getStructureTransformCacheStats());
+        rslt.setStreaming(streamingEnabled);
+        return rslt;
+    }
+
+    @Bean(name = "structureTransformCacheStats")
+    public EventCacheStatsBean getStructureTransformCacheStats() {
+        final EventCacheStatsBean rslt = new EventCacheStatsBean();
+        rslt.setCache(structureTransformCache);
         return rslt;
     }
 
@@ -464,6 +548,7 @@ public class RenderingPipelineConfiguration {
                 new MergingTransformerConfigurationSource();
         mtcs.setSources(sources);
         rslt.setXsltParameterSource(mtcs);
+        configureStreaming(rslt);
         return rslt;
     }
 
@@ -551,6 +636,7 @@ public class RenderingPipelineConfiguration {
                 PORTLET_NEW_ITEM_COUNT_PATTERN, getPortletNewItemCountPlaceholderEventSource());
         chunkingPatterns.put(PORTLET_LINK_PATTERN, getPortletLinkPlaceholderEventSource());
         rslt.setChunkingPatterns(chunkingPatterns);
+        rslt.setStreaming(streamingEnabled);
 
         return rslt;
     }
@@ -568,6 +654,15 @@ public class RenderingPipelineConfiguration {
         final CachingCharacterPipelineComponent rslt = new CachingCharacterPipelineComponent();
         rslt.setWrappedComponent(getPostSerializerLogger());
         rslt.setCache(themeTransformCache);
+        rslt.setCacheStats(getThemeTransformCacheStats());
+        rslt.setStreaming(streamingEnabled);
+        return rslt;
+    }
+
+    @Bean(name = "themeTransformCacheStats")
+    public EventCacheStatsBean getThemeTransformCacheStats() {
+        final EventCacheStatsBean rslt = new EventCacheStatsBean();
+        rslt.setCache(themeTransformCache);
         return rslt;
     }
 
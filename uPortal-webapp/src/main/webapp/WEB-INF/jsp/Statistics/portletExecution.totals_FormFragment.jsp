@@ -35,3 +35,7 @@
                     </c:forEach>
                 </form:select>
             </p>
+            <p>
+                <form:label path="latencyPercentiles"><spring:message code="latency.percentiles"/></form:label>
+                <form:checkbox path="latencyPercentiles" />
+            </p>
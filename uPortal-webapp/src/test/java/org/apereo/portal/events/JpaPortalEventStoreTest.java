@@ -22,6 +22,7 @@ import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
@@ -29,6 +30,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.portlet.PortletMode;
 import javax.portlet.WindowState;
@@ -46,6 +48,7 @@ import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 
 /** */
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -150,6 +153,46 @@ public class JpaPortalEventStoreTest extends BaseRawEventsJpaDaoTest {
         verifyAggregateEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
     }
 
+    /** Compares JPA persist with JDBC batch inserts, run manually */
+    @Ignore // Breaks on move to Gradlde
+    @Test
+    public void benchmarkStoreEvents() throws Exception {
+        final List<PortalEvent> generatedEvents = generateEvents();
+        final List<PortalEvent> events = new ArrayList<PortalEvent>();
+        for (int i = 0; i < 1000; i++) {
+            events.addAll(generatedEvents);
+        }
+
+        for (final int storeBatchSize : new int[] {0, 100, 0, 100}) {
+            ReflectionTestUtils.setField(portalEventDao, "storeBatchSize", storeBatchSize);
+            final long start = System.nanoTime();
+            execute(
+                    new CallableWithoutResult() {
+                        @Override
+                        protected void callWithoutResult() {
+                            portalEventDao.storePortalEvents(events);
+                        }
+                    });
+            final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            System.out.println(
+                    "Stored "
+                            + events.size()
+                            + " events with storeBatchSize="
+                            + storeBatchSize
+                            + " in "
+                            + elapsed
+                            + "ms");
+
+            execute(
+                    new CallableWithoutResult() {
+                        @Override
+                        protected void callWithoutResult() {
+                            portalEventDao.deletePortalEventsBefore(DateTime.now().plusDays(1));
+                        }
+                    });
+        }
+    }
+
     protected void verifyGetEvents(
             final List<PortalEvent> originalEvents,
             final DateTime startDate,
@@ -0,0 +1,133 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Test;
+
+public class PartitionedAggregationUpdatesTest {
+    private final ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testUpdatesAppliedInOrderPerAggregation() {
+        final PartitionedAggregationUpdates updates =
+                new PartitionedAggregationUpdates(executorService, 4);
+        final List<List<Integer>> aggregations = new ArrayList<>();
+        for (int a = 0; a < 10; a++) {
+            aggregations.add(new ArrayList<Integer>());
+        }
+        final Set<Thread> threads =
+                Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
+        for (int i = 0; i < 1000; i++) {
+            final List<Integer> aggregation = aggregations.get(i % aggregations.size());
+            final int value = i;
+            updates.add(
+                    aggregation,
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            threads.add(Thread.currentThread());
+                            aggregation.add(value);
+                        }
+                    });
+        }
+        assertEquals(1000, updates.size());
+
+        updates.apply();
+
+        assertEquals(0, updates.size());
+        assertFalse(threads.isEmpty());
+        assertFalse(threads.contains(Thread.currentThread()));
+        for (int a = 0; a < aggregations.size(); a++) {
+            final List<Integer> aggregation = aggregations.get(a);
+            assertEquals(100, aggregation.size());
+            for (int i = 0; i < aggregation.size(); i++) {
+                assertEquals(a + i * aggregations.size(), (int) aggregation.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testFailedUpdateSkipped() {
+        final PartitionedAggregationUpdates updates =
+                new PartitionedAggregationUpdates(executorService, 2);
+        final List<String> first = new ArrayList<>();
+        final List<String> second = new ArrayList<>();
+        updates.add(first, adding(first, "a"));
+        updates.add(
+                first,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        throw new IllegalStateException("update failed");
+                    }
+                });
+        updates.add(first, adding(first, "b"));
+        updates.add(second, adding(second, "c"));
+
+        updates.apply();
+
+        assertEquals(2, first.size());
+        assertEquals("b", first.get(1));
+        assertEquals(1, second.size());
+    }
+
+    @Test
+    public void testSinglePartitionOnCallingThread() {
+        final PartitionedAggregationUpdates updates =
+                new PartitionedAggregationUpdates(executorService, 4);
+        final List<Thread> threads = new ArrayList<>();
+        final Object aggregation = new Object();
+        for (int i = 0; i < 3; i++) {
+            updates.add(
+                    aggregation,
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            threads.add(Thread.currentThread());
+                        }
+                    });
+        }
+
+        updates.apply();
+
+        assertEquals(Collections.nCopies(3, Thread.currentThread()), threads);
+    }
+
+    private static Runnable adding(final List<String> aggregation, final String value) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                aggregation.add(value);
+            }
+        };
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.commons.lang.RandomStringUtils;
+import org.junit.Test;
+
+public class UniqueStringsSketchTest {
+
+    @Test
+    public void testAccuracyAgainstUniqueStrings() {
+        final Random r = new Random(0);
+        for (final double relativeError : new double[] {0.05, 0.02, 0.01}) {
+            final UniqueStringsSketch sketch =
+                    new UniqueStringsSketch(UniqueStringsSketch.getPrecision(relativeError));
+            assertTrue(sketch.getRelativeError() <= relativeError);
+
+            final UniqueStrings uniqueStrings = new UniqueStrings();
+            int exactCount = 0;
+            for (final int size : new int[] {10, 100, 1000, 10000, 50000}) {
+                while (exactCount < size) {
+                    // Repeat strings to make sure duplicates are not counted
+                    final String s = RandomStringUtils.random(8, 0, 0, true, true, null, r);
+                    sketch.add(s);
+                    sketch.add(s);
+                    if (uniqueStrings.add(s)) {
+                        exactCount++;
+                    }
+                }
+
+                // Allow three standard errors, plus one for rounding of very small counts
+                final double allowed = 3 * sketch.getRelativeError() * exactCount + 1;
+                final long estimate = sketch.estimate();
+                assertTrue(
+                        "error=" + relativeError + " exact=" + exactCount + " estimate=" + estimate,
+                        Math.abs(estimate - exactCount) <= allowed);
+            }
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        final int precision = UniqueStringsSketch.getPrecision(0.02);
+        final UniqueStringsSketch students = new UniqueStringsSketch(precision);
+        final UniqueStringsSketch staff = new UniqueStringsSketch(precision);
+        for (int i = 0; i < 6000; i++) {
+            students.add("user" + i);
+        }
+        for (int i = 4000; i < 10000; i++) {
+            staff.add("user" + i);
+        }
+
+        students.merge(staff);
+        final long estimate = students.estimate();
+        assertTrue("estimate=" + estimate, Math.abs(estimate - 10000) <= 3 * 0.02 * 10000);
+
+        // Merging is idempotent
+        students.merge(staff);
+        assertEquals(estimate, students.estimate());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentPrecision() {
+        new UniqueStringsSketch(10).merge(new UniqueStringsSketch(11));
+    }
+
+    @Test
+    public void testWrap() {
+        final UniqueStringsSketch sketch = new UniqueStringsSketch(10);
+        assertEquals(1 + 1024, sketch.getBytes().length);
+        assertEquals(0, sketch.estimate());
+        assertTrue(sketch.add("admin"));
+        assertFalse(sketch.add("admin"));
+
+        final byte[] bytes = Arrays.copyOf(sketch.getBytes(), sketch.getBytes().length);
+        final UniqueStringsSketch wrapped = UniqueStringsSketch.wrap(bytes);
+        assertEquals(10, wrapped.getPrecision());
+        assertEquals(1, wrapped.estimate());
+        assertFalse(wrapped.add("admin"));
+
+        // Changes write through to the wrapped bytes
+        wrapped.add("student");
+        assertEquals(2, UniqueStringsSketch.wrap(bytes).estimate());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrapInvalid() {
+        UniqueStringsSketch.wrap(new byte[] {10, 0, 0});
+    }
+
+    @Test
+    public void testGetPrecision() {
+        assertEquals(12, UniqueStringsSketch.getPrecision(0.02));
+        assertEquals(14, UniqueStringsSketch.getPrecision(0.01));
+        assertEquals(UniqueStringsSketch.MIN_PRECISION, UniqueStringsSketch.getPrecision(0.5));
+        assertEquals(UniqueStringsSketch.MAX_PRECISION, UniqueStringsSketch.getPrecision(0.0001));
+    }
+}
@@ -50,7 +50,7 @@ public class JpaConcurrentUserAggregationDaoTest
             AggregationIntervalInfo intervalInfo,
             ConcurrentUserAggregationImpl aggregation,
             Random r) {
-        aggregation.countSession(RandomStringUtils.random(8, 0, 0, true, true, null, r));
+        aggregation.countSession(RandomStringUtils.random(8, 0, 0, true, true, null, r), 0);
     }
 
     @Override
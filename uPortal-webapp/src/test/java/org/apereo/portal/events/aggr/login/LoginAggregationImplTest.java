@@ -0,0 +1,71 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr.login;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import org.apereo.portal.events.aggr.AggregationInterval;
+import org.apereo.portal.events.aggr.DateDimension;
+import org.apereo.portal.events.aggr.TimeDimension;
+import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.junit.Test;
+
+public class LoginAggregationImplTest {
+
+    private LoginAggregationImpl createAggregation() {
+        return new LoginAggregationImpl(
+                mock(TimeDimension.class),
+                mock(DateDimension.class),
+                AggregationInterval.DAY,
+                mock(AggregatedGroupMapping.class));
+    }
+
+    @Test
+    public void testSketchCounting() {
+        final LoginAggregationImpl aggregation = createAggregation();
+        for (int i = 0; i < 300; i++) {
+            aggregation.countUser("user" + (i % 100), 12);
+        }
+
+        assertEquals(300, aggregation.getLoginCount());
+        assertEquals(100, aggregation.getUniqueLoginCount(), 3);
+    }
+
+    @Test
+    public void testSwitchToSketch() {
+        final LoginAggregationImpl aggregation = createAggregation();
+        for (int i = 0; i < 50; i++) {
+            aggregation.countUser("user" + i, 0);
+        }
+        assertEquals(50, aggregation.getUniqueLoginCount());
+
+        // Enabling the sketch carries over the exactly counted names
+        for (int i = 0; i < 100; i++) {
+            aggregation.countUser("user" + i, 12);
+        }
+        assertEquals(150, aggregation.getLoginCount());
+        assertEquals(100, aggregation.getUniqueLoginCount(), 3);
+
+        // Once started the sketch is used even if exact counting is configured again
+        aggregation.countUser("user0", 0);
+        assertEquals(100, aggregation.getUniqueLoginCount(), 3);
+
+        aggregation.intervalComplete(5);
+        final int uniqueLoginCount = aggregation.getUniqueLoginCount();
+        aggregation.countUser("user200", 12);
+        assertEquals(uniqueLoginCount, aggregation.getUniqueLoginCount());
+    }
+}
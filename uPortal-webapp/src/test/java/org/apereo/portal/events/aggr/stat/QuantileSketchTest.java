@@ -0,0 +1,100 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr.stat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class QuantileSketchTest {
+
+    @Test
+    public void testAccuracy() {
+        final Random r = new Random(0);
+        final double[] values = new double[10000];
+        final QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < values.length; i++) {
+            // Log-normal latencies in nanoseconds, centered around 5ms
+            values[i] = Math.exp(Math.log(5000000) + r.nextGaussian());
+            sketch.add(values[i]);
+        }
+        Arrays.sort(values);
+
+        assertEquals(values.length, sketch.getCount());
+        for (double quantile : new double[] {0, 0.1, 0.5, 0.9, 0.95, 0.99, 1}) {
+            final double expected = values[(int) (quantile * (values.length - 1))];
+            final double actual = sketch.getQuantile(quantile);
+            assertEquals(
+                    "quantile " + quantile,
+                    expected,
+                    actual,
+                    expected * QuantileSketch.RELATIVE_ACCURACY);
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        final Random r = new Random(1);
+        final QuantileSketch hour = new QuantileSketch();
+        final QuantileSketch merged = new QuantileSketch();
+        for (int minute = 0; minute < 60; minute++) {
+            final QuantileSketch sketch = new QuantileSketch();
+            for (int i = 0; i < r.nextInt(100); i++) {
+                final double value = r.nextInt(1000) * 1000000.0;
+                sketch.add(value);
+                hour.add(value);
+            }
+            merged.merge(QuantileSketch.fromBytes(sketch.toBytes()));
+        }
+
+        assertEquals(hour, merged);
+        assertEquals(hour.getCount(), merged.getCount());
+        assertEquals(hour.getQuantile(0.99), merged.getQuantile(0.99), 0);
+    }
+
+    @Test
+    public void testSerialization() {
+        final QuantileSketch sketch = new QuantileSketch();
+        assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+        assertEquals(sketch, QuantileSketch.fromBytes(sketch.toBytes()));
+
+        sketch.add(0);
+        sketch.add(0.001);
+        sketch.add(1e12);
+        final byte[] bytes = sketch.toBytes();
+        final QuantileSketch read = QuantileSketch.fromBytes(bytes);
+        assertEquals(sketch, read);
+        assertEquals(3, read.getCount());
+        assertEquals(0, read.getQuantile(0), 0);
+        assertEquals(1e12, read.getQuantile(1), 1e12 * QuantileSketch.RELATIVE_ACCURACY);
+    }
+
+    @Test
+    public void testStatisticalSummaryPercentiles() {
+        final JpaStatisticalSummary summary = new JpaStatisticalSummary();
+        assertTrue(Double.isNaN(summary.getMedian()));
+
+        for (int i = 1; i <= 100; i++) {
+            summary.addValue(i);
+        }
+        assertEquals(50, summary.getMedian(), 50 * QuantileSketch.RELATIVE_ACCURACY);
+        assertEquals(95, summary.getPercentile95(), 95 * QuantileSketch.RELATIVE_ACCURACY);
+        assertEquals(99, summary.getPercentile99(), 99 * QuantileSketch.RELATIVE_ACCURACY);
+        assertEquals(100, summary.getPercentile(100), 0);
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Function;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.ParameterExpression;
+import org.apereo.portal.events.PortalEvent;
+import org.apereo.portal.spring.beans.factory.ObjectMapperFactoryBean;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class JpaPortalEventStoreAggregationTest {
+
+    private JpaPortalEventStore portalEventStore;
+    private Session session;
+    private Query markAggregatedQuery;
+    private Query markErrorQuery;
+    private Query markAggregatedRangeQuery;
+    private List<PersistentPortalEvent> storedEvents;
+
+    @Before
+    public void setup() throws Exception {
+        final ObjectMapperFactoryBean omfb = new ObjectMapperFactoryBean();
+        omfb.afterPropertiesSet();
+        final ObjectMapper mapper = omfb.getObject();
+
+        portalEventStore = new JpaPortalEventStore();
+        portalEventStore.setMapper(mapper);
+        portalEventStore.setAggregationChunkSize(2);
+        portalEventStore.setAggregationDecodeParallelism(2);
+
+        final ParameterExpression<?> startTime = mock(ParameterExpression.class);
+        when(startTime.getName()).thenReturn("startTime");
+        final ParameterExpression<?> endTime = mock(ParameterExpression.class);
+        when(endTime.getName()).thenReturn("endTime");
+        ReflectionTestUtils.setField(portalEventStore, "startTimeParameter", startTime);
+        ReflectionTestUtils.setField(portalEventStore, "endTimeParameter", endTime);
+        ReflectionTestUtils.setField(portalEventStore, "selectUnaggregatedQuery", "select");
+        ReflectionTestUtils.setField(portalEventStore, "markAggregatedQuery", "markAggregated");
+        ReflectionTestUtils.setField(
+                portalEventStore, "markAggregatedRangeQuery", "markAggregatedRange");
+        ReflectionTestUtils.setField(portalEventStore, "markErrorAggregatingQuery", "markError");
+
+        session = mock(Session.class);
+        final EntityManager entityManager = mock(EntityManager.class);
+        when(entityManager.unwrap(Session.class)).thenReturn(session);
+        portalEventStore.setEntityManager(entityManager);
+
+        storedEvents = new ArrayList<>();
+        final Query selectQuery = mock(Query.class);
+        when(session.createQuery("select")).thenReturn(selectQuery);
+        when(selectQuery.scroll(ScrollMode.FORWARD_ONLY))
+                .thenAnswer(
+                        new Answer<ScrollableResults>() {
+                            @Override
+                            public ScrollableResults answer(InvocationOnMock invocation) {
+                                return scrollOver(storedEvents);
+                            }
+                        });
+
+        markAggregatedQuery = mockUpdateQuery("markAggregated");
+        markErrorQuery = mockUpdateQuery("markError");
+        markAggregatedRangeQuery = mockUpdateQuery("markAggregatedRange");
+
+        for (int i = 1; i <= 5; i++) {
+            final PortalEvent event =
+                    mapper.readValue(
+                            "{\"@c\":\".LoginEvent\",\"timestamp\":137174559808"
+                                    + i
+                                    + ",\"serverId\":\"example.com\","
+                                    + "\"eventSessionId\":\"session\",\"userName\":\"user"
+                                    + i
+                                    + "\",\"groups\":[],\"attributes\":{}}",
+                            PortalEvent.class);
+            final String eventData = i == 2 ? "{broken" : portalEventStore.toString(event);
+            final PersistentPortalEvent persistentEvent =
+                    new PersistentPortalEvent(event, eventData);
+            ReflectionTestUtils.setField(persistentEvent, "id", (long) i);
+            storedEvents.add(persistentEvent);
+        }
+    }
+
+    @Test
+    public void testMarksHandledAndFailedEvents() {
+        final List<String> handledUsers = new ArrayList<>();
+        final boolean complete =
+                portalEventStore.aggregatePortalEvents(
+                        DateTime.now().minusDays(1),
+                        DateTime.now(),
+                        -1,
+                        new Function<PortalEvent, Boolean>() {
+                            @Override
+                            public Boolean apply(PortalEvent event) {
+                                handledUsers.add(event.getUserName());
+                                if ("user4".equals(event.getUserName())) {
+                                    throw new IllegalStateException("aggregation failed");
+                                }
+                                return true;
+                            }
+                        });
+
+        assertTrue(complete);
+        assertEquals(Arrays.asList("user1", "user3", "user4", "user5"), handledUsers);
+        assertEquals(Arrays.asList(1L, 3L, 5L), capturedIds(markAggregatedQuery));
+        assertEquals(Arrays.asList(2L, 4L), capturedIds(markErrorQuery));
+    }
+
+    @Test
+    public void testStopRequested() {
+        final boolean complete =
+                portalEventStore.aggregatePortalEvents(
+                        DateTime.now().minusDays(1),
+                        DateTime.now(),
+                        -1,
+                        new Function<PortalEvent, Boolean>() {
+                            @Override
+                            public Boolean apply(PortalEvent event) {
+                                return !"user4".equals(event.getUserName());
+                            }
+                        });
+
+        assertFalse(complete);
+        // The event that triggered the stop and everything after it stays unaggregated
+        assertEquals(Arrays.asList(1L, 3L), capturedIds(markAggregatedQuery));
+        assertEquals(Arrays.asList(2L), capturedIds(markErrorQuery));
+    }
+
+    @Test
+    public void testMarksHandledEventsByRange() {
+        portalEventStore.setAggregationChunkSize(5);
+        final boolean complete =
+                portalEventStore.aggregatePortalEvents(
+                        DateTime.now().minusDays(1),
+                        DateTime.now(),
+                        -1,
+                        new Function<PortalEvent, Boolean>() {
+                            @Override
+                            public Boolean apply(PortalEvent event) {
+                                if ("user4".equals(event.getUserName())) {
+                                    throw new IllegalStateException("aggregation failed");
+                                }
+                                return true;
+                            }
+                        });
+
+        assertTrue(complete);
+        // Failed events are marked first so the range update skips them
+        final InOrder inOrder = inOrder(markErrorQuery, markAggregatedRangeQuery);
+        inOrder.verify(markErrorQuery).executeUpdate();
+        inOrder.verify(markAggregatedRangeQuery).executeUpdate();
+        assertEquals(Arrays.asList(2L, 4L), capturedIds(markErrorQuery));
+
+        // Events 1 and 3 by range, the last handled timestamp by id
+        verify(markAggregatedRangeQuery).setParameter("startTime", timestamp(1));
+        verify(markAggregatedRangeQuery).setParameter("endTime", timestamp(5));
+        assertEquals(Arrays.asList(5L), capturedIds(markAggregatedQuery));
+    }
+
+    @Test
+    public void testStopRequestedWithinRange() {
+        portalEventStore.setAggregationChunkSize(5);
+        // Event 5 shares the timestamp of event 4
+        ReflectionTestUtils.setField(storedEvents.get(4), "timestamp", timestamp(4));
+        final boolean complete =
+                portalEventStore.aggregatePortalEvents(
+                        DateTime.now().minusDays(1),
+                        DateTime.now(),
+                        -1,
+                        new Function<PortalEvent, Boolean>() {
+                            @Override
+                            public Boolean apply(PortalEvent event) {
+                                return !"user5".equals(event.getUserName());
+                            }
+                        });
+
+        assertFalse(complete);
+        // Event 5 stays unaggregated, the range ends before the timestamp it shares with event 4
+        verify(markAggregatedRangeQuery).setParameter("startTime", timestamp(1));
+        verify(markAggregatedRangeQuery).setParameter("endTime", timestamp(4));
+        assertEquals(Arrays.asList(4L), capturedIds(markAggregatedQuery));
+        assertEquals(Arrays.asList(2L), capturedIds(markErrorQuery));
+    }
+
+    private DateTime timestamp(int event) {
+        return storedEvents.get(event - 1).getTimestamp();
+    }
+
+    private Query mockUpdateQuery(String hql) {
+        final Query query = mock(Query.class);
+        when(session.createQuery(hql)).thenReturn(query);
+        when(query.setParameterList(eq("ids"), anyCollection())).thenReturn(query);
+        when(query.setParameter(anyString(), any())).thenReturn(query);
+        return query;
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private List<Long> capturedIds(Query query) {
+        final ArgumentCaptor<Collection> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(query, atLeast(0)).setParameterList(eq("ids"), captor.capture());
+        final List<Long> ids = new ArrayList<>();
+        for (final Collection<Long> partition : captor.getAllValues()) {
+            ids.addAll(partition);
+        }
+        return ids;
+    }
+
+    private static ScrollableResults scrollOver(final List<PersistentPortalEvent> events) {
+        final ScrollableResults results = mock(ScrollableResults.class);
+        final int[] position = {-1};
+        when(results.next())
+                .thenAnswer(
+                        new Answer<Boolean>() {
+                            @Override
+                            public Boolean answer(InvocationOnMock invocation) {
+                                return ++position[0] < events.size();
+                            }
+                        });
+        when(results.get(0))
+                .thenAnswer(
+                        new Answer<Object>() {
+                            @Override
+                            public Object answer(InvocationOnMock invocation) {
+                                return events.get(position[0]);
+                            }
+                        });
+        return results;
+    }
+}
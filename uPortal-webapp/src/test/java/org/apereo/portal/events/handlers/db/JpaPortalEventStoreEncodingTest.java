@@ -0,0 +1,96 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apereo.portal.events.LoginEvent;
+import org.apereo.portal.events.PortalEvent;
+import org.apereo.portal.spring.beans.factory.ObjectMapperFactoryBean;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JpaPortalEventStoreEncodingTest {
+
+    private JpaPortalEventStore portalEventStore;
+    private ObjectMapper mapper;
+
+    @Before
+    public void setup() throws Exception {
+        final ObjectMapperFactoryBean omfb = new ObjectMapperFactoryBean();
+        omfb.afterPropertiesSet();
+        mapper = omfb.getObject();
+
+        portalEventStore = new JpaPortalEventStore();
+        portalEventStore.setMapper(mapper);
+    }
+
+    @Test
+    public void testSmallEventIsPlainJson() throws Exception {
+        final PortalEvent event = createLoginEvent(2);
+
+        final String eventData = portalEventStore.toString(event);
+        assertEquals(mapper.writeValueAsString(event), eventData);
+        assertRoundTrip(event, eventData);
+    }
+
+    @Test
+    public void testLargeEventIsCompressed() throws Exception {
+        final PortalEvent event = createLoginEvent(200);
+        final String json = mapper.writeValueAsString(event);
+
+        final String eventData = portalEventStore.toString(event);
+        assertTrue(eventData.startsWith("gz:"));
+        assertTrue(eventData.length() < json.length() / 2);
+        assertRoundTrip(event, eventData);
+
+        // Existing uncompressed rows can still be read
+        assertRoundTrip(event, json);
+    }
+
+    @Test
+    public void testCompressionDisabled() throws Exception {
+        final PortalEvent event = createLoginEvent(200);
+        portalEventStore.setCompressionThreshold(-1);
+
+        final String eventData = portalEventStore.toString(event);
+        assertEquals(mapper.writeValueAsString(event), eventData);
+        assertRoundTrip(event, eventData);
+    }
+
+    private void assertRoundTrip(PortalEvent expected, String eventData) throws Exception {
+        final LoginEvent actual = portalEventStore.toPortalEvent(eventData, LoginEvent.class);
+        assertEquals(mapper.writeValueAsString(expected), mapper.writeValueAsString(actual));
+    }
+
+    private PortalEvent createLoginEvent(int groupCount) throws Exception {
+        final StringBuilder groups = new StringBuilder();
+        for (int i = 0; i < groupCount; i++) {
+            if (i > 0) {
+                groups.append(',');
+            }
+            groups.append("\"Group ").append(i).append('"');
+        }
+        final String json =
+                "{\"@c\":\".LoginEvent\",\"timestamp\":1371745598080,\"serverId\":\"example.com\","
+                        + "\"eventSessionId\":\"1234567890123_system_AAAAAAAAAAA\","
+                        + "\"userName\":\"system\",\"groups\":["
+                        + groups
+                        + "],\"attributes\":{\"username\":[\"system\"]}}";
+        return mapper.readValue(json, PortalEvent.class);
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LocalGroupClosureIndexTest {
+
+    private static final int GROUP_COUNT = 60;
+
+    @Test
+    public void testBuildAndQuery() {
+        final Map<String, List<String>> memberships = new HashMap<>();
+        memberships.put("1", Arrays.asList("2", "3"));
+        memberships.put("2", Collections.singletonList("4"));
+        memberships.put("3", Collections.singletonList("4"));
+        memberships.put("4", Collections.singletonList("5"));
+
+        final LocalGroupClosureIndex index = new LocalGroupClosureIndex(memberships, 300000L);
+
+        Assert.assertTrue(index.isAncestor("1", "5"));
+        Assert.assertTrue(index.isAncestor("3", "4"));
+        Assert.assertFalse(index.isAncestor("2", "3"));
+        Assert.assertFalse(index.isAncestor("5", "1"));
+        Assert.assertFalse(index.isAncestor("1", "unknown"));
+        Assert.assertEquals(Arrays.asList("1", "2", "3", "4"), index.getAncestorKeys("5"));
+        Assert.assertTrue(index.getAncestorKeys("1").isEmpty());
+        Assert.assertFalse(index.isExpired());
+    }
+
+    @Test
+    public void testUpdateAndRemove() {
+        final Map<String, List<String>> memberships = new HashMap<>();
+        memberships.put("1", Collections.singletonList("2"));
+        memberships.put("2", Collections.singletonList("3"));
+
+        final LocalGroupClosureIndex index = new LocalGroupClosureIndex(memberships, 300000L);
+
+        // Move 2 (with 3 below it) from 1 to 4
+        index.updateMemberships(
+                "4", Collections.singletonList("2"), Collections.<String>emptyList());
+        index.updateMemberships(
+                "1", Collections.<String>emptyList(), Collections.singletonList("2"));
+        Assert.assertEquals(Arrays.asList("2", "4"), index.getAncestorKeys("3"));
+        Assert.assertFalse(index.isAncestor("1", "3"));
+
+        index.removeGroup("2");
+        Assert.assertTrue(index.getAncestorKeys("3").isEmpty());
+        Assert.assertFalse(index.isAncestor("4", "2"));
+    }
+
+    @Test
+    public void testMatchesHierarchyWalk() {
+        final Random random = new Random(1234L);
+        final Map<String, Set<String>> children = new HashMap<>();
+        for (int i = 0; i < GROUP_COUNT; i++) {
+            children.put(Integer.toString(i), new HashSet<String>());
+        }
+        // Edges only go from lower to higher numbers, so the hierarchy has no cycles
+        for (int i = 0; i < GROUP_COUNT * 2; i++) {
+            final int parent = random.nextInt(GROUP_COUNT - 1);
+            final int child = parent + 1 + random.nextInt(GROUP_COUNT - parent - 1);
+            children.get(Integer.toString(parent)).add(Integer.toString(child));
+        }
+
+        final LocalGroupClosureIndex index = new LocalGroupClosureIndex(children, 300000L);
+        assertMatches(children, index);
+
+        for (int i = 0; i < 200; i++) {
+            final int parent = random.nextInt(GROUP_COUNT - 1);
+            final String parentKey = Integer.toString(parent);
+            final String childKey =
+                    Integer.toString(parent + 1 + random.nextInt(GROUP_COUNT - parent - 1));
+            if (children.get(parentKey).remove(childKey)) {
+                index.updateMemberships(
+                        parentKey,
+                        Collections.<String>emptyList(),
+                        Collections.singletonList(childKey));
+            } else {
+                children.get(parentKey).add(childKey);
+                index.updateMemberships(
+                        parentKey,
+                        Collections.singletonList(childKey),
+                        Collections.<String>emptyList());
+            }
+            assertMatches(children, index);
+        }
+    }
+
+    private void assertMatches(Map<String, Set<String>> children, LocalGroupClosureIndex index) {
+        for (String ancestor : children.keySet()) {
+            final Set<String> descendants = new HashSet<>();
+            final List<String> queue = new ArrayList<>(children.get(ancestor));
+            while (!queue.isEmpty()) {
+                final String key = queue.remove(queue.size() - 1);
+                if (descendants.add(key)) {
+                    queue.addAll(children.get(key));
+                }
+            }
+            for (String key : children.keySet()) {
+                Assert.assertEquals(
+                        ancestor + " contains " + key,
+                        descendants.contains(key),
+                        index.isAncestor(ancestor, key));
+            }
+        }
+    }
+}
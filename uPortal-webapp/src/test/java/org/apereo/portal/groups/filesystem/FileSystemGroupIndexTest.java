@@ -0,0 +1,178 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups.filesystem;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import org.apereo.portal.groups.GroupServiceConfiguration;
+import org.apereo.portal.security.IPerson;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileSystemGroupIndexTest {
+
+    private static final long WATCH_TIMEOUT = 30000L;
+
+    private static final FilenameFilter ALL_FILES =
+            new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name) {
+                    return true;
+                }
+            };
+
+    @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private FileSystemGroupStore store;
+    private File typeRoot;
+    private FileSystemGroupIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new FileSystemGroupStore(new GroupServiceConfiguration());
+        store.setGroupsRootPath(tempFolder.getRoot().getPath());
+        typeRoot = tempFolder.newFolder(IPerson.class.getName());
+    }
+
+    @After
+    public void tearDown() {
+        if (index != null) {
+            index.close();
+        }
+    }
+
+    @Test
+    public void testBuild() throws Exception {
+        final File staff = writeGroupFile("staff", "# comment", "alice Alice", "bob", "group:x/y");
+        final File faculty = writeGroupFile("dept/faculty", "carol", "bob");
+
+        index = new FileSystemGroupIndex(store, typeRoot, ALL_FILES);
+
+        Assert.assertEquals(2, index.size());
+        Assert.assertEquals(Collections.singleton(staff), index.getFilesContainingEntity("alice"));
+        Assert.assertEquals(2, index.getFilesContainingEntity("bob").size());
+        Assert.assertTrue(index.getFilesContainingEntity("bob").contains(faculty));
+        Assert.assertTrue(index.getFilesContainingEntity("dave").isEmpty());
+        Assert.assertEquals(Collections.singleton(staff), index.getFilesContainingGroup("x/y"));
+        Assert.assertTrue(index.getFilesContainingEntity("group:x/y").isEmpty());
+        Assert.assertTrue(index.covers(staff));
+    }
+
+    @Test
+    public void testWatch() throws Exception {
+        final File staff = writeGroupFile("staff", "alice");
+        index = new FileSystemGroupIndex(store, typeRoot, ALL_FILES);
+
+        writeGroupFile("staff", "bob");
+        awaitMembership("bob", Collections.singleton(staff));
+        Assert.assertTrue(index.getFilesContainingEntity("alice").isEmpty());
+
+        final File faculty = writeGroupFile("dept/faculty", "carol");
+        awaitMembership("carol", Collections.singleton(faculty));
+
+        Assert.assertTrue(staff.delete());
+        awaitMembership("bob", Collections.<File>emptySet());
+        Assert.assertEquals(
+                Collections.singleton(faculty), index.getFilesContainingEntity("carol"));
+    }
+
+    /**
+     * Compares reading every group file, as <code>findParentGroups</code> did before the index, to
+     * looking members up in the index.
+     */
+    @Ignore
+    @Test
+    public void benchmark() throws Exception {
+        final int fileCount = 10000;
+        final int lookupCount = 100;
+        for (int i = 0; i < fileCount; i++) {
+            writeGroupFile(
+                    "dir" + (i % 100) + "/group" + i,
+                    "user" + i,
+                    "user" + (i + 1),
+                    "user" + (i * 7 % fileCount),
+                    "group:" + IPerson.class.getName() + "/dir0/group" + (i / 2));
+        }
+
+        long start = System.nanoTime();
+        index = new FileSystemGroupIndex(store, typeRoot, ALL_FILES);
+        final long buildNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int scanned = 0;
+        for (int i = 0; i < lookupCount; i++) {
+            final String key = "user" + (i * 97 % fileCount);
+            for (File f : store.getAllFilesBelow(typeRoot)) {
+                if (store.getEntityIdsFromFile(f).contains(key)) {
+                    scanned++;
+                }
+            }
+        }
+        final long scanNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int indexed = 0;
+        for (int i = 0; i < lookupCount; i++) {
+            indexed += index.getFilesContainingEntity("user" + (i * 97 % fileCount)).size();
+        }
+        final long indexNanos = System.nanoTime() - start;
+
+        Assert.assertEquals(scanned, indexed);
+        System.out.println(
+                "FileSystemGroupIndex with "
+                        + fileCount
+                        + " files:  build "
+                        + buildNanos / 1000000
+                        + "ms, "
+                        + lookupCount
+                        + " lookups by scanning "
+                        + scanNanos / 1000000
+                        + "ms, "
+                        + lookupCount
+                        + " indexed lookups "
+                        + indexNanos / 1000
+                        + "us");
+    }
+
+    private File writeGroupFile(String path, String... lines) throws IOException {
+        final File f = new File(typeRoot, path);
+        f.getParentFile().mkdirs();
+        try (FileWriter writer = new FileWriter(f)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        return f;
+    }
+
+    private void awaitMembership(String entityKey, Set<File> expected) throws Exception {
+        final long deadline = System.currentTimeMillis() + WATCH_TIMEOUT;
+        while (!expected.equals(index.getFilesContainingEntity(entityKey))
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50L);
+        }
+        Assert.assertEquals(expected, index.getFilesContainingEntity(entityKey));
+    }
+}
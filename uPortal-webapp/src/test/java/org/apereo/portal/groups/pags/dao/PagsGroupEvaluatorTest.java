@@ -0,0 +1,211 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups.pags.dao;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.apereo.portal.groups.pags.PagsGroup;
+import org.apereo.portal.groups.pags.TestGroup;
+import org.apereo.portal.groups.pags.testers.IntegerGTTester;
+import org.apereo.portal.groups.pags.testers.RegexTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsIgnoreCaseTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsTester;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.security.PersonFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PagsGroupEvaluatorTest {
+
+    private static final String[] ATTRIBUTES = {"eduPersonAffiliation", "department", "level"};
+    private static final String[] VALUES = {
+        "student", "Student", "faculty", "staff", "\u0130", "i"
+    };
+    private static final String[] TESTERS = {
+        StringEqualsTester.class.getName(),
+        StringEqualsIgnoreCaseTester.class.getName(),
+        RegexTester.class.getName()
+    };
+
+    @Test
+    public void testMatchesPagsGroupContains() {
+        final Random random = new Random(42L);
+        final List<IPersonAttributesGroupDefinition> definitions = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            definitions.add(randomGroup("group" + i, random));
+        }
+        final PagsGroupEvaluator evaluator = PagsGroupEvaluator.compile(definitions);
+        Assert.assertEquals(definitions.size(), evaluator.getGroupCount());
+        Assert.assertTrue(evaluator.getTestCount() < 200 * 3 * 3);
+
+        final List<PagsGroup> pagsGroups = new ArrayList<>();
+        for (IPersonAttributesGroupDefinition definition : definitions) {
+            pagsGroups.add(toPagsGroup(definition));
+        }
+
+        for (int p = 0; p < 500; p++) {
+            final IPerson person = randomPerson(random);
+            final Set<String> expected = new HashSet<>();
+            for (PagsGroup pagsGroup : pagsGroups) {
+                if (pagsGroup.contains(person)) {
+                    expected.add(pagsGroup.getName());
+                }
+            }
+            Assert.assertEquals(expected, evaluator.evaluate(person));
+        }
+    }
+
+    @Test
+    public void testGroupWithBrokenTesterIsNotCompiled() {
+        final IPersonAttributesGroupDefinition broken =
+                group(
+                        "broken",
+                        testGroup(
+                                test(StringEqualsTester.class.getName(), "level", "1"),
+                                test("org.example.NoSuchTester", "level", "1")));
+        final IPersonAttributesGroupDefinition empty = group("empty");
+        final IPersonAttributesGroupDefinition everyone = group("everyone", testGroup());
+        final IPersonAttributesGroupDefinition senior =
+                group(
+                        "senior",
+                        testGroup(test(IntegerGTTester.class.getName(), "level", "3")),
+                        testGroup(test(StringEqualsTester.class.getName(), "level", "senior")));
+
+        final PagsGroupEvaluator evaluator =
+                PagsGroupEvaluator.compile(Arrays.asList(broken, empty, everyone, senior));
+        Assert.assertFalse(evaluator.isCompiled("broken"));
+        Assert.assertTrue(evaluator.isCompiled("empty"));
+
+        final IPerson person = PersonFactory.createPerson();
+        person.setAttribute("level", "5");
+        Assert.assertEquals(
+                new HashSet<>(Arrays.asList("everyone", "senior")), evaluator.evaluate(person));
+        person.setAttribute("level", "senior");
+        Assert.assertEquals(
+                new HashSet<>(Arrays.asList("everyone", "senior")), evaluator.evaluate(person));
+        person.setAttribute("level", "1");
+        Assert.assertEquals(Collections.singleton("everyone"), evaluator.evaluate(person));
+    }
+
+    @Test
+    public void testFoldCaseAgreesWithEqualsIgnoreCase() {
+        final String[] values = {
+            "abc", "ABC", "aBc", "\u0130", "i", "I", "\u0131", "\u00df", "SS", "\u01c5", "\u01c6"
+        };
+        for (String a : values) {
+            for (String b : values) {
+                Assert.assertEquals(
+                        a + " / " + b,
+                        a.equalsIgnoreCase(b),
+                        PagsGroupEvaluator.foldCase(a).equals(PagsGroupEvaluator.foldCase(b)));
+            }
+        }
+    }
+
+    /*
+     * Implementation
+     */
+
+    private IPersonAttributesGroupDefinition randomGroup(String name, Random random) {
+        final List<IPersonAttributesGroupTestGroupDefinition> testGroups = new ArrayList<>();
+        final int testGroupCount = random.nextInt(4);
+        for (int i = 0; i < testGroupCount; i++) {
+            final List<IPersonAttributesGroupTestDefinition> tests = new ArrayList<>();
+            final int testCount = random.nextInt(4);
+            for (int j = 0; j < testCount; j++) {
+                final String tester = TESTERS[random.nextInt(TESTERS.length)];
+                final String value = VALUES[random.nextInt(VALUES.length)];
+                tests.add(
+                        test(
+                                tester,
+                                ATTRIBUTES[random.nextInt(ATTRIBUTES.length)],
+                                tester.equals(RegexTester.class.getName())
+                                        ? value.substring(0, 1) + ".*"
+                                        : value));
+            }
+            testGroups.add(testGroup(tests.toArray(new IPersonAttributesGroupTestDefinition[0])));
+        }
+        return group(name, testGroups.toArray(new IPersonAttributesGroupTestGroupDefinition[0]));
+    }
+
+    private IPerson randomPerson(Random random) {
+        final IPerson person = PersonFactory.createPerson();
+        for (String attribute : ATTRIBUTES) {
+            final List<Object> values = new ArrayList<>();
+            final int valueCount = random.nextInt(3);
+            for (int i = 0; i < valueCount; i++) {
+                values.add(VALUES[random.nextInt(VALUES.length)]);
+            }
+            if (!values.isEmpty()) {
+                person.setAttribute(attribute, values);
+            }
+        }
+        return person;
+    }
+
+    private PagsGroup toPagsGroup(IPersonAttributesGroupDefinition definition) {
+        final PagsGroup rslt = new PagsGroup();
+        rslt.setName(definition.getName());
+        for (IPersonAttributesGroupTestGroupDefinition testGroup : definition.getTestGroups()) {
+            final TestGroup tg = new TestGroup();
+            for (IPersonAttributesGroupTestDefinition test : testGroup.getTests()) {
+                tg.addTest(PagsGroupEvaluator.initializeTester(test));
+            }
+            rslt.addTestGroup(tg);
+        }
+        return rslt;
+    }
+
+    private IPersonAttributesGroupDefinition group(
+            String name, IPersonAttributesGroupTestGroupDefinition... testGroups) {
+        final IPersonAttributesGroupDefinition rslt = mock(IPersonAttributesGroupDefinition.class);
+        when(rslt.getName()).thenReturn(name);
+        when(rslt.getTestGroups())
+                .thenReturn(
+                        new LinkedHashSet<IPersonAttributesGroupTestGroupDefinition>(
+                                Arrays.asList(testGroups)));
+        return rslt;
+    }
+
+    private IPersonAttributesGroupTestGroupDefinition testGroup(
+            IPersonAttributesGroupTestDefinition... tests) {
+        final IPersonAttributesGroupTestGroupDefinition rslt =
+                mock(IPersonAttributesGroupTestGroupDefinition.class);
+        when(rslt.getTests())
+                .thenReturn(
+                        new LinkedHashSet<IPersonAttributesGroupTestDefinition>(
+                                Arrays.asList(tests)));
+        return rslt;
+    }
+
+    private IPersonAttributesGroupTestDefinition test(
+            String testerClassName, String attributeName, String testValue) {
+        final IPersonAttributesGroupTestDefinition rslt =
+                mock(IPersonAttributesGroupTestDefinition.class);
+        when(rslt.getTesterClassName()).thenReturn(testerClassName);
+        when(rslt.getAttributeName()).thenReturn(attributeName);
+        when(rslt.getTestValue()).thenReturn(testValue);
+        return rslt;
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.transform.dom.DOMSource;
+import org.apereo.portal.layout.node.IUserLayoutChannelDescription;
+import org.apereo.portal.layout.node.IUserLayoutFolderDescription;
+import org.apereo.portal.utils.DocumentFactory;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class CompactUserLayoutTest {
+
+    @Test
+    public void testStreamsSameEventsAsDom() throws Exception {
+        final Document document = createLayout("My Tab");
+        final CompactUserLayout layout =
+                new CompactUserLayout(new DistributedUserLayout(document), "1");
+
+        final XMLEventReader expected =
+                XMLInputFactory.newInstance().createXMLEventReader(new DOMSource(document));
+        final XMLEventReader actual = layout.getXMLEventReader();
+        while (expected.hasNext()) {
+            assertTrue(actual.hasNext());
+            assertEquals(describe(expected.nextEvent()), describe(actual.nextEvent()));
+        }
+        assertFalse(actual.hasNext());
+    }
+
+    @Test
+    public void testNavigation() {
+        final CompactUserLayout layout =
+                new CompactUserLayout(new DistributedUserLayout(createLayout("My Tab")), "1");
+
+        assertEquals("1", layout.getId());
+        assertEquals("root", layout.getRootId());
+        assertEquals("root", layout.getParentId("u10l1s2"));
+        assertEquals("u10l1s3", layout.getParentId("u10l1n4"));
+        assertEquals("", layout.getParentId("root"));
+        assertNull(layout.getParentId("missing"));
+        assertEquals(Arrays.asList("u10l1s2", "s5"), Collections.list(layout.getChildIds("root")));
+        assertEquals(Collections.emptyList(), Collections.list(layout.getChildIds("u10l1n4")));
+        assertEquals(Arrays.asList("s5"), layout.getChildIds("root", true));
+
+        assertEquals("s5", layout.getNextSiblingId("u10l1s2"));
+        assertNull(layout.getNextSiblingId("s5"));
+        assertEquals("u10l1s2", layout.getPreviousSiblingId("s5"));
+        assertNull(layout.getPreviousSiblingId("u10l1s2"));
+
+        assertEquals("u10l1n4", layout.getSubscribeId("weather"));
+        assertEquals("u10l1n4", layout.getSubscribeId("u10l1s2", "weather"));
+        assertNull(layout.getSubscribeId("s5", "weather"));
+        assertNull(layout.getSubscribeId("news"));
+        assertEquals(Collections.singleton("u10l1n4"), layout.getChannelIds());
+        assertFalse(layout.isFragmentLayout());
+
+        final IUserLayoutFolderDescription tab =
+                (IUserLayoutFolderDescription) layout.getNodeDescription("s5");
+        assertEquals("My Tab", tab.getName());
+        assertFalse(tab.isDeleteAllowed());
+
+        final IUserLayoutChannelDescription channel =
+                (IUserLayoutChannelDescription) layout.getNodeDescription("u10l1n4");
+        assertEquals("weather", channel.getFunctionalName());
+        assertEquals("metric", channel.getParameterValue("units"));
+    }
+
+    @Test
+    public void testCopiesToEditableDom() throws Exception {
+        final CompactUserLayout layout =
+                new CompactUserLayout(new DistributedUserLayout(createLayout("My Tab")), "1");
+
+        final Document copy = layout.toDistributedUserLayout().getLayout();
+        final Element channel = copy.getElementById("u10l1n4");
+        assertEquals("weather", channel.getAttribute("fname"));
+        assertEquals("u10l1s3", ((Element) channel.getParentNode()).getAttribute("ID"));
+        assertEquals(
+                "false",
+                copy.getElementById("s5")
+                        .getAttributeNS(Constants.NS_URI, Constants.LCL_DELETE_ALLOWED));
+
+        // The copy serializes to the same events, namespace declarations included
+        final XMLEventReader expected = layout.getXMLEventReader();
+        final XMLEventReader actual =
+                XMLInputFactory.newInstance().createXMLEventReader(new DOMSource(copy));
+        while (expected.hasNext()) {
+            assertTrue(actual.hasNext());
+            assertEquals(describe(expected.nextEvent()), describe(actual.nextEvent()));
+        }
+        assertFalse(actual.hasNext());
+
+        // Edits to the copy do not reach the layout
+        copy.getElementById("s5").setAttribute("name", "Renamed");
+        assertEquals(
+                "My Tab",
+                ((IUserLayoutFolderDescription) layout.getNodeDescription("s5")).getName());
+    }
+
+    @Test
+    public void testSharesFragmentNodes() {
+        final CompactUserLayout first =
+                new CompactUserLayout(new DistributedUserLayout(createLayout("Mine")), "1");
+        final CompactUserLayout second =
+                new CompactUserLayout(new DistributedUserLayout(createLayout("Yours")), "1");
+
+        assertTrue(CompactUserLayout.isShared(first, second, "u10l1s2"));
+        assertTrue(CompactUserLayout.isShared(first, second, "u10l1n4"));
+        assertFalse(CompactUserLayout.isShared(first, second, "s5"));
+        assertFalse(CompactUserLayout.isShared(first, second, "root"));
+    }
+
+    /** A layout with one tab from a fragment and one personal tab */
+    private static Document createLayout(String tabName) {
+        final Document document = DocumentFactory.getThreadDocument();
+        final Element layout = document.createElement("layout");
+        layout.setAttribute(Constants.NS_DECL, Constants.NS_URI);
+        document.appendChild(layout);
+
+        final Element header = document.createElementNS(Constants.NS_URI, "dlm:header");
+        header.setAttributeNS(
+                XMLConstants.XMLNS_ATTRIBUTE_NS_URI, Constants.NS_DECL, Constants.NS_URI);
+        layout.appendChild(header);
+
+        final Element root = folder(document, "root", "root", "root");
+        layout.appendChild(root);
+
+        final Element fragmentTab = folder(document, "u10l1s2", "Welcome", "regular");
+        fragmentTab.setAttributeNS(Constants.NS_URI, Constants.ATT_ORIGIN, "u10l1s2");
+        root.appendChild(fragmentTab);
+        final Element column = folder(document, "u10l1s3", "Column", "regular");
+        fragmentTab.appendChild(column);
+
+        final Element channel = document.createElement("channel");
+        channel.setAttribute("ID", "u10l1n4");
+        channel.setAttribute("fname", "weather");
+        channel.setAttribute("chanID", "42");
+        channel.setAttribute("timeout", "10000");
+        final Element parameter = document.createElement("parameter");
+        parameter.setAttribute("name", "units");
+        parameter.setAttribute("value", "metric");
+        channel.appendChild(parameter);
+        column.appendChild(channel);
+
+        final Element personalTab = folder(document, "s5", tabName, "regular");
+        personalTab.setAttributeNS(Constants.NS_URI, Constants.ATT_DELETE_ALLOWED, "false");
+        personalTab.setAttribute(Constants.ATT_HIDDEN, "false");
+        personalTab.appendChild(document.createTextNode(" "));
+        root.appendChild(personalTab);
+
+        return document;
+    }
+
+    private static Element folder(Document document, String id, String name, String type) {
+        final Element folder = document.createElement("folder");
+        folder.setAttribute("ID", id);
+        folder.setAttribute("name", name);
+        folder.setAttribute("type", type);
+        return folder;
+    }
+
+    private static String describe(XMLEvent event) {
+        if (event.isStartElement()) {
+            final StartElement startElement = event.asStartElement();
+            final TreeSet<String> attributes = new TreeSet<String>();
+            for (final Iterator<?> itr = startElement.getAttributes(); itr.hasNext(); ) {
+                final Attribute attribute = (Attribute) itr.next();
+                attributes.add(attribute.getName() + "=" + attribute.getValue());
+            }
+            final List<String> namespaces = new ArrayList<String>();
+            for (final Iterator<?> itr = startElement.getNamespaces(); itr.hasNext(); ) {
+                final Namespace namespace = (Namespace) itr.next();
+                namespaces.add(namespace.getPrefix() + "=" + namespace.getNamespaceURI());
+            }
+            return "<" + startElement.getName() + " " + attributes + " " + namespaces;
+        }
+        if (event.isEndElement()) {
+            return "</" + event.asEndElement().getName();
+        }
+        if (event.isCharacters()) {
+            return "'" + event.asCharacters().getData() + "'";
+        }
+        return String.valueOf(event.getEventType());
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.apereo.portal.security.IAuthorizationPrincipal;
+import org.apereo.portal.utils.DocumentFactory;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class FragmentBaselineTest {
+
+    private final Document news = createFragment("u10l1", "1", "2");
+    private final Document admin = createFragment("u20l1", "2", "3");
+    private final List<Document> fragments = Arrays.asList(news, admin);
+
+    @Test
+    public void testSameLayoutAsMergingEachFragment() throws Exception {
+        final FragmentBaseline baseline =
+                new FragmentBaseline(Arrays.asList("news", "admin"), fragments);
+
+        for (IAuthorizationPrincipal ap :
+                Arrays.asList(principal(), principal("2"), principal("1", "3"))) {
+            final Document expected = createLayout();
+            for (Document fragment : fragments) {
+                ILFBuilder.mergeFragment(fragment, expected, ap);
+            }
+            assertEquals(toString(expected), toString(baseline.createLayout(ap)));
+        }
+    }
+
+    @Test
+    public void testLayoutsAreCopies() {
+        final FragmentBaseline baseline =
+                new FragmentBaseline(Arrays.asList("news", "admin"), fragments);
+
+        final Document layout = baseline.createLayout(principal());
+        assertNotSame(layout, baseline.createLayout(principal()));
+        assertEquals(4, layout.getElementsByTagName("channel").getLength());
+        assertEquals("channel", layout.getElementById("u10l1n2").getTagName());
+
+        // Filtering and changing a copy must not change the baseline
+        final Document filtered = baseline.createLayout(principal("2"));
+        assertEquals(2, filtered.getElementsByTagName("channel").getLength());
+        assertNull(filtered.getElementById("u20l1n2"));
+        final Element tab = filtered.getElementById("u10l1s1");
+        tab.getParentNode().removeChild(tab);
+        assertEquals(
+                4, baseline.createLayout(principal()).getElementsByTagName("channel").getLength());
+    }
+
+    @Test
+    public void testEachChannelCheckedOnce() throws Exception {
+        final List<String> ownerIds = new ArrayList<String>();
+        final List<Document> layouts = new ArrayList<Document>();
+        final String[] channelIds = new String[20];
+        for (int i = 0; i < channelIds.length; i++) {
+            channelIds[i] = String.valueOf(i % 3 + 1);
+        }
+        for (int f = 0; f < 5; f++) {
+            ownerIds.add("owner" + f);
+            final Document fragment = createFragment("u" + f + "l1", channelIds);
+            final Element root = (Element) fragment.getDocumentElement().getFirstChild();
+            for (int t = 2; t <= 10; t++) {
+                final Element tab = (Element) root.getFirstChild().cloneNode(true);
+                tab.setAttribute("ID", "u" + f + "l1s" + t);
+                root.appendChild(tab);
+            }
+            layouts.add(fragment);
+        }
+        final FragmentBaseline baseline = new FragmentBaseline(ownerIds, layouts);
+
+        // Merging each fragment checks every channel element of every fragment
+        final IAuthorizationPrincipal mergeAp = principal("3");
+        final Document expected = createLayout();
+        for (Document fragment : layouts) {
+            ILFBuilder.mergeFragment(fragment, expected, mergeAp);
+        }
+        verify(mergeAp, times(350)).canRender("1");
+        verify(mergeAp, times(300)).canRender("3");
+
+        // The baseline checks each distinct channel once
+        final IAuthorizationPrincipal baselineAp = principal("3");
+        assertEquals(toString(expected), toString(baseline.createLayout(baselineAp)));
+        for (String channelId : Arrays.asList("1", "2", "3")) {
+            verify(baselineAp, times(1)).canRender(channelId);
+        }
+    }
+
+    @Test
+    public void testIsBuiltFrom() {
+        final FragmentBaseline baseline =
+                new FragmentBaseline(Arrays.asList("news", "admin"), fragments);
+
+        assertTrue(baseline.isBuiltFrom(Arrays.asList(news, admin)));
+        assertFalse(baseline.isBuiltFrom(Arrays.asList(admin, news)));
+        assertFalse(baseline.isBuiltFrom(Arrays.asList(news)));
+        assertFalse(baseline.isBuiltFrom(Arrays.asList(news, createFragment("u20l1", "2", "3"))));
+    }
+
+    private static IAuthorizationPrincipal principal(String... deniedChannelIds) {
+        final IAuthorizationPrincipal ap = mock(IAuthorizationPrincipal.class);
+        for (String channelId : Arrays.asList("1", "2", "3")) {
+            when(ap.canRender(channelId))
+                    .thenReturn(!Arrays.asList(deniedChannelIds).contains(channelId));
+        }
+        return ap;
+    }
+
+    private static Document createLayout() {
+        final Document document = DocumentFactory.getThreadDocument();
+        final Element layout = document.createElement("layout");
+        document.appendChild(layout);
+        layout.appendChild(document.createElement("folder"));
+        return document;
+    }
+
+    private static Document createFragment(String idPrefix, String... channelIds) {
+        final Document document = createLayout();
+        final Element root = (Element) document.getDocumentElement().getFirstChild();
+        root.setAttribute("ID", "root");
+
+        final Element tab = document.createElement("folder");
+        tab.setAttribute("ID", idPrefix + "s1");
+        tab.setAttribute("type", "regular");
+        root.appendChild(tab);
+        for (int i = 0; i < channelIds.length; i++) {
+            final Element channel = document.createElement("channel");
+            channel.setAttribute("ID", idPrefix + "n" + (i + 2));
+            channel.setAttribute("chanID", channelIds[i]);
+            final Element parameter = document.createElement("parameter");
+            parameter.setAttribute("name", "p");
+            channel.appendChild(parameter);
+            tab.appendChild(channel);
+        }
+        return document;
+    }
+
+    private static String toString(Document document) throws Exception {
+        final StringWriter writer = new StringWriter();
+        TransformerFactory.newInstance()
+                .newTransformer()
+                .transform(new DOMSource(document), new StreamResult(writer));
+        return writer.toString();
+    }
+}
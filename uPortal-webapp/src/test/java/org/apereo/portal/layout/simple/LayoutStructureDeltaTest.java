@@ -0,0 +1,320 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apereo.portal.layout.simple.LayoutStructureRows.StructRow;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Verifies that applying a {@link LayoutStructureDelta} to the persisted rows produces the same
+ * tables as the full delete and re-insert save, by running the generated statements against an
+ * in-memory copy of the UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM tables.
+ */
+public class LayoutStructureDeltaTest {
+    private static final int USER_ID = 42;
+    private static final int LAYOUT_ID = 1;
+
+    @Test
+    public void testMovePortlet() throws Exception {
+        // Tab 2 with columns 3 and 4, portlets 5,6 in column 3 and 7 in column 4
+        final LayoutStructureRows persisted = new LayoutStructureRows();
+        persisted.addStruct(folder(2, 0, 3, "Home"));
+        persisted.addStruct(folder(3, 4, 5, "Column"));
+        persisted.addStruct(folder(4, 0, 7, "Column"));
+        persisted.addStruct(portlet(5, 6, 10));
+        persisted.addStruct(portlet(6, 0, 11));
+        persisted.addStruct(portlet(7, 0, 12));
+        persisted.addParameter(3, "dlm:width", "50%");
+        persisted.addParameter(4, "dlm:width", "50%");
+        persisted.addParameter(6, "showChrome", "false");
+
+        // Move portlet 6 to the top of column 4
+        final LayoutStructureRows updated = new LayoutStructureRows();
+        updated.addStruct(folder(2, 0, 3, "Home"));
+        updated.addStruct(folder(3, 4, 5, "Column"));
+        updated.addStruct(folder(4, 0, 6, "Column"));
+        updated.addStruct(portlet(5, 0, 10));
+        updated.addStruct(portlet(6, 7, 11));
+        updated.addStruct(portlet(7, 0, 12));
+        updated.addParameter(3, "dlm:width", "50%");
+        updated.addParameter(4, "dlm:width", "50%");
+        updated.addParameter(6, "showChrome", "false");
+
+        final LayoutStructureDelta delta = LayoutStructureDelta.compare(persisted, updated);
+        assertEquals(3, delta.getChangeCount());
+        assertSameAsFullSave(persisted, updated);
+    }
+
+    @Test
+    public void testAddRemoveAndParameterChanges() throws Exception {
+        final LayoutStructureRows persisted = new LayoutStructureRows();
+        persisted.addStruct(folder(2, 0, 3, "Home"));
+        persisted.addStruct(folder(3, 0, 5, "Column"));
+        persisted.addStruct(portlet(5, 6, 10));
+        persisted.addStruct(portlet(6, 0, 11));
+        persisted.addParameter(3, "dlm:width", "100%");
+        persisted.addParameter(5, "removed", "value");
+
+        final LayoutStructureRows updated = new LayoutStructureRows();
+        updated.addStruct(folder(2, 0, 3, "Renamed"));
+        updated.addStruct(folder(3, 0, 8, "Column"));
+        updated.addStruct(portlet(8, 6, 13));
+        updated.addStruct(portlet(6, 0, 11));
+        updated.addParameter(3, "dlm:width", "75%");
+        updated.addParameter(8, "added", "value");
+
+        final LayoutStructureDelta delta = LayoutStructureDelta.compare(persisted, updated);
+        // 2 struct updates, 1 insert, 1 delete and 3 parameter changes
+        assertEquals(7, delta.getChangeCount());
+        assertSameAsFullSave(persisted, updated);
+    }
+
+    @Test
+    public void testNoChanges() throws Exception {
+        final LayoutStructureRows persisted = new LayoutStructureRows();
+        persisted.addStruct(new StructRow(2, 0, 0, null, null, "", "regular", "N", "N", "N"));
+
+        // Empty and null names are equivalent, some databases store empty strings as null
+        final LayoutStructureRows updated = new LayoutStructureRows();
+        updated.addStruct(new StructRow(2, 0, 0, null, null, null, "regular", "N", "N", "N"));
+
+        assertEquals(0, LayoutStructureDelta.compare(persisted, updated).getChangeCount());
+    }
+
+    @Test
+    public void testRandomLayoutChanges() throws Exception {
+        final Random random = new Random(20171016L);
+        for (int i = 0; i < 200; i++) {
+            final LayoutStructureRows persisted = randomLayout(random);
+            final LayoutStructureRows updated = randomLayout(random);
+            assertSameAsFullSave(persisted, updated);
+        }
+    }
+
+    private static void assertSameAsFullSave(
+            LayoutStructureRows persisted, LayoutStructureRows updated) throws Exception {
+        // Full save, rows of the layout are deleted then everything is inserted
+        final LayoutTables fullSaveTables = new LayoutTables();
+        LayoutStructureDelta.compare(new LayoutStructureRows(), updated)
+                .apply(fullSaveTables.connection, USER_ID, LAYOUT_ID);
+
+        // Delta save, only changed rows are written on top of the persisted rows
+        final LayoutTables deltaSaveTables = new LayoutTables();
+        LayoutStructureDelta.compare(new LayoutStructureRows(), persisted)
+                .apply(deltaSaveTables.connection, USER_ID, LAYOUT_ID);
+        LayoutStructureDelta.compare(persisted, updated)
+                .apply(deltaSaveTables.connection, USER_ID, LAYOUT_ID);
+
+        assertEquals(updated, fullSaveTables.rows);
+        assertEquals(fullSaveTables.rows, deltaSaveTables.rows);
+    }
+
+    private static LayoutStructureRows randomLayout(Random random) {
+        final LayoutStructureRows rows = new LayoutStructureRows();
+        for (int structId = 1; structId < 20; structId++) {
+            if (random.nextInt(4) == 0) {
+                continue;
+            }
+            if (random.nextBoolean()) {
+                rows.addStruct(portlet(structId, random.nextInt(20), random.nextInt(3)));
+            } else {
+                rows.addStruct(
+                        folder(
+                                structId,
+                                random.nextInt(20),
+                                random.nextInt(20),
+                                "Tab " + random.nextInt(2)));
+            }
+            for (int p = 0; p < 3; p++) {
+                if (random.nextBoolean()) {
+                    rows.addParameter(structId, "param" + p, "value" + random.nextInt(2));
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static StructRow folder(int structId, int next, int child, String name) {
+        return new StructRow(structId, next, child, null, null, name, "regular", "N", "N", "N");
+    }
+
+    private static StructRow portlet(int structId, int next, int chanId) {
+        return new StructRow(structId, next, 0, null, chanId, null, null, "N", "N", "N");
+    }
+
+    /** Mocked connection that executes the delta statements against in-memory tables */
+    private static final class LayoutTables {
+        private final Connection connection = mock(Connection.class);
+        private LayoutStructureRows rows = new LayoutStructureRows();
+
+        LayoutTables() throws Exception {
+            when(connection.prepareStatement(anyString()))
+                    .thenAnswer(
+                            new Answer<PreparedStatement>() {
+                                @Override
+                                public PreparedStatement answer(InvocationOnMock invocation)
+                                        throws Throwable {
+                                    return createStatement((String) invocation.getArguments()[0]);
+                                }
+                            });
+        }
+
+        private PreparedStatement createStatement(final String sql) throws Exception {
+            final PreparedStatement pstmt = mock(PreparedStatement.class);
+            final Map<Integer, Object> parameters = new HashMap<Integer, Object>();
+            final List<Map<Integer, Object>> batch = new ArrayList<Map<Integer, Object>>();
+
+            final Answer<Object> setParameter =
+                    new Answer<Object>() {
+                        @Override
+                        public Object answer(InvocationOnMock invocation) throws Throwable {
+                            final Object[] args = invocation.getArguments();
+                            final String method = invocation.getMethod().getName();
+                            parameters.put(
+                                    (Integer) args[0], method.equals("setNull") ? null : args[1]);
+                            return null;
+                        }
+                    };
+            doAnswer(setParameter).when(pstmt).setInt(anyInt(), anyInt());
+            doAnswer(setParameter).when(pstmt).setString(anyInt(), anyString());
+            doAnswer(setParameter).when(pstmt).setNull(anyInt(), anyInt());
+            doAnswer(
+                            new Answer<Object>() {
+                                @Override
+                                public Object answer(InvocationOnMock invocation) {
+                                    batch.add(new HashMap<Integer, Object>(parameters));
+                                    parameters.clear();
+                                    return null;
+                                }
+                            })
+                    .when(pstmt)
+                    .addBatch();
+            when(pstmt.executeBatch())
+                    .thenAnswer(
+                            new Answer<int[]>() {
+                                @Override
+                                public int[] answer(InvocationOnMock invocation) {
+                                    for (final Map<Integer, Object> row : batch) {
+                                        execute(sql, row);
+                                    }
+                                    final int[] counts = new int[batch.size()];
+                                    batch.clear();
+                                    return counts;
+                                }
+                            });
+            return pstmt;
+        }
+
+        private void execute(String sql, Map<Integer, Object> p) {
+            final LayoutStructureRows result = new LayoutStructureRows();
+            if (sql.equals(LayoutStructureDelta.INSERT_STRUCT_SQL)
+                    || sql.equals(LayoutStructureDelta.UPDATE_STRUCT_SQL)) {
+                assertEquals(USER_ID, p.get(10));
+                assertEquals(LAYOUT_ID, p.get(11));
+                final int structId = (Integer) p.get(12);
+                final boolean insert = sql.equals(LayoutStructureDelta.INSERT_STRUCT_SQL);
+                assertEquals(insert, !rows.getStructs().containsKey(structId));
+
+                final StructRow row =
+                        new StructRow(
+                                structId,
+                                (Integer) p.get(1),
+                                (Integer) p.get(2),
+                                (Integer) p.get(3),
+                                (Integer) p.get(4),
+                                (String) p.get(5),
+                                (String) p.get(6),
+                                (String) p.get(7),
+                                (String) p.get(8),
+                                (String) p.get(9));
+                if (insert) {
+                    result.addStruct(row);
+                }
+                for (final StructRow existing : rows.getStructs().values()) {
+                    result.addStruct(existing.getStructId() == structId ? row : existing);
+                }
+                copyParameters(result, -1, null, null);
+            } else if (sql.equals(LayoutStructureDelta.DELETE_STRUCT_SQL)) {
+                final int structId = (Integer) p.get(3);
+                assertEquals(true, rows.getStructs().containsKey(structId));
+                for (final StructRow existing : rows.getStructs().values()) {
+                    if (existing.getStructId() != structId) {
+                        result.addStruct(existing);
+                    }
+                }
+                copyParameters(result, -1, null, null);
+            } else if (sql.equals(LayoutStructureDelta.INSERT_PARAM_SQL)
+                    || sql.equals(LayoutStructureDelta.UPDATE_PARAM_SQL)) {
+                final int structId = (Integer) p.get(4);
+                final String name = (String) p.get(5);
+                final Map<String, String> existing = rows.getParameters().get(structId);
+                final boolean insert = sql.equals(LayoutStructureDelta.INSERT_PARAM_SQL);
+                assertEquals(insert, existing == null || !existing.containsKey(name));
+
+                copyStructs(result);
+                copyParameters(result, structId, name, (String) p.get(1));
+                if (insert) {
+                    result.addParameter(structId, name, (String) p.get(1));
+                }
+            } else if (sql.equals(LayoutStructureDelta.DELETE_PARAM_SQL)) {
+                copyStructs(result);
+                copyParameters(result, (Integer) p.get(3), (String) p.get(4), null);
+            } else {
+                throw new IllegalArgumentException("Unexpected SQL: " + sql);
+            }
+            rows = result;
+        }
+
+        private void copyStructs(LayoutStructureRows result) {
+            for (final StructRow existing : rows.getStructs().values()) {
+                result.addStruct(existing);
+            }
+        }
+
+        /** Copy parameters, replacing the value of the matching one or removing it if null */
+        private void copyParameters(
+                LayoutStructureRows result, int structId, String name, String value) {
+            for (final Map.Entry<Integer, Map<String, String>> entry :
+                    rows.getParameters().entrySet()) {
+                for (final Map.Entry<String, String> parameter : entry.getValue().entrySet()) {
+                    if (entry.getKey() == structId && parameter.getKey().equals(name)) {
+                        if (value != null) {
+                            result.addParameter(structId, name, value);
+                        }
+                    } else {
+                        result.addParameter(
+                                entry.getKey(), parameter.getKey(), parameter.getValue());
+                    }
+                }
+            }
+        }
+    }
+}
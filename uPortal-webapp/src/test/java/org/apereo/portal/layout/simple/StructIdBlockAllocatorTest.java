@@ -0,0 +1,225 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+public class StructIdBlockAllocatorTest {
+    private static final int USER_ID = 7;
+
+    /** Guards the simulated row, like the row lock held by a transaction that updated it */
+    private final Object rowLock = new Object();
+
+    /** Simulated UP_USER.NEXT_STRUCT_ID column for the user */
+    private Integer nextStructId = 100;
+
+    private final AtomicInteger updateCount = new AtomicInteger();
+    private final AtomicInteger selectCount = new AtomicInteger();
+    private TransactionOperations transactionOperations;
+    private JdbcOperations jdbcOperations;
+
+    @Before
+    public void setup() {
+        transactionOperations = mock(TransactionOperations.class);
+        when(transactionOperations.execute(any(TransactionCallback.class)))
+                .thenAnswer(
+                        new Answer<Object>() {
+                            @Override
+                            public Object answer(InvocationOnMock invocation) {
+                                synchronized (rowLock) {
+                                    return ((TransactionCallback<?>) invocation.getArguments()[0])
+                                            .doInTransaction(mock(TransactionStatus.class));
+                                }
+                            }
+                        });
+
+        jdbcOperations = mock(JdbcOperations.class);
+        when(jdbcOperations.queryForList(anyString(), eq(Integer.class), eq(USER_ID)))
+                .thenAnswer(
+                        new Answer<List<Integer>>() {
+                            @Override
+                            public List<Integer> answer(InvocationOnMock invocation) {
+                                synchronized (rowLock) {
+                                    selectCount.incrementAndGet();
+                                    return Collections.singletonList(nextStructId);
+                                }
+                            }
+                        });
+        when(jdbcOperations.update(anyString(), any(), eq(USER_ID)))
+                .thenAnswer(
+                        new Answer<Integer>() {
+                            @Override
+                            public Integer answer(InvocationOnMock invocation) {
+                                synchronized (rowLock) {
+                                    updateCount.incrementAndGet();
+                                    final int blockSize = (Integer) invocation.getArguments()[1];
+                                    nextStructId =
+                                            (nextStructId != null ? nextStructId : 0) + blockSize;
+                                    return 1;
+                                }
+                            }
+                        });
+    }
+
+    @Test
+    public void testIdsHandedOutFromBlock() {
+        final StructIdBlockAllocator allocator =
+                new StructIdBlockAllocator(transactionOperations, jdbcOperations, 10, 60000);
+
+        for (int i = 1; i <= 25; i++) {
+            assertEquals(100 + i, allocator.getNextStructId(USER_ID));
+        }
+        assertEquals(3, updateCount.get());
+        // The database is only read by the reservations
+        assertEquals(3, selectCount.get());
+        assertEquals(130, (int) nextStructId);
+    }
+
+    @Test
+    public void testEveryIdReservedWithBlockSizeOne() {
+        final StructIdBlockAllocator allocator =
+                new StructIdBlockAllocator(transactionOperations, jdbcOperations, 1, 60000);
+
+        for (int i = 1; i <= 3; i++) {
+            assertEquals(100 + i, allocator.getNextStructId(USER_ID));
+        }
+        assertEquals(3, updateCount.get());
+        assertEquals(103, (int) nextStructId);
+    }
+
+    @Test
+    public void testDiscardBlock() {
+        final StructIdBlockAllocator allocator =
+                new StructIdBlockAllocator(transactionOperations, jdbcOperations, 10, 60000);
+
+        assertEquals(101, allocator.getNextStructId(USER_ID));
+
+        // Template layout copied, NEXT_STRUCT_ID moved past the reserved block
+        nextStructId = 500;
+        allocator.discardBlock(USER_ID);
+        assertEquals(501, allocator.getNextStructId(USER_ID));
+    }
+
+    @Test
+    public void testVerifyKeepsCurrentBlock() {
+        final StructIdBlockAllocator allocator =
+                new StructIdBlockAllocator(transactionOperations, jdbcOperations, 10, 60000);
+
+        assertEquals(101, allocator.getNextStructId(USER_ID));
+        allocator.verifyBlock(USER_ID);
+        assertEquals(102, allocator.getNextStructId(USER_ID));
+        assertEquals(1, updateCount.get());
+        assertEquals(2, selectCount.get());
+    }
+
+    @Test
+    public void testVerifyWithoutBlock() {
+        final StructIdBlockAllocator allocator =
+                new StructIdBlockAllocator(transactionOperations, jdbcOperations, 10, 60000);
+
+        allocator.verifyBlock(USER_ID);
+        assertEquals(0, selectCount.get());
+    }
+
+    @Test
+    public void testBlockDiscardedAfterImport() {
+        final StructIdBlockAllocator allocator =
+                new StructIdBlockAllocator(transactionOperations, jdbcOperations, 10, 60000);
+
+        assertEquals(101, allocator.getNextStructId(USER_ID));
+
+        // User imported on another server with layout ids up to 300, caught by the layout save
+        nextStructId = 300;
+        allocator.verifyBlock(USER_ID);
+        assertEquals(301, allocator.getNextStructId(USER_ID));
+        assertEquals(302, allocator.getNextStructId(USER_ID));
+    }
+
+    @Test
+    public void testBlockDiscardedAfterReset() {
+        final StructIdBlockAllocator allocator =
+                new StructIdBlockAllocator(transactionOperations, jdbcOperations, 10, 60000);
+
+        assertEquals(101, allocator.getNextStructId(USER_ID));
+
+        // User reset to a template, the layout rows were deleted with it
+        nextStructId = null;
+        allocator.discardBlock(USER_ID);
+        assertEquals(1, allocator.getNextStructId(USER_ID));
+        assertEquals(10, (int) nextStructId);
+    }
+
+    @Test
+    public void testNoDuplicatesAcrossServers() throws Exception {
+        // Two allocators share the same UP_USER row like two servers in a cluster
+        final List<StructIdBlockAllocator> allocators = new ArrayList<StructIdBlockAllocator>();
+        allocators.add(new StructIdBlockAllocator(transactionOperations, jdbcOperations, 5, 60000));
+        allocators.add(
+                new StructIdBlockAllocator(transactionOperations, jdbcOperations, 20, 60000));
+
+        final Set<Integer> ids =
+                Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        final AtomicInteger allocated = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < 8; t++) {
+                final StructIdBlockAllocator allocator = allocators.get(t % 2);
+                futures.add(
+                        executor.submit(
+                                new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        for (int i = 0; i < 500; i++) {
+                                            ids.add(allocator.getNextStructId(USER_ID));
+                                            allocated.incrementAndGet();
+                                        }
+                                    }
+                                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(allocated.get(), ids.size());
+    }
+}
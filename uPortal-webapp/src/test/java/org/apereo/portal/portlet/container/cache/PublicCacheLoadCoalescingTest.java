@@ -0,0 +1,290 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.container.cache;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.portlet.MimeResponse;
+import javax.portlet.PortletMode;
+import javax.portlet.WindowState;
+import javax.servlet.http.HttpServletRequest;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.apereo.portal.mock.portlet.om.MockPortletDefinitionId;
+import org.apereo.portal.mock.portlet.om.MockPortletWindowId;
+import org.apereo.portal.portlet.om.IPortletEntity;
+import org.apereo.portal.portlet.om.IPortletWindow;
+import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
+import org.apereo.portal.portlet.rendering.PortletRenderResult;
+import org.apereo.portal.url.IPortalRequestInfo;
+import org.apereo.portal.url.IUrlSyntaxProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/** Tests how {@link PortletCacheControlServiceImpl} coalesces concurrent public cache misses */
+public class PublicCacheLoadCoalescingTest {
+    private final MockPortletWindowId portletWindowId = new MockPortletWindowId("123");
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /** Contents of the public render output cache */
+    private final Map<Object, Element> publicRenderCache = new ConcurrentHashMap<Object, Element>();
+
+    private PortletCacheControlServiceImpl cacheControlService;
+
+    @Before
+    public void setup() {
+        final MockPortletDefinitionId portletDefinitionId = new MockPortletDefinitionId(789);
+
+        final IPortletEntity portletEntity = mock(IPortletEntity.class);
+        when(portletEntity.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+
+        final IPortletWindow portletWindow = mock(IPortletWindow.class);
+        when(portletWindow.getPortletWindowId()).thenReturn(portletWindowId);
+        when(portletWindow.getPortletEntity()).thenReturn(portletEntity);
+        when(portletWindow.getWindowState()).thenReturn(WindowState.NORMAL);
+        when(portletWindow.getPortletMode()).thenReturn(PortletMode.VIEW);
+
+        final IPortletWindowRegistry portletWindowRegistry = mock(IPortletWindowRegistry.class);
+        when(portletWindowRegistry.getPortletWindow(
+                        any(HttpServletRequest.class), any(IPortletWindowId.class)))
+                .thenReturn(portletWindow);
+
+        final PortletDefinition portletDescriptor = mock(PortletDefinition.class);
+        when(portletDescriptor.getCacheScope()).thenReturn(MimeResponse.PUBLIC_SCOPE);
+        when(portletDescriptor.getExpirationCache()).thenReturn(300);
+
+        final IPortletDefinitionRegistry portletDefinitionRegistry =
+                mock(IPortletDefinitionRegistry.class);
+        when(portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId))
+                .thenReturn(portletDescriptor);
+
+        final IUrlSyntaxProvider urlSyntaxProvider = mock(IUrlSyntaxProvider.class);
+        when(urlSyntaxProvider.getPortalRequestInfo(any(HttpServletRequest.class)))
+                .thenReturn(mock(IPortalRequestInfo.class));
+
+        cacheControlService = new PortletCacheControlServiceImpl();
+        cacheControlService.setPortletWindowRegistry(portletWindowRegistry);
+        cacheControlService.setPortletDefinitionRegistry(portletDefinitionRegistry);
+        cacheControlService.setUrlSyntaxProvider(urlSyntaxProvider);
+        cacheControlService.setPublicScopePortletRenderOutputCache(createCache(publicRenderCache));
+        cacheControlService.setPrivateScopePortletRenderOutputCache(
+                createCache(new ConcurrentHashMap<Object, Element>()));
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testWaiterUsesLoadersOutput() throws Exception {
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> loader =
+                getRenderState();
+        assertTrue(loader.isPublicCacheLoader());
+        assertFalse(loader.isUseCachedData());
+
+        final AtomicReference<Thread> waiterThread = new AtomicReference<Thread>();
+        final Future<CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>>
+                waiter = submitRenderState(waiterThread);
+        awaitWaiting(waiterThread);
+
+        final CachedPortletData<PortletRenderResult> output = createOutput(300);
+        cacheControlService.cachePortletRenderOutput(
+                portletWindowId, new MockHttpServletRequest(), loader, output);
+        assertFalse(loader.isPublicCacheLoader());
+
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> waited =
+                waiter.get(5, TimeUnit.SECONDS);
+        assertFalse(waited.isPublicCacheLoader());
+        assertTrue(waited.isUseCachedData());
+        assertSame(output, waited.getCachedPortletData());
+    }
+
+    @Test
+    public void testWaiterRendersAfterTimeout() throws Exception {
+        cacheControlService.setPublicCacheLoadWait(50);
+
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> loader =
+                getRenderState();
+        assertTrue(loader.isPublicCacheLoader());
+
+        // The loader never finishes, the waiter gives up and renders the portlet itself
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> waited =
+                getRenderState();
+        assertFalse(waited.isUseCachedData());
+        assertFalse(waited.isPublicCacheLoader());
+
+        // The abandoned load is replaced by the next request
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!loader.getPublicCacheLoad().isAbandoned()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(getRenderState().isPublicCacheLoader());
+    }
+
+    @Test
+    public void testStaleOutputServedWhileRevalidating() throws Exception {
+        cacheControlService.setStaleWhileRevalidate(60);
+
+        // Cache output that expires right away but is kept for another minute
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> first =
+                getRenderState();
+        final CachedPortletData<PortletRenderResult> staleOutput = createOutput(0);
+        first.getCacheControl().setExpirationTime(0);
+        cacheControlService.cachePortletRenderOutput(
+                portletWindowId, new MockHttpServletRequest(), first, staleOutput);
+
+        // One request re-renders the expired output
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> loader =
+                getRenderState();
+        assertTrue(loader.isPublicCacheLoader());
+        assertFalse(loader.isUseCachedData());
+
+        // Others are served the expired output without waiting
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> stale =
+                getRenderState();
+        assertFalse(stale.isPublicCacheLoader());
+        assertTrue(stale.isUseCachedData());
+        assertSame(staleOutput, stale.getCachedPortletData());
+
+        final CachedPortletData<PortletRenderResult> freshOutput = createOutput(300);
+        cacheControlService.cachePortletRenderOutput(
+                portletWindowId, new MockHttpServletRequest(), loader, freshOutput);
+        assertSame(freshOutput, getRenderState().getCachedPortletData());
+    }
+
+    @Test
+    public void testFailedRenderReleasesWaiters() throws Exception {
+        cacheControlService.setPublicCacheLoadWait(60000);
+
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> loader =
+                getRenderState();
+        assertTrue(loader.isPublicCacheLoader());
+
+        final AtomicReference<Thread> waiterThread = new AtomicReference<Thread>();
+        final Future<CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>>
+                waiter = submitRenderState(waiterThread);
+        awaitWaiting(waiterThread);
+
+        // The render failed, nothing is cached but the load is released
+        cacheControlService.releasePublicCacheLoad(loader);
+        assertFalse(loader.isPublicCacheLoader());
+
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> waited =
+                waiter.get(5, TimeUnit.SECONDS);
+        assertFalse(waited.isUseCachedData());
+        assertFalse(waited.isPublicCacheLoader());
+
+        // The next request renders again
+        assertTrue(getRenderState().isPublicCacheLoader());
+    }
+
+    /*
+     * Implementation
+     */
+
+    private CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>
+            getRenderState() {
+        return cacheControlService.getPortletRenderState(
+                new MockHttpServletRequest(), portletWindowId);
+    }
+
+    private Future<CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>>
+            submitRenderState(final AtomicReference<Thread> thread) {
+        return executor.submit(
+                new Callable<
+                        CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>>() {
+                    @Override
+                    public CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>
+                            call() {
+                        thread.set(Thread.currentThread());
+                        return getRenderState();
+                    }
+                });
+    }
+
+    /** Wait until the thread is blocked waiting on the public cache load */
+    private void awaitWaiting(AtomicReference<Thread> thread) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while ((thread.get() == null || thread.get().getState() != Thread.State.TIMED_WAITING)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertNotNull(thread.get());
+        assertSame(Thread.State.TIMED_WAITING, thread.get().getState());
+    }
+
+    private CachedPortletData<PortletRenderResult> createOutput(int expirationTime) {
+        return new CachedPortletData<PortletRenderResult>(
+                new PortletRenderResult("title", null, 0, 1),
+                "<p>Rendered</p>",
+                null,
+                null,
+                true,
+                null,
+                expirationTime);
+    }
+
+    /** @return An {@link Ehcache} backed by the map */
+    private Ehcache createCache(final Map<Object, Element> elements) {
+        final Ehcache cache = mock(Ehcache.class);
+        when(cache.getCacheConfiguration()).thenReturn(new CacheConfiguration());
+        when(cache.get(any(Serializable.class)))
+                .thenAnswer(
+                        new Answer<Element>() {
+                            @Override
+                            public Element answer(InvocationOnMock invocation) {
+                                return elements.get(invocation.getArguments()[0]);
+                            }
+                        });
+        doAnswer(
+                        new Answer<Object>() {
+                            @Override
+                            public Object answer(InvocationOnMock invocation) {
+                                final Element element = (Element) invocation.getArguments()[0];
+                                elements.put(element.getObjectKey(), element);
+                                return null;
+                            }
+                        })
+                .when(cache)
+                .put(any(Element.class));
+        return cache;
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.container.cache;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class PublicPortletCacheLoadTest {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCompleteReleasesWaiters() throws Exception {
+        final PublicPortletCacheLoad load = new PublicPortletCacheLoad(null, 10000);
+        final Future<Boolean> waiter = executor.submit(load::await);
+
+        assertFalse(load.isAbandoned());
+        load.complete();
+
+        assertTrue(waiter.get(5, TimeUnit.SECONDS));
+        assertTrue(load.await());
+        assertFalse(load.isAbandoned());
+    }
+
+    @Test
+    public void testWaitIsBoundedByDeadline() throws Exception {
+        final PublicPortletCacheLoad load = new PublicPortletCacheLoad(null, 50);
+
+        final long start = System.currentTimeMillis();
+        assertFalse(load.await());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertTrue(load.isAbandoned());
+
+        // Waiting after the deadline returns immediately
+        assertFalse(load.await());
+    }
+}
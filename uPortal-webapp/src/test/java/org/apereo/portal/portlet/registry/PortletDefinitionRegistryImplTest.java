@@ -0,0 +1,144 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.registry;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import org.apereo.portal.portlet.dao.IPortletDefinitionDao;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDefinitionId;
+import org.apereo.portal.portlet.om.IPortletType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class PortletDefinitionRegistryImplTest {
+
+    private CacheManager cacheManager;
+    private Cache snapshotCache;
+    private IPortletDefinitionDao portletDefinitionDao;
+    private PortletDefinitionRegistryImpl registry;
+
+    private IPortletType typeA;
+    private IPortletType typeB;
+    private IPortletDefinition one;
+    private IPortletDefinition two;
+    private IPortletDefinition three;
+
+    @Before
+    public void setUp() {
+        cacheManager = CacheManager.create();
+        snapshotCache =
+                new Cache(PortletDefinitionRegistryImpl.SNAPSHOT_CACHE_NAME, 1, false, false, 0, 0);
+        cacheManager.addCache(snapshotCache);
+
+        typeA = mockType(1);
+        typeB = mockType(2);
+        one = mockDefinition("1", "one", typeA);
+        two = mockDefinition("2", "two", typeB);
+        three = mockDefinition("3", "three", typeA);
+
+        portletDefinitionDao = mock(IPortletDefinitionDao.class);
+        registry = new PortletDefinitionRegistryImpl();
+        registry.setPortletDefinitionDao(portletDefinitionDao);
+        registry.setSnapshotCache(snapshotCache);
+    }
+
+    @After
+    public void tearDown() {
+        cacheManager.removeCache(PortletDefinitionRegistryImpl.SNAPSHOT_CACHE_NAME);
+    }
+
+    @Test
+    public void testSnapshotIndexes() {
+        when(portletDefinitionDao.getPortletDefinitions())
+                .thenReturn(Arrays.asList(one, two, three));
+
+        final PortletDefinitionSnapshot snapshot = registry.getPortletDefinitionSnapshot();
+        Assert.assertEquals(Arrays.asList(one, two, three), snapshot.getPortletDefinitions());
+        Assert.assertSame(two, snapshot.getPortletDefinition("2"));
+        Assert.assertSame(three, snapshot.getPortletDefinitionByFname("three"));
+        Assert.assertNull(snapshot.getPortletDefinitionByFname("four"));
+        Assert.assertEquals(Arrays.asList(one, three), snapshot.getPortletDefinitionsByType(typeA));
+        Assert.assertEquals(
+                Collections.emptyList(), snapshot.getPortletDefinitionsByType(mockType(3)));
+    }
+
+    @Test
+    public void testSnapshotReusedUntilInvalidated() {
+        when(portletDefinitionDao.getPortletDefinitions())
+                .thenReturn(Arrays.asList(one, two))
+                .thenReturn(Arrays.asList(one, two, three));
+
+        final PortletDefinitionSnapshot first = registry.getPortletDefinitionSnapshot();
+        Assert.assertSame(first, registry.getPortletDefinitionSnapshot());
+        Assert.assertEquals(2, registry.getAllPortletDefinitions().size());
+        verify(portletDefinitionDao, times(1)).getPortletDefinitions();
+
+        // What the DAO does when a definition is saved or deleted
+        snapshotCache.removeAll();
+
+        final PortletDefinitionSnapshot second = registry.getPortletDefinitionSnapshot();
+        Assert.assertTrue(second.getVersion() > first.getVersion());
+        Assert.assertEquals(3, registry.getAllPortletDefinitions().size());
+        verify(portletDefinitionDao, times(2)).getPortletDefinitions();
+    }
+
+    @Test
+    public void testSnapshotInvalidatedWhileLoadingIsNotKept() {
+        when(portletDefinitionDao.getPortletDefinitions())
+                .thenAnswer(
+                        new Answer<List<IPortletDefinition>>() {
+                            @Override
+                            public List<IPortletDefinition> answer(InvocationOnMock invocation) {
+                                // A definition is saved while the query runs
+                                snapshotCache.removeAll();
+                                return Arrays.asList(one, two);
+                            }
+                        });
+
+        final PortletDefinitionSnapshot first = registry.getPortletDefinitionSnapshot();
+        Assert.assertEquals(2, first.getPortletDefinitions().size());
+        Assert.assertEquals(0, snapshotCache.getSize());
+        Assert.assertNotSame(first, registry.getPortletDefinitionSnapshot());
+    }
+
+    private IPortletType mockType(int id) {
+        final IPortletType type = mock(IPortletType.class);
+        when(type.getId()).thenReturn(id);
+        return type;
+    }
+
+    private IPortletDefinition mockDefinition(String id, String fname, IPortletType type) {
+        final IPortletDefinitionId definitionId = mock(IPortletDefinitionId.class);
+        when(definitionId.getStringId()).thenReturn(id);
+        final IPortletDefinition definition = mock(IPortletDefinition.class);
+        when(definition.getPortletDefinitionId()).thenReturn(definitionId);
+        when(definition.getFName()).thenReturn(fname);
+        when(definition.getType()).thenReturn(type);
+        return definition;
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import javax.portlet.Event;
+import javax.xml.namespace.QName;
+import net.sf.ehcache.Ehcache;
+import org.apache.pluto.container.om.portlet.EventDefinition;
+import org.apache.pluto.container.om.portlet.EventDefinitionReference;
+import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.apereo.portal.mock.portlet.om.MockPortletDefinitionId;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDefinitionId;
+import org.apereo.portal.portlet.om.IPortletType;
+import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.apereo.portal.portlet.registry.PortletDefinitionSnapshot;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class PortletEventRoutingTableTest {
+    private static final String NS = "https://source.jasig.org/schemas/uportal/search";
+
+    private static final QName SEARCH_REQUEST = new QName(NS, "SearchRequest");
+    private static final QName SEARCH_RESULTS = new QName(NS, "SearchResults");
+    private static final QName LEGACY_SEARCH = new QName("urn:legacy", "Search");
+
+    private final IPortletDefinitionRegistry portletDefinitionRegistry =
+            stub(IPortletDefinitionRegistry.class);
+    private final IPortletType portletType = stub(IPortletType.class);
+    private final List<IPortletDefinition> portletDefinitions = new ArrayList<>();
+    private final Map<IPortletDefinitionId, PortletDefinition> portletDescriptors = new HashMap<>();
+
+    private PortletApplicationDefinition application;
+
+    @Before
+    public void setUp() {
+        // The application declares LEGACY_SEARCH as an alias of SEARCH_REQUEST
+        final EventDefinition searchRequest = stub(EventDefinition.class);
+        when(searchRequest.getQualifiedName(anyString())).thenReturn(SEARCH_REQUEST);
+        when(searchRequest.getAliases()).thenReturn(Arrays.asList(LEGACY_SEARCH));
+        final EventDefinition searchResults = stub(EventDefinition.class);
+        when(searchResults.getQualifiedName(anyString())).thenReturn(SEARCH_RESULTS);
+
+        application = stub(PortletApplicationDefinition.class);
+        when(application.getDefaultNamespace()).thenReturn(NS);
+        when(application.getEventDefinitions())
+                .thenReturn((List) Arrays.asList(searchRequest, searchResults));
+
+        when(portletDefinitionRegistry.getParentPortletDescriptor(any(IPortletDefinitionId.class)))
+                .thenAnswer(
+                        new Answer<PortletDefinition>() {
+                            @Override
+                            public PortletDefinition answer(InvocationOnMock invocation) {
+                                return portletDescriptors.get(invocation.getArguments()[0]);
+                            }
+                        });
+        when(portletDefinitionRegistry.getParentPortletApplicationDescriptor(
+                        any(IPortletDefinitionId.class)))
+                .thenReturn(application);
+    }
+
+    @Test
+    public void testRouting() {
+        final IPortletDefinition exact = addPortlet(1, SEARCH_REQUEST);
+        final IPortletDefinition defaultNamespace = addPortlet(2, new QName("SearchResults"));
+        final IPortletDefinition alias = addPortlet(3, LEGACY_SEARCH);
+        final IPortletDefinition wildcard = addPortlet(4, new QName(NS, "Search"));
+        final IPortletDefinition prefix = addPortlet(5, new QName(NS, "Search."));
+        final IPortletDefinition none = addPortlet(6);
+        final IPortletDefinition undeployed = addPortlet(7, SEARCH_REQUEST);
+        portletDescriptors.remove(undeployed.getPortletDefinitionId());
+
+        final PortletEventRoutingTable table = buildTable(1, 0);
+
+        assertEquals(
+                new LinkedHashSet<>(Arrays.asList(exact, alias)),
+                table.getSubscribers(SEARCH_REQUEST));
+        assertEquals(Collections.singleton(defaultNamespace), table.getSubscribers(SEARCH_RESULTS));
+        assertEquals(
+                Collections.singleton(prefix),
+                table.getSubscribers(new QName(NS, "Search.Directory")));
+        assertEquals(Collections.emptySet(), table.getSubscribers(new QName("urn:x", "Search.")));
+
+        assertTrue(table.isSubscribed(alias.getPortletDefinitionId(), LEGACY_SEARCH));
+        assertTrue(table.isSubscribed(prefix.getPortletDefinitionId(), new QName(NS, "Search.a")));
+        assertFalse(table.isSubscribed(wildcard.getPortletDefinitionId(), SEARCH_REQUEST));
+        assertFalse(table.isSubscribed(none.getPortletDefinitionId(), SEARCH_REQUEST));
+        assertTrue(table.isIndexed(undeployed.getPortletDefinitionId()));
+        assertFalse(table.isIndexed(new MockPortletDefinitionId(99)));
+
+        assertTrue(table.isCurrent(1, 0));
+        assertFalse(table.isCurrent(2, 0));
+        assertFalse(table.isCurrent(1, 1));
+    }
+
+    @Test
+    public void testSameAsSupportsEvent() {
+        addPortlet(1, SEARCH_REQUEST);
+        addPortlet(2, new QName("SearchResults"));
+        addPortlet(3, LEGACY_SEARCH);
+        addPortlet(4, new QName(NS, "Search."), SEARCH_RESULTS);
+        addPortlet(5);
+
+        final PortletEventRoutingTable table = buildTable(1, 0);
+        final PortletEventCoordinatationService service = createService();
+        for (QName eventName :
+                Arrays.asList(
+                        SEARCH_REQUEST,
+                        SEARCH_RESULTS,
+                        LEGACY_SEARCH,
+                        new QName(NS, "Search.x"),
+                        new QName("SearchRequest"))) {
+            final Event event = stub(Event.class);
+            when(event.getQName()).thenReturn(eventName);
+            for (IPortletDefinition portletDefinition : portletDefinitions) {
+                final IPortletDefinitionId portletDefinitionId =
+                        portletDefinition.getPortletDefinitionId();
+                assertEquals(
+                        eventName + " " + portletDefinitionId,
+                        service.supportsEvent(event, portletDefinitionId),
+                        table.isSubscribed(portletDefinitionId, eventName));
+            }
+        }
+    }
+
+    /**
+     * Compares resolving the targets of a global event by checking every definition against looking
+     * the event up in the routing table. Ignored as it only prints timings.
+     */
+    @Ignore
+    @Test
+    public void benchmark() {
+        final int portletCount = 600;
+        final int eventCount = 100;
+        for (int i = 0; i < portletCount; i++) {
+            if (i % 20 == 0) {
+                addPortlet(i, SEARCH_REQUEST);
+            } else {
+                addPortlet(i, new QName(NS, "Event" + i), new QName(NS, "Other" + i));
+            }
+        }
+        final PortletEventCoordinatationService service = createService();
+        final Event event = stub(Event.class);
+        when(event.getQName()).thenReturn(SEARCH_REQUEST);
+
+        long start = System.nanoTime();
+        int scanned = 0;
+        for (int i = 0; i < eventCount; i++) {
+            for (IPortletDefinition portletDefinition : portletDefinitions) {
+                if (service.supportsEvent(event, portletDefinition.getPortletDefinitionId())) {
+                    scanned++;
+                }
+            }
+        }
+        final long scanNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        final PortletEventRoutingTable table = buildTable(1, 0);
+        final long buildNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int routed = 0;
+        for (int i = 0; i < eventCount; i++) {
+            routed += table.getSubscribers(SEARCH_REQUEST).size();
+        }
+        final long routeNanos = System.nanoTime() - start;
+
+        assertEquals(scanned, routed);
+        System.out.println(
+                portletCount
+                        + " definitions, "
+                        + eventCount
+                        + " events: scan "
+                        + scanNanos / 1000000
+                        + "ms, build "
+                        + buildNanos / 1000000
+                        + "ms, routed "
+                        + routeNanos / 1000000
+                        + "ms");
+    }
+
+    /** Mocks don't record calls, the benchmark makes too many */
+    private static <T> T stub(Class<T> type) {
+        return mock(type, withSettings().stubOnly());
+    }
+
+    private PortletEventRoutingTable buildTable(long snapshotVersion, long applicationsVersion) {
+        return PortletEventRoutingTable.build(
+                new PortletDefinitionSnapshot(snapshotVersion, portletDefinitions),
+                applicationsVersion,
+                portletDefinitionRegistry);
+    }
+
+    /** Service that scans the descriptors on every call, as if nothing was cached */
+    private PortletEventCoordinatationService createService() {
+        final PortletEventCoordinatationService service = new PortletEventCoordinatationService();
+        service.setPortletDefinitionRegistry(portletDefinitionRegistry);
+        service.setSupportedEventCache(stub(Ehcache.class));
+        return service;
+    }
+
+    private IPortletDefinition addPortlet(int id, QName... processingEvents) {
+        final IPortletDefinitionId portletDefinitionId = new MockPortletDefinitionId(id);
+        final IPortletDefinition portletDefinition = stub(IPortletDefinition.class);
+        when(portletDefinition.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        when(portletDefinition.getFName()).thenReturn("portlet" + id);
+        when(portletDefinition.getType()).thenReturn(portletType);
+
+        final List<EventDefinitionReference> references = new ArrayList<>();
+        for (QName processingEvent : processingEvents) {
+            final EventDefinitionReference reference = stub(EventDefinitionReference.class);
+            when(reference.getQualifiedName(anyString())).thenReturn(processingEvent);
+            references.add(reference);
+        }
+        final PortletDefinition portletDescriptor = stub(PortletDefinition.class);
+        when(portletDescriptor.getApplication()).thenReturn(application);
+        when(portletDescriptor.getSupportedProcessingEvents()).thenReturn((List) references);
+        portletDescriptors.put(portletDefinitionId, portletDescriptor);
+        portletDefinitions.add(portletDefinition);
+        return portletDefinition;
+    }
+}
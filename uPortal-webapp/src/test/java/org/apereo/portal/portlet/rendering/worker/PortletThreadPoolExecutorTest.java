@@ -0,0 +1,215 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PortletThreadPoolExecutorTest {
+    private final CountDownLatch blockLatch = new CountDownLatch(1);
+    private final List<String> executed = new ArrayList<String>();
+    private PortletThreadPoolExecutor executor;
+
+    @Before
+    public void setup() {
+        executor =
+                new PortletThreadPoolExecutor(
+                        1,
+                        1,
+                        60,
+                        TimeUnit.SECONDS,
+                        new PortletExecutionQueue(100),
+                        Executors.defaultThreadFactory(),
+                        new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @After
+    public void shutdown() {
+        blockLatch.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testQueuedExecutionsAreFairAcrossPortlets() throws Exception {
+        final CountDownLatch startedLatch = new CountDownLatch(1);
+        executor.execute(
+                new PortletExecutionFutureTask<Object>(
+                        "blocker",
+                        new Callable<Object>() {
+                            @Override
+                            public Object call() throws Exception {
+                                startedLatch.countDown();
+                                blockLatch.await();
+                                return null;
+                            }
+                        }));
+        assertTrue(startedLatch.await(5, TimeUnit.SECONDS));
+
+        final PortletExecutionFutureTask<Object> last = task("slow");
+        executor.execute(task("slow"));
+        executor.execute(task("slow"));
+        executor.execute(task("slow"));
+        executor.execute(task("fast"));
+        executor.execute(last);
+        assertEquals(5, executor.getQueue().size());
+
+        blockLatch.countDown();
+        last.get(5, TimeUnit.SECONDS);
+
+        // The single fast execution is not stuck behind the slow portlet's backlog
+        synchronized (executed) {
+            assertEquals(5, executed.size());
+            assertTrue(executed.toString(), executed.indexOf("fast") <= 1);
+        }
+        assertEquals(6, executor.getLastQueueTime().getTotalSamples());
+    }
+
+    @Test
+    public void testMaxThreadsPerPortlet() throws Exception {
+        executor.setMaxThreadsPerPortlet(2);
+
+        final CountDownLatch startedLatch = new CountDownLatch(1);
+        executor.execute(
+                new PortletExecutionFutureTask<Object>(
+                        "hung",
+                        new Callable<Object>() {
+                            @Override
+                            public Object call() throws Exception {
+                                startedLatch.countDown();
+                                blockLatch.await();
+                                return null;
+                            }
+                        }));
+        assertTrue(startedLatch.await(5, TimeUnit.SECONDS));
+        executor.execute(task("hung"));
+
+        try {
+            executor.execute(task("hung"));
+            fail("Third execution of hung portlet should be rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals(1, executor.getRejectedPortletExecutionCount());
+        assertEquals(2, executor.getPortletExecutionCount("hung"));
+
+        // Other portlets can still be queued
+        final PortletExecutionFutureTask<Object> other = task("other");
+        executor.execute(other);
+
+        blockLatch.countDown();
+        other.get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, executor.getPortletExecutionCount("hung"));
+        assertEquals(0, executor.getPortletExecutionCount("other"));
+    }
+
+    @Test
+    public void testRemovedExecutionsAreReleased() throws Exception {
+        executor.setMaxThreadsPerPortlet(2);
+        startBlocker("blocker");
+
+        final PortletExecutionFutureTask<Object> queued = task("hung");
+        executor.execute(queued);
+        executor.execute(task("hung"));
+        assertEquals(2, executor.getPortletExecutionCount("hung"));
+
+        assertTrue(executor.remove(queued));
+        assertFalse(executor.remove(queued));
+        assertEquals(1, executor.getPortletExecutionCount("hung"));
+
+        // The freed slot can be used again
+        executor.execute(task("hung"));
+        assertEquals(2, executor.getPortletExecutionCount("hung"));
+    }
+
+    @Test
+    public void testPurgedExecutionsAreReleased() throws Exception {
+        executor.setMaxThreadsPerPortlet(2);
+        startBlocker("blocker");
+
+        final PortletExecutionFutureTask<Object> cancelled = task("hung");
+        executor.execute(cancelled);
+        executor.execute(task("hung"));
+        cancelled.cancel(false);
+
+        executor.purge();
+        assertEquals(1, executor.getQueue().size());
+        assertEquals(1, executor.getPortletExecutionCount("hung"));
+
+        blockLatch.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, executor.getPortletExecutionCount("hung"));
+        assertEquals(0, executor.getPortletExecutionCount("blocker"));
+    }
+
+    @Test
+    public void testDrainedExecutionsAreReleased() throws Exception {
+        startBlocker("blocker");
+        executor.execute(task("hung"));
+        executor.execute(task("hung"));
+
+        assertEquals(2, executor.shutdownNow().size());
+        assertEquals(0, executor.getPortletExecutionCount("hung"));
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, executor.getPortletExecutionCount("blocker"));
+    }
+
+    /** Occupy the single pool thread until the block latch is released */
+    private void startBlocker(String fname) throws InterruptedException {
+        final CountDownLatch startedLatch = new CountDownLatch(1);
+        executor.execute(
+                new PortletExecutionFutureTask<Object>(
+                        fname,
+                        new Callable<Object>() {
+                            @Override
+                            public Object call() throws Exception {
+                                startedLatch.countDown();
+                                blockLatch.await();
+                                return null;
+                            }
+                        }));
+        assertTrue(startedLatch.await(5, TimeUnit.SECONDS));
+    }
+
+    private PortletExecutionFutureTask<Object> task(final String fname) {
+        return new PortletExecutionFutureTask<Object>(
+                fname,
+                new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        synchronized (executed) {
+                            executed.add(fname);
+                        }
+                        return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlets.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDefinitionId;
+import org.apereo.portal.portlet.om.IPortletPreference;
+import org.apereo.portal.portlet.om.IPortletType;
+import org.apereo.portal.portlet.om.PortletCategory;
+import org.apereo.portal.portlet.registry.IPortletCategoryRegistry;
+import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.apereo.portal.portlet.registry.PortletDefinitionSnapshot;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PortletSearchIndexTest {
+
+    @InjectMocks private PortletSearchIndex portletSearchIndex = new PortletSearchIndex();
+
+    @Mock private IPortletDefinitionRegistry portletDefinitionRegistry;
+    @Mock private IPortletCategoryRegistry portletCategoryRegistry;
+    @Mock private IPortletType portletType;
+
+    private IPortletDefinition weather;
+    private IPortletDefinition email;
+    private IPortletDefinition calendar;
+    private IPortletDefinition news;
+    private PortletCategory outdoors;
+
+    @Before
+    public void setUp() {
+        weather = mockDefinition("1", "Weather", "weather", "Local forecast", "rain", "Sun");
+        email = mockDefinition("2", "Email Preview", "email-preview", "Your inbox", "mail");
+        calendar = mockDefinition("3", "Calendar", "calendar", "Events and weather alerts");
+        news = mockDefinition("4", "Campus News", "news", "Headlines from the newspaper");
+        final PortletCategory topLevel = new PortletCategory("local.1");
+        topLevel.setName("All Categories");
+        outdoors = new PortletCategory("local.2");
+        outdoors.setName("Outdoors");
+        when(portletCategoryRegistry.getTopLevelPortletCategory()).thenReturn(topLevel);
+        when(portletCategoryRegistry.getChildCategories(topLevel))
+                .thenReturn(Collections.singleton(outdoors));
+        when(portletCategoryRegistry.getChildPortlets(outdoors))
+                .thenReturn(Collections.singleton(weather));
+        setSnapshot(1, weather, email, calendar, news);
+    }
+
+    @Test
+    public void testRanking() {
+        // Title match ranks above description match
+        assertEquals(Arrays.asList(weather, calendar), portletSearchIndex.search("weather"));
+        // Keywords are searched
+        assertEquals(Arrays.asList(weather), portletSearchIndex.search("rain"));
+        // Text inside a longer word matches
+        assertEquals(Arrays.asList(news), portletSearchIndex.search("paper"));
+        // Every term must match
+        assertEquals(Arrays.asList(email), portletSearchIndex.search("email inbox"));
+        assertEquals(
+                Collections.<IPortletDefinition>emptyList(),
+                portletSearchIndex.search("email weather"));
+        // Category names are searched
+        assertEquals(Arrays.asList(weather), portletSearchIndex.search("outdoors"));
+    }
+
+    @Test
+    public void testQueryWithoutWords() {
+        // Substring match as before the index, an empty query returns every portlet
+        assertEquals(
+                Arrays.asList(calendar, news, email, weather), portletSearchIndex.search(""));
+        assertEquals(Arrays.asList(email), portletSearchIndex.search("-"));
+        assertEquals(Collections.<IPortletDefinition>emptyList(), portletSearchIndex.search(" - "));
+    }
+
+    @Test
+    public void testPrefixAndTypos() {
+        // Prefix of a title word ranks above the same text inside a description word
+        assertEquals(Arrays.asList(calendar, weather), portletSearchIndex.search("cal"));
+        assertEquals(Arrays.asList(calendar), portletSearchIndex.search("calender"));
+        assertEquals(Arrays.asList(weather, calendar), portletSearchIndex.search("wether"));
+        // Short terms are not typo-tolerant
+        assertEquals(Collections.<IPortletDefinition>emptyList(), portletSearchIndex.search("xun"));
+    }
+
+    @Test
+    public void testFindsEveryLegacyMatch() {
+        for (String query : Arrays.asList("eat", "mail prev", "-prev", "WS", "local fore")) {
+            final List<IPortletDefinition> expected = new ArrayList<>();
+            for (IPortletDefinition portlet : Arrays.asList(weather, email, calendar, news)) {
+                if (PortletRegistryUtil.matches(query.toLowerCase(), portlet)) {
+                    expected.add(portlet);
+                }
+            }
+            assertTrue(query, portletSearchIndex.search(query).containsAll(expected));
+        }
+    }
+
+    @Test
+    public void testRebuild() {
+        final PortletSearchIndex.Index first = portletSearchIndex.getIndex();
+        assertSame(first, portletSearchIndex.getIndex());
+
+        final IPortletDefinition library =
+                mockDefinition("5", "Library", "library", "Search the catalog");
+        setSnapshot(2, weather, email, calendar, news, library);
+        assertEquals(Arrays.asList(library), portletSearchIndex.search("catalog"));
+        assertTrue(portletSearchIndex.getIndex() != first);
+
+        setSnapshot(3, weather, email, calendar, news);
+        assertEquals(
+                Collections.<IPortletDefinition>emptyList(), portletSearchIndex.search("catalog"));
+
+        portletSearchIndex.setMaxAge(0);
+        setSnapshot(4, weather, email, calendar, news);
+        final PortletSearchIndex.Index expired = portletSearchIndex.getIndex();
+        final PortletSearchIndex.Index refreshed = portletSearchIndex.getIndex();
+        assertTrue(refreshed != expired);
+        // Nothing changed, the words are not indexed again
+        assertTrue(refreshed.sharesWordsWith(expired));
+
+        // Category membership changed without saving a definition
+        when(portletCategoryRegistry.getChildPortlets(outdoors))
+                .thenReturn(new HashSet<>(Arrays.asList(weather, news)));
+        assertEquals(Arrays.asList(news, weather), portletSearchIndex.search("outdoors"));
+        assertTrue(!portletSearchIndex.getIndex().sharesWordsWith(refreshed));
+
+        // Categories are read with one walk of the category tree, not per definition
+        verify(portletCategoryRegistry, never()).getParentCategories(any(IPortletDefinition.class));
+    }
+
+    @Test
+    public void testInfixAndTypoLookups() {
+        // Infix matches are found through the word suffixes
+        assertEquals(Arrays.asList(email), portletSearchIndex.search("nbox"));
+        assertEquals(Arrays.asList(weather, calendar), portletSearchIndex.search("eather"));
+        // One edit: deletion, insertion and substitution
+        assertEquals(Arrays.asList(news), portletSearchIndex.search("headines"));
+        assertEquals(Arrays.asList(news), portletSearchIndex.search("headlinnes"));
+        assertEquals(Arrays.asList(news), portletSearchIndex.search("headlimes"));
+        // Transpositions are two edits
+        assertEquals(
+                Collections.<IPortletDefinition>emptyList(),
+                portletSearchIndex.search("haedlines"));
+    }
+
+    @Test
+    public void testIsOneEditApart() {
+        assertTrue(PortletSearchIndex.isOneEditApart("calendar", "calender"));
+        assertTrue(PortletSearchIndex.isOneEditApart("weather", "wether"));
+        assertTrue(PortletSearchIndex.isOneEditApart("news", "newsy"));
+        assertTrue(!PortletSearchIndex.isOneEditApart("news", "wens"));
+        assertTrue(!PortletSearchIndex.isOneEditApart("mail", "email1"));
+    }
+
+    private void setSnapshot(long version, IPortletDefinition... portlets) {
+        final PortletDefinitionSnapshot snapshot =
+                new PortletDefinitionSnapshot(version, Arrays.asList(portlets));
+        when(portletDefinitionRegistry.getPortletDefinitionSnapshot()).thenReturn(snapshot);
+    }
+
+    private IPortletDefinition mockDefinition(
+            String id, String title, String fname, String description, String... keywords) {
+        final IPortletDefinitionId definitionId = mock(IPortletDefinitionId.class);
+        when(definitionId.getStringId()).thenReturn(id);
+        final IPortletDefinition rslt = mock(IPortletDefinition.class);
+        when(rslt.getPortletDefinitionId()).thenReturn(definitionId);
+        when(rslt.getType()).thenReturn(portletType);
+        when(rslt.getTitle()).thenReturn(title);
+        when(rslt.getName()).thenReturn(title);
+        when(rslt.getFName()).thenReturn(fname);
+        when(rslt.getDescription()).thenReturn(description);
+        final List<IPortletPreference> prefs = new ArrayList<>();
+        if (keywords.length != 0) {
+            final IPortletPreference pref = mock(IPortletPreference.class);
+            when(pref.getName()).thenReturn("keywords");
+            when(pref.getValues()).thenReturn(keywords);
+            prefs.add(pref);
+        }
+        when(rslt.getPortletPreferences()).thenReturn(prefs);
+        return rslt;
+    }
+}
@@ -18,10 +18,21 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.xml.transform.OutputKeys;
+import org.apereo.portal.character.stream.CharacterEventBufferReader;
+import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
+import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.events.IPortletExecutionEventFactory;
 import org.apereo.portal.url.IUrlSyntaxProvider;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 /** Unit tests for DynamicRenderingPipeline. */
 public class DynamicRenderingPipelineTest {
@@ -30,6 +41,8 @@ public class DynamicRenderingPipelineTest {
 
     @Mock CharacterPipelineComponent characterPipelineComponent;
 
+    @Mock IPortletExecutionEventFactory portalEventFactory;
+
     @Before
     public void beforeTests() {
         initMocks(this);
@@ -54,4 +67,97 @@ public class DynamicRenderingPipelineTest {
 
         assertEquals(friendlyToString, dynamicRenderingPipeline.toString());
     }
+
+    @Test
+    public void flushesEveryEvent() throws Exception {
+        final RenderedPageStatistics statistics =
+                render(
+                        DynamicRenderingPipeline.OutputStrategy.FLUSH_EVERY_EVENT,
+                        "<html><head><title>");
+
+        assertEquals(4, statistics.getLastFlushCount().getLastSample());
+    }
+
+    @Test
+    public void coalescesOutput() throws Exception {
+        final RenderedPageStatistics statistics =
+                render(DynamicRenderingPipeline.OutputStrategy.COALESCE, "<html><head><title>");
+
+        // After the head tag and at the end of the page
+        assertEquals(2, statistics.getLastFlushCount().getLastSample());
+        assertEquals(
+                "<html><head><title>caf\u00e9</title></head><body></body></html>".length() + 1,
+                statistics.getLastBytesWritten().getLastSample());
+        assertEquals(1, statistics.getLastTimeToFirstByte().getTotalSamples());
+    }
+
+    @Test
+    public void flushesAfterHeadTagSplitAcrossEvents() throws Exception {
+        final RenderedPageStatistics statistics =
+                render(
+                        DynamicRenderingPipeline.OutputStrategy.COALESCE,
+                        "<html><he",
+                        "ad lang=\"en\"",
+                        "><title>");
+
+        assertEquals(2, statistics.getLastFlushCount().getLastSample());
+    }
+
+    @Test
+    public void findsHeadTagEnd() {
+        assertEquals(12, DynamicRenderingPipeline.getHeadTagEnd("<html><head><title>"));
+        assertEquals(22, DynamicRenderingPipeline.getHeadTagEnd("<html><head lang=\"en\"><title>"));
+        assertEquals(-1, DynamicRenderingPipeline.getHeadTagEnd("<header><title>"));
+        assertEquals(-1, DynamicRenderingPipeline.getHeadTagEnd("<html><head"));
+        assertEquals(7, DynamicRenderingPipeline.getHeadTagEnd("<<head>"));
+    }
+
+    @Test
+    public void findsHeadTagEndAcrossData() {
+        final DynamicRenderingPipeline.HeadTagScanner scanner =
+                new DynamicRenderingPipeline.HeadTagScanner();
+        assertEquals(-1, scanner.scan("<html><he"));
+        assertEquals(-1, scanner.scan("ad"));
+        assertEquals(1, scanner.scan("><title>"));
+
+        final DynamicRenderingPipeline.HeadTagScanner headerScanner =
+                new DynamicRenderingPipeline.HeadTagScanner();
+        assertEquals(-1, headerScanner.scan("<html><head"));
+        assertEquals(-1, headerScanner.scan("er><title>"));
+    }
+
+    private RenderedPageStatistics render(
+            DynamicRenderingPipeline.OutputStrategy outputStrategy, String... start)
+            throws Exception {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        final List<CharacterEvent> events = new ArrayList<CharacterEvent>();
+        for (final String data : start) {
+            events.add(CharacterDataEventImpl.create(data));
+        }
+        events.add(CharacterDataEventImpl.create("caf\u00e9"));
+        events.add(CharacterDataEventImpl.create("</title></head><body>"));
+        events.add(CharacterDataEventImpl.create("</body></html>"));
+        final PipelineEventReader<CharacterEventReader, CharacterEvent> eventReader =
+                new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(
+                        new CharacterEventBufferReader(events.listIterator()),
+                        Collections.singletonMap(OutputKeys.MEDIA_TYPE, "text/html"));
+        when(characterPipelineComponent.getEventReader(request, response)).thenReturn(eventReader);
+
+        final DynamicRenderingPipeline dynamicRenderingPipeline = new DynamicRenderingPipeline();
+        dynamicRenderingPipeline.setUrlSyntaxProvider(urlSyntaxProvider);
+        dynamicRenderingPipeline.setPortalEventFactory(portalEventFactory);
+        dynamicRenderingPipeline.setPipeline(characterPipelineComponent);
+        dynamicRenderingPipeline.setOutputStrategy(outputStrategy);
+        final RenderedPageStatistics statistics = new RenderedPageStatistics();
+        dynamicRenderingPipeline.setRenderedPageStatistics(statistics);
+        dynamicRenderingPipeline.renderState(request, response);
+
+        assertEquals(
+                String.join("", start) + "caf\u00e9</title></head><body></body></html>",
+                response.getContentAsString());
+        assertNull(RenderedPageOutput.getRenderedPageOutput(request));
+        return statistics;
+    }
 }
@@ -0,0 +1,295 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.apereo.portal.events.IPortletExecutionEventFactory;
+import org.apereo.portal.layout.IStylesheetUserPreferencesService;
+import org.apereo.portal.portlet.om.IPortletDefinitionId;
+import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.security.IPersonManager;
+import org.apereo.portal.url.IPortalRequestInfo;
+import org.apereo.portal.url.IUrlSyntaxProvider;
+import org.apereo.portal.url.UrlType;
+import org.apereo.portal.utils.cache.CacheKey;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.web.csrf.CsrfToken;
+import org.springframework.security.web.csrf.DefaultCsrfToken;
+
+public class GuestPageCachingRenderingPipelineTest {
+    private static final String PAGE = "<html><head><title>caf\u00e9</title></head></html>";
+
+    @Mock private IPortalRenderingPipeline renderingPipeline;
+    @Mock private CharacterPipelineComponent pipeline;
+    @Mock private IPersonManager personManager;
+    @Mock private IPerson person;
+    @Mock private IUrlSyntaxProvider urlSyntaxProvider;
+    @Mock private IPortalRequestInfo portalRequestInfo;
+    @Mock private IStylesheetUserPreferencesService stylesheetUserPreferencesService;
+    @Mock private IPortletExecutionEventFactory portalEventFactory;
+
+    private CacheManager cacheManager;
+    private GuestPageCachingRenderingPipeline guestPageCachingRenderingPipeline;
+    private boolean publicScope = true;
+    private String pageSuffix;
+
+    @Before
+    public void setUp() throws Exception {
+        initMocks(this);
+
+        cacheManager = new CacheManager(new Configuration().name("guestPageCacheTest"));
+        final Cache cache = new Cache(new CacheConfiguration("guestPage", 100));
+        cacheManager.addCache(cache);
+
+        when(personManager.getPerson(any(HttpServletRequest.class))).thenReturn(person);
+        when(person.isGuest()).thenReturn(true);
+        when(person.getUserName()).thenReturn("guest");
+        when(urlSyntaxProvider.getPortalRequestInfo(any(HttpServletRequest.class)))
+                .thenReturn(portalRequestInfo);
+        when(urlSyntaxProvider.getCanonicalUrl(any(HttpServletRequest.class)))
+                .thenReturn("/uPortal/f/welcome/normal/render.uP");
+        when(portalRequestInfo.getUrlType()).thenReturn(UrlType.RENDER);
+        doReturn(Collections.emptyMap()).when(portalRequestInfo).getPortletRequestInfoMap();
+        when(pipeline.getCacheKey(any(HttpServletRequest.class), any(HttpServletResponse.class)))
+                .thenReturn(CacheKey.build("layout", 1));
+
+        final IPortletDefinitionId portletDefinitionId = mock(IPortletDefinitionId.class);
+        doAnswer(
+                        new Answer<Void>() {
+                            @Override
+                            public Void answer(InvocationOnMock invocation) throws Throwable {
+                                final HttpServletRequest req =
+                                        (HttpServletRequest) invocation.getArguments()[0];
+                                final HttpServletResponse res =
+                                        (HttpServletResponse) invocation.getArguments()[1];
+                                final RenderedPageCacheState renderedPageCacheState =
+                                        RenderedPageCacheState.getRenderedPageCacheState(req);
+                                if (renderedPageCacheState != null) {
+                                    renderedPageCacheState.addPortletOutput(
+                                            "portlet", portletDefinitionId, publicScope, -1);
+                                }
+                                final String csrfToken =
+                                        GuestPageCachingRenderingPipeline.getCsrfToken(req);
+                                res.setContentType("text/html; charset=UTF-8");
+                                res.getWriter().write(csrfToken == null ? PAGE : PAGE + csrfToken);
+                                if (pageSuffix != null) {
+                                    res.getWriter().write(pageSuffix);
+                                }
+                                res.getWriter().flush();
+                                return null;
+                            }
+                        })
+                .when(renderingPipeline)
+                .renderState(any(HttpServletRequest.class), any(HttpServletResponse.class));
+
+        guestPageCachingRenderingPipeline = new GuestPageCachingRenderingPipeline();
+        guestPageCachingRenderingPipeline.setRenderingPipeline(renderingPipeline);
+        guestPageCachingRenderingPipeline.setPipeline(pipeline);
+        guestPageCachingRenderingPipeline.setCache(cache);
+        guestPageCachingRenderingPipeline.setPersonManager(personManager);
+        guestPageCachingRenderingPipeline.setUrlSyntaxProvider(urlSyntaxProvider);
+        guestPageCachingRenderingPipeline.setStylesheetUserPreferencesService(
+                stylesheetUserPreferencesService);
+        guestPageCachingRenderingPipeline.setPortalEventFactory(portalEventFactory);
+    }
+
+    @After
+    public void tearDown() {
+        cacheManager.shutdown();
+    }
+
+    @Test
+    public void servesCachedPage() throws Exception {
+        final MockHttpServletResponse first = render(null, null);
+        assertEquals(PAGE, first.getContentAsString());
+        assertNotNull(first.getHeader("ETag"));
+
+        final MockHttpServletResponse second = render(null, null);
+        assertEquals(PAGE, second.getContentAsString());
+        assertEquals("text/html; charset=UTF-8", second.getContentType());
+        assertEquals(first.getHeader("ETag"), second.getHeader("ETag"));
+
+        verify(renderingPipeline, times(1))
+                .renderState(any(HttpServletRequest.class), any(HttpServletResponse.class));
+    }
+
+    @Test
+    public void servesConditionalGet() throws Exception {
+        final String etag = (String) render(null, null).getHeader("ETag");
+
+        final MockHttpServletResponse response = render(etag, null);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        assertEquals("", response.getContentAsString());
+    }
+
+    @Test
+    public void servesCompressedPage() throws Exception {
+        render(null, null);
+        final MockHttpServletResponse response = render(null, "gzip, deflate");
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+
+        final StringBuilder content = new StringBuilder();
+        try (Reader reader =
+                new InputStreamReader(
+                        new GZIPInputStream(
+                                new ByteArrayInputStream(response.getContentAsByteArray())),
+                        "UTF-8")) {
+            for (int c = reader.read(); c >= 0; c = reader.read()) {
+                content.append((char) c);
+            }
+        }
+        assertEquals(PAGE, content.toString());
+    }
+
+    @Test
+    public void servesCachedPageWithSessionCsrfToken() throws Exception {
+        final MockHttpServletResponse first = render("token-1");
+        assertEquals(PAGE + "token-1", first.getContentAsString());
+
+        final MockHttpServletResponse second = render("token-2");
+        assertEquals(PAGE + "token-2", second.getContentAsString());
+        assertNotEquals(first.getHeader("ETag"), second.getHeader("ETag"));
+
+        verify(renderingPipeline, times(1))
+                .renderState(any(HttpServletRequest.class), any(HttpServletResponse.class));
+    }
+
+    @Test
+    public void rendersCsrfTokenBoundPageWithoutToken() throws Exception {
+        render("token-1");
+        assertEquals(PAGE, render(null, null).getContentAsString());
+
+        verify(renderingPipeline, times(2))
+                .renderState(any(HttpServletRequest.class), any(HttpServletResponse.class));
+    }
+
+    @Test
+    public void doesNotCacheSessionIds() throws Exception {
+        final MockHttpSession session = new MockHttpSession();
+        pageSuffix = ";jsessionid=" + session.getId();
+
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/render.uP");
+        request.setSession(session);
+        guestPageCachingRenderingPipeline.renderState(request, new MockHttpServletResponse());
+        render(null, null);
+
+        verify(renderingPipeline, times(2))
+                .renderState(any(HttpServletRequest.class), any(HttpServletResponse.class));
+    }
+
+    @Test
+    public void doesNotCachePrivatePortlets() throws Exception {
+        publicScope = false;
+        render(null, null);
+        assertEquals(PAGE, render(null, null).getContentAsString());
+
+        verify(renderingPipeline, times(2))
+                .renderState(any(HttpServletRequest.class), any(HttpServletResponse.class));
+    }
+
+    @Test
+    public void doesNotCacheAuthenticatedUsers() throws Exception {
+        when(person.isGuest()).thenReturn(false);
+        render(null, null);
+        render(null, null);
+
+        verify(renderingPipeline, times(2))
+                .renderState(any(HttpServletRequest.class), any(HttpServletResponse.class));
+    }
+
+    @Test
+    public void bypassesSessionAfterTargetedRender() throws Exception {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/render.uP");
+        when(portalRequestInfo.getTargetedPortletWindowId())
+                .thenReturn(mock(IPortletWindowId.class));
+        guestPageCachingRenderingPipeline.renderState(request, new MockHttpServletResponse());
+
+        // The same session is not served cached pages once its portlet state has changed
+        when(portalRequestInfo.getTargetedPortletWindowId()).thenReturn(null);
+        final MockHttpServletRequest next = new MockHttpServletRequest("GET", "/render.uP");
+        next.setSession(request.getSession());
+        guestPageCachingRenderingPipeline.renderState(next, new MockHttpServletResponse());
+        guestPageCachingRenderingPipeline.renderState(next, new MockHttpServletResponse());
+
+        verify(renderingPipeline, times(3))
+                .renderState(any(HttpServletRequest.class), any(HttpServletResponse.class));
+    }
+
+    @Test
+    public void matchesEtags() {
+        assertTrue(GuestPageCachingRenderingPipeline.isEtagMatch("\"a\"", "\"a\""));
+        assertTrue(GuestPageCachingRenderingPipeline.isEtagMatch("\"b\", W/\"a\"", "\"a\""));
+        assertTrue(GuestPageCachingRenderingPipeline.isEtagMatch("*", "\"a\""));
+        assertFalse(GuestPageCachingRenderingPipeline.isEtagMatch("\"b\"", "\"a\""));
+        assertFalse(GuestPageCachingRenderingPipeline.isEtagMatch(null, "\"a\""));
+    }
+
+    private MockHttpServletResponse render(String ifNoneMatch, String acceptEncoding)
+            throws Exception {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/render.uP");
+        if (ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        if (acceptEncoding != null) {
+            request.addHeader("Accept-Encoding", acceptEncoding);
+        }
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        guestPageCachingRenderingPipeline.renderState(request, response);
+        return response;
+    }
+
+    private MockHttpServletResponse render(String csrfToken) throws Exception {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/render.uP");
+        request.setAttribute(
+                CsrfToken.class.getName(),
+                new DefaultCsrfToken("X-CSRF-TOKEN", "_csrf", csrfToken));
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        guestPageCachingRenderingPipeline.renderState(request, response);
+        return response;
+    }
+}
@@ -71,6 +71,15 @@ public class StAXSerializingComponentTest {
 
     @Test
     public void testSerializing() throws Exception {
+        this.assertSerializedEvents(false);
+    }
+
+    @Test
+    public void testStreamingSerializing() throws Exception {
+        this.assertSerializedEvents(true);
+    }
+
+    private void assertSerializedEvents(boolean streaming) throws Exception {
         final MockHttpServletRequest request = new MockHttpServletRequest();
         final MockHttpServletResponse response = new MockHttpServletResponse();
         final IPortletWindowRegistry portletWindowRegistry = mock(IPortletWindowRegistry.class);
@@ -80,6 +89,7 @@ public class StAXSerializingComponentTest {
         // Setup a simple pass-through parent
         staxSerializingComponent.setWrappedComponent(new SimpleStAXSource());
         staxSerializingComponent.setXmlUtilities(xmlUtilities);
+        staxSerializingComponent.setStreaming(streaming);
 
         final IPortletWindow portletWindow = mock(IPortletWindow.class);
         when(portletWindowRegistry.getPortletWindow(
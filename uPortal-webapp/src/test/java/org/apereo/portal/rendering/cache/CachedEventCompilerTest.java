@@ -0,0 +1,146 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
+import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.character.stream.events.CharacterEventTypes;
+import org.junit.Test;
+
+public class CachedEventCompilerTest {
+    private static final String LAYOUT =
+            "<layout xmlns:dlm=\"http://www.uportal.org/layout/dlm\">"
+                    + "<folder ID=\"s1\" type=\"regular\" dlm:deleteAllowed=\"false\">"
+                    + "<name>Home</name></folder>"
+                    + "<folder ID=\"s2\" type=\"regular\" dlm:deleteAllowed=\"false\">"
+                    + "<name><![CDATA[Wel]]>come</name></folder>"
+                    + "</layout>";
+
+    @Test
+    public void testXMLEventCompiler() throws Exception {
+        final CachedEventReader<XMLEvent> cachedEventReader = compile(LAYOUT);
+        final List<XMLEvent> events = cachedEventReader.getEventCache();
+
+        assertEquals(LAYOUT, serialize(events));
+        assertTrue(cachedEventReader.getEstimatedSize() > 0);
+
+        // Equal attributes and end elements are shared, within and between entries
+        final QName type = new QName("type");
+        final StartElement folder1 = events.get(2).asStartElement();
+        final StartElement folder2 = events.get(7).asStartElement();
+        assertSame(folder1.getAttributeByName(type), folder2.getAttributeByName(type));
+        assertSame(folder1.getName().getLocalPart(), folder2.getName().getLocalPart());
+        assertSame(events.get(6), events.get(12));
+        assertSame(events.get(6), compile(LAYOUT).getEventCache().get(6));
+    }
+
+    @Test
+    public void testXMLEventCompilerMergesCharacters() throws Exception {
+        final XMLEventFactory eventFactory = XMLEventFactory.newFactory();
+        final XMLEventCompiler eventCompiler = new XMLEventCompiler();
+        eventCompiler.add(eventFactory.createStartElement("", "", "name"));
+        eventCompiler.add(eventFactory.createCharacters("Wel"));
+        eventCompiler.add(eventFactory.createCharacters("co"));
+        eventCompiler.add(eventFactory.createCharacters("me"));
+        eventCompiler.add(eventFactory.createCData(" & "));
+        eventCompiler.add(eventFactory.createCharacters("Hello"));
+        eventCompiler.add(eventFactory.createEndElement("", "", "name"));
+
+        final CachedEventReader<XMLEvent> cachedEventReader =
+                eventCompiler.compile(Collections.<String, String>emptyMap());
+        final List<XMLEvent> events = cachedEventReader.getEventCache();
+
+        assertEquals(7, cachedEventReader.getSourceEventCount());
+        assertEquals(5, events.size());
+        assertEquals("Welcome", events.get(1).asCharacters().getData());
+        assertTrue(events.get(2).asCharacters().isCData());
+        assertEquals("Hello", events.get(3).asCharacters().getData());
+    }
+
+    @Test
+    public void testCharacterEventCompiler() {
+        final CharacterEvent placeholderEvent =
+                new CharacterEvent() {
+                    @Override
+                    public CharacterEventTypes getEventType() {
+                        return CharacterEventTypes.PORTLET_CONTENT;
+                    }
+                };
+
+        final CharacterEventCompiler eventCompiler = new CharacterEventCompiler();
+        eventCompiler.add(CharacterDataEventImpl.create("<html><head>"));
+        eventCompiler.add(CharacterDataEventImpl.create("<title>"));
+        eventCompiler.add(placeholderEvent);
+        eventCompiler.add(CharacterDataEventImpl.create("</title>"));
+        eventCompiler.add(CharacterDataEventImpl.EMPTY_CHARACTER_DATA);
+        eventCompiler.add(CharacterDataEventImpl.create("admin"));
+        eventCompiler.add(CharacterDataEventImpl.EMPTY_CHARACTER_DATA);
+
+        final CachedEventReader<CharacterEvent> cachedEventReader =
+                eventCompiler.compile(Collections.<String, String>emptyMap());
+        final List<CharacterEvent> events = cachedEventReader.getEventCache();
+
+        assertEquals(7, cachedEventReader.getSourceEventCount());
+        assertEquals(6, events.size());
+        assertSame(CharacterDataEventImpl.create("<html><head><title>"), events.get(0));
+        assertSame(placeholderEvent, events.get(1));
+        assertSame(CharacterDataEventImpl.create("</title>"), events.get(2));
+
+        // Chunk points are kept so that user specific data is not merged with shared data
+        assertSame(CharacterDataEventImpl.EMPTY_CHARACTER_DATA, events.get(3));
+        assertSame(CharacterDataEventImpl.create("admin"), events.get(4));
+    }
+
+    private static CachedEventReader<XMLEvent> compile(String xml) throws Exception {
+        final XMLInputFactory inputFactory = XMLInputFactory.newFactory();
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        final XMLEventReader eventReader = inputFactory.createXMLEventReader(new StringReader(xml));
+
+        final XMLEventCompiler eventCompiler = new XMLEventCompiler();
+        while (eventReader.hasNext()) {
+            eventCompiler.add(eventReader.nextEvent());
+        }
+        return eventCompiler.compile(Collections.<String, String>emptyMap());
+    }
+
+    private static String serialize(List<XMLEvent> events) throws Exception {
+        final StringWriter writer = new StringWriter();
+        final XMLEventWriter eventWriter =
+                XMLOutputFactory.newFactory().createXMLEventWriter(writer);
+        for (final XMLEvent event : events) {
+            if (!event.isStartDocument() && !event.isEndDocument()) {
+                eventWriter.add(event);
+            }
+        }
+        eventWriter.flush();
+        return writer.toString();
+    }
+}
@@ -86,7 +86,8 @@ public class CachingStAXPipelineComponentTest {
         final MockHttpServletResponse mockRes = new MockHttpServletResponse();
         final CacheKey cacheKey = CacheKey.build("testCacheKey");
         final CachedEventReader<XMLEvent> eventReader =
-                new CachedEventReader<XMLEvent>(Collections.EMPTY_LIST, Collections.EMPTY_MAP);
+                new CachedEventReader<XMLEvent>(
+                        Collections.EMPTY_LIST, Collections.EMPTY_MAP, 0, 0);
         final Element cacheElement = new Element(cacheKey, eventReader);
 
         final Ehcache cache = createMock(Ehcache.class);
@@ -0,0 +1,271 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.security.provider;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.groups.IGroupMember;
+import org.apereo.portal.permission.IPermissionActivity;
+import org.apereo.portal.permission.IPermissionOwner;
+import org.apereo.portal.permission.target.IPermissionTarget;
+import org.apereo.portal.security.IAuthorizationPrincipal;
+import org.apereo.portal.security.IAuthorizationService;
+import org.apereo.portal.security.IPermission;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class EffectivePermissionSnapshotTest {
+
+    private static final String OWNER = "UP_PORTLET_SUBSCRIBE";
+    private static final String ACTIVITY = "BROWSE";
+
+    private IAuthorizationService service;
+    private final Map<IAuthorizationPrincipal, List<IPermission>> permissions = new HashMap<>();
+    private final Map<IAuthorizationPrincipal, IEntityGroup> groups = new HashMap<>();
+
+    private IAuthorizationPrincipal user;
+    private IGroupMember userMember;
+    private IPermissionOwner owner;
+    private IPermissionActivity activity;
+
+    @Before
+    public void setUp() {
+        service = mock(IAuthorizationService.class);
+        when(service.getPermissionsForPrincipal(
+                        any(IAuthorizationPrincipal.class), anyString(), anyString(), anyString()))
+                .thenAnswer(
+                        new Answer<IPermission[]>() {
+                            @Override
+                            public IPermission[] answer(InvocationOnMock invocation) {
+                                final Object[] args = invocation.getArguments();
+                                final List<IPermission> rslt = new ArrayList<>();
+                                for (IPermission p : getPermissions(args[0])) {
+                                    if (p.getOwner().equals(args[1])
+                                            && p.getActivity().equals(args[2])
+                                            && p.getTarget().equals(args[3])) {
+                                        rslt.add(p);
+                                    }
+                                }
+                                return rslt.toArray(new IPermission[rslt.size()]);
+                            }
+                        });
+        when(service.getPermissionsForPrincipal(
+                        any(IAuthorizationPrincipal.class),
+                        (String) isNull(),
+                        (String) isNull(),
+                        (String) isNull()))
+                .thenAnswer(
+                        new Answer<IPermission[]>() {
+                            @Override
+                            public IPermission[] answer(InvocationOnMock invocation) {
+                                final List<IPermission> rslt =
+                                        getPermissions(invocation.getArguments()[0]);
+                                return rslt.toArray(new IPermission[rslt.size()]);
+                            }
+                        });
+
+        user = mock(IAuthorizationPrincipal.class);
+        userMember = mock(IGroupMember.class);
+        when(service.getGroupMember(user)).thenReturn(userMember);
+        when(userMember.getParentGroups()).thenReturn(Collections.<IEntityGroup>emptySet());
+
+        owner = mock(IPermissionOwner.class);
+        when(owner.getFname()).thenReturn(OWNER);
+        activity = mock(IPermissionActivity.class);
+        when(activity.getFname()).thenReturn(ACTIVITY);
+    }
+
+    @Test
+    public void testExplicitGrant() {
+        permit(user, IPermission.PERMISSION_TYPE_GRANT, "PORTLET_ID.1");
+        final EffectivePermissionSnapshot snapshot = build();
+        Assert.assertTrue(
+                snapshot.hasUnblockedPathToGrant(service, owner, activity, target("PORTLET_ID.1")));
+        Assert.assertFalse(
+                snapshot.hasUnblockedPathToGrant(service, owner, activity, target("PORTLET_ID.2")));
+    }
+
+    @Test
+    public void testDenyBlocksInheritedGrant() {
+        // user -- small (DENY) -- bigger (GRANT)
+        final IAuthorizationPrincipal small = addParent(userMember, "small");
+        final IAuthorizationPrincipal bigger = addParent(memberOf(small), "bigger");
+        permit(small, IPermission.PERMISSION_TYPE_DENY, "PORTLET_ID.1");
+        permit(bigger, IPermission.PERMISSION_TYPE_GRANT, "PORTLET_ID.1");
+        permit(bigger, IPermission.PERMISSION_TYPE_GRANT, "PORTLET_ID.2");
+
+        final EffectivePermissionSnapshot snapshot = build();
+        Assert.assertFalse(
+                snapshot.hasUnblockedPathToGrant(service, owner, activity, target("PORTLET_ID.1")));
+        Assert.assertTrue(
+                snapshot.hasUnblockedPathToGrant(service, owner, activity, target("PORTLET_ID.2")));
+    }
+
+    @Test
+    public void testAnyUnblockedPathGrants() {
+        // user -- small (DENY) -- bigger (GRANT)
+        // user -- other -- biggerOther (GRANT)
+        final IAuthorizationPrincipal small = addParent(userMember, "small");
+        final IAuthorizationPrincipal bigger = addParent(memberOf(small), "bigger");
+        final IAuthorizationPrincipal other = addParent(userMember, "other");
+        final IAuthorizationPrincipal biggerOther = addParent(memberOf(other), "biggerOther");
+        permit(small, IPermission.PERMISSION_TYPE_DENY, "PORTLET_ID.1");
+        permit(bigger, IPermission.PERMISSION_TYPE_GRANT, "PORTLET_ID.1");
+        permit(biggerOther, IPermission.PERMISSION_TYPE_GRANT, "PORTLET_ID.1");
+
+        final EffectivePermissionSnapshot snapshot = build();
+        Assert.assertTrue(
+                snapshot.hasUnblockedPathToGrant(service, owner, activity, target("PORTLET_ID.1")));
+    }
+
+    @Test
+    public void testAnswersAreRemembered() {
+        final IAuthorizationPrincipal group = addParent(userMember, "group");
+        final IAuthorizationPrincipal unrelated = addParent(userMember, "unrelated");
+        permit(group, IPermission.PERMISSION_TYPE_GRANT, "PORTLET_ID.1");
+        permission(
+                unrelated, IPermission.PERMISSION_TYPE_GRANT, OWNER, "SUBSCRIBE", "PORTLET_ID.1");
+
+        final EffectivePermissionSnapshot snapshot = build();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(
+                    snapshot.hasUnblockedPathToGrant(
+                            service, owner, activity, target("PORTLET_ID.1")));
+        }
+        verify(service, times(1))
+                .getPermissionsForPrincipal(group, OWNER, ACTIVITY, "PORTLET_ID.1");
+        // Groups without permissions for the owner/activity are never consulted
+        verify(service, times(0))
+                .getPermissionsForPrincipal(eq(unrelated), eq(OWNER), eq(ACTIVITY), anyString());
+        verify(service, times(0))
+                .getPermissionsForPrincipal(eq(user), eq(OWNER), eq(ACTIVITY), anyString());
+    }
+
+    @Test
+    public void testRememberedAnswersBounded() {
+        permit(user, IPermission.PERMISSION_TYPE_GRANT, "PORTLET_ID.0");
+
+        final EffectivePermissionSnapshot snapshot = build();
+        for (int i = 0; i <= EffectivePermissionSnapshot.MAX_ANSWERS * 2; i++) {
+            snapshot.hasUnblockedPathToGrant(service, owner, activity, target("PORTLET_ID." + i));
+        }
+        verify(service, times(1)).getPermissionsForPrincipal(user, OWNER, ACTIVITY, "PORTLET_ID.0");
+
+        // The oldest answer was evicted and is worked out again
+        Assert.assertTrue(
+                snapshot.hasUnblockedPathToGrant(service, owner, activity, target("PORTLET_ID.0")));
+        verify(service, times(2)).getPermissionsForPrincipal(user, OWNER, ACTIVITY, "PORTLET_ID.0");
+    }
+
+    @Test
+    public void testInactivePermissions() throws Exception {
+        final long now = System.currentTimeMillis();
+        final IPermission expired = permit(user, IPermission.PERMISSION_TYPE_GRANT, "PORTLET_ID.1");
+        when(expired.getExpires()).thenReturn(new Date(now - 1000));
+        final IPermission future = permit(user, IPermission.PERMISSION_TYPE_GRANT, "PORTLET_ID.2");
+        when(future.getEffective()).thenReturn(new Date(now + 60000));
+
+        final EffectivePermissionSnapshot snapshot = build();
+        Assert.assertFalse(snapshot.isExpired());
+        Assert.assertFalse(
+                snapshot.hasUnblockedPathToGrant(service, owner, activity, target("PORTLET_ID.1")));
+        Assert.assertFalse(
+                snapshot.hasUnblockedPathToGrant(service, owner, activity, target("PORTLET_ID.2")));
+
+        // The snapshot must not outlive the moment the future permission takes effect
+        when(future.getEffective()).thenReturn(new Date(now + 50));
+        final EffectivePermissionSnapshot shortLived = build();
+        Thread.sleep(100);
+        Assert.assertTrue(shortLived.isExpired());
+    }
+
+    /*
+     * Implementation
+     */
+
+    private EffectivePermissionSnapshot build() {
+        return EffectivePermissionSnapshot.build(service, user, 300000);
+    }
+
+    private List<IPermission> getPermissions(Object principal) {
+        final List<IPermission> rslt = permissions.get(principal);
+        return rslt != null ? rslt : Collections.<IPermission>emptyList();
+    }
+
+    private IAuthorizationPrincipal addParent(IGroupMember child, String name) {
+        final IEntityGroup group = mock(IEntityGroup.class, name);
+        when(group.getParentGroups()).thenReturn(Collections.<IEntityGroup>emptySet());
+        final IAuthorizationPrincipal principal = mock(IAuthorizationPrincipal.class);
+        when(service.newPrincipal(group)).thenReturn(principal);
+        groups.put(principal, group);
+
+        final LinkedHashSet<IEntityGroup> parents = new LinkedHashSet<>(child.getParentGroups());
+        parents.add(group);
+        when(child.getParentGroups()).thenReturn(parents);
+        return principal;
+    }
+
+    private IGroupMember memberOf(IAuthorizationPrincipal principal) {
+        return groups.get(principal);
+    }
+
+    private IPermission permit(IAuthorizationPrincipal principal, String type, String target) {
+        return permission(principal, type, OWNER, ACTIVITY, target);
+    }
+
+    private IPermission permission(
+            IAuthorizationPrincipal principal,
+            String type,
+            String owner,
+            String activity,
+            String target) {
+        final IPermission rslt = mock(IPermission.class);
+        when(rslt.getType()).thenReturn(type);
+        when(rslt.getOwner()).thenReturn(owner);
+        when(rslt.getActivity()).thenReturn(activity);
+        when(rslt.getTarget()).thenReturn(target);
+        List<IPermission> list = permissions.get(principal);
+        if (list == null) {
+            list = new ArrayList<>();
+            permissions.put(principal, list);
+        }
+        list.add(rslt);
+        return rslt;
+    }
+
+    private IPermissionTarget target(String key) {
+        final IPermissionTarget rslt = mock(IPermissionTarget.class);
+        when(rslt.getKey()).thenReturn(key);
+        return rslt;
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.url;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.apereo.portal.layout.INodeIdResolver;
+import org.apereo.portal.layout.IUserLayout;
+import org.apereo.portal.layout.PortletTabIdResolver;
+import org.apereo.portal.utils.DocumentFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class LayoutNodeIndexTest {
+    private Document layout;
+    private IUserLayout userLayout;
+
+    @Before
+    public void setUp() {
+        layout = DocumentFactory.getThreadDocument();
+        final Element layoutElement = layout.createElement("layout");
+        layout.appendChild(layoutElement);
+        final Element root = folder(layoutElement, "root", "root", "false");
+        folder(root, "s1", "header", "false");
+        final Element home = folder(root, "s2", "regular", "false");
+        final Element column = folder(home, "s3", "regular", "false");
+        channel(column, "n4");
+        final Element hidden = folder(root, "s5", "regular", "true");
+        channel(hidden, "n6");
+        final Element news = folder(root, "s7", "regular", "false");
+        channel(news, "n8");
+        channel(root, "n9");
+
+        userLayout = mock(IUserLayout.class);
+        when(userLayout.findNodeId(any(INodeIdResolver.class)))
+                .thenAnswer(
+                        new Answer<String>() {
+                            @Override
+                            public String answer(InvocationOnMock invocation) {
+                                final INodeIdResolver resolver =
+                                        (INodeIdResolver) invocation.getArguments()[0];
+                                return resolver.traverseDocument(layout);
+                            }
+                        });
+    }
+
+    @Test
+    public void testTabIdMatchesResolver() {
+        final LayoutNodeIndex index = LayoutNodeIndex.get(userLayout);
+        for (final String nodeId :
+                new String[] {"root", "s1", "s2", "s3", "n4", "s5", "n6", "s7", "n8", "n9", "x"}) {
+            assertEquals(
+                    nodeId,
+                    new PortletTabIdResolver(nodeId).traverseDocument(layout),
+                    index.getTabId(nodeId));
+        }
+        assertEquals("s2", index.getTabId("n4"));
+        assertNull(index.getTabId("root"));
+    }
+
+    @Test
+    public void testVisibleTabId() {
+        final LayoutNodeIndex index = LayoutNodeIndex.get(userLayout);
+        assertEquals("s2", index.getVisibleTabId("1"));
+        assertEquals("s7", index.getVisibleTabId("2"));
+        assertNull(index.getVisibleTabId("3"));
+        assertNull(index.getVisibleTabId("0"));
+        assertNull(index.getVisibleTabId("first"));
+    }
+
+    @Test
+    public void testBuiltOncePerLayout() {
+        final LayoutNodeIndex index = LayoutNodeIndex.get(userLayout);
+        assertSame(index, LayoutNodeIndex.get(userLayout));
+        verify(userLayout, times(1)).findNodeId(any(INodeIdResolver.class));
+
+        final IUserLayout changedLayout = mock(IUserLayout.class);
+        assertTrue(index != LayoutNodeIndex.get(changedLayout));
+    }
+
+    private static Element folder(Element parent, String id, String type, String hidden) {
+        final Element folder = parent.getOwnerDocument().createElement("folder");
+        folder.setAttribute("ID", id);
+        folder.setAttribute("type", type);
+        folder.setAttribute("hidden", hidden);
+        parent.appendChild(folder);
+        return folder;
+    }
+
+    private static void channel(Element parent, String id) {
+        final Element channel = parent.getOwnerDocument().createElement("channel");
+        channel.setAttribute("ID", id);
+        parent.appendChild(channel);
+    }
+}
@@ -16,8 +16,15 @@ package org.apereo.portal.url;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.common.collect.ImmutableMap;
+import java.util.Arrays;
+import java.util.Collections;
+import org.apereo.portal.layout.IStylesheetUserPreferencesService;
+import org.apereo.portal.layout.IStylesheetUserPreferencesService.PreferencesScope;
 import org.apereo.portal.mock.portlet.om.MockPortletEntityId;
 import org.apereo.portal.mock.portlet.om.MockPortletWindowId;
 import org.apereo.portal.portlet.om.IPortletDefinition;
@@ -41,6 +48,7 @@ public class SingleTabUrlNodeSyntaxHelperTest {
     @InjectMocks
     private SingleTabUrlNodeSyntaxHelper urlNodeSyntaxHelper = new SingleTabUrlNodeSyntaxHelper();
 
+    @Mock IStylesheetUserPreferencesService stylesheetUserPreferencesService;
     @Mock IUserInstanceManager userInstanceManager;
     @Mock IUserInstance userInstance;
     @Mock IPortletEntityRegistry portletEntityRegistry;
@@ -89,4 +97,39 @@ public class SingleTabUrlNodeSyntaxHelperTest {
         assertNotNull(parsedPortletWindowId);
         assertEquals(portletWindowId, parsedPortletWindowId);
     }
+
+    @Test
+    public void externalIdIndexRebuiltWhenLayoutAttributesChange() {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+
+        when(this.stylesheetUserPreferencesService.getLayoutAttributesCacheKey(
+                        request, PreferencesScope.STRUCTURE))
+                .thenReturn("v1", "v1", "v2");
+        when(this.stylesheetUserPreferencesService.getAllNodesAndValuesForAttribute(
+                        request,
+                        PreferencesScope.STRUCTURE,
+                        SingleTabUrlNodeSyntaxHelper.EXTERNAL_ID_ATTR))
+                .thenReturn(ImmutableMap.of("n1", "home", "n2", "my tab"))
+                .thenReturn(ImmutableMap.of("n3", "home"));
+
+        assertEquals(
+                Arrays.asList("n1"),
+                this.urlNodeSyntaxHelper.getExternalIdIndex(request).getNodeIds("home"));
+        assertEquals(
+                Arrays.asList("n2"),
+                this.urlNodeSyntaxHelper
+                        .getExternalIdIndex(request)
+                        .getNodeIdsForFolderName("my_tab"));
+        verify(this.stylesheetUserPreferencesService, times(1))
+                .getAllNodesAndValuesForAttribute(
+                        request,
+                        PreferencesScope.STRUCTURE,
+                        SingleTabUrlNodeSyntaxHelper.EXTERNAL_ID_ATTR);
+
+        // A layout attribute was changed, the index is rebuilt
+        final SingleTabUrlNodeSyntaxHelper.ExternalIdIndex externalIdIndex =
+                this.urlNodeSyntaxHelper.getExternalIdIndex(request);
+        assertEquals(Arrays.asList("n3"), externalIdIndex.getNodeIds("home"));
+        assertEquals(Collections.emptyList(), externalIdIndex.getNodeIds("my tab"));
+    }
 }
@@ -21,7 +21,6 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
-import com.google.common.base.Function;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import java.util.Arrays;
@@ -32,6 +31,7 @@ import javax.portlet.PortletMode;
 import javax.portlet.ResourceURL;
 import javax.portlet.WindowState;
 import org.apereo.portal.IUserPreferencesManager;
+import org.apereo.portal.layout.INodeIdResolver;
 import org.apereo.portal.layout.IUserLayout;
 import org.apereo.portal.layout.IUserLayoutManager;
 import org.apereo.portal.mock.portlet.om.MockPortletWindowId;
@@ -43,16 +43,20 @@ import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
 import org.apereo.portal.portlet.rendering.IPortletRenderer;
 import org.apereo.portal.user.IUserInstance;
 import org.apereo.portal.user.IUserInstanceManager;
+import org.apereo.portal.utils.DocumentFactory;
 import org.apereo.portal.utils.Tuple;
-import org.apereo.portal.xml.xpath.XPathOperations;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 import org.springframework.mock.web.MockHttpServletRequest;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
 /** Test harness for {@link UrlSyntaxProviderImpl}. */
 @Ignore // Breaks on move to Gradlde
@@ -65,7 +69,6 @@ public class UrlSyntaxProviderImplTest {
     @Mock private IPortalUrlProvider portalUrlProvider;
     @Mock private IPortletEntityRegistry portletEntityRegistry;
     @Mock private IPortletWindowRegistry portletWindowRegistry;
-    @Mock private XPathOperations xpathOperations;
     @Mock private IUserInstanceManager userInstanceManager;
     @Mock private IUserInstance userInstance;
     @Mock private IUserPreferencesManager userPreferencesManager;
@@ -1165,12 +1168,34 @@ public class UrlSyntaxProviderImplTest {
         request.addParameter("activeTab", "1");
 
         when(this.portalRequestUtils.getOriginalPortalRequest(request)).thenReturn(request);
-        when(this.xpathOperations.doWithExpression(
-                        Mockito.eq(
-                                "/layout/folder/folder[@type='regular' and @hidden='false'][position() = $activeTabId]/@ID"),
-                        Mockito.eq(Collections.singletonMap("activeTabId", "1")),
-                        Mockito.<Function>anyObject()))
-                .thenReturn("n12");
+        final Document layout = DocumentFactory.getThreadDocument();
+        final Element layoutElement = layout.createElement("layout");
+        layout.appendChild(layoutElement);
+        final Element rootFolder = layout.createElement("folder");
+        rootFolder.setAttribute("ID", "root");
+        layoutElement.appendChild(rootFolder);
+        for (final String[] tab :
+                new String[][] {
+                    {"n3", "header", "false"},
+                    {"n8", "regular", "true"},
+                    {"n12", "regular", "false"}
+                }) {
+            final Element tabFolder = layout.createElement("folder");
+            tabFolder.setAttribute("ID", tab[0]);
+            tabFolder.setAttribute("type", tab[1]);
+            tabFolder.setAttribute("hidden", tab[2]);
+            rootFolder.appendChild(tabFolder);
+        }
+        when(this.userLayout.findNodeId(Mockito.any(INodeIdResolver.class)))
+                .thenAnswer(
+                        new Answer<String>() {
+                            @Override
+                            public String answer(InvocationOnMock invocation) {
+                                final INodeIdResolver resolver =
+                                        (INodeIdResolver) invocation.getArguments()[0];
+                                return resolver.traverseDocument(layout);
+                            }
+                        });
 
         when(this.userInstanceManager.getUserInstance(request)).thenReturn(userInstance);
         when(userInstance.getPreferencesManager()).thenReturn(userPreferencesManager);